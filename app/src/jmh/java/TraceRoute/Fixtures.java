@@ -0,0 +1,167 @@
+package TraceRoute;
+
+import TraceRoute.osm.ImportOptions;
+import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.shape.Shape;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The checked-in inputs shared by the pipeline benchmarks. Paths are relative to the app directory,
+ * which is where the jmh task runs.
+ * <ul>
+ *     <li>maps/fixture.osm.pbf, a small synthetic extract written by utils/gen-fixture-pbf.py</li>
+ *     <li>pythontests/points, the shape App draws</li>
+ *     <li>the outline of maps/course_m25_boundary.json, used as a second, larger shape</li>
+ * </ul>
+ */
+public final class Fixtures {
+    public static final Path MAP = Path.of("../maps/fixture.osm.pbf");
+    public static final Path POINTS = Path.of("../pythontests/points");
+    public static final Path M25_BOUNDARY = Path.of("../maps/course_m25_boundary.json");
+
+    private static final Pattern COORDINATE = Pattern.compile("\\[\\s*(-?[0-9.]+)\\s*,\\s*(-?[0-9.]+)\\s*]");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Open the fixture map, importing it first if there is no up to date index in the working directory
+     */
+    public static OpenStreetMap openMap() throws IOException {
+        return new OpenStreetMap(MAP.toString());
+    }
+
+    /**
+     * Open the fixture map with the given options, importing it first if there is no up to date index
+     */
+    public static OpenStreetMap openMap(ImportOptions options) throws IOException {
+        return new OpenStreetMap(MAP.toString(), options);
+    }
+
+    /**
+     * Import the fixture map from scratch, deleting any index left by an earlier run
+     */
+    public static OpenStreetMap importMap(ImportOptions options) throws IOException {
+        deleteIndices();
+        return new OpenStreetMap(MAP.toString(), options);
+    }
+
+    /**
+     * Delete the index files the fixture map is imported into
+     */
+    public static void deleteIndices() throws IOException {
+        Files.deleteIfExists(Path.of("fixture.osm.roads"));
+        Files.deleteIfExists(Path.of("fixture.osm.junctions"));
+        Files.deleteIfExists(Path.of("fixture.osm.distance"));
+        Files.deleteIfExists(Path.of("fixture.osm.density"));
+        Files.deleteIfExists(Path.of("fixture.osm.graph"));
+        deleteDirectory(Path.of("fixture.osm.roads.tiles"));
+        deleteDirectory(Path.of("fixture.osm.junctions.tiles"));
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * @param name either "points" or "m25"
+     * @return the vertices of the named shape, in order
+     * @throws IOException if the shape file cannot be read
+     */
+    public static List<Point2D> shape(String name) throws IOException {
+        List<Point2D> points = new ArrayList<>();
+        switch (name) {
+            case "points" -> {
+                for (String line : Files.readAllLines(POINTS)) {
+                    String[] point = line.split(",");
+                    points.add(new Point2D.Double(Double.parseDouble(point[0]), Double.parseDouble(point[1])));
+                }
+            }
+            case "m25" -> {
+                Matcher matcher = COORDINATE.matcher(Files.readString(M25_BOUNDARY));
+                while (matcher.find()) {
+                    points.add(new Point2D.Double(Double.parseDouble(matcher.group(1)), Double.parseDouble(matcher.group(2))));
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown shape %s".formatted(name));
+        }
+        return points;
+    }
+
+    /**
+     * Resample a polyline to a fixed number of vertices, spaced evenly along its length,
+     * so that shapes of different sizes trace the same outline
+     *
+     * @param points the polyline
+     * @param count  number of vertices wanted, at least 2
+     * @return the resampled polyline
+     */
+    public static List<Point2D> resample(List<Point2D> points, int count) {
+        double[] lengths = new double[points.size()];
+        for (int i = 1; i < points.size(); i++) {
+            lengths[i] = lengths[i - 1] + points.get(i).distance(points.get(i - 1));
+        }
+        double total = lengths[lengths.length - 1];
+        List<Point2D> resampled = new ArrayList<>(count);
+        int segment = 1;
+        for (int i = 0; i < count; i++) {
+            double along = total * i / (count - 1);
+            while (segment < points.size() - 1 && lengths[segment] < along) {
+                segment++;
+            }
+            Point2D from = points.get(segment - 1);
+            Point2D to = points.get(segment);
+            double length = lengths[segment] - lengths[segment - 1];
+            double t = length == 0 ? 0 : (along - lengths[segment - 1]) / length;
+            resampled.add(new Point2D.Double(from.getX() + t * (to.getX() - from.getX()), from.getY() + t * (to.getY() - from.getY())));
+        }
+        return resampled;
+    }
+
+    /**
+     * @return the polyline as a path, the way App builds it
+     */
+    public static Path2D path(List<Point2D> points) {
+        return new Shape(new ArrayList<>(points)).getPath();
+    }
+
+    /**
+     * The largest scale factor at which the shape still fits on the map, worked out as {@link TraceRoute.ea.Conductor} does
+     */
+    public static double maxScaleFactor(OpenStreetMap map, Path2D shape) {
+        Rectangle mapBounds = map.getBounds();
+        Rectangle2D shapeBounds = shape.getBounds2D();
+        return Math.min(
+                Math.abs(mapBounds.x2() - mapBounds.x1()) / shapeBounds.getWidth(),
+                Math.abs(mapBounds.y2() - mapBounds.y1()) / shapeBounds.getHeight()
+        );
+    }
+
+    /**
+     * @return the centre of the map, in metres in its projection
+     */
+    public static Point2D.Double centre(OpenStreetMap map) {
+        Rectangle bounds = map.getBounds();
+        return new Point2D.Double((bounds.x1() + bounds.x2()) / 2, (bounds.y1() + bounds.y2()) / 2);
+    }
+}
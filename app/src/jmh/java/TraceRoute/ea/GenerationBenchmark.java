@@ -0,0 +1,44 @@
+package TraceRoute.ea;
+
+import TraceRoute.Fixtures;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One generation of the evolutionary search, on the fixture map with the pythontests/points shape.
+ * The initial population is bred once per trial, so each measured call continues from the last generation.
+ * Run with several thread counts to see how a generation scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenerationBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private OpenStreetMap map;
+    private Conductor conductor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        map = Fixtures.openMap();
+        conductor = new Conductor(Fixtures.path(Fixtures.shape("points")), map, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        conductor.shutdown();
+        map.close();
+    }
+
+    @Benchmark
+    public double nextGeneration() {
+        return conductor.nextGeneration().getFitness();
+    }
+}
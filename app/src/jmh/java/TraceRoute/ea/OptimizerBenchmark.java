@@ -0,0 +1,79 @@
+package TraceRoute.ea;
+
+import TraceRoute.Fixtures;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluations needed by each {@link Optimizer} to reach a target fitness on the fixture map with the
+ * pythontests/points shape. Both search on the shape itself, so their fitness is on the same scale and an
+ * evaluation costs the same. Searches that converge or run out of generations before the target are counted in
+ * full, so the reported evaluations are a lower bound for them; {@code reached} counts those that got there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class OptimizerBenchmark {
+    @Param({"ea", "cmaes"})
+    public String optimizer;
+
+    @Param({"515"})
+    public double target;
+
+    private OpenStreetMap map;
+    private Path2D shape;
+    private ExecutorService executor;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Progress {
+        public long evaluations;
+        public long verticesScored;
+        public long reached;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            evaluations = 0;
+            verticesScored = 0;
+            reached = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        map = Fixtures.openMap();
+        shape = Fixtures.path(Fixtures.shape("points"));
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+        map.close();
+    }
+
+    @Benchmark
+    public double toTarget(Progress progress) {
+        Optimizer search = optimizer.equals("ea")
+                ? new Conductor(shape, map, executor, new int[0])
+                : new CmaEs(shape, map, executor);
+        boolean going = true;
+        while (search.getBest().getFitness() > target && going) {
+            going = search.evolve();
+        }
+        double fitness = search.getBest().getFitness();
+        progress.evaluations += search.getEvaluations();
+        progress.verticesScored += search.getVerticesScored();
+        progress.reached += fitness <= target ? 1 : 0;
+        return fitness;
+    }
+}
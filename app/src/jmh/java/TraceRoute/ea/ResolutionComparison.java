@@ -0,0 +1,95 @@
+package TraceRoute.ea;
+
+import TraceRoute.Fixtures;
+import TraceRoute.osm.OpenStreetMap;
+
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares searches on the shape itself with searches on simplifications of it first, paired over the same seeds,
+ * so that each pair starts from the same random placements and differs only in the versions of the shape searched.
+ * The fitness compared is that of the winning route scored on the shape itself, which is what both modes return.
+ * Every run is counted, whatever it ends on.
+ * Usage: <code>[runs] [vertex counts, for example 128,512]</code>, run from the app directory.
+ */
+public class ResolutionComparison {
+    /**
+     * One search
+     *
+     * @param fitness        fitness of the winner on the shape itself
+     * @param scaleFactor    scale factor of the winner
+     * @param evaluations    number of routes placed
+     * @param verticesScored number of vertices scored
+     * @param nanos          time taken
+     */
+    record Run(double fitness, double scaleFactor, long evaluations, long verticesScored, long nanos) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int[] vertexCounts = args.length > 1
+                ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray()
+                : Conductor.RESOLUTIONS;
+        SplittableRandom seeds = new SplittableRandom(2024);
+        Run[] full = new Run[runs];
+        Run[] simplified = new Run[runs];
+        try (OpenStreetMap map = Fixtures.openMap()) {
+            Path2D shape = Fixtures.path(Fixtures.shape("points"));
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                System.out.printf("%-20s %10s %10s %10s%n", "seed", "full", Arrays.toString(vertexCounts), "difference");
+                for (int i = 0; i < runs; i++) {
+                    long seed = seeds.nextLong();
+                    full[i] = search(shape, map, executor, new int[0], seed);
+                    simplified[i] = search(shape, map, executor, vertexCounts, seed);
+                    System.out.printf("%-20d %10.1f %10.1f %+10.1f%n", seed, full[i].fitness(), simplified[i].fitness(),
+                            simplified[i].fitness() - full[i].fitness());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        double[] differences = new double[runs];
+        int better = 0, worse = 0;
+        for (int i = 0; i < runs; i++) {
+            differences[i] = simplified[i].fitness() - full[i].fitness();
+            better += differences[i] < 0 ? 1 : 0;
+            worse += differences[i] > 0 ? 1 : 0;
+        }
+        System.out.println();
+        report("full", full);
+        report(Arrays.toString(vertexCounts), simplified);
+        System.out.printf("paired difference: median %+.1f, mean %+.1f; simplified better in %d of %d runs, worse in %d%n",
+                median(differences), Arrays.stream(differences).average().orElse(0), better, runs, worse);
+    }
+
+    private static Run search(Path2D shape, OpenStreetMap map, ExecutorService executor, int[] vertexCounts, long seed) {
+        long start = System.nanoTime();
+        Conductor conductor = new Conductor(shape, map, executor, vertexCounts, seed);
+        Route route = conductor.findOptimalRoute();
+        return new Run(route.getFitness(), route.getGenome().scaleFactor(), conductor.getEvaluations(),
+                conductor.getVerticesScored(), System.nanoTime() - start);
+    }
+
+    private static void report(String name, Run[] runs) {
+        System.out.printf("%-10s fitness median %.1f mean %.1f, non-positive scale in %d runs, mean %.0f evaluations, %.2e vertices scored, %.2f s%n",
+                name, median(Arrays.stream(runs).mapToDouble(Run::fitness).toArray()),
+                Arrays.stream(runs).mapToDouble(Run::fitness).average().orElse(0),
+                Arrays.stream(runs).filter(run -> !(run.scaleFactor() > 0)).count(),
+                Arrays.stream(runs).mapToLong(Run::evaluations).average().orElse(0),
+                Arrays.stream(runs).mapToLong(Run::verticesScored).average().orElse(0),
+                Arrays.stream(runs).mapToLong(Run::nanos).average().orElse(0) / 1e9);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
@@ -0,0 +1,72 @@
+package TraceRoute.ea;
+
+import TraceRoute.Fixtures;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole search on the fixture map with the pythontests/points shape, from the initial population to the
+ * finalists, searching either on the shape itself or on simplifications of it first. Besides the time, the
+ * number of vertices scored and the fitness found are reported, since the search is random and a faster search
+ * is only worth having if it finds routes as good.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SearchBenchmark {
+    /**
+     * Vertex counts of the simplifications searched first, or "full" to search on the shape itself throughout
+     */
+    @Param({"full", "128,512"})
+    public String resolutions;
+
+    private OpenStreetMap map;
+    private ExecutorService executor;
+    private int[] vertexCounts;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cost {
+        public long verticesScored;
+        public double fitness;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            verticesScored = 0;
+            fitness = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        map = Fixtures.openMap();
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        vertexCounts = resolutions.equals("full")
+                ? new int[0]
+                : Arrays.stream(resolutions.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+        map.close();
+    }
+
+    @Benchmark
+    public Route search(Cost cost) throws IOException {
+        Conductor conductor = new Conductor(Fixtures.path(Fixtures.shape("points")), map, executor, vertexCounts);
+        Route route = conductor.findOptimalRoute();
+        cost.verticesScored += conductor.getVerticesScored();
+        cost.fitness += route.getFitness();
+        return route;
+    }
+}
@@ -0,0 +1,78 @@
+package TraceRoute.ea;
+
+import TraceRoute.Fixtures;
+import TraceRoute.osm.ImportOptions;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generations needed to reach a target fitness on the fixture map with the pythontests/points shape, with the
+ * initial population seeded uniformly or from the road density grid. The search is on the shape itself so that
+ * every generation's fitness is on the same scale. Searches that have not reached the target after
+ * {@link #MAX_GENERATIONS} are counted as taking that many, so the reported generations are a lower bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SeedingBenchmark {
+    static final int MAX_GENERATIONS = 50;
+
+    @Param({"uniform", "density"})
+    public String seeding;
+
+    @Param({"515"})
+    public double target;
+
+    private OpenStreetMap map;
+    private ExecutorService executor;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Progress {
+        public long generations;
+        public long verticesScored;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            generations = 0;
+            verticesScored = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ImportOptions options = new ImportOptions();
+        if (seeding.equals("uniform")) {
+            options.setDensityGridCells(0);
+        }
+        map = Fixtures.openMap(options);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+        map.close();
+    }
+
+    @Benchmark
+    public double toTarget(Progress progress) throws IOException {
+        Conductor conductor = new Conductor(Fixtures.path(Fixtures.shape("points")), map, executor, new int[0]);
+        int generations = 0;
+        double fitness = conductor.nextGeneration().getFitness();
+        while (fitness > target && ++generations < MAX_GENERATIONS) {
+            fitness = conductor.nextGeneration().getFitness();
+        }
+        progress.generations += generations;
+        progress.verticesScored += conductor.getVerticesScored();
+        return fitness;
+    }
+}
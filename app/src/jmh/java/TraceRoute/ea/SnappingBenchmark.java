@@ -0,0 +1,52 @@
+package TraceRoute.ea;
+
+import TraceRoute.Fixtures;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapping a placed shape to the nearest junctions with {@link Route#getPointList}, and joining them along the
+ * roads with {@link Route#getRoadPath}, on the fixture map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnappingBenchmark {
+    @Param({"points", "m25"})
+    public String shapeName;
+
+    @Param({"64", "256", "1024"})
+    public int vertices;
+
+    private OpenStreetMap map;
+    private Route route;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        map = Fixtures.openMap();
+        Path2D shape = Fixtures.path(Fixtures.resample(Fixtures.shape(shapeName), vertices));
+        route = new Route(shape, Fixtures.maxScaleFactor(map, shape) / 4, Fixtures.centre(map), 0, 0, 0, 0, map);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    @Benchmark
+    public int getPointList() {
+        return route.getPointList().size();
+    }
+
+    @Benchmark
+    public int getRoadPath() {
+        return route.getRoadPath().size();
+    }
+}
@@ -0,0 +1,76 @@
+package TraceRoute.fitness;
+
+import TraceRoute.Fixtures;
+import TraceRoute.ea.Route;
+import TraceRoute.osm.ImportOptions;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Fitness#Perpendicular} against {@link PerpendicularFitness} and {@link DistanceFieldFitness} on the fixture
+ * map, for both fixture shapes resampled to several sizes. The distance field has a resolution of 5 metres.
+ * The shape is placed the same way {@link TraceRoute.ea.Route} places it, at the centre of the map and at a quarter
+ * of the largest scale that fits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FitnessBenchmark {
+    @Param({"points", "m25"})
+    public String shapeName;
+
+    @Param({"64", "256", "1024"})
+    public int vertices;
+
+    private OpenStreetMap map;
+    private Path2D shape;
+    private AffineTransform centring;
+    private double centerX, centerY, scale;
+    private PerpendicularFitness kernel;
+    private DistanceFieldFitness raster;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        map = Fixtures.openMap(new ImportOptions().setDistanceFieldResolution(5));
+        kernel = new PerpendicularFitness(map.getIndex());
+        raster = new DistanceFieldFitness(map.getDistanceField());
+        shape = Fixtures.path(Fixtures.resample(Fixtures.shape(shapeName), vertices));
+
+        Point2D.Double centre = Fixtures.centre(map);
+        Rectangle2D bounds = shape.getBounds2D();
+        scale = Fixtures.maxScaleFactor(map, shape) / 4;
+        centerX = centre.x;
+        centerY = centre.y;
+        centring = AffineTransform.getTranslateInstance(-bounds.getCenterX(), -bounds.getCenterY());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    @Benchmark
+    public double reference() {
+        return Fitness.Perpendicular(map.getIndex(), shape.getPathIterator(centring), centerX, centerY, scale, Route.SEARCH_DISTANCE);
+    }
+
+    @Benchmark
+    public double kernel() {
+        return kernel.evaluate(shape.getPathIterator(centring), centerX, centerY, scale, Route.SEARCH_DISTANCE);
+    }
+
+    @Benchmark
+    public double distanceField() {
+        return raster.evaluate(shape.getPathIterator(centring), centerX, centerY, scale, Route.SEARCH_DISTANCE, Double.POSITIVE_INFINITY);
+    }
+}
@@ -0,0 +1,78 @@
+package TraceRoute.index;
+
+import TraceRoute.Fixtures;
+import TraceRoute.ea.Route;
+import TraceRoute.fitness.PerpendicularFitness;
+import TraceRoute.osm.ImportOptions;
+import TraceRoute.osm.OpenStreetMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PerpendicularFitness} against the whole road index of the fixture map and against its tiles, with a
+ * tile cache that holds every tile and one that holds only a few. Each call scores the M25 outline at a different
+ * place on the map, the way a search moves around, so a small cache has to open tiles again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TiledIndexBenchmark {
+    private static final int PLACEMENTS = 256;
+
+    /**
+     * "whole" for the single road index, otherwise "tiles-" and the number of tiles kept open
+     */
+    @Param({"whole", "tiles-64", "tiles-4"})
+    public String layout;
+
+    private OpenStreetMap map;
+    private PerpendicularFitness kernel;
+    private Path2D shape;
+    private AffineTransform centring;
+    private double[] centreX, centreY;
+    private double scale;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ImportOptions options = new ImportOptions();
+        if (layout.startsWith("tiles-")) {
+            options.setTileSize(1000).setTileCacheSize(Integer.parseInt(layout.substring("tiles-".length())));
+        }
+        map = Fixtures.openMap(options);
+        kernel = new PerpendicularFitness(map.getIndex());
+        shape = Fixtures.path(Fixtures.resample(Fixtures.shape("m25"), 256));
+        scale = Fixtures.maxScaleFactor(map, shape) / 8;
+        Rectangle2D bounds = shape.getBounds2D();
+
+        SplittableRandom random = new SplittableRandom(42);
+        SegmentIndex roads = map.getIndex();
+        centring = AffineTransform.getTranslateInstance(-bounds.getCenterX(), -bounds.getCenterY());
+        centreX = new double[PLACEMENTS];
+        centreY = new double[PLACEMENTS];
+        for (int i = 0; i < PLACEMENTS; i++) {
+            centreX[i] = LocalProjection.toMetres(random.nextInt(roads.getMinX(), roads.getMaxX()));
+            centreY[i] = LocalProjection.toMetres(random.nextInt(roads.getMinY(), roads.getMaxY()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    @Benchmark
+    public double fitness() {
+        int i = next++ % PLACEMENTS;
+        return kernel.evaluate(shape.getPathIterator(centring), centreX[i], centreY[i], scale, Route.SEARCH_DISTANCE);
+    }
+}
@@ -0,0 +1,62 @@
+package TraceRoute.osm;
+
+import TraceRoute.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of the fixture map from its PBF file, and loading of the indices an earlier import left behind.
+ * An import is a one-off cost per map, so it is timed as single shots.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ImportBenchmark {
+    /**
+     * Only the import depends on the mode, so it is kept out of the benchmark state
+     */
+    @State(Scope.Benchmark)
+    public static class Import {
+        @Param({"BULK", "INCREMENTAL"})
+        public ImportOptions.Mode mode;
+
+        /**
+         * Whether the ways get a pass of their own so that only their nodes are stored
+         */
+        @Param({"true", "false"})
+        public boolean dropUnreferencedNodes;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteIndices() throws IOException {
+        Fixtures.deleteIndices();
+    }
+
+    /**
+     * Parse the PBF file, write the road and junction indices and map them
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public int importMap(Import state) throws IOException {
+        try (OpenStreetMap map = Fixtures.importMap(new ImportOptions().setMode(state.mode).setDropUnreferencedNodes(state.dropUnreferencedNodes))) {
+            return map.getIndex().size();
+        }
+    }
+
+    /**
+     * Check the indices against the PBF file and map them, as every run after the first does
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int loadIndex() throws IOException {
+        try (OpenStreetMap map = Fixtures.openMap()) {
+            return map.getIndex().size();
+        }
+    }
+}
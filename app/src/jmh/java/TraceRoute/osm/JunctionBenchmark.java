@@ -0,0 +1,120 @@
+package TraceRoute.osm;
+
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.RoadIndex;
+import TraceRoute.index.RoadIndexWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Junction index build time against segment count, on a synthetic street grid.
+ * Grid streets share their nodes, and one in ten rows carries an overpass with nodes of its own,
+ * so both the shared-node pass and the crossing sweep have work to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class JunctionBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int segmentCount;
+
+    private final List<List<Long>> ways = new ArrayList<>();
+    private NodeStore vertices;
+    private RoadIndex roads;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void buildNetwork() throws IOException {
+        directory = Files.createTempDirectory("junction-benchmark");
+        vertices = new PrimitiveNodeStore();
+        Random random = new Random(42);
+
+        int side = (int) Math.sqrt(segmentCount / 2.0) + 1;
+        double step = 0.0005;
+        LocalProjection projection = LocalProjection.centredOn(-0.3, 51.4, -0.3 + side * step, 51.4 + side * step);
+        RoadIndexWriter writer = new RoadIndexWriter(projection);
+        long[][] grid = new long[side][side];
+        long nextId = 1;
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                grid[row][column] = nextId;
+                vertices.put(nextId++, -0.3 + column * step + random.nextGaussian() * step / 10, 51.4 + row * step + random.nextGaussian() * step / 10);
+            }
+        }
+        for (int row = 0; row < side; row++) {
+            List<Long> across = new ArrayList<>(side);
+            List<Long> down = new ArrayList<>(side);
+            for (int i = 0; i < side; i++) {
+                across.add(grid[row][i]);
+                down.add(grid[i][row]);
+            }
+            ways.add(across);
+            ways.add(down);
+        }
+        // overpasses run diagonally between grid nodes without sharing any of them
+        for (int row = 0; row < side - 1; row += 10) {
+            List<Long> overpass = new ArrayList<>();
+            for (int column = 0; row + column < side - 1; column++) {
+                vertices.put(nextId, -0.3 + (column + 0.5) * step, 51.4 + (row + column + 0.5) * step);
+                overpass.add(nextId++);
+            }
+            ways.add(overpass);
+        }
+        vertices.seal();
+
+        for (List<Long> way : ways) {
+            for (int i = 1; i < way.size(); i++) {
+                long from = vertices.get(way.get(i - 1));
+                long to = vertices.get(way.get(i));
+                writer.add(i, LocalProjection.toUnits(projection.x(NodeStore.lon(from))), LocalProjection.toUnits(projection.y(NodeStore.lat(from))),
+                        LocalProjection.toUnits(projection.x(NodeStore.lon(to))), LocalProjection.toUnits(projection.y(NodeStore.lat(to))));
+            }
+        }
+        Path roadFile = directory.resolve("synthetic.roads");
+        writer.write(roadFile, 0, 0);
+        roads = RoadIndex.open(roadFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        roads.close();
+        vertices.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * The whole junction build as run at import time: reference counting, crossing sweep and index write
+     */
+    @Benchmark
+    public int buildJunctionIndex() throws IOException {
+        JunctionIndexBuilder builder = new JunctionIndexBuilder();
+        for (List<Long> way : ways) {
+            builder.addWay(way);
+        }
+        return builder.write(directory.resolve("synthetic.junctions"), vertices, roads, 0, 0);
+    }
+
+    /**
+     * The grid-bucketed crossing sweep on its own
+     */
+    @Benchmark
+    public void findCrossings(Blackhole blackhole) {
+        JunctionIndexBuilder.forEachCrossing(roads, (first, second, x, y) -> blackhole.consume(first));
+    }
+}
@@ -0,0 +1,45 @@
+package TraceRoute.osm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to store and seal a million nodes from a number of parser threads at once. Each thread stores an ascending
+ * run of IDs of its own, as the blocks of a PBF file hold, so the threads only ever meet in the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NodeStoreBenchmark {
+    private static final int NODES = 1_000_000;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Benchmark
+    public NodeStore putAndSeal() throws Exception {
+        NodeStore store = new PrimitiveNodeStore();
+        Thread[] parsers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t * (NODES / threads);
+            int last = (t + 1) * (NODES / threads);
+            parsers[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(first);
+                for (long id = first; id < last; id++) {
+                    store.put(id, random.nextDouble(-1, 1), random.nextDouble(50, 52));
+                }
+            });
+            parsers[t].start();
+        }
+        for (Thread parser : parsers) {
+            parser.join();
+        }
+        store.seal();
+        return store;
+    }
+}
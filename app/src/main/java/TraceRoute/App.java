@@ -3,28 +3,58 @@
  */
 package TraceRoute;
 
+import TraceRoute.batch.BatchRunner;
 import TraceRoute.ea.Conductor;
 import TraceRoute.ea.Route;
 import TraceRoute.fitness.Fitness;
+import TraceRoute.island.IslandOptions;
+import TraceRoute.island.IslandSearch;
+import TraceRoute.island.Topology;
 import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.output.RouteFormat;
+import TraceRoute.output.RouteWriter;
+import TraceRoute.service.LoadGenerator;
+import TraceRoute.service.RouteService;
+import TraceRoute.service.ServiceOptions;
 import TraceRoute.shape.Shape;
+import TraceRoute.store.ResultStore;
+import TraceRoute.store.ShapeSignature;
 import com.github.davidmoten.rtree.geometry.Point;
-import io.jenetics.jpx.GPX;
-import io.jenetics.jpx.Track;
-import io.jenetics.jpx.TrackSegment;
 
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 public class App {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("batch")) {
+            batch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("islands")) {
+            islands(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("load")) {
+            load(args);
+            return;
+        }
         List<Point2D> route = new LinkedList<>();
         double a,b;
         try {
@@ -40,21 +70,163 @@ public class App {
             }
             System.out.println(route);
             myReader.close();
-            Route optimalRoute = new Conductor(new Shape(route).getPath(), osm).findOptimalRoute();
-
-            System.out.print("https://www.google.com/maps/dir/");
-            for (Point point : optimalRoute.getPointList()) System.out.printf("%s,%s/", point.y(), point.x());
-            System.out.println();
-            GPX gpx = GPX.builder().build();
-            TrackSegment track = TrackSegment.builder().build();
-            for(Point point : optimalRoute.getPointList()) {
-                track = track.toBuilder().addPoint(p->p.lon(point.x1()).lat(point.y1())).build();
+            java.awt.Shape shape = new Shape(route).getPath();
+            ResultStore results = ResultStore.forMap("../maps/cyclable.osm.pbf");
+            ShapeSignature signature = ShapeSignature.of(shape);
+            Optional<ResultStore.Match> match = results.find(osm, signature);
+            List<Point> roadPath;
+            if (match.isPresent() && match.get().isRepeat()) {
+                // the stored route is used as it is, without placing the shape on the map again; only the road path
+                // is stored, which is far too long for a maps link, so the route is only written to the file
+                System.out.println("Found a stored route for this shape with fitness %.1f".formatted(match.get().fitness()));
+                roadPath = match.get().roadPath();
+            } else {
+                Conductor conductor = new Conductor(shape, osm);
+                match.ifPresent(near -> conductor.immigrate(List.of(near.genome())));
+                Route optimalRoute = conductor.findOptimalRoute();
+                conductor.shutdown();
+                roadPath = optimalRoute.getRoadPath();
+                results.put(osm, signature, optimalRoute.getGenome(), optimalRoute.getFitness(), roadPath);
+
+                System.out.print("https://www.google.com/maps/dir/");
+                for (Point point : optimalRoute.getPointList()) System.out.printf("%s,%s/", point.y(), point.x());
+                System.out.println();
+            }
+            try (RouteWriter writer = RouteWriter.open(Path.of("route.gpx"))) {
+                writer.write(null, roadPath);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fit one shape with an island search, which can spread over several local JVMs, and write its route to a file
+     * in any of the {@link RouteFormat formats}.
+     * Usage: <code>islands &lt;map.osm.pbf&gt; &lt;shape file&gt; &lt;output file&gt; [islands] [processes] [interval] [migrants] [topology]</code>
+     */
+    private static void islands(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: islands <map.osm.pbf> <shape file> <output file> [islands] [processes] [interval] [migrants] [topology]");
+            System.exit(2);
+        }
+        IslandOptions options = new IslandOptions();
+        if (args.length > 4) {
+            options.setIslands(Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            options.setProcesses(Integer.parseInt(args[5]));
+        }
+        if (args.length > 6) {
+            options.setInterval(Integer.parseInt(args[6]));
+        }
+        if (args.length > 7) {
+            options.setMigrants(Integer.parseInt(args[7]));
+        }
+        if (args.length > 8) {
+            options.setTopology(Topology.valueOf(args[8].toUpperCase()));
+        }
+        Path shape = Path.of(args[2]);
+        try (OpenStreetMap osm = new OpenStreetMap(args[1]); RouteWriter writer = RouteWriter.open(Path.of(args[3]))) {
+            Route route = new IslandSearch(osm, Path.of(args[1]), options).findOptimalRoute(shape);
+            writer.write(com.google.common.io.Files.getNameWithoutExtension(shape.toString()), route.getRoadPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fit shapes sent over HTTP to one map until the JVM is stopped, see {@link RouteService}.
+     * Usage: <code>serve &lt;map.osm.pbf&gt; [port] [threads] [searches at once]</code>
+     */
+    private static void serve(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: serve <map.osm.pbf> [port] [threads] [searches at once]");
+            System.exit(2);
+        }
+        ServiceOptions options = new ServiceOptions();
+        if (args.length > 2) {
+            options.setPort(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            options.setThreads(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            options.setJobs(Integer.parseInt(args[4]));
+        }
+        try {
+            OpenStreetMap osm = new OpenStreetMap(args[1]);
+            RouteService service = new RouteService(osm, options, ResultStore.forMap(args[1]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                service.close();
+                osm.close();
+            }));
+            service.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Send shapes to a running service from several clients at once and report its throughput and latencies,
+     * see {@link LoadGenerator}.
+     * Usage: <code>load &lt;route url&gt; &lt;shape file or directory&gt; [clients] [requests]</code>
+     */
+    private static void load(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: load <route url> <shape file or directory> [clients] [requests]");
+            System.exit(2);
+        }
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int requests = args.length > 4 ? Integer.parseInt(args[4]) : clients * 10;
+        Path source = Path.of(args[2]);
+        try (Stream<Path> files = Files.isDirectory(source) ? Files.list(source) : Stream.of(source)) {
+            List<String> shapes = new ArrayList<>();
+            for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                shapes.add(Files.readString(file));
+            }
+            new LoadGenerator(URI.create(args[1]), shapes, clients).run(requests);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fit every shape in a directory to one map, writing a GPX file per shape, or every route to one file if the
+     * output is named like a route file, for example <code>routes.geojson.gz</code>, see {@link RouteFormat}.
+     * Usage: <code>batch &lt;map.osm.pbf&gt; &lt;shape directory&gt; &lt;output directory or file&gt; [threads] [jobs in flight]</code>
+     */
+    private static void batch(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: batch <map.osm.pbf> <shape directory> <output directory or file> [threads] [jobs in flight]");
+            System.exit(2);
+        }
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        int queueLength = args.length > 5 ? Integer.parseInt(args[5]) : threads * 2;
+        try (Stream<Path> files = Files.list(Path.of(args[2]))) {
+            List<Path> shapes = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            Path output = Path.of(args[3]);
+            OpenStreetMap osm = new OpenStreetMap(args[1]);
+            if (RouteFormat.isRouteFile(output.getFileName().toString())) {
+                try (osm; RouteWriter writer = RouteWriter.open(output);
+                     BatchRunner runner = new BatchRunner(osm, writer, threads, queueLength)) {
+                    runner.setResultStore(ResultStore.forMap(args[1]));
+                    runner.run(shapes);
+                }
+            } else {
+                try (osm; BatchRunner runner = new BatchRunner(osm, Files.createDirectories(output), threads, queueLength)) {
+                    runner.setResultStore(ResultStore.forMap(args[1]));
+                    runner.run(shapes);
+                }
             }
-            Track segment = Track.builder().addSegment(track).build();
-            gpx = gpx.toBuilder().addTrack(segment).build();
-            GPX.write(gpx, Path.of("route.gpx"));
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -0,0 +1,247 @@
+package TraceRoute.batch;
+
+import TraceRoute.ea.Conductor;
+import TraceRoute.ea.Route;
+import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.output.RouteWriter;
+import TraceRoute.shape.Shape;
+import TraceRoute.store.ResultStore;
+import TraceRoute.store.ShapeSignature;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fits many shapes to one map.
+ * <p>
+ * The map is loaded once and shared read-only by every job. Jobs and the route evaluations inside them run on
+ * a single work-stealing pool, so a job that is waiting for its evaluations lends its thread to the others.
+ * At most a fixed number of jobs are in flight at once, which bounds the memory held by populations that
+ * have not finished yet. Each route is written by its job as soon as the job is done, either to a GPX file of its
+ * own or to one file shared by the whole batch.
+ * <p>
+ * Every job checkpoints its search next to its output while it runs, so a batch that is killed and started again
+ * carries on with the shapes it was fitting rather than starting them from scratch.
+ */
+public class BatchRunner implements Closeable {
+    /**
+     * Number of generations between the checkpoints of each job
+     */
+    static final int CHECKPOINT_INTERVAL = 5;
+
+    private final Logger logger = LoggerFactory.getLogger(BatchRunner.class);
+    private final OpenStreetMap map;
+    private final Path outputDirectory;
+    private final RouteWriter output;
+    private final ForkJoinPool pool;
+    private final int queueLength;
+    private ResultStore results;
+
+    /**
+     * The outcome of one shape
+     *
+     * @param shape   the shape file
+     * @param output  the file the route was written to
+     * @param fitness fitness of the best route found
+     * @param nanos   time from the start of the job until its route was written
+     */
+    public record JobResult(Path shape, Path output, double fitness, long nanos) {
+    }
+
+    /**
+     * @param map             the map every shape is fitted to
+     * @param outputDirectory where the GPX files are written, one per shape
+     * @param parallelism     number of worker threads
+     * @param queueLength     maximum number of jobs in flight at once
+     */
+    public BatchRunner(OpenStreetMap map, Path outputDirectory, int parallelism, int queueLength) {
+        this(map, outputDirectory, null, parallelism, queueLength);
+    }
+
+    /**
+     * @param map         the map every shape is fitted to
+     * @param output      where every route is written, named after its shape file. It is not closed by the runner.
+     * @param parallelism number of worker threads
+     * @param queueLength maximum number of jobs in flight at once
+     */
+    public BatchRunner(OpenStreetMap map, RouteWriter output, int parallelism, int queueLength) {
+        this(map, null, output, parallelism, queueLength);
+    }
+
+    private BatchRunner(OpenStreetMap map, Path outputDirectory, RouteWriter output, int parallelism, int queueLength) {
+        if (parallelism < 1 || queueLength < 1) {
+            throw new IllegalArgumentException("Parallelism and queue length must be at least 1");
+        }
+        this.map = map;
+        this.outputDirectory = outputDirectory;
+        this.output = output;
+        this.pool = new ForkJoinPool(parallelism);
+        this.queueLength = queueLength;
+    }
+
+    /**
+     * Look shapes up in a store of earlier results before fitting them, reusing the route of a shape fitted before
+     * and starting the search for a similar one from its placement, and store the results of the shapes fitted
+     *
+     * @param results the store, or null to fit every shape from scratch
+     */
+    public void setResultStore(ResultStore results) {
+        this.results = results;
+    }
+
+    /**
+     * Fit every shape, blocking until all of them are done. A job that fails is logged and left out of the results.
+     *
+     * @param shapes the shape files, see {@link Shape#read}
+     * @return the results of the jobs that succeeded, in the order they finished
+     * @throws InterruptedException if interrupted while waiting for a free slot or for the last jobs
+     */
+    public List<JobResult> run(List<Path> shapes) throws InterruptedException {
+        long start = System.nanoTime();
+        Semaphore slots = new Semaphore(queueLength);
+        ConcurrentLinkedQueue<JobResult> results = new ConcurrentLinkedQueue<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        logger.info("Fitting %d shapes with %d threads, at most %d at once".formatted(shapes.size(), pool.getParallelism(), queueLength));
+        for (Path shape : shapes) {
+            slots.acquire();
+            pool.execute(() -> {
+                try {
+                    JobResult result = runJob(shape);
+                    results.add(result);
+                    logger.info("Finished %s in %.1f s, fitness %s, written to %s".formatted(
+                            shape, result.nanos() / 1e9, result.fitness(), result.output()));
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    logger.error("Failed to fit %s".formatted(shape), e);
+                } finally {
+                    slots.release();
+                }
+            });
+        }
+        // every slot is free again once the last job has finished
+        slots.acquire(queueLength);
+        slots.release(queueLength);
+
+        List<JobResult> finished = new ArrayList<>(results);
+        report(finished, failures.get(), System.nanoTime() - start);
+        return finished;
+    }
+
+    /**
+     * Fit a single shape and write its route
+     */
+    private JobResult runJob(Path shapeFile) throws Exception {
+        long start = System.nanoTime();
+        String name = Files.getNameWithoutExtension(shapeFile.toString());
+        java.awt.Shape shape = Shape.read(shapeFile).getPath();
+        ShapeSignature signature = ShapeSignature.of(shape);
+        Optional<ResultStore.Match> match = results != null ? results.find(map, signature) : Optional.empty();
+        double fitness;
+        List<Point> roadPath;
+        if (match.isPresent() && match.get().isRepeat()) {
+            logger.info("%s repeats a stored shape, reusing its route".formatted(shapeFile));
+            fitness = match.get().fitness();
+            roadPath = match.get().roadPath();
+        } else {
+            Conductor conductor = startJob(shape, shapeFile, name);
+            if (match.isPresent()) {
+                logger.info("%s is close to a stored shape, starting from its placement".formatted(shapeFile));
+                conductor.immigrate(List.of(match.get().genome()));
+            }
+            Route route = conductor.findOptimalRoute();
+            fitness = route.getFitness();
+            roadPath = route.getRoadPath();
+            if (results != null) {
+                results.put(map, signature, route.getGenome(), fitness, roadPath);
+            }
+        }
+        JobResult result;
+        if (output != null) {
+            output.write(name, roadPath);
+            result = new JobResult(shapeFile, output.getFile(), fitness, System.nanoTime() - start);
+        } else {
+            try (RouteWriter writer = RouteWriter.open(outputDirectory.resolve("%s.gpx".formatted(name)))) {
+                writer.write(name, roadPath);
+                result = new JobResult(shapeFile, writer.getFile(), fitness, System.nanoTime() - start);
+            }
+        }
+        java.nio.file.Files.deleteIfExists(checkpointFile(name));
+        return result;
+    }
+
+    /**
+     * Set up the search for a shape, carrying on from its checkpoint if an earlier run of the batch left one,
+     * and checkpointing it every few generations until its route is written
+     */
+    private Conductor startJob(java.awt.Shape shape, Path shapeFile, String name) {
+        Path checkpoint = checkpointFile(name);
+        Conductor conductor = null;
+        if (java.nio.file.Files.exists(checkpoint)) {
+            try {
+                conductor = Conductor.resume(checkpoint, shape, map, pool);
+                logger.info("Resuming %s from %s".formatted(shapeFile, checkpoint));
+            } catch (IOException e) {
+                logger.warn("Starting %s again, its checkpoint cannot be used: %s".formatted(shapeFile, e.getMessage()));
+            }
+        }
+        if (conductor == null) {
+            conductor = new Conductor(shape, map, pool);
+        }
+        conductor.setCheckpoint(checkpoint, CHECKPOINT_INTERVAL);
+        return conductor;
+    }
+
+    /**
+     * @return where the search for a shape is checkpointed, next to its output
+     */
+    private Path checkpointFile(String name) {
+        Path directory = outputDirectory != null ? outputDirectory : output.getFile().toAbsolutePath().getParent();
+        return directory.resolve("%s.checkpoint".formatted(name));
+    }
+
+    /**
+     * Log throughput and the spread of job latencies
+     */
+    private void report(List<JobResult> results, int failures, long nanos) {
+        double hours = nanos / 3.6e12;
+        logger.info("Batch complete: %d shapes fitted, %d failed, in %.1f s (%.1f shapes/hour)".formatted(
+                results.size(), failures, nanos / 1e9, results.size() / hours));
+        if (results.isEmpty()) {
+            return;
+        }
+        long[] latencies = results.stream().mapToLong(JobResult::nanos).sorted().toArray();
+        logger.info("Job latency: median %.1f s, 95th percentile %.1f s, max %.1f s".formatted(
+                percentile(latencies, 0.5) / 1e9, percentile(latencies, 0.95) / 1e9, latencies[latencies.length - 1] / 1e9));
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * Stop the worker threads, waiting briefly for any job still running
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
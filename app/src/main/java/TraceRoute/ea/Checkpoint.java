@@ -0,0 +1,130 @@
+package TraceRoute.ea;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A snapshot of a {@link Conductor}'s search, from which it can carry on in another JVM.
+ * <p>
+ * Only the survivors are kept, since they are all a generation is bred from. The file is little-endian:
+ * <pre>
+ * header  72 bytes        magic, version, map checksum and length, shape checksum, resolution, generation,
+ *                         generations without improvement, seed, evaluations, vertices scored, route count
+ * routes  88 bytes each   placement genome, drifted x, y and scale factor, fitness
+ * </pre>
+ * It is written to a temporary file that then replaces the last checkpoint, so a JVM that dies while writing
+ * leaves the previous one intact.
+ *
+ * @param mapChecksum    checksum of the map file the search was on
+ * @param mapLength      length of the map file
+ * @param shapeChecksum  checksum of the shape and its simplifications, see {@link Conductor}
+ * @param resolution     the simplification being searched on
+ * @param generation     number of generations bred so far
+ * @param stalled        number of generations in a row that have not improved on the fittest route
+ * @param seed           the seed of the next generation's randomness
+ * @param evaluations    number of routes placed so far
+ * @param verticesScored number of vertices scored so far
+ * @param routes         the survivors, fittest first
+ */
+record Checkpoint(long mapChecksum, long mapLength, long shapeChecksum, int resolution, int generation, int stalled, long seed,
+                  long evaluations, long verticesScored, List<Saved> routes) {
+    static final int MAGIC = 0x50435254; // "TRCP"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 72;
+    static final int ROUTE_BYTES = 88;
+
+    /**
+     * A survivor of the search
+     *
+     * @param placement where it was scored, with its parent's placement and fitness
+     * @param drift     the centre and scale factor its next child is bred from, see {@link Route#getDrift()}
+     * @param fitness   its fitness
+     */
+    record Saved(Genome placement, double[] drift, double fitness) {
+    }
+
+    void write(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + routes.size() * ROUTE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(mapChecksum)
+                .putLong(mapLength)
+                .putLong(shapeChecksum)
+                .putInt(resolution)
+                .putInt(generation)
+                .putInt(stalled)
+                .putLong(seed)
+                .putLong(evaluations)
+                .putLong(verticesScored)
+                .putInt(routes.size());
+        buffer.position(HEADER_BYTES);
+        for (Saved route : routes) {
+            Genome genome = route.placement();
+            buffer.putDouble(genome.scaleFactor())
+                    .putDouble(genome.x())
+                    .putDouble(genome.y())
+                    .putDouble(genome.prevX())
+                    .putDouble(genome.prevY())
+                    .putDouble(genome.prevScaleFactor())
+                    .putDouble(genome.prevFitness())
+                    .putDouble(route.drift()[0])
+                    .putDouble(route.drift()[1])
+                    .putDouble(route.drift()[2])
+                    .putDouble(route.fitness());
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @throws IOException if the file cannot be read or is not a checkpoint of this version
+     */
+    static Checkpoint read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("%s is not a checkpoint".formatted(file));
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("%s has version %d, expected %d".formatted(file, buffer.getInt(4), VERSION));
+        }
+        buffer.position(8);
+        long mapChecksum = buffer.getLong();
+        long mapLength = buffer.getLong();
+        long shapeChecksum = buffer.getLong();
+        int resolution = buffer.getInt();
+        int generation = buffer.getInt();
+        int stalled = buffer.getInt();
+        long seed = buffer.getLong();
+        long evaluations = buffer.getLong();
+        long verticesScored = buffer.getLong();
+        int count = buffer.getInt();
+        if (count < 1 || buffer.capacity() != HEADER_BYTES + (long) count * ROUTE_BYTES) {
+            throw new IOException("%s is truncated".formatted(file));
+        }
+        buffer.position(HEADER_BYTES);
+        List<Saved> routes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Genome placement = new Genome(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                    buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+            double[] drift = {buffer.getDouble(), buffer.getDouble(), buffer.getDouble()};
+            routes.add(new Saved(placement, drift, buffer.getDouble()));
+        }
+        return new Checkpoint(mapChecksum, mapLength, shapeChecksum, resolution, generation, stalled, seed, evaluations, verticesScored, routes);
+    }
+}
@@ -0,0 +1,466 @@
+package TraceRoute.ea;
+
+import TraceRoute.index.DensityGrid;
+import TraceRoute.osm.OpenStreetMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Searches for the best placement of a shape with the covariance matrix adaptation evolution strategy, CMA-ES.
+ * <p>
+ * Each generation samples placements from a normal distribution over the centre and scale factor, scores them
+ * side by side on the executor, and moves the mean towards the fittest half. The covariance of the distribution
+ * learns which directions the fitness improves in, so the search follows roads and scales along the valleys of
+ * the fitness instead of stepping along one parameter at a time. The parameters are searched normalised to the
+ * map and to a range of scale factors, so that one step size suits all three.
+ * <p>
+ * The fitness has a valley for every road the shape can be laid along, so the search restarts from a new random
+ * placement with twice the population whenever it converges or stalls (IPOP-CMA-ES), keeping the best route
+ * found by any run. The constants are the defaults of Hansen's tutorial, "The CMA Evolution Strategy" (2016).
+ */
+public class CmaEs implements Optimizer {
+    /**
+     * Number of parameters searched: centre x, centre y and scale factor
+     */
+    static final int DIMENSIONS = 3;
+    /**
+     * Samples per generation of the first run, enough to keep a few cores busy
+     */
+    static final int POPULATION = 16;
+    /**
+     * Number of generations a search runs for at most, over all its runs
+     */
+    static final int GENERATIONS = 200;
+    /**
+     * Number of times the search starts again once a run has converged
+     */
+    static final int RESTARTS = 4;
+    /**
+     * Number of random placements scored to pick the start of each run
+     */
+    static final int SEEDS = 250;
+    /**
+     * Step size the runs start with, as a fraction of the range of each parameter
+     */
+    static final double INITIAL_SIGMA = 0.02;
+    /**
+     * A run has converged once its steps are shorter than this fraction of the range of each parameter
+     */
+    static final double TOLERANCE = 1e-5;
+
+    private final Logger logger = LoggerFactory.getLogger(CmaEs.class);
+    private final Shape shape;
+    private final OpenStreetMap map;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Random random = new Random();
+    /**
+     * Lower corner and extent of the box of parameters, which the search sees as the unit cube
+     */
+    private final double[] lower = new double[DIMENSIONS];
+    private final double[] range = new double[DIMENSIONS];
+
+    private int population;
+    private int parents;
+    private double[] weights;
+    private double effectiveParents;
+    private double cSigma, dSigma, cC, c1, cMu, chiN;
+
+    private double[] mean;
+    private double sigma;
+    private double[][] covariance;
+    /**
+     * Eigenvectors of the covariance, one per column, and the square roots of its eigenvalues
+     */
+    private double[][] basis;
+    private double[] deviations;
+    private double[] pathSigma;
+    private double[] pathC;
+
+    private int generation;
+    private int runGeneration;
+    private int restarts;
+    private double runBest;
+    private int runBestGeneration;
+    private Route best;
+    private long evaluations;
+    private long verticesScored;
+
+    public CmaEs(Shape shape, OpenStreetMap map) {
+        this(shape, map, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of routes evaluated at once
+     */
+    public CmaEs(Shape shape, OpenStreetMap map, int threads) {
+        this(shape, map, Executors.newFixedThreadPool(threads), true);
+    }
+
+    /**
+     * Evaluate routes on an executor shared with other work. The executor is left running by {@link #shutdown()}.
+     *
+     * @param executor where routes are evaluated
+     */
+    public CmaEs(Shape shape, OpenStreetMap map, ExecutorService executor) {
+        this(shape, map, executor, false);
+    }
+
+    private CmaEs(Shape shape, OpenStreetMap map, ExecutorService executor, boolean ownsExecutor) {
+        this.shape = shape;
+        this.map = map;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        com.github.davidmoten.rtree.geometry.Rectangle mapBounds = map.getBounds();
+        Rectangle2D shapeBounds = shape.getBounds2D();
+        double maxScaleFactor = Math.min(
+                Math.abs(mapBounds.x2() - mapBounds.x1()) / shapeBounds.getWidth(),
+                Math.abs(mapBounds.y2() - mapBounds.y1()) / shapeBounds.getHeight()
+        );
+        lower[0] = mapBounds.x1();
+        range[0] = mapBounds.x2() - mapBounds.x1();
+        lower[1] = mapBounds.y1();
+        range[1] = mapBounds.y2() - mapBounds.y1();
+        // from the smallest scale a Conductor seeds at to the half of the largest it resets its children to.
+        // A Conductor never samples between a tenth and a half of the largest, since it resets any child past a
+        // tenth to a half, whereas this searches the whole range in between
+        lower[2] = maxScaleFactor / 20;
+        range[2] = maxScaleFactor / 2 - maxScaleFactor / 20;
+        start(POPULATION);
+    }
+
+    /**
+     * Begin a run from the best of {@link #SEEDS} random placements, drawn from the road density grid if the map
+     * has one. A single random start would almost always land in the valley of a poor fit, so the runs refine the
+     * best of a sample instead, with a step size of about a road's spacing.
+     *
+     * @param population number of samples per generation
+     */
+    private void start(int population) {
+        this.population = population;
+        parents = population / 2;
+        weights = new double[parents];
+        double sum = 0, squares = 0;
+        for (int i = 0; i < parents; i++) {
+            weights[i] = Math.log(parents + 0.5) - Math.log(i + 1);
+            sum += weights[i];
+        }
+        for (int i = 0; i < parents; i++) {
+            weights[i] /= sum;
+            squares += weights[i] * weights[i];
+        }
+        effectiveParents = 1 / squares;
+        int n = DIMENSIONS;
+        cSigma = (effectiveParents + 2) / (n + effectiveParents + 5);
+        dSigma = 1 + 2 * Math.max(0, Math.sqrt((effectiveParents - 1) / (n + 1)) - 1) + cSigma;
+        cC = (4 + effectiveParents / n) / (n + 4 + 2 * effectiveParents / n);
+        c1 = 2 / ((n + 1.3) * (n + 1.3) + effectiveParents);
+        cMu = Math.min(1 - c1, 2 * (effectiveParents - 2 + 1 / effectiveParents) / ((n + 2) * (n + 2) + effectiveParents));
+        chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21 * n * n));
+
+        DensityGrid density = map.getDensityGrid();
+        double[][] seeds = new double[SEEDS][];
+        List<Callable<Route>> toRun = new ArrayList<>(SEEDS);
+        for (int k = 0; k < SEEDS; k++) {
+            Point2D.Double centre = density != null ? density.sample(random)
+                    : new Point2D.Double(lower[0] + random.nextDouble() * range[0], lower[1] + random.nextDouble() * range[1]);
+            double[] seed = {(centre.x - lower[0]) / range[0], (centre.y - lower[1]) / range[1], random.nextDouble()};
+            seeds[k] = seed;
+            toRun.add(() -> place(seed));
+        }
+        List<Route> seeded = evaluate(toRun);
+        int fittest = 0;
+        for (int k = 0; k < SEEDS; k++) {
+            if (seeded.get(k).getFitness() < seeded.get(fittest).getFitness()) {
+                fittest = k;
+            }
+        }
+        offer(seeded.get(fittest));
+        mean = seeds[fittest].clone();
+        sigma = INITIAL_SIGMA;
+        covariance = new double[n][n];
+        basis = new double[n][n];
+        deviations = new double[n];
+        for (int i = 0; i < n; i++) {
+            covariance[i][i] = 1;
+            basis[i][i] = 1;
+            deviations[i] = 1;
+        }
+        pathSigma = new double[n];
+        pathC = new double[n];
+        runGeneration = 0;
+        runBest = Double.POSITIVE_INFINITY;
+        runBestGeneration = 0;
+    }
+
+    @Override
+    public boolean evolve() {
+        if (generation == GENERATIONS) {
+            return false;
+        }
+        int n = DIMENSIONS;
+        double[][] steps = new double[population][n];
+        double[][] samples = new double[population][n];
+        List<Callable<Route>> toRun = new ArrayList<>(population);
+        for (int k = 0; k < population; k++) {
+            double[] z = new double[n];
+            for (int i = 0; i < n; i++) {
+                z[i] = random.nextGaussian() * deviations[i];
+            }
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    steps[k][i] += basis[i][j] * z[j];
+                }
+                samples[k][i] = mean[i] + sigma * steps[k][i];
+            }
+            double[] sample = samples[k];
+            toRun.add(() -> place(sample));
+        }
+        Route[] routes = evaluate(toRun).toArray(new Route[0]);
+        double[] penalised = new double[population];
+        Integer[] order = new Integer[population];
+        for (int k = 0; k < population; k++) {
+            penalised[k] = routes[k].getFitness() * (1 + outside(samples[k]));
+            order[k] = k;
+            offer(routes[k]);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(penalised[a], penalised[b]));
+
+        double[] previous = mean.clone();
+        double[] step = new double[n];
+        for (int i = 0; i < n; i++) {
+            mean[i] = 0;
+            for (int r = 0; r < parents; r++) {
+                mean[i] += weights[r] * samples[order[r]][i];
+            }
+            step[i] = (mean[i] - previous[i]) / sigma;
+        }
+        // C^-1/2 of the step, in the basis of the covariance
+        double[] whitened = new double[n];
+        for (int j = 0; j < n; j++) {
+            double projection = 0;
+            for (int i = 0; i < n; i++) {
+                projection += basis[i][j] * step[i];
+            }
+            for (int i = 0; i < n; i++) {
+                whitened[i] += basis[i][j] * projection / deviations[j];
+            }
+        }
+        double norm = 0;
+        for (int i = 0; i < n; i++) {
+            pathSigma[i] = (1 - cSigma) * pathSigma[i] + Math.sqrt(cSigma * (2 - cSigma) * effectiveParents) * whitened[i];
+            norm += pathSigma[i] * pathSigma[i];
+        }
+        norm = Math.sqrt(norm);
+        runGeneration++;
+        boolean stalled = norm / Math.sqrt(1 - Math.pow(1 - cSigma, 2 * runGeneration)) >= (1.4 + 2.0 / (n + 1)) * chiN;
+        for (int i = 0; i < n; i++) {
+            pathC[i] = (1 - cC) * pathC[i] + (stalled ? 0 : Math.sqrt(cC * (2 - cC) * effectiveParents) * step[i]);
+        }
+        double correction = stalled ? c1 * cC * (2 - cC) : 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double rankMu = 0;
+                for (int r = 0; r < parents; r++) {
+                    rankMu += weights[r] * steps[order[r]][i] * steps[order[r]][j];
+                }
+                covariance[i][j] = (1 - c1 - cMu) * covariance[i][j]
+                        + c1 * (pathC[i] * pathC[j]) + correction * covariance[i][j] + cMu * rankMu;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+        sigma *= Math.exp(cSigma / dSigma * (norm / chiN - 1));
+        decompose();
+
+        generation++;
+        double fittest = penalised[order[0]];
+        if (fittest < runBest) {
+            runBest = fittest;
+            runBestGeneration = runGeneration;
+        }
+        logger.info("Generation %d, run %d: best fitness %s, step %.2e".formatted(generation, restarts, best.getFitness(), sigma));
+        if (converged()) {
+            if (restarts == RESTARTS) {
+                return false;
+            }
+            restarts++;
+            logger.info("Restarting with %d samples a generation".formatted(population * 2));
+            start(population * 2);
+        }
+        return generation < GENERATIONS;
+    }
+
+    /**
+     * Keep a route if it is the fittest so far
+     */
+    private void offer(Route route) {
+        if (best == null || route.getFitness() < best.getFitness()) {
+            best = route;
+        }
+    }
+
+    /**
+     * @return whether the current run has nothing more to give: its steps are too small to move a placement, its
+     * distribution has collapsed onto a line, or its best has not improved for a while
+     */
+    private boolean converged() {
+        double largest = 0, smallest = Double.POSITIVE_INFINITY;
+        for (double deviation : deviations) {
+            largest = Math.max(largest, deviation);
+            smallest = Math.min(smallest, deviation);
+        }
+        int patience = 10 + (int) Math.ceil(30.0 * DIMENSIONS / population);
+        return sigma * largest < TOLERANCE || largest > 1e7 * smallest || runGeneration - runBestGeneration > patience;
+    }
+
+    /**
+     * Score a placement of the shape, with its parameters clamped to the box the search is normalised to
+     */
+    private Route place(double[] sample) {
+        double x = lower[0] + clamp(sample[0]) * range[0];
+        double y = lower[1] + clamp(sample[1]) * range[1];
+        double scaleFactor = lower[2] + clamp(sample[2]) * range[2];
+        return new Route(shape, scaleFactor, new Point2D.Double(x, y), 0.0, 0.0, 0.0, 0.0, map, null, Double.POSITIVE_INFINITY);
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * @return how far a sample lies outside the unit cube, squared, which penalises it in proportion so that the
+     * search is drawn back inside rather than settling on the edge its placement was clamped to
+     */
+    private static double outside(double[] sample) {
+        double distance = 0;
+        for (double value : sample) {
+            double excess = value - clamp(value);
+            distance += excess * excess;
+        }
+        return distance;
+    }
+
+    /**
+     * Find the eigenvectors and eigenvalues of the covariance with Jacobi rotations, which is exact and cheap for
+     * a 3 by 3 matrix
+     */
+    private void decompose() {
+        int n = DIMENSIONS;
+        double[][] a = new double[n][];
+        for (int i = 0; i < n; i++) {
+            a[i] = covariance[i].clone();
+        }
+        double[][] v = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            v[i][i] = 1;
+        }
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double off = 0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    off += a[p][q] * a[p][q];
+                }
+            }
+            if (off < 1e-30) {
+                break;
+            }
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (a[p][q] == 0) {
+                        continue;
+                    }
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1), s = t * c;
+                    for (int k = 0; k < n; k++) {
+                        double akp = a[k][p], akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = a[p][k], aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double vkp = v[k][p], vkq = v[k][q];
+                        v[k][p] = c * vkp - s * vkq;
+                        v[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+        basis = v;
+        for (int i = 0; i < n; i++) {
+            deviations[i] = Math.sqrt(Math.max(a[i][i], 1e-20));
+        }
+    }
+
+    /**
+     * Run a batch of route evaluations on the worker threads
+     *
+     * @return the evaluated routes, in the order of the tasks
+     */
+    private List<Route> evaluate(List<Callable<Route>> toRun) {
+        List<Route> routes = new ArrayList<>(toRun.size());
+        try {
+            for (Future<Route> route : executor.invokeAll(toRun)) {
+                Route finished = route.get();
+                evaluations++;
+                verticesScored += finished.getVerticesScored();
+                routes.add(finished);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating routes", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Route evaluation failed", e.getCause());
+        }
+        return routes;
+    }
+
+    @Override
+    public Route getBest() {
+        return best;
+    }
+
+    /**
+     * The search is on the shape itself, so only a route scored with the distance field needs scoring again
+     */
+    @Override
+    public Route finish() {
+        if (map.getDistanceField() != null) {
+            best.rescore();
+        }
+        return best;
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    public long getVerticesScored() {
+        return verticesScored;
+    }
+
+    @Override
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,36 +1,158 @@
 package TraceRoute.ea;
 
+import TraceRoute.fitness.FitnessCache;
+import TraceRoute.index.DensityGrid;
+import TraceRoute.index.LocalProjection;
 import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.shape.DouglasPeucker;
+import com.google.common.cache.CacheStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.concurrent.*;
+import java.util.random.RandomGenerator;
+import java.util.zip.CRC32C;
+
+/**
+ * Runs the evolutionary search for the best placement of a shape on a map.
+ * <p>
+ * Every route is evaluated by a task of its own that returns the finished {@link Route}, and the results
+ * are gathered in submission order once the whole batch is done. The population itself is only touched by
+ * the thread calling {@link #nextGeneration()}, so the workers share nothing but the read-only map
+ * and the {@link FitnessCache}, which saves re-scoring placements that have been seen before.
+ * <p>
+ * Most placements are rejected after a generation or two, so the search starts on a {@link DouglasPeucker}
+ * simplification of the shape with a hundred or so vertices. Each time the population stops improving the survivors
+ * are scored again on a more detailed simplification and the search carries on from there, until it converges on
+ * the most detailed one. Only the final few routes are ever scored with every vertex of the shape.
+ * <p>
+ * All the randomness of a generation is drawn from one seed, split between the tasks that need it, and the seed
+ * of the next generation is drawn last. So the seed and the survivors are the whole state of the search, which
+ * is what a {@link Checkpoint} saves for a search on a machine that may be taken away.
+ */
+public class Conductor implements Optimizer {
+    /**
+     * Number of the best routes scored on the shape itself, and exactly if the search used the distance field
+     */
+    static final int FINALISTS = 20;
+    /**
+     * Vertex counts of the simplifications searched before the shape itself, coarsest first. Over the same seeds
+     * these finish level with a search on the shape itself while scoring about a quarter fewer vertices; coarser
+     * ones score far fewer but finish on worse routes, as <code>ResolutionComparison</code> shows.
+     */
+    static final int[] RESOLUTIONS = {128, 512};
+    /**
+     * Number of generations a search runs for at most
+     */
+    static final int GENERATIONS = 200;
+    /**
+     * Number of generations in a row without improvement after which the search on a simplification has converged
+     * and moves on to a more detailed one
+     */
+    static final int PATIENCE = 3;
+
+    /**
+     * A version of the shape that is searched on, with the fitness of the placements it has been scored at
+     */
+    private record Resolution(Shape shape, FitnessCache cache) {
+    }
 
-public class Conductor {
     private final OpenStreetMap map;
     private final Shape shape;
+    /**
+     * The shapes searched on, coarsest first; the last is the shape itself unless it was simplified
+     */
+    private final List<Resolution> resolutions = new ArrayList<>();
+    private int resolution;
+    private int generation;
+    /**
+     * Number of generations in a row that have not improved on the fittest route
+     */
+    private int stalled;
+    /**
+     * Seed of the next generation's randomness, which is all of the search's random state
+     */
+    private long seed;
+    private long evaluations;
+    private long verticesScored;
+    private Path checkpointFile;
+    private int checkpointInterval;
     private final Logger logger;
     double maxScaleFactor;
+    /**
+     * The current population, fittest first
+     */
     private List<Route> children;
-    private BlockingQueue<List<Double>> childqueue;
     private final ExecutorService executor;
-    private LinkedList<Callable<Integer>> toRun;
+    private final boolean ownsExecutor;
 
     public Conductor(Shape shape, OpenStreetMap map) {
-        children = new ArrayList<Route>(1000);
-        toRun = new LinkedList<Callable<Integer>>();
-        childqueue = new LinkedBlockingQueue<>();
+        this(shape, map, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of routes evaluated at once
+     */
+    public Conductor(Shape shape, OpenStreetMap map, int threads) {
+        this(shape, map, Executors.newFixedThreadPool(threads), true, RESOLUTIONS);
+    }
+
+    /**
+     * Evaluate routes on an executor shared with other work, such as the other jobs of a batch.
+     * The executor is left running by {@link #shutdown()}.
+     *
+     * @param executor where routes are evaluated
+     */
+    public Conductor(Shape shape, OpenStreetMap map, ExecutorService executor) {
+        this(shape, map, executor, false, RESOLUTIONS);
+    }
+
+    /**
+     * Search on simplifications of the shape with the given vertex counts before the shape itself
+     *
+     * @param executor     where routes are evaluated, left running by {@link #shutdown()}
+     * @param vertexCounts vertex counts of the simplifications, coarsest first; none to search on the shape itself
+     */
+    public Conductor(Shape shape, OpenStreetMap map, ExecutorService executor, int[] vertexCounts) {
+        this(shape, map, executor, false, vertexCounts);
+    }
+
+    /**
+     * Search with a given seed, so that searches with different settings can be compared on the same randomness
+     *
+     * @param executor     where routes are evaluated, left running by {@link #shutdown()}
+     * @param vertexCounts vertex counts of the simplifications, coarsest first; none to search on the shape itself
+     * @param seed         the seed of all the search's randomness
+     */
+    Conductor(Shape shape, OpenStreetMap map, ExecutorService executor, int[] vertexCounts, long seed) {
+        this(shape, map, executor, false, vertexCounts, seed);
+        populate();
+    }
+
+    private Conductor(Shape shape, OpenStreetMap map, ExecutorService executor, boolean ownsExecutor, int[] vertexCounts) {
+        this(shape, map, executor, ownsExecutor, vertexCounts, ThreadLocalRandom.current().nextLong());
+        populate();
+    }
+
+    /**
+     * Set up the search without a population
+     */
+    private Conductor(Shape shape, OpenStreetMap map, ExecutorService executor, boolean ownsExecutor, int[] vertexCounts, long seed) {
         logger = LoggerFactory.getLogger(Route.class);
+        this.seed = seed;
         this.map = map;
         this.shape = shape;
-        int p = 0;
         com.github.davidmoten.rtree.geometry.Rectangle mapBounds = map.getBounds();
         Rectangle2D shapeBounds = shape.getBounds2D();
 
@@ -38,100 +160,406 @@ public class Conductor {
                 Math.abs(mapBounds.x2() - mapBounds.x1()) / shapeBounds.getWidth(),
                 Math.abs(mapBounds.y2() - mapBounds.y1()) / shapeBounds.getHeight()
         );
-        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        int vertices = DouglasPeucker.countVertices(shape);
+        for (int count : vertexCounts) {
+            if (count < vertices) {
+                resolutions.add(new Resolution(DouglasPeucker.simplify(shape, count), newCache()));
+            }
+        }
+        if (resolutions.isEmpty()) {
+            resolutions.add(new Resolution(shape, newCache()));
+        }
+    }
+
+    /**
+     * Score the initial population of random placements
+     */
+    private void populate() {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Callable<Route>> toRun = new ArrayList<>(1000);
         for (int i = 0; i < 1000; i++) {
-            toRun.add(this::generateRoute);
+            SplittableRandom own = random.split();
+            toRun.add(() -> randomRoute(Double.POSITIVE_INFINITY, own));
         }
-        try {
-            executor.invokeAll(toRun);
+        seed = random.nextLong();
+        children = evaluate(toRun);
+        children.sort(Comparator.comparing(Route::getFitness));
+    }
+
+    /**
+     * Carry on with a search from a checkpoint written by {@link #setCheckpoint}, on the same map and shape.
+     * The survivors are restored with the fitness they were saved with, so none of them is scored again.
+     *
+     * @param file     the checkpoint
+     * @param executor where routes are evaluated, left running by {@link #shutdown()}
+     * @return the search, ready for its next generation
+     * @throws IOException if the checkpoint cannot be read, or was written for another map or shape
+     */
+    public static Conductor resume(Path file, Shape shape, OpenStreetMap map, ExecutorService executor) throws IOException {
+        return resume(file, shape, map, executor, RESOLUTIONS);
+    }
+
+    /**
+     * Carry on with a search from a checkpoint, for a search on simplifications with the given vertex counts
+     *
+     * @param vertexCounts the vertex counts the search was started with
+     * @see #resume(Path, Shape, OpenStreetMap, ExecutorService)
+     */
+    public static Conductor resume(Path file, Shape shape, OpenStreetMap map, ExecutorService executor, int[] vertexCounts) throws IOException {
+        Checkpoint checkpoint = Checkpoint.read(file);
+        if (checkpoint.mapChecksum() != map.getIndex().getSourceChecksum() || checkpoint.mapLength() != map.getIndex().getSourceLength()) {
+            throw new IOException("%s was written for another map".formatted(file));
         }
-        catch (InterruptedException e)
-        {
-            e.printStackTrace();
+        Conductor conductor = new Conductor(shape, map, executor, false, vertexCounts, checkpoint.seed());
+        if (checkpoint.shapeChecksum() != conductor.shapeChecksum() || checkpoint.resolution() >= conductor.resolutions.size()) {
+            throw new IOException("%s was written for another shape".formatted(file));
+        }
+        conductor.resolution = checkpoint.resolution();
+        conductor.generation = checkpoint.generation();
+        conductor.stalled = checkpoint.stalled();
+        conductor.evaluations = checkpoint.evaluations();
+        conductor.verticesScored = checkpoint.verticesScored();
+        Resolution current = conductor.current();
+        List<Route> children = new ArrayList<>(checkpoint.routes().size());
+        for (Checkpoint.Saved saved : checkpoint.routes()) {
+            Route route = Route.restore(current.shape(), saved.placement(), map, saved.fitness());
+            route.setDrift(saved.drift());
+            children.add(route);
+        }
+        children.sort(Comparator.comparing(Route::getFitness));
+        conductor.children = children;
+        conductor.logger.info("Resumed at generation %d with %d routes, best fitness %s".formatted(
+                checkpoint.generation(), children.size(), children.get(0).getFitness()));
+        return conductor;
+    }
+
+    /**
+     * Write a checkpoint every few generations, from which {@link #resume} can carry on if this JVM dies.
+     * Each one replaces the last.
+     *
+     * @param file     where to write the checkpoints
+     * @param interval the number of generations between checkpoints
+     */
+    public void setCheckpoint(Path file, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Checkpoints must be at most one a generation");
         }
+        checkpointFile = file;
+        checkpointInterval = interval;
     }
 
-    private int generateRoute() {
-        if(childqueue.isEmpty()) {
-            children.add(new Route(
-                    shape,
-                    ThreadLocalRandom.current().nextDouble(maxScaleFactor / 20, maxScaleFactor/4),
-                    new Point2D.Double(
-                            ThreadLocalRandom.current().nextDouble(-0.3, 0.2),
-                            ThreadLocalRandom.current().nextDouble(51.4, 51.6)
-                    ),
-                    0.0,
-                    0.0,
-                    0.0,
-                    0.0,
-                    map)
-            );
-        }
-        else
-        {
-            logger.info(String.valueOf(childqueue.size()));
-            try {
-                List<Double> child = childqueue.poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-
-                children.add(new Route(
-                        shape,
-                        child.get(0),
-                        new Point2D.Double(child.get(1), child.get(2)),
-                        child.get(3),
-                        child.get(4),
-                        child.get(5),
-                        child.get(6),
-                        map)
-                );
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
+    /**
+     * Save the survivors and everything else needed to carry on with the search
+     *
+     * @param file where to write the checkpoint
+     * @throws IOException if it cannot be written
+     */
+    public void checkpoint(Path file) throws IOException {
+        List<Checkpoint.Saved> survivors = new ArrayList<>(200);
+        for (Route route : children.subList(0, Math.min(200, children.size()))) {
+            survivors.add(new Checkpoint.Saved(route.getGenome(), route.getDrift(), route.getFitness()));
+        }
+        new Checkpoint(map.getIndex().getSourceChecksum(), map.getIndex().getSourceLength(), shapeChecksum(),
+                resolution, generation, stalled, seed, evaluations, verticesScored, survivors).write(file);
+    }
+
+    /**
+     * A checksum of the vertices of every version of the shape searched on, so that a checkpoint is only resumed
+     * for the same shape and simplifications
+     */
+    private long shapeChecksum() {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + 2 * Double.BYTES);
+        double[] coordinates = new double[6];
+        for (Resolution searched : resolutions) {
+            for (PathIterator iterator = searched.shape().getPathIterator(null); !iterator.isDone(); iterator.next()) {
+                buffer.clear();
+                buffer.putInt(iterator.currentSegment(coordinates));
+                buffer.putDouble(coordinates[0]).putDouble(coordinates[1]);
+                crc.update(buffer.flip());
             }
         }
-        return 0;
+        return crc.getValue();
     }
 
-    public Route findOptimalRoute() {
-        double prevFitness;
-        children.sort(Comparator.comparing(Route::getFitness));
+    /**
+     * The fitness of placements is cached per resolution, as each scores the same placement differently
+     */
+    private FitnessCache newCache() {
+        return new FitnessCache(FitnessCache.DEFAULT_SIZE);
+    }
+
+    /**
+     * @return the version of the shape currently searched on
+     */
+    private Resolution current() {
+        return resolutions.get(resolution);
+    }
+
+    /**
+     * Place the shape at a random position and scale. If the map has a {@link DensityGrid} the centre is drawn
+     * in proportion to the length of road around it, so that few routes are wasted on parks and rivers,
+     * otherwise uniformly over central London.
+     *
+     * @param cutoff stop scoring once the route is known to be worse than this
+     * @param random where the placement is drawn from
+     */
+    private Route randomRoute(double cutoff, RandomGenerator random) {
+        Resolution current = current();
+        DensityGrid density = map.getDensityGrid();
+        LocalProjection projection = map.getProjection();
+        return new Route(
+                current.shape(),
+                random.nextDouble(maxScaleFactor / 20, maxScaleFactor/4),
+                density != null ? density.sample(random) : new Point2D.Double(
+                        projection.x(random.nextDouble(-0.3, 0.2)),
+                        projection.y(random.nextDouble(51.4, 51.6))
+                ),
+                0.0,
+                0.0,
+                0.0,
+                0.0,
+                map,
+                current.cache(),
+                cutoff);
+    }
+
+    /**
+     * Run a batch of route evaluations on the worker threads
+     *
+     * @param toRun the evaluations
+     * @return the evaluated routes, in the order of the tasks
+     */
+    private List<Route> evaluate(List<Callable<Route>> toRun) {
+        List<Route> routes = new ArrayList<>(toRun.size());
         try {
-            for (int x = 0; x < 200; x++) {
-                toRun = new LinkedList<Callable<Integer>>();
-                logger.info("Beginning " + x + " Generation " + children.get(0).getFitness());
-                prevFitness = children.get(0).getFitness();
-                children = children.subList(0,200);
-                for (int i = 0; i < 200; i++) {
-                    for (int q = 0; q < 3; q++) {
-                        List<Double> child = children.get(i).getChild(1.0, 0.5);
-                        if(Math.abs(child.get(0))>maxScaleFactor/2 || Math.abs(child.get(0))>maxScaleFactor/10)
-                        {
-                            child.set(0,maxScaleFactor/2);
-                        }
-                        childqueue.offer(child,Long.MAX_VALUE,TimeUnit.NANOSECONDS);
-                        toRun.add(this::generateRoute);
-                    }
-                    for(int g = 0; g < 1; g++) {
-                        toRun.add(this::generateRoute); //Adds some new random ones to see if they are better
-                    }
-                }
-                try {
-                    executor.invokeAll(toRun);
-                    System.out.println();
-                }
-                catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                children.sort(Comparator.comparing(Route::getFitness));
-                if(children.get(0).getFitness() == prevFitness)
-                {
-                    break;
-                }
+            for (Future<Route> route : executor.invokeAll(toRun)) {
+                Route finished = route.get();
+                evaluations++;
+                verticesScored += finished.getVerticesScored();
+                routes.add(finished);
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Route evaluation failed", e.getCause());
+        }
+        return routes;
+    }
+
+    /**
+     * Breed a generation, and move the search on to a more detailed version of the shape once {@link #PATIENCE}
+     * generations in a row have brought no improvement. A search can be run a generation at a time like this, exchanging routes with other searches
+     * in between, see {@link #emigrants} and {@link #immigrate}.
+     *
+     * @return false once the search has converged on the most detailed version or run out of generations. It can
+     * be called again after that, to carry on with the most detailed version once other routes have arrived.
+     */
+    @Override
+    public boolean evolve() {
+        if (generation == GENERATIONS) {
+            return false;
+        }
+        logger.info("Beginning " + generation + " Generation " + children.get(0).getFitness());
+        double prevFitness = children.get(0).getFitness();
+        nextGeneration();
+        generation++;
+        stalled = children.get(0).getFitness() < prevFitness ? 0 : stalled + 1;
+        boolean going = true;
+        if (resolution + 1 == resolutions.size()) {
+            going = stalled == 0;
+        } else if (stalled == PATIENCE) {
+            refine();
+            stalled = 0;
+        }
+        if (checkpointFile != null && generation % checkpointInterval == 0) {
+            try {
+                checkpoint(checkpointFile);
+            } catch (IOException e) {
+                logger.warn("Could not write checkpoint %s".formatted(checkpointFile), e);
+            }
+        }
+        return going;
+    }
+
+    @Override
+    public Route getBest() {
+        return children.get(0);
+    }
+
+    /**
+     * End the search, scoring the best routes on the shape itself
+     *
+     * @return the fittest route
+     */
+    @Override
+    public Route finish() {
+        scoreFinalists();
+        CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+        long rescored = 0;
+        for (Resolution searched : resolutions) {
+            stats = stats.plus(searched.cache().stats());
+            rescored += searched.cache().getRescored();
+        }
+        long saved = stats.hitCount() - rescored;
+        logger.info("Fitness cache: %d of %d evaluations saved (%.1f%%), %d bounds scored again, %d evicted".formatted(
+                saved, stats.requestCount(), stats.requestCount() > 0 ? 100.0 * saved / stats.requestCount() : 0,
+                rescored, stats.evictionCount()));
+        return children.get(0);
+    }
+
+    /**
+     * @param count the number of routes
+     * @return the placements of the fittest routes, fittest first
+     */
+    public List<Genome> emigrants(int count) {
+        List<Genome> emigrants = new ArrayList<>(count);
+        for (Route route : children.subList(0, Math.min(count, children.size()))) {
+            emigrants.add(route.getGenome());
+        }
+        return emigrants;
+    }
+
+    /**
+     * Score placements found by another search on the version of the shape currently searched on, and add them to
+     * the population. They only survive the next generation if they are fitter than the worst survivor.
+     *
+     * @param migrants the placements
+     */
+    public void immigrate(List<Genome> migrants) {
+        Resolution current = current();
+        double cutoff = children.get(Math.min(200, children.size()) - 1).getFitness();
+        List<Callable<Route>> toRun = new ArrayList<>(migrants.size());
+        for (Genome genome : migrants) {
+            toRun.add(() -> new Route(current.shape(), genome, map, current.cache(), cutoff));
+        }
+        List<Route> next = new ArrayList<>(children);
+        next.addAll(evaluate(toRun));
+        next.sort(Comparator.comparing(Route::getFitness));
+        children = next;
+    }
+
+    /**
+     * Move the search on to the next, more detailed version of the shape, scoring the survivors again on it
+     */
+    private void refine() {
+        resolution++;
+        Resolution current = current();
+        List<Callable<Route>> toRun = new ArrayList<>(200);
+        for (Route route : children.subList(0, Math.min(200, children.size()))) {
+            toRun.add(() -> route.refine(current.shape(), current.cache()));
         }
+        children = evaluate(toRun);
         children.sort(Comparator.comparing(Route::getFitness));
+        logger.info("Refined to %d vertices, best fitness %s".formatted(
+                DouglasPeucker.countVertices(current.shape()), children.get(0).getFitness()));
+    }
+
+    /**
+     * Score the best few routes on the shape itself if the search was on a simplification of it, and exactly
+     * against the road index if it used the distance field, then rank them again
+     */
+    private void scoreFinalists() {
+        boolean simplified = current().shape() != shape;
+        boolean approximate = map.getDistanceField() != null;
+        if (!simplified && !approximate) {
+            return;
+        }
+        List<Route> finalists = children.subList(0, Math.min(FINALISTS, children.size()));
+        List<Callable<Route>> toRun = new ArrayList<>(finalists.size());
+        for (Route route : finalists) {
+            toRun.add(() -> {
+                Route finalist = simplified ? route.refine(shape, null) : route;
+                return approximate ? finalist.rescore() : finalist;
+            });
+        }
+        List<Route> rescored = evaluate(toRun);
+        rescored.sort(Comparator.comparing(Route::getFitness));
+        logger.info("Rescored %d finalists %s, best fitness %s".formatted(rescored.size(),
+                approximate ? "exactly" : "at full resolution", rescored.get(0).getFitness()));
+        List<Route> next = new ArrayList<>(rescored);
+        next.addAll(children.subList(finalists.size(), children.size()));
+        children = next;
+    }
+
+    /**
+     * Report how many vertex probes the cutoff saved in a generation, and how many of the rest needed no search
+     */
+    private void logProbesSaved(List<Route> bred) {
+        long scored = 0, skipped = 0, fromCandidates = 0;
+        for (Route route : bred) {
+            scored += route.getVerticesScored();
+            skipped += route.getVerticesSkipped();
+            fromCandidates += route.getVerticesFromCandidates();
+        }
+        logger.info("Cutoff skipped %d of %d vertex probes (%.1f%%)".formatted(
+                skipped, scored + skipped, scored + skipped == 0 ? 0.0 : 100.0 * skipped / (scored + skipped)));
+        logger.info("Parents' segments served %d of %d scored vertices (%.1f%%)".formatted(
+                fromCandidates, scored, scored == 0 ? 0.0 : 100.0 * fromCandidates / scored));
+    }
+
+    /**
+     * @return the fitness cache shared by every route on the version of the shape currently searched on
+     */
+    public FitnessCache getFitnessCache() {
+        return current().cache();
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    public long getVerticesScored() {
+        return verticesScored;
+    }
+
+    /**
+     * Breed a single generation: the 200 fittest routes each get three mutated children,
+     * and 200 new random routes are added alongside them.
+     * Only routes better than the worst survivor can make it into the next generation,
+     * so the others are abandoned as soon as their score passes it.
+     *
+     * @return the fittest route after the generation
+     */
+    public Route nextGeneration() {
+        List<Route> survivors = children.subList(0, Math.min(200, children.size()));
+        Resolution current = current();
+        double cutoff = survivors.get(survivors.size() - 1).getFitness();
+        List<Callable<Route>> toRun = new ArrayList<>(survivors.size() * 4);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (Route parent : survivors) {
+            for (int q = 0; q < 3; q++) {
+                Genome child = parent.getChild(1.0, 0.5, random);
+                if (!(child.scaleFactor() > 0) || child.scaleFactor() > maxScaleFactor / 10) {
+                    child = child.withScaleFactor(maxScaleFactor/2);
+                }
+                Genome genome = child;
+                // children stay close to their parent, so most of their vertices need no search of the road index
+                toRun.add(() -> new Route(current.shape(), genome, map, current.cache(), cutoff, parent.getCandidates()));
+            }
+            SplittableRandom own = random.split();
+            toRun.add(() -> randomRoute(cutoff, own)); //Adds some new random ones to see if they are better
+        }
+        seed = random.nextLong();
+        List<Route> next = new ArrayList<>(survivors.size() + toRun.size());
+        next.addAll(survivors);
+        List<Route> bred = evaluate(toRun);
+        next.addAll(bred);
+        logProbesSaved(bred);
+        next.sort(Comparator.comparing(Route::getFitness));
+        children = next;
         return children.get(0);
     }
+
+    @Override
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package TraceRoute.ea;
+
+/**
+ * The parameters that place a {@link Route}, together with those of its parent,
+ * which are used to estimate the gradient when it is mutated.
+ *
+ * @param scaleFactor     how much the shape is scaled up, in metres per unit of the shape
+ * @param x               metres east of the projection origin to the centre of the shape
+ * @param y               metres north of the projection origin to the centre of the shape
+ * @param prevX           x of the parent's centre
+ * @param prevY           y of the parent's centre
+ * @param prevScaleFactor scale factor of the parent
+ * @param prevFitness     fitness of the parent
+ */
+public record Genome(double scaleFactor, double x, double y,
+                     double prevX, double prevY, double prevScaleFactor, double prevFitness) {
+
+    /**
+     * @return a copy of this genome with a different scale factor
+     */
+    public Genome withScaleFactor(double scaleFactor) {
+        return new Genome(scaleFactor, x, y, prevX, prevY, prevScaleFactor, prevFitness);
+    }
+}
@@ -0,0 +1,54 @@
+package TraceRoute.ea;
+
+/**
+ * A search for the placement of a shape on a map: the centre and scale factor that make it lie closest to roads.
+ * <p>
+ * A search can be run to the end with {@link #findOptimalRoute()}, or a generation at a time with {@link #evolve()}
+ * so that the caller can watch its progress, for example to count the evaluations needed to reach a fitness.
+ */
+public interface Optimizer {
+    /**
+     * Run one generation of the search
+     *
+     * @return false once the search has converged or run out of generations
+     */
+    boolean evolve();
+
+    /**
+     * @return the fittest route found so far
+     */
+    Route getBest();
+
+    /**
+     * End the search, scoring the best routes exactly and on the shape itself if the search did not
+     *
+     * @return the fittest route
+     */
+    Route finish();
+
+    /**
+     * Run the search until it converges
+     *
+     * @return the fittest route
+     */
+    default Route findOptimalRoute() {
+        while (evolve()) {
+        }
+        return finish();
+    }
+
+    /**
+     * @return the number of routes placed by the search so far, including those scored from a cache
+     */
+    long getEvaluations();
+
+    /**
+     * @return the number of vertices scored by every evaluation of this search so far, a measure of its cost
+     */
+    long getVerticesScored();
+
+    /**
+     * Stop the worker threads once no more generations are needed, unless the executor was passed in
+     */
+    void shutdown();
+}
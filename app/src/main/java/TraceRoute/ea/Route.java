@@ -1,12 +1,17 @@
 package TraceRoute.ea;
 
-import TraceRoute.fitness.Fitness;
+import TraceRoute.fitness.DistanceFieldFitness;
+import TraceRoute.fitness.FitnessCache;
+import TraceRoute.fitness.FitnessFunction;
+import TraceRoute.fitness.PerpendicularFitness;
+import TraceRoute.fitness.SegmentCandidates;
+import TraceRoute.graph.RoadGraph;
+import TraceRoute.graph.Router;
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.SegmentIndex;
 import TraceRoute.osm.OpenStreetMap;
-import com.github.davidmoten.rtree.*;
 import com.github.davidmoten.rtree.geometry.Point;
-import com.github.davidmoten.rtree.geometry.Rectangle;
 import com.github.davidmoten.rtree.geometry.*;
-import com.google.common.io.Files;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,15 +20,18 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.io.*;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 public class Route {
+    /**
+     * How far in metres to either side of each vertex the fitness looks for a road
+     */
+    public static final double SEARCH_DISTANCE = 100;
 
     private static Logger logger;
-    private final Serializer<String, Geometry> serializer = Serializers.flatBuffers().utf8();
     private double fitness;
     private double scaleFactor;
     private double X;
@@ -35,13 +43,62 @@ public class Route {
     private final Shape shape;
     private final OpenStreetMap map;
     private final AffineTransform transform;
+    /**
+     * Moves the centre of the shape to the origin, for the fitness kernels to place themselves
+     */
+    private final AffineTransform centring;
+    /**
+     * The placement the fitness was scored for; getChild moves X, Y and scaleFactor on afterwards
+     */
+    private final Point2D.Double center;
+    private final double placedScaleFactor;
     private final List<Point> pointList = new ArrayList<>();
-    private RTree<String, Geometry> intersectTree;
-    private final String filename = "intersectTree";
+    /**
+     * Segments around the parent's placement, which this route is scored against where it stays close to it
+     */
+    private final SegmentCandidates inherited;
+    /**
+     * Segments around this route's placement for its children, collected when first asked for
+     */
+    private SegmentCandidates candidates;
+    private int verticesScored;
+    private int verticesSkipped;
+    private int verticesFromCandidates;
 
     public Route(Shape shape, double scaleFactor, Point2D.Double center, double prevX, double prevY, double prevScaleFactor, double prevFitness, OpenStreetMap map) {
+        this(shape, scaleFactor, center, prevX, prevY, prevScaleFactor, prevFitness, map, null, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Place the shape, taking its fitness from the cache if this placement has been scored before
+     *
+     * @param cache  fitness of earlier placements of the same shape, or null to always evaluate
+     * @param cutoff stop scoring once the fitness is known to be worse than this; the fitness of such a route
+     *               is a lower bound that is also worse than the cutoff
+     */
+    public Route(Shape shape, double scaleFactor, Point2D.Double center, double prevX, double prevY, double prevScaleFactor, double prevFitness, OpenStreetMap map, FitnessCache cache, double cutoff) {
+        this(shape, scaleFactor, center, prevX, prevY, prevScaleFactor, prevFitness, map, cache, cutoff, null);
+    }
+
+    /**
+     * Place the shape, scoring it against the segments collected around its parent where it is close enough
+     *
+     * @param cache      fitness of earlier placements of the same shape, or null to always evaluate
+     * @param cutoff     stop scoring once the fitness is known to be worse than this
+     * @param candidates segments around the parent's placement of the same shape, or null to search the road index
+     */
+    public Route(Shape shape, double scaleFactor, Point2D.Double center, double prevX, double prevY, double prevScaleFactor, double prevFitness, OpenStreetMap map, FitnessCache cache, double cutoff, SegmentCandidates candidates) {
+        this(shape, scaleFactor, center, prevX, prevY, prevScaleFactor, prevFitness, map, cache, cutoff, candidates, null);
+    }
+
+    /**
+     * @param known the fitness of the placement if it is already known, or null to score it
+     */
+    private Route(Shape shape, double scaleFactor, Point2D.Double center, double prevX, double prevY, double prevScaleFactor, double prevFitness, OpenStreetMap map, FitnessCache cache, double cutoff, SegmentCandidates candidates, Double known) {
         X = center.getX();
         Y = center.getY();
+        this.center = center;
+        this.placedScaleFactor = scaleFactor;
         this.shape = shape;
         this.map = map;
         this.scaleFactor = scaleFactor;
@@ -49,6 +106,7 @@ public class Route {
         this.prevX = prevX;
         this.prevY = prevY;
         this.prevScaleFactor = prevScaleFactor;
+        this.inherited = candidates;
         logger = LoggerFactory.getLogger(Route.class);
 
         //logger.info("Generating route with s.f. %s centred around %s, %s".formatted(scaleFactor, center.y, center.x));
@@ -75,10 +133,17 @@ public class Route {
         // sets the center as the origin point
         transform.translate(-centerX, -centerY);
         this.transform = transform;
+        this.centring = AffineTransform.getTranslateInstance(-centerX, -centerY);
         // iterate over the shape
         PathIterator iterator = shape.getPathIterator(transform);
 
-        fitness = Fitness.Perpendicular(map.getTree(), shape.getPathIterator(transform), center.getY(), center.getX(), scaleFactor, 0.1);
+        if (known != null) {
+            fitness = known;
+        } else if (cache == null) {
+            fitness = evaluate(center, cutoff);
+        } else {
+            fitness = cache.get(center.getX(), center.getY(), scaleFactor, cutoff, () -> evaluate(center, cutoff));
+        }
         //TODO : Fix the fact that the previous thing will be the same if it was not randomly changed last time.
         //TODO : Fix the fact that the best thing destroys all other contenders (so it converges and then doesn't improve)
         //TODO : Fix the fact that the gradient descent seems to be slightly broken
@@ -86,9 +151,89 @@ public class Route {
         //TODO : get rid of newborn bonus it obviously doesn't work
     }
 
-    public List<Double> getChild(double maxDistance, double entropy) {
+    /**
+     * Place the shape as described by a genome
+     *
+     * @param cache  fitness of earlier placements of the same shape, or null to always evaluate
+     * @param cutoff stop scoring once the fitness is known to be worse than this
+     */
+    public Route(Shape shape, Genome genome, OpenStreetMap map, FitnessCache cache, double cutoff) {
+        this(shape, genome, map, cache, cutoff, null);
+    }
+
+    /**
+     * Place the shape as described by the genome of a child, scoring it against its parent's segments
+     *
+     * @param cache      fitness of earlier placements of the same shape, or null to always evaluate
+     * @param cutoff     stop scoring once the fitness is known to be worse than this
+     * @param candidates segments around the parent's placement, see {@link #getCandidates()}
+     */
+    public Route(Shape shape, Genome genome, OpenStreetMap map, FitnessCache cache, double cutoff, SegmentCandidates candidates) {
+        this(shape, genome.scaleFactor(), new Point2D.Double(genome.x(), genome.y()),
+                genome.prevX(), genome.prevY(), genome.prevScaleFactor(), genome.prevFitness(), map, cache, cutoff, candidates);
+    }
+
+    /**
+     * Place the shape as described by a genome whose fitness is already known, without scoring it again
+     *
+     * @param fitness the fitness it was scored with
+     */
+    static Route restore(Shape shape, Genome genome, OpenStreetMap map, double fitness) {
+        return new Route(shape, genome.scaleFactor(), new Point2D.Double(genome.x(), genome.y()), genome.prevX(), genome.prevY(),
+                genome.prevScaleFactor(), genome.prevFitness(), map, null, Double.POSITIVE_INFINITY, null, fitness);
+    }
+
+    /**
+     * Score the route with the map's distance field if it has one, otherwise exactly
+     */
+    private double evaluate(Point2D.Double center, double cutoff) {
+        if (map.getDistanceField() != null) {
+            FitnessFunction kernel = new DistanceFieldFitness(map.getDistanceField());
+            double score = kernel.evaluate(shape.getPathIterator(centring), center.getX(), center.getY(), scaleFactor, SEARCH_DISTANCE, cutoff);
+            verticesScored = kernel.getVerticesScored();
+            verticesSkipped = kernel.getVerticesSkipped();
+            return score;
+        }
+        PerpendicularFitness kernel = new PerpendicularFitness(map.getIndex());
+        double score = kernel.evaluate(shape.getPathIterator(centring), center.getX(), center.getY(), scaleFactor, SEARCH_DISTANCE, cutoff, inherited);
+        verticesScored = kernel.getVerticesScored();
+        verticesSkipped = kernel.getVerticesSkipped();
+        verticesFromCandidates = kernel.getVerticesFromCandidates();
+        return score;
+    }
+
+    /**
+     * The segments around this route's placement, for scoring its children without the road index where they
+     * stay close to it. They are collected on the first call, so only routes that have children pay for them.
+     *
+     * @return the segments, or null if routes are scored with the distance field, which needs none
+     */
+    public synchronized SegmentCandidates getCandidates() {
+        if (candidates == null && map.getDistanceField() == null) {
+            candidates = new PerpendicularFitness(map.getIndex())
+                    .collect(shape.getPathIterator(centring), center.getX(), center.getY(), placedScaleFactor, SEARCH_DISTANCE);
+        }
+        return candidates;
+    }
+
+    /**
+     * Mutate one of the placement parameters, moving it along the gradient estimated from the parent
+     *
+     * @return the genome of the child
+     */
+    public Genome getChild(double maxDistance, double entropy) {
+        return getChild(maxDistance, entropy, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Mutate one of the placement parameters with the given source of randomness, so that a seeded search can be
+     * repeated
+     *
+     * @return the genome of the child
+     */
+    public Genome getChild(double maxDistance, double entropy, RandomGenerator random) {
         //To keep things simple we only optimise one value at a time
-        int choice = ThreadLocalRandom.current().nextInt(0, 3);
+        int choice = random.nextInt(0, 3);
         double gradient = 0.0;
         double change = 0.0;
         double oldX, oldY, oldSF;
@@ -115,8 +260,9 @@ public class Route {
             gradient = -100000;
         }
         gradient *= 0.001;
-        change = ThreadLocalRandom.current().nextDouble(-0.01 * maxDistance, 0.1 * maxDistance) * gradient + ThreadLocalRandom.current().nextDouble(0.0000000001 * entropy);
-        change *= 0.0000005;
+        change = random.nextDouble(-0.01 * maxDistance, 0.1 * maxDistance) * gradient + random.nextDouble(0.0000000001 * entropy);
+        // the steps were tuned in degrees, which are kept as the unit of the search
+        change *= 0.0000005 * LocalProjection.METRES_PER_DEGREE;
         switch (choice) {
             case 0:
                 this.X = X += change;
@@ -128,126 +274,187 @@ public class Route {
                 scaleFactor = scaleFactor += change;
                 break;
         }
-        return new ArrayList<Double>(Arrays.asList(scaleFactor, X, Y, oldX, oldY, oldSF, fitness));
+        return new Genome(scaleFactor, X, Y, oldX, oldY, oldSF, fitness);
     }
 
     public double getFitness() {
         return fitness;
     }
 
-    //TODO make this bit find the nearest INTERSECTION
-    private void makeTree(String filename) throws IOException {
-        double startTime;
-        HashSet<Line> found = new HashSet<>();
-        int count = 1;
-        Point toInsert;
-        List<Line> segments = new LinkedList<>();
-        startTime = System.nanoTime();
+    /**
+     * @return where {@link #getChild} has moved the centre and scale factor on to from the placement, x, y and
+     * scale factor in that order
+     */
+    double[] getDrift() {
+        return new double[]{X, Y, scaleFactor};
+    }
 
-        File serialisedTree = new File("%s.rtree".formatted(Files.getNameWithoutExtension(filename)));
-        if (serialisedTree.exists()) {
-            readTreeFromDisk(serialisedTree);
-        } else {
-            intersectTree = RTree.create();
-            for (Entry entry : map.getTree().entries().toBlocking().toIterable()) {
-                if (entry.geometry() instanceof Line) {
-                    segments.add((Line) entry.geometry());
-                }
-            }
-            for (Line l1 : segments) {
-                if(!found.contains(l1)) {
-                    for (Line l2 : segments) {
-                        if (l1 != l2 && l1.intersects(l2) && !found.contains(l2)) {
-                            for (Line l3 : segments) {
-                                if ((l1 != l3) && (l2 != l3) && l1.intersects(l2) && l2.intersects(l3) && !found.contains(l3)) {
-                                    try {
-                                        Point2D insertion = Fitness.intersection(new Point2D.Double(l1.x1(), l1.y1()), new Point2D.Double(l1.x2(), l1.y2()), new Point2D.Double(l2.x1(), l2.y1()), new Point2D.Double(l2.x2(), l2.y2()));
-                                        toInsert = Geometries.point(insertion.getX(), insertion.getY());
-                                        intersectTree = intersectTree.add(String.valueOf(l1.hashCode() * l2.hashCode() * l3.hashCode()), toInsert);
-                                        logger.info("Found intersection" + count);
-                                        count++;
-                                        found.add(l1);
-                                        found.add(l2);
-                                        found.add(l3);
-                                        logger.info(String.valueOf(segments.size() - found.size()));
-                                    } catch (IllegalArgumentException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            saveTreeToDisk(filename);
-        }
+    /**
+     * Move the centre and scale factor the next child is bred from, as returned by {@link #getDrift()}
+     */
+    void setDrift(double[] drift) {
+        X = drift[0];
+        Y = drift[1];
+        scaleFactor = drift[2];
+    }
+
+    /**
+     * @return the placement this route was scored at, together with its parent's
+     */
+    public Genome getGenome() {
+        return new Genome(placedScaleFactor, center.getX(), center.getY(), prevX, prevY, prevScaleFactor, prevFitness);
     }
 
     /**
-     * Save the currently in-memory R*-tree representation of the OpenStreetMap to a file
+     * Replace an approximate fitness from the distance field with the exact score against the road index
      *
-     * @param filename the filename to which to serialise the R*-tree
-     * @throws IOException if the filename provided is inaccessible or an error occurs during the write process
+     * @return this route, for use in streams
      */
-    private void saveTreeToDisk(String filename) throws IOException {
-        File serialisedTree = new File("%s.rtree".formatted(Files.getNameWithoutExtension(filename)));
+    public Route rescore() {
+        PerpendicularFitness kernel = new PerpendicularFitness(map.getIndex());
+        fitness = kernel.evaluate(shape.getPathIterator(centring), center.getX(), center.getY(), placedScaleFactor, SEARCH_DISTANCE);
+        verticesScored += kernel.getVerticesScored();
+        return this;
+    }
 
-        logger.info("Writing R*-tree to file %s".formatted(serialisedTree.getPath()));
+    /**
+     * Place a more detailed version of the shape where this route's shape was scored, keeping its history.
+     * The other shape must have the same bounds, as {@link TraceRoute.shape.DouglasPeucker} simplifications do,
+     * so that the same transform puts it in the same place.
+     *
+     * @param shape the shape to place instead
+     * @param cache fitness of earlier placements of that shape, or null to always evaluate
+     * @return the new route, scored in full
+     */
+    public Route refine(Shape shape, FitnessCache cache) {
+        return new Route(shape, placedScaleFactor, center, prevX, prevY, prevScaleFactor, prevFitness, map, cache, Double.POSITIVE_INFINITY);
+    }
 
-        OutputStream outputStream = new FileOutputStream(serialisedTree);
+    /**
+     * @return the number of vertices scored when this route was created, zero if its fitness came from the cache
+     */
+    public int getVerticesScored() {
+        return verticesScored;
+    }
 
-        serializer.write(intersectTree, outputStream);
+    /**
+     * @return the number of vertices scored against the parent's segments instead of the road index
+     */
+    public int getVerticesFromCandidates() {
+        return verticesFromCandidates;
+    }
 
-        logger.info("Tree save complete");
+    /**
+     * @return the number of vertices left unscored because the route was already past its cutoff
+     */
+    public int getVerticesSkipped() {
+        return verticesSkipped;
     }
 
     /**
-     * De-serialise a previously saved R*-tree representing the desired OpenStreetMap
+     * Snap every other vertex of the transformed shape to the nearest road junction
      *
-     * @param serialisedTree reference to File where the serialised R*-tree is stored
-     * @throws IOException if no such file exists or an error occurs during the import process
+     * @return the junctions the route passes through, in order
      */
-    private void readTreeFromDisk(File serialisedTree) throws IOException {
-        logger.info("Reading R*-tree from file %s".formatted(serialisedTree.getPath()));
-
-        InputStream input = Files.asByteSource(serialisedTree).openStream();
+    public List<Point> getPointList() {
+        pointList.clear();
+        for (int junction : snapToJunctions()) {
+            pointList.add(junctionPoint(junction));
+        }
+        logger.info("Finished calculating this route. Fitness: %s".formatted(fitness));
+        return pointList;
+    }
 
-        intersectTree = serializer.read(input, serialisedTree.length(), InternalStructure.DEFAULT);
+    /**
+     * The junctions of {@link #getPointList()} joined by the shortest path along the roads between each
+     * consecutive pair, so that the route can be ridden as it is. A leg that starts or ends at a crossing without
+     * a shared node, or whose junctions are not connected, is left as a straight line, and so is every leg if the
+     * map has no road graph.
+     *
+     * @return the points of the route, in order
+     */
+    public List<Point> getRoadPath() {
+        SegmentIndex junctions = map.getJunctions();
+        RoadGraph graph = map.getRoadGraph();
+        Router router = graph != null ? graph.router() : null;
+        List<Point> path = new ArrayList<>();
+        int previousJunction = -1;
+        int previousVertex = -1;
+        int routed = 0, straight = 0;
+        for (int junction : snapToJunctions()) {
+            if (junction == previousJunction) {
+                continue;
+            }
+            // crossings have negative IDs, which are never vertices
+            int vertex = graph != null ? graph.vertex(junctions.id(junction)) : -1;
+            int[] leg = previousVertex >= 0 && vertex >= 0 ? router.route(previousVertex, vertex) : null;
+            if (leg != null) {
+                for (int k = 1; k < leg.length; k++) {
+                    path.add(Geometries.pointGeographic(graph.lon(leg[k]), graph.lat(leg[k])));
+                }
+                routed++;
+            } else {
+                if (!path.isEmpty()) {
+                    straight++;
+                }
+                path.add(junctionPoint(junction));
+            }
+            previousJunction = junction;
+            previousVertex = vertex;
+        }
+        logger.info("Routed %d legs along the roads, %d left straight".formatted(routed, straight));
+        return path;
+    }
 
-        logger.info("Tree import complete");
+    /**
+     * @return the longitude and latitude of a junction
+     */
+    private Point junctionPoint(int junction) {
+        SegmentIndex junctions = map.getJunctions();
+        LocalProjection projection = junctions.getProjection();
+        return Geometries.pointGeographic(projection.lon(LocalProjection.toMetres(junctions.x1(junction))),
+                projection.lat(LocalProjection.toMetres(junctions.y1(junction))));
     }
 
-    //Perhaps what we need is to pregenerate an rTree of intersections this could significantly speed things up
-    public List<Point> getPointList() throws IOException {
-        makeTree(filename);
+    /**
+     * Snap every other vertex of the transformed shape to the nearest road junction, in one traversal of the
+     * junction index. If a vertex has no junction nearby the route is marked as failed and the rest are dropped.
+     *
+     * @return the item positions of the junctions in the junction index, in order
+     */
+    private int[] snapToJunctions() {
         PathIterator iterator = shape.getPathIterator(transform);
         double[] location = new double[6];
-        double x, y;
+        int[] xs = new int[64];
+        int[] ys = new int[64];
+        int count = 0;
         while (!iterator.isDone()) {
             iterator.currentSegment(location);
-            x = location[0];
-            y = location[1];
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = LocalProjection.toUnits(location[0]);
+            ys[count] = LocalProjection.toUnits(location[1]);
+            count++;
 
-            Entry<String, Geometry> nearest = intersectTree
-                    .nearest(Geometries.pointGeographic(x, y), 100, 1)
-                    .toBlocking().singleOrDefault(null);
+            iterator.next();
+            iterator.next(); //fixes double route bug
+        }
 
+        int[] nearest = new int[count];
+        map.getJunctions().newBatchQuery().nearest(xs, ys, count, Integer.MAX_VALUE, nearest);
+        LocalProjection projection = map.getJunctions().getProjection();
+        for (int i = 0; i < count; i++) {
             // We did not find a vertex nearby. Bad approximation. Stop search.
-            if (nearest == null) {
-                logger.warn("Did not find a vertex near %s, %s. Stopping calculation for this route.".formatted(y, x));
+            if (nearest[i] < 0) {
+                logger.warn("Did not find a vertex near %s, %s. Stopping calculation for this route.".formatted(
+                        projection.lat(LocalProjection.toMetres(ys[i])), projection.lon(LocalProjection.toMetres(xs[i]))));
 
                 fitness = Integer.MIN_VALUE;
-                break;
+                return Arrays.copyOf(nearest, i);
             }
-
-            Rectangle nearestRectangle = nearest.geometry().mbr();
-            Point nearestPoint = Geometries.pointGeographic(nearestRectangle.x1(), nearestRectangle.y1());
-            pointList.add(nearestPoint);
-
-            iterator.next();
-            iterator.next(); //fixes double route bug
         }
-        logger.info("Finished calculating this route. Fitness: %s".formatted(fitness));
-        return pointList;
+        return nearest;
     }
 }
@@ -0,0 +1,65 @@
+package TraceRoute.fitness;
+
+import TraceRoute.index.DistanceField;
+
+import java.awt.geom.PathIterator;
+
+/**
+ * Approximate {@link PerpendicularFitness} that looks up each vertex in a precomputed {@link DistanceField}
+ * instead of searching the road index.
+ * <p>
+ * The exact score of a vertex is the distance along its perpendicular to the first road it crosses. Here it is
+ * the distance to the nearest road in any direction, which is never more than the exact score, counted only
+ * if it is within the reach of the perpendicular. Scores are accurate to about the resolution of the field,
+ * so the final candidates of a search should be scored again with {@link PerpendicularFitness}.
+ */
+public class DistanceFieldFitness implements FitnessFunction {
+    private final DistanceField field;
+    private final double[] location = new double[6];
+    private int verticesScored;
+    private int verticesSkipped;
+
+    public DistanceFieldFitness(DistanceField field) {
+        this.field = field;
+    }
+
+    @Override
+    public double evaluate(PathIterator pathiterator, double dx, double dy, double scale, double searchdist, double cutoff) {
+        double bound = scale > 0 ? cutoff * scale : Double.POSITIVE_INFINITY;
+        double sum = 0;
+        int i = 0;
+        verticesSkipped = 0;
+        while (!pathiterator.isDone()) {
+            if (sum > bound) {
+                verticesSkipped++;
+                pathiterator.next();
+                continue;
+            }
+            pathiterator.currentSegment(location);
+            double x = location[0] * scale + dx;
+            double y = location[1] * scale + dy;
+
+            double minimum = i == 0 ? 0 : sum / i * 5;
+            if (minimum == 0.0) minimum = searchdist;
+            double distance = field.distance(x, y);
+            if (distance <= searchdist && distance < minimum) {
+                minimum = distance;
+            }
+            sum += minimum;
+            i++;
+            pathiterator.next();
+        }
+        verticesScored = i;
+        return sum / scale;
+    }
+
+    @Override
+    public int getVerticesScored() {
+        return verticesScored;
+    }
+
+    @Override
+    public int getVerticesSkipped() {
+        return verticesSkipped;
+    }
+}
@@ -1,16 +1,14 @@
 package TraceRoute.fitness;
 
 import TraceRoute.ea.Route;
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
-import com.github.davidmoten.rtree.geometry.internal.LineDouble;
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.SegmentIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -45,7 +43,7 @@ public class Fitness {
      * @param a The number to check
      * @param b One bound of the range
      * @param c Another bound of the range
-     * @return
+     * @return whether a is in the closed range, which is a single number if b and c are equal
      */
     public static boolean between(double a, double b, double c) {
         if (b > c) {
@@ -53,7 +51,7 @@ public class Fitness {
         } else if (c > b) {
             return a >= b && c >= a;
         }
-        return false;
+        return a == b;
     }
 
     /**
@@ -85,11 +83,23 @@ public class Fitness {
         return Math.sqrt(Math.pow(p1.getX() - p2.getX(), 2) + Math.pow(p1.getY() - p2.getY(), 2));
     }
 
-    public static Double Perpendicular(RTree<String, Geometry> london, PathIterator pathiterator, double dx, double dy, double scale, double searchdist) {
-        double score = 0;
-        double x, y, prevx, prevy, gradient, stepdist, step, totaldist;
-        double lon1, lat1, lon2, lat2;
-        double minimum = 0.0;
+    /**
+     * Scores a placed shape by how far each vertex is from a road, measured along the perpendicular to the shape.
+     * Vertices are placed in metres in the projection of the map, so the score is the mean distance of a vertex
+     * from a road in metres, divided by the scale. This is the reference implementation,
+     * {@link PerpendicularFitness} computes the same score without allocating.
+     *
+     * @param london       the road network
+     * @param pathiterator the shape, centred on its origin
+     * @param dx           metres east of the projection origin to place the shape's centre
+     * @param dy           metres north of the projection origin to place the shape's centre
+     * @param scale        metres per unit of the shape
+     * @param searchdist   how far in metres from each vertex to look for roads
+     * @return the fitness, lower is better
+     */
+    public static Double Perpendicular(SegmentIndex london, PathIterator pathiterator, double dx, double dy, double scale, double searchdist) {
+        double x, y, prevx, prevy, step;
+        double minimum;
         double[] location = new double[2];
         logger = LoggerFactory.getLogger(Route.class);
         logger.info("Starting fitness calculation for " + dx + " " + dy + " " + scale);
@@ -101,53 +111,52 @@ public class Fitness {
             pathiterator.next();
         }
         LinkedList<Double> results = new LinkedList<>();
-        totaldist = 0;
-        Point2D intersection;
-        List<LineDouble> lines = new LinkedList<>();
+        double totaldist = 0;
         Point2D last = pointslist.get(pointslist.size() - 1);
         prevx = last.getX() * scale + dx;
         prevy = last.getY() * scale + dy;
         for (Point2D coordinate : pointslist
         ) {
-            y = coordinate.getX() * scale + dx;
-            x = coordinate.getY() * scale + dy;
-            gradient = -1 / ((y - prevy) / (x - prevx));
-            if (gradient == Double.NEGATIVE_INFINITY) {
-                gradient = -100;
-            }
-            if (gradient == Double.POSITIVE_INFINITY) {
-                gradient = 100;
-            }
-            stepdist = Math.sqrt(1 + Math.pow(gradient, 2));
-            step = (searchdist / 111) / stepdist;
-            lon1 = x + step;
-            lat1 = y + step * gradient;
-            lon2 = x - step;
-            lat2 = y - step * gradient;
-            Iterable<Entry<String, Geometry>> online = london.search(Geometries.pointGeographic(x,y),searchdist).toBlocking().toIterable();
-            lines = new LinkedList<>();
+            x = coordinate.getX() * scale + dx;
+            y = coordinate.getY() * scale + dy;
             minimum = results.stream().mapToDouble(a -> a).average().orElse(0) * 5;
-            if (minimum == 0.0) minimum = 0.1;
-            for (Entry part : online
-            ) {
-                if (part.geometry().getClass().getSimpleName().equals("LineDouble")) {
-                    LineDouble line = (LineDouble) part.geometry();
-                    if (intersect(new Point2D.Double(lon1, lat1), new Point2D.Double(lon2, lat2), new Point2D.Double(line.x1(), line.y1()), new Point2D.Double(line.x2(), line.y2()))) {
-                        intersection = intersection(new Point2D.Double(lon1, lat1), new Point2D.Double(lon2, lat2), new Point2D.Double(line.x1(), line.y1()), new Point2D.Double(line.x2(), line.y2()));
-                        if (distance(intersection, new Point2D.Double(x, y)) / 111 < minimum) {
-                            minimum = distance(intersection, new Point2D.Double(x, y)) / 111;
+            if (minimum == 0.0) minimum = searchdist;
+            step = Math.hypot(x - prevx, y - prevy);
+            // a vertex on top of the previous one has no direction, so nothing crosses its perpendicular
+            if (step > 0) {
+                // the ends are rounded to the index's units, as the segments are
+                Point2D end1 = units(x - (y - prevy) / step * searchdist, y + (x - prevx) / step * searchdist);
+                Point2D end2 = units(x + (y - prevy) / step * searchdist, y - (x - prevx) / step * searchdist);
+                Point2D vertex = new Point2D.Double((end1.getX() + end2.getX()) / 2, (end1.getY() + end2.getY()) / 2);
+                List<double[]> online = new ArrayList<>();
+                london.search((int) Math.min(end1.getX(), end2.getX()), (int) Math.min(end1.getY(), end2.getY()),
+                        (int) Math.max(end1.getX(), end2.getX()), (int) Math.max(end1.getY(), end2.getY()),
+                        (item, x1, y1, x2, y2) -> online.add(new double[]{x1, y1, x2, y2}));
+                for (double[] line : online
+                ) {
+                    Point2D start = new Point2D.Double(line[0], line[1]);
+                    Point2D end = new Point2D.Double(line[2], line[3]);
+                    if (intersect(end1, end2, start, end)) {
+                        double d = LocalProjection.toMetres(distance(intersection(end1, end2, start, end), vertex));
+                        if (d < minimum) {
+                            minimum = d;
                         }
                     }
                 }
             }
             results.add(minimum);
             totaldist += minimum;
-            minimum = 0.0;
             prevx = x;
             prevy = y;
          }
-        System.out.print("=");
         logger.info("Finished fitness calculation " + dx + " " + dy + " " + scale + " " + totaldist/scale);
         return totaldist/scale;
     }
+
+    /**
+     * @return a point given in metres, rounded to fixed-point units
+     */
+    private static Point2D units(double x, double y) {
+        return new Point2D.Double(LocalProjection.toUnits(x), LocalProjection.toUnits(y));
+    }
 }
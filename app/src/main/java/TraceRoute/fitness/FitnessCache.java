@@ -0,0 +1,95 @@
+package TraceRoute.fitness;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Remembers the fitness of placements of one shape that have already been scored.
+ * <p>
+ * Placements are keyed on their exact centre and scale factor, so a score is only ever reused for the placement it
+ * was computed for. A score computed with a cutoff may only be a lower bound, see
+ * {@link FitnessFunction#evaluate}, so each is kept with the cutoff it was computed under. A bound is reused while it
+ * is still above the cutoff of the caller, and the placement is scored again once a caller's cutoff is higher, as
+ * when a search resumed from a checkpoint starts over without one. The cache is bounded and evicts the least
+ * recently used placements first. It is safe to use from several threads, and a placement that several threads ask
+ * for at once is only evaluated once.
+ */
+public class FitnessCache {
+    /**
+     * Default number of placements remembered, a few hundred generations of the default population
+     */
+    public static final long DEFAULT_SIZE = 200_000;
+
+    private record Key(double x, double y, double scale) {
+    }
+
+    /**
+     * @param fitness the score, or a lower bound on it if it is above the cutoff
+     * @param cutoff  the cutoff it was computed under
+     */
+    private record Score(double fitness, double cutoff) {
+        boolean answers(double cutoff) {
+            return fitness <= this.cutoff || fitness > cutoff;
+        }
+    }
+
+    private final Cache<Key, Score> cache;
+    private final LongAdder rescored = new LongAdder();
+
+    /**
+     * @param maximumSize number of placements remembered
+     */
+    public FitnessCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Look up the fitness of a placement, evaluating and remembering it if it has not been seen, or if only a bound
+     * at or below the cutoff is known
+     *
+     * @param x          metres east of the projection origin to the centre of the shape
+     * @param y          metres north of the projection origin to the centre of the shape
+     * @param scale      scale factor of the shape
+     * @param cutoff     the cutoff the evaluation is made under
+     * @param evaluation computes the fitness on a miss, under the cutoff
+     * @return the fitness, or if it exceeds the cutoff a lower bound on it that is also above the cutoff
+     */
+    public double get(double x, double y, double scale, double cutoff, DoubleSupplier evaluation) {
+        Key key = new Key(x, y, scale);
+        try {
+            Score score = cache.get(key, () -> new Score(evaluation.getAsDouble(), cutoff));
+            if (score.answers(cutoff)) {
+                return score.fitness();
+            }
+            rescored.increment();
+            Score exact = new Score(evaluation.getAsDouble(), cutoff);
+            cache.put(key, exact);
+            return exact.fitness();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Fitness evaluation failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return hit, miss and eviction counts since the cache was created. A hit on a bound that did not answer the
+     * cutoff is counted as a hit here and in {@link #getRescored()}.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the number of placements scored again because only a bound below the caller's cutoff was known
+     */
+    public long getRescored() {
+        return rescored.sum();
+    }
+}
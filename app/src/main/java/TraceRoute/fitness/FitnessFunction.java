@@ -0,0 +1,29 @@
+package TraceRoute.fitness;
+
+import java.awt.geom.PathIterator;
+
+/**
+ * Scores how closely a placed shape follows the roads, lower is better.
+ * Implementations keep per-evaluation state, so each thread needs its own instance.
+ */
+public interface FitnessFunction {
+    /**
+     * Score a path, giving up once the score is known to be worse than a cutoff.
+     * See {@link Fitness#Perpendicular} for the meaning of the other parameters.
+     *
+     * @param pathiterator the shape, centred on its origin
+     * @param cutoff       stop once the score exceeds this
+     * @return the fitness, or if it exceeds the cutoff a lower bound on it that is also above the cutoff
+     */
+    double evaluate(PathIterator pathiterator, double dx, double dy, double scale, double searchdist, double cutoff);
+
+    /**
+     * @return the number of vertices scored by the last evaluation
+     */
+    int getVerticesScored();
+
+    /**
+     * @return the number of vertices the last evaluation skipped because it passed its cutoff
+     */
+    int getVerticesSkipped();
+}
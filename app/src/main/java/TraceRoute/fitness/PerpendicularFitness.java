@@ -0,0 +1,336 @@
+package TraceRoute.fitness;
+
+import TraceRoute.index.BatchQuery;
+import TraceRoute.index.BatchVisitor;
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.SegmentIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * Allocation-free evaluator with the same scoring as {@link Fitness#Perpendicular}.
+ * <p>
+ * The perpendiculars are placed in metres in the projection of the map and rounded to the fixed-point units of
+ * the road index, so the crossing tests compare integers exactly and the score does not depend on where on the
+ * earth the map is.
+ * <p>
+ * The path is copied once into primitive coordinate arrays, and the running mean of the per-vertex scores is kept
+ * as a sum instead of being recomputed. The perpendiculars are searched for in batches of {@link #BATCH} vertices
+ * with a {@link BatchQuery}, one traversal of the road index per batch over the bounding box of each perpendicular,
+ * with this object as the visitor. The nearest crossing of each perpendicular does not depend on the score so far,
+ * so the running sum is applied afterwards, vertex by vertex. Instances hold per-evaluation state, so each thread
+ * needs its own.
+ * <p>
+ * Every vertex adds a non-negative amount to the score, so an evaluation can be given a cutoff and stop as soon
+ * as its partial score is past it; the rest of the vertices would only make it worse.
+ * <p>
+ * The segments around a placement can be kept as {@link SegmentCandidates}, against which placements close to
+ * it are scored without any traversal for the vertices whose perpendiculars stay within their windows.
+ */
+public class PerpendicularFitness implements FitnessFunction, BatchVisitor {
+    /**
+     * Number of vertices searched for in one traversal. Smaller batches let the cutoff stop an evaluation
+     * sooner, larger ones share more of the traversal.
+     */
+    static final int BATCH = 64;
+    private static final Logger logger = LoggerFactory.getLogger(PerpendicularFitness.class);
+
+    private final BatchQuery query;
+    private double[] xs = new double[256];
+    private double[] ys = new double[256];
+    private final double[] location = new double[6];
+
+    // the perpendiculars of the current batch in fixed-point units, their length in metres, their search boxes,
+    // and the distance in metres to the nearest crossing found for each
+    private final int[] x1 = new int[BATCH], y1 = new int[BATCH], x2 = new int[BATCH], y2 = new int[BATCH];
+    private final double[] length = new double[BATCH];
+    private final int[] minX = new int[BATCH], minY = new int[BATCH], maxX = new int[BATCH], maxY = new int[BATCH];
+    private final double[] crossing = new double[BATCH];
+    // whether each vertex of the current batch is scored against candidate segments instead of the road index
+    private final boolean[] cached = new boolean[BATCH];
+    private Collector collector;
+
+    // vertices of the last evaluation that were scored, and that were skipped because of the cutoff
+    private int verticesScored;
+    private int verticesSkipped;
+    private int verticesFromCandidates;
+
+    public PerpendicularFitness(SegmentIndex roads) {
+        this.query = roads.newBatchQuery();
+    }
+
+    /**
+     * Score a path, see {@link Fitness#Perpendicular} for the meaning of the parameters
+     *
+     * @param pathiterator the centred shape
+     * @return the fitness, lower is better
+     */
+    public double evaluate(PathIterator pathiterator, double dx, double dy, double scale, double searchdist) {
+        return evaluate(pathiterator, dx, dy, scale, searchdist, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public double evaluate(PathIterator pathiterator, double dx, double dy, double scale, double searchdist, double cutoff) {
+        return evaluate(pathiterator, dx, dy, scale, searchdist, cutoff, null);
+    }
+
+    /**
+     * Score a path, taking the segments near each vertex from those collected for a nearby placement where its
+     * windows allow, and from the road index everywhere else. The score is the same either way.
+     *
+     * @param pathiterator the centred shape
+     * @param cutoff       stop once the score exceeds this
+     * @param candidates   segments collected by {@link #collect} for the same shape, or null to search every vertex
+     * @return the fitness, or if it exceeds the cutoff a lower bound on it that is also above the cutoff
+     */
+    public double evaluate(PathIterator pathiterator, double dx, double dy, double scale, double searchdist, double cutoff,
+                           SegmentCandidates candidates) {
+        int count = copyPath(pathiterator);
+        return evaluate(xs, ys, count, dx, dy, scale, searchdist, cutoff, candidates);
+    }
+
+    /**
+     * Score a path given as coordinate arrays
+     *
+     * @param pathX x coordinate of each vertex of the centred shape
+     * @param pathY y coordinate of each vertex of the centred shape
+     * @param count number of vertices
+     * @return the fitness, lower is better
+     */
+    public double evaluate(double[] pathX, double[] pathY, int count, double dx, double dy, double scale, double searchdist) {
+        return evaluate(pathX, pathY, count, dx, dy, scale, searchdist, Double.POSITIVE_INFINITY, null);
+    }
+
+    /**
+     * Score a path given as coordinate arrays, giving up once the score is known to be worse than a cutoff
+     *
+     * @param pathX      x coordinate of each vertex of the centred shape
+     * @param pathY      y coordinate of each vertex of the centred shape
+     * @param count      number of vertices
+     * @param cutoff     stop once the score exceeds this
+     * @param candidates segments collected by {@link #collect} for the same shape, or null to search every vertex
+     * @return the fitness, or if it exceeds the cutoff a lower bound on it that is also above the cutoff
+     */
+    public double evaluate(double[] pathX, double[] pathY, int count, double dx, double dy, double scale, double searchdist, double cutoff,
+                           SegmentCandidates candidates) {
+        // the score only grows with each vertex when the scale is positive
+        double bound = scale > 0 ? cutoff * scale : Double.POSITIVE_INFINITY;
+        verticesScored = count;
+        verticesSkipped = 0;
+        verticesFromCandidates = 0;
+        double sum = 0;
+        for (int from = 0; from < count; from += BATCH) {
+            int size = Math.min(BATCH, count - from);
+            int searched = 0;
+            for (int b = 0; b < size; b++) {
+                place(b, pathX, pathY, count, from + b, dx, dy, scale, searchdist);
+                cached[b] = candidates != null && candidates.covers(from + b, minX[b], minY[b], maxX[b], maxY[b]);
+                if (cached[b]) {
+                    // keep the vertex out of the traversal, its segments are already known
+                    minX[b] = minY[b] = Integer.MAX_VALUE;
+                    maxX[b] = maxY[b] = Integer.MIN_VALUE;
+                } else {
+                    searched++;
+                }
+            }
+            if (searched > 0) {
+                query.search(minX, minY, maxX, maxY, size, this);
+            }
+            for (int b = 0; b < size && searched < size; b++) {
+                if (cached[b]) {
+                    for (int k = candidates.first(from + b), end = candidates.end(from + b); k < end; k++) {
+                        visit(b, -1, candidates.coordinate(k, 0), candidates.coordinate(k, 1),
+                                candidates.coordinate(k, 2), candidates.coordinate(k, 3));
+                    }
+                }
+            }
+
+            for (int b = 0; b < size; b++) {
+                int i = from + b;
+                if (cached[b]) {
+                    verticesFromCandidates++;
+                }
+                double minimum = i == 0 ? 0 : sum / i * 5;
+                if (minimum == 0.0) minimum = searchdist;
+                if (crossing[b] < minimum) {
+                    minimum = crossing[b];
+                }
+                sum += minimum;
+                if (sum > bound) {
+                    verticesScored = i + 1;
+                    verticesSkipped = count - i - 1;
+                    return sum / scale;
+                }
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Finished fitness calculation %s %s %s %s".formatted(dx, dy, scale, sum / scale));
+        }
+        return sum / scale;
+    }
+
+    /**
+     * Collect the segments around each vertex of a placed path, for scoring nearby placements of the same shape
+     * without the road index. One traversal per batch finds the segments in the windows of its vertices.
+     *
+     * @param pathiterator the centred shape
+     * @return the segments in the window of every vertex
+     */
+    public SegmentCandidates collect(PathIterator pathiterator, double dx, double dy, double scale, double searchdist) {
+        int count = copyPath(pathiterator);
+        SegmentCandidates candidates = new SegmentCandidates(count);
+        int margin = LocalProjection.toUnits(searchdist * SegmentCandidates.MARGIN);
+        if (collector == null) {
+            collector = new Collector();
+        }
+        for (int from = 0; from < count; from += BATCH) {
+            int size = Math.min(BATCH, count - from);
+            for (int b = 0; b < size; b++) {
+                place(b, xs, ys, count, from + b, dx, dy, scale, searchdist);
+                // a vertex without a perpendicular keeps its empty box, which only covers another empty one
+                if (minX[b] <= maxX[b]) {
+                    minX[b] = (int) Math.max(Integer.MIN_VALUE, (long) minX[b] - margin);
+                    minY[b] = (int) Math.max(Integer.MIN_VALUE, (long) minY[b] - margin);
+                    maxX[b] = (int) Math.min(Integer.MAX_VALUE, (long) maxX[b] + margin);
+                    maxY[b] = (int) Math.min(Integer.MAX_VALUE, (long) maxY[b] + margin);
+                }
+                collector.counts[b] = 0;
+            }
+            query.search(minX, minY, maxX, maxY, size, collector);
+            for (int b = 0; b < size; b++) {
+                candidates.add(from + b, minX[b], minY[b], maxX[b], maxY[b], collector.coordinates[b], collector.counts[b]);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Gathers the segments found in the window of each vertex of a batch
+     */
+    private static final class Collector implements BatchVisitor {
+        int[][] coordinates = new int[BATCH][64];
+        final int[] counts = new int[BATCH];
+
+        @Override
+        public void visit(int query, int item, int x1, int y1, int x2, int y2) {
+            int at = counts[query]++ * 4;
+            if (at + 4 > coordinates[query].length) {
+                coordinates[query] = Arrays.copyOf(coordinates[query], coordinates[query].length * 2);
+            }
+            coordinates[query][at] = x1;
+            coordinates[query][at + 1] = y1;
+            coordinates[query][at + 2] = x2;
+            coordinates[query][at + 3] = y2;
+        }
+    }
+
+    /**
+     * Copy a path into the coordinate arrays
+     *
+     * @return the number of vertices
+     */
+    private int copyPath(PathIterator pathiterator) {
+        int count = 0;
+        while (!pathiterator.isDone()) {
+            pathiterator.currentSegment(location);
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = location[0];
+            ys[count] = location[1];
+            count++;
+            pathiterator.next();
+        }
+        return count;
+    }
+
+    /**
+     * Place the perpendicular of a vertex in a slot of the current batch, with its bounding box
+     *
+     * @param b slot in the batch
+     * @param i the vertex
+     */
+    private void place(int b, double[] pathX, double[] pathY, int count, int i, double dx, double dy, double scale, double searchdist) {
+        // the first vertex is paired with the last one, closing the shape
+        int previous = i == 0 ? count - 1 : i - 1;
+        double x = pathX[i] * scale + dx;
+        double y = pathY[i] * scale + dy;
+        double ex = x - (pathX[previous] * scale + dx);
+        double ey = y - (pathY[previous] * scale + dy);
+        double step = Math.sqrt(ex * ex + ey * ey);
+        crossing[b] = Double.POSITIVE_INFINITY;
+        if (!(step > 0) || Double.isInfinite(step)) {
+            // a vertex on top of the previous one has no direction, so nothing crosses its perpendicular
+            minX[b] = minY[b] = Integer.MAX_VALUE;
+            maxX[b] = maxY[b] = Integer.MIN_VALUE;
+            return;
+        }
+        // the perpendicular reaches searchdist metres to either side of the vertex
+        double nx = -ey / step * searchdist;
+        double ny = ex / step * searchdist;
+        x1[b] = LocalProjection.toUnits(x + nx);
+        y1[b] = LocalProjection.toUnits(y + ny);
+        x2[b] = LocalProjection.toUnits(x - nx);
+        y2[b] = LocalProjection.toUnits(y - ny);
+        length[b] = LocalProjection.toMetres(Math.hypot(x2[b] - (double) x1[b], y2[b] - (double) y1[b]));
+
+        // only segments overlapping the perpendicular's bounding box can cross it
+        minX[b] = Math.min(x1[b], x2[b]);
+        minY[b] = Math.min(y1[b], y2[b]);
+        maxX[b] = Math.max(x1[b], x2[b]);
+        maxY[b] = Math.max(y1[b], y2[b]);
+    }
+
+    @Override
+    public int getVerticesScored() {
+        return verticesScored;
+    }
+
+    @Override
+    public int getVerticesSkipped() {
+        return verticesSkipped;
+    }
+
+    /**
+     * @return the number of vertices the last evaluation scored against candidate segments instead of the road index
+     */
+    public int getVerticesFromCandidates() {
+        return verticesFromCandidates;
+    }
+
+    /**
+     * Called by the batch query for each segment near one of the perpendiculars of the current batch.
+     * Both are in fixed-point units, so whether they cross is decided exactly from the signs of cross products,
+     * and only the position of the crossing along the perpendicular is worked out in floating point.
+     */
+    @Override
+    public void visit(int q, int item, int sx1, int sy1, int sx2, int sy2) {
+        long rx = (long) x2[q] - x1[q], ry = (long) y2[q] - y1[q];
+        long sx = (long) sx2 - sx1, sy = (long) sy2 - sy1;
+        // parallel and zero-length segments have no single crossing
+        long denominator = rx * sy - ry * sx;
+        if (denominator == 0) {
+            return;
+        }
+        long ax = (long) sx1 - x1[q], ay = (long) sy1 - y1[q];
+        long bx = (long) sx2 - x1[q], by = (long) sy2 - y1[q];
+        // the segment's ends are on either side of the perpendicular, and the perpendicular's ends on either side of the segment
+        if (Long.signum(rx * ay - ry * ax) * Long.signum(rx * by - ry * bx) > 0) {
+            return;
+        }
+        long cx = (long) x2[q] - sx1, cy = (long) y2[q] - sy1;
+        if (Long.signum(sy * ax - sx * ay) * Long.signum(sx * cy - sy * cx) > 0) {
+            return;
+        }
+        // the vertex is at the middle of its perpendicular
+        double t = (double) (ax * sy - ay * sx) / denominator;
+        double distance = Math.abs(t - 0.5) * length[q];
+        if (distance < crossing[q]) {
+            crossing[q] = distance;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package TraceRoute.fitness;
+
+import java.util.Arrays;
+
+/**
+ * The road segments around each vertex of a placed shape, kept so that placements close to it can be scored
+ * without searching the road index.
+ * <p>
+ * Each vertex has a window, the bounding box of its perpendicular widened by {@link #MARGIN} of the search
+ * distance on every side, and the segments that overlap it. A perpendicular that lies within the window of its
+ * vertex can only cross segments that overlap the window, so scoring it against them gives exactly the score the
+ * road index would. Children of a route move one placement parameter a little, so most of their perpendiculars
+ * stay within the windows of their parent's. Coordinates are in the fixed-point units of the road index, and the
+ * segments of each vertex are stored one after the other. Instances are read-only once built.
+ */
+public final class SegmentCandidates {
+    /**
+     * How far the windows reach past the perpendiculars, as a fraction of the search distance
+     */
+    public static final double MARGIN = 0.5;
+
+    private final int vertices;
+    private final int[] windowMinX, windowMinY, windowMaxX, windowMaxY;
+    /**
+     * Position of the first segment of each vertex in {@link #segments}, with the end of the last vertex's at the end
+     */
+    private final int[] first;
+    private int[] segments = new int[1024];
+    private int size;
+
+    SegmentCandidates(int vertices) {
+        this.vertices = vertices;
+        windowMinX = new int[vertices];
+        windowMinY = new int[vertices];
+        windowMaxX = new int[vertices];
+        windowMaxY = new int[vertices];
+        first = new int[vertices + 1];
+    }
+
+    /**
+     * Store the window of the next vertex and the segments found in it. Vertices must be added in order.
+     *
+     * @param vertex      the vertex
+     * @param coordinates x1, y1, x2, y2 of each segment
+     * @param count       number of segments
+     */
+    void add(int vertex, int minX, int minY, int maxX, int maxY, int[] coordinates, int count) {
+        windowMinX[vertex] = minX;
+        windowMinY[vertex] = minY;
+        windowMaxX[vertex] = maxX;
+        windowMaxY[vertex] = maxY;
+        if (size + count * 4 > segments.length) {
+            segments = Arrays.copyOf(segments, Math.max(segments.length * 2, size + count * 4));
+        }
+        System.arraycopy(coordinates, 0, segments, size, count * 4);
+        first[vertex] = size / 4;
+        size += count * 4;
+        first[vertex + 1] = size / 4;
+    }
+
+    /**
+     * @return whether a box lies within the window of a vertex, so that the vertex's segments are all that can
+     * overlap it
+     */
+    boolean covers(int vertex, int minX, int minY, int maxX, int maxY) {
+        return vertex < vertices && minX >= windowMinX[vertex] && minY >= windowMinY[vertex]
+                && maxX <= windowMaxX[vertex] && maxY <= windowMaxY[vertex];
+    }
+
+    /**
+     * @return position of the first segment of a vertex
+     */
+    int first(int vertex) {
+        return first[vertex];
+    }
+
+    /**
+     * @return position after the last segment of a vertex
+     */
+    int end(int vertex) {
+        return first[vertex + 1];
+    }
+
+    /**
+     * @param segment   position of the segment
+     * @param component 0 to 3 for x1, y1, x2, y2
+     */
+    int coordinate(int segment, int component) {
+        return segments[segment * 4 + component];
+    }
+
+    /**
+     * @return the number of vertices the segments were collected for
+     */
+    public int vertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the number of segments held, counting a segment once for every window it overlaps
+     */
+    public int segments() {
+        return size / 4;
+    }
+}
@@ -0,0 +1,109 @@
+package TraceRoute.graph;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of vertices keyed by distance, which can lower the key of a vertex already in it.
+ * Vertices are the integers 0 to n-1, so positions are kept in an array instead of a map.
+ */
+final class IndexedHeap {
+    private final int[] heap;
+    private final double[] keys;
+    /**
+     * Position of each vertex in the heap, or -1 if it is not in it
+     */
+    private final int[] position;
+    private int size;
+
+    IndexedHeap(int vertices) {
+        heap = new int[vertices];
+        keys = new double[vertices];
+        position = new int[vertices];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the smallest key in the heap, which must not be empty
+     */
+    double minKey() {
+        return keys[0];
+    }
+
+    /**
+     * Add a vertex, or lower its key if it is already in the heap with a larger one
+     */
+    void push(int vertex, double key) {
+        int at = position[vertex];
+        if (at < 0) {
+            at = size++;
+        } else if (keys[at] <= key) {
+            return;
+        }
+        siftUp(at, vertex, key);
+    }
+
+    /**
+     * Remove the vertex with the smallest key
+     *
+     * @return the vertex
+     */
+    int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return top;
+    }
+
+    /**
+     * Empty the heap, in time proportional to its size
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int at, int vertex, double key) {
+        while (at > 0) {
+            int parent = (at - 1) >> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(at, heap[parent], keys[parent]);
+            at = parent;
+        }
+        place(at, vertex, key);
+    }
+
+    private void siftDown(int at, int vertex, double key) {
+        while (true) {
+            int child = 2 * at + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            place(at, heap[child], keys[child]);
+            at = child;
+        }
+        place(at, vertex, key);
+    }
+
+    private void place(int at, int vertex, double key) {
+        heap[at] = vertex;
+        keys[at] = key;
+        position[vertex] = at;
+    }
+}
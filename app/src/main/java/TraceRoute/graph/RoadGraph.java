@@ -0,0 +1,216 @@
+package TraceRoute.graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only contraction hierarchy of the road network, memory-mapped and queried in place.
+ * <p>
+ * Vertices are the nodes of the map's ways, numbered in order of their OpenStreetMap ID, and edges are stored
+ * in compressed sparse row form. Only the upward edges of the hierarchy are kept, from each vertex to the
+ * neighbours it had when it was contracted; since roads are treated as two-way, the same edges serve both
+ * directions of a query. An edge that is a shortcut names the vertex it bypasses, so that paths can be
+ * expanded back into roads. Use a {@link Router} to find paths.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ * header      64 bytes     magic, version, source checksum and length, vertex and edge counts
+ * ids         n x 8        OpenStreetMap node ID of each vertex, ascending
+ * coordinates n x 8        longitude and latitude of each vertex as fixed-point ints
+ * first edge  (n + 1) x 4  position of each vertex's first upward edge
+ * targets     m x 4        vertex each edge leads to
+ * weights     m x 4        length of each edge in metres, as a float
+ * middles     m x 4        vertex a shortcut bypasses, or -1 for a road
+ * </pre>
+ */
+public class RoadGraph implements Closeable {
+    static final int MAGIC = 0x52475254; // "TRGR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    /**
+     * Number of fixed-point units per degree
+     */
+    public static final double PRECISION = 1e7;
+
+    private final Path file;
+    private final long sourceChecksum;
+    private final long sourceLength;
+    private final int vertexCount;
+    private final int edgeCount;
+    private LongBuffer ids;
+    private IntBuffer coordinates;
+    private IntBuffer firstEdge;
+    private IntBuffer targets;
+    private FloatBuffer weights;
+    private IntBuffer middles;
+    /**
+     * A router takes memory in proportion to the graph, so each thread keeps one for every route it finds
+     */
+    private final ThreadLocal<Router> routers = ThreadLocal.withInitial(() -> new Router(this));
+
+    private RoadGraph(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("%s is not a road graph".formatted(file));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("%s has version %d, expected %d".formatted(file, header.getInt(4), VERSION));
+            }
+            sourceChecksum = header.getLong(8);
+            sourceLength = header.getLong(16);
+            vertexCount = header.getInt(24);
+            edgeCount = header.getInt(28);
+
+            long idsStart = HEADER_BYTES;
+            long coordinatesStart = idsStart + (long) vertexCount * Long.BYTES;
+            long firstEdgeStart = coordinatesStart + (long) vertexCount * 2 * Integer.BYTES;
+            long targetsStart = firstEdgeStart + (long) (vertexCount + 1) * Integer.BYTES;
+            long weightsStart = targetsStart + (long) edgeCount * Integer.BYTES;
+            long middlesStart = weightsStart + (long) edgeCount * Float.BYTES;
+            long end = middlesStart + (long) edgeCount * Integer.BYTES;
+            if (channel.size() != end) {
+                throw new IOException("%s is truncated, expected %d bytes but found %d".formatted(file, end, channel.size()));
+            }
+            ids = map(channel, idsStart, coordinatesStart).asLongBuffer();
+            coordinates = map(channel, coordinatesStart, firstEdgeStart).asIntBuffer();
+            firstEdge = map(channel, firstEdgeStart, targetsStart).asIntBuffer();
+            targets = map(channel, targetsStart, weightsStart).asIntBuffer();
+            weights = map(channel, weightsStart, middlesStart).asFloatBuffer();
+            middles = map(channel, middlesStart, end).asIntBuffer();
+        }
+    }
+
+    /**
+     * Memory-map a previously written graph
+     *
+     * @param file the graph file
+     * @return the opened graph
+     * @throws IOException if the file cannot be read, is truncated or was written by an incompatible version
+     */
+    public static RoadGraph open(Path file) throws IOException {
+        return new RoadGraph(file);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Graph region of %d bytes is too large to map".formatted(end - start));
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the router of the calling thread for this graph, which is kept between calls, since only the
+     * vertices a query touches are reset after it
+     */
+    public Router router() {
+        return routers.get();
+    }
+
+    /**
+     * @param id an OpenStreetMap node ID
+     * @return the vertex of that node, or -1 if the node is not on a road of this graph
+     */
+    public int vertex(long id) {
+        int low = 0;
+        int high = vertexCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long found = ids.get(middle);
+            if (found < id) {
+                low = middle + 1;
+            } else if (found > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public long id(int vertex) {
+        return ids.get(vertex);
+    }
+
+    /**
+     * @return longitude of the vertex in degrees
+     */
+    public double lon(int vertex) {
+        return coordinates.get(vertex * 2) / PRECISION;
+    }
+
+    /**
+     * @return latitude of the vertex in degrees
+     */
+    public double lat(int vertex) {
+        return coordinates.get(vertex * 2 + 1) / PRECISION;
+    }
+
+    int firstEdge(int vertex) {
+        return firstEdge.get(vertex);
+    }
+
+    int target(int edge) {
+        return targets.get(edge);
+    }
+
+    float weight(int edge) {
+        return weights.get(edge);
+    }
+
+    int middle(int edge) {
+        return middles.get(edge);
+    }
+
+    public int size() {
+        return vertexCount;
+    }
+
+    /**
+     * @return the number of upward edges, roads and shortcuts
+     */
+    public int edges() {
+        return edgeCount;
+    }
+
+    /**
+     * @return checksum of the map file this graph was built from, see {@link TraceRoute.index.RoadIndex#checksum(Path)}
+     */
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /**
+     * @return length in bytes of the map file this graph was built from
+     */
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Drop the references to the mapped regions. The mapping itself is released when they are garbage collected.
+     */
+    @Override
+    public void close() {
+        ids = null;
+        coordinates = null;
+        firstEdge = null;
+        targets = null;
+        weights = null;
+        middles = null;
+        routers.remove();
+    }
+}
@@ -0,0 +1,360 @@
+package TraceRoute.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Builds the contraction hierarchy of an undirected road network and writes it as a {@link RoadGraph}.
+ * <p>
+ * Vertices are contracted one at a time, least important first: a vertex is removed from the graph and a
+ * shortcut is added between each pair of its neighbours whose shortest path ran through it, unless a local
+ * witness search finds another path that is no longer. Importance is twice the number of shortcuts a
+ * contraction would add less the edges it removes, plus the number of neighbours already contracted and the depth
+ * of the hierarchy below the vertex, so that contractions are spread evenly over the map. Priorities are updated
+ * lazily, when a vertex reaches the front of the queue.
+ * <p>
+ * Each vertex keeps the edges it had to the rest of the graph when it was contracted, all of which lead to
+ * vertices contracted later; these are the upward edges that queries search.
+ */
+public class RoadGraphWriter {
+    /**
+     * Number of vertices a witness search settles before giving up and accepting the shortcut.
+     * Lower limits build faster but add shortcuts that were not needed.
+     */
+    static final int WITNESS_SETTLE_LIMIT = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(RoadGraphWriter.class);
+    private final long[] ids;
+    private final int[] lon;
+    private final int[] lat;
+
+    // the remaining graph during contraction, one growable edge list per vertex
+    private final int[][] neighbours;
+    private final float[][] weights;
+    private final int[][] middles;
+    private final int[] degree;
+
+    // witness search state
+    private final double[] distance;
+    private final int[] touched;
+    private int touchedCount;
+    private final IndexedHeap witnessHeap;
+
+    // upward edges, in the order their sources were contracted
+    private int[] upSource = new int[1 << 12];
+    private int[] upTarget = new int[1 << 12];
+    private float[] upWeight = new float[1 << 12];
+    private int[] upMiddle = new int[1 << 12];
+    private int upCount;
+
+    /**
+     * @param ids OpenStreetMap node ID of each vertex, in ascending order
+     * @param lon longitude of each vertex in fixed-point units of 1e-7 degrees
+     * @param lat latitude of each vertex in fixed-point units of 1e-7 degrees
+     */
+    public RoadGraphWriter(long[] ids, int[] lon, int[] lat) {
+        for (int v = 1; v < ids.length; v++) {
+            if (ids[v] <= ids[v - 1]) {
+                throw new IllegalArgumentException("Vertex IDs must be unique and in ascending order");
+            }
+        }
+        int n = ids.length;
+        this.ids = ids;
+        this.lon = lon;
+        this.lat = lat;
+        neighbours = new int[n][];
+        weights = new float[n][];
+        middles = new int[n][];
+        degree = new int[n];
+        distance = new double[n];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        touched = new int[n];
+        witnessHeap = new IndexedHeap(n);
+    }
+
+    /**
+     * Add a road between two vertices. Of several roads between the same vertices only the shortest is kept.
+     *
+     * @param a      one end
+     * @param b      the other end
+     * @param length length of the road in metres
+     */
+    public void addEdge(int a, int b, float length) {
+        if (a != b) {
+            connect(a, b, length, -1);
+        }
+    }
+
+    /**
+     * Contract the graph and write it. The file is replaced atomically, so a reader never maps a partially
+     * written graph.
+     *
+     * @param file           where to write the graph
+     * @param sourceChecksum checksum of the map file the graph came from
+     * @param sourceLength   length of the map file the graph came from
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file, long sourceChecksum, long sourceLength) throws IOException {
+        long start = System.nanoTime();
+        contract();
+        logger.info("Contracted %d vertices into %d upward edges in %.1f ms".formatted(
+                ids.length, upCount, (System.nanoTime() - start) / 1e6));
+
+        int n = ids.length;
+        int[] firstEdge = new int[n + 1];
+        for (int e = 0; e < upCount; e++) {
+            firstEdge[upSource[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            firstEdge[v + 1] += firstEdge[v];
+        }
+        int[] order = new int[upCount];
+        int[] fill = Arrays.copyOf(firstEdge, n);
+        for (int e = 0; e < upCount; e++) {
+            order[fill[upSource[e]]++] = e;
+        }
+
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(RoadGraph.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(RoadGraph.MAGIC)
+                    .putInt(RoadGraph.VERSION)
+                    .putLong(sourceChecksum)
+                    .putLong(sourceLength)
+                    .putInt(n)
+                    .putInt(upCount);
+            header.clear();
+            writeFully(channel, header);
+
+            ByteBuffer buffer = newBuffer();
+            for (int v = 0; v < n; v++) {
+                buffer = ensure(channel, buffer, Long.BYTES).putLong(ids[v]);
+            }
+            for (int v = 0; v < n; v++) {
+                buffer = ensure(channel, buffer, 2 * Integer.BYTES).putInt(lon[v]).putInt(lat[v]);
+            }
+            for (int v = 0; v <= n; v++) {
+                buffer = ensure(channel, buffer, Integer.BYTES).putInt(firstEdge[v]);
+            }
+            for (int e : order) {
+                buffer = ensure(channel, buffer, Integer.BYTES).putInt(upTarget[e]);
+            }
+            for (int e : order) {
+                buffer = ensure(channel, buffer, Float.BYTES).putFloat(upWeight[e]);
+            }
+            for (int e : order) {
+                buffer = ensure(channel, buffer, Integer.BYTES).putInt(upMiddle[e]);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Flush the buffer to the channel if it has no room for another value
+     */
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void contract() {
+        int n = ids.length;
+        int[] contractedNeighbours = new int[n];
+        int[] level = new int[n];
+        IndexedHeap queue = new IndexedHeap(n);
+        for (int v = 0; v < n; v++) {
+            queue.push(v, shortcuts(v, false) - degree[v]);
+        }
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            double priority = 2 * (shortcuts(v, false) - degree[v]) + contractedNeighbours[v] + level[v];
+            if (!queue.isEmpty() && priority > queue.minKey()) {
+                queue.push(v, priority);
+                continue;
+            }
+            shortcuts(v, true);
+            for (int i = 0; i < degree[v]; i++) {
+                int u = neighbours[v][i];
+                addUpward(v, u, weights[v][i], middles[v][i]);
+                disconnect(u, v);
+                contractedNeighbours[u]++;
+                level[u] = Math.max(level[u], level[v] + 1);
+            }
+            degree[v] = 0;
+            neighbours[v] = null;
+            weights[v] = null;
+            middles[v] = null;
+        }
+    }
+
+    /**
+     * Find the shortcuts needed to contract a vertex
+     *
+     * @param v   the vertex
+     * @param add whether to add the shortcuts to the graph, or only count them
+     * @return the number of shortcuts
+     */
+    private int shortcuts(int v, boolean add) {
+        int count = 0;
+        int d = degree[v];
+        for (int i = 0; i + 1 < d; i++) {
+            int u = neighbours[v][i];
+            double limit = 0;
+            for (int j = i + 1; j < d; j++) {
+                limit = Math.max(limit, (double) weights[v][i] + weights[v][j]);
+            }
+            witnessSearch(u, v, limit);
+            for (int j = i + 1; j < d; j++) {
+                int w = neighbours[v][j];
+                float through = weights[v][i] + weights[v][j];
+                if (distance[w] > through) {
+                    count++;
+                    if (add) {
+                        connect(u, w, through, v);
+                    }
+                }
+            }
+            resetWitnessSearch();
+        }
+        return count;
+    }
+
+    /**
+     * Dijkstra from a vertex through the remaining graph, avoiding the vertex being contracted,
+     * until every vertex within the limit or {@link #WITNESS_SETTLE_LIMIT} vertices have been settled
+     */
+    private void witnessSearch(int source, int avoid, double limit) {
+        distance[source] = 0;
+        touched[touchedCount++] = source;
+        witnessHeap.push(source, 0);
+        int settled = 0;
+        while (!witnessHeap.isEmpty() && witnessHeap.minKey() <= limit && settled < WITNESS_SETTLE_LIMIT) {
+            int x = witnessHeap.poll();
+            settled++;
+            for (int k = 0; k < degree[x]; k++) {
+                int y = neighbours[x][k];
+                if (y == avoid) {
+                    continue;
+                }
+                double through = distance[x] + weights[x][k];
+                if (through < distance[y]) {
+                    if (distance[y] == Double.POSITIVE_INFINITY) {
+                        touched[touchedCount++] = y;
+                    }
+                    distance[y] = through;
+                    witnessHeap.push(y, through);
+                }
+            }
+        }
+    }
+
+    private void resetWitnessSearch() {
+        for (int i = 0; i < touchedCount; i++) {
+            distance[touched[i]] = Double.POSITIVE_INFINITY;
+        }
+        touchedCount = 0;
+        witnessHeap.clear();
+    }
+
+    /**
+     * Add an edge in both directions, or shorten it if it is already there and longer
+     */
+    private void connect(int a, int b, float weight, int middle) {
+        int i = find(a, b);
+        if (i >= 0) {
+            if (weights[a][i] <= weight) {
+                return;
+            }
+            weights[a][i] = weight;
+            middles[a][i] = middle;
+            int j = find(b, a);
+            weights[b][j] = weight;
+            middles[b][j] = middle;
+            return;
+        }
+        append(a, b, weight, middle);
+        append(b, a, weight, middle);
+    }
+
+    private int find(int from, int to) {
+        for (int i = 0; i < degree[from]; i++) {
+            if (neighbours[from][i] == to) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(int from, int to, float weight, int middle) {
+        int d = degree[from];
+        if (neighbours[from] == null) {
+            neighbours[from] = new int[4];
+            weights[from] = new float[4];
+            middles[from] = new int[4];
+        } else if (d == neighbours[from].length) {
+            neighbours[from] = Arrays.copyOf(neighbours[from], d * 2);
+            weights[from] = Arrays.copyOf(weights[from], d * 2);
+            middles[from] = Arrays.copyOf(middles[from], d * 2);
+        }
+        neighbours[from][d] = to;
+        weights[from][d] = weight;
+        middles[from][d] = middle;
+        degree[from] = d + 1;
+    }
+
+    /**
+     * Remove the edge to a contracted vertex, moving the last edge into its place
+     */
+    private void disconnect(int from, int to) {
+        int i = find(from, to);
+        int last = --degree[from];
+        neighbours[from][i] = neighbours[from][last];
+        weights[from][i] = weights[from][last];
+        middles[from][i] = middles[from][last];
+    }
+
+    private void addUpward(int source, int target, float weight, int middle) {
+        if (upCount == upSource.length) {
+            int capacity = upCount * 2;
+            upSource = Arrays.copyOf(upSource, capacity);
+            upTarget = Arrays.copyOf(upTarget, capacity);
+            upWeight = Arrays.copyOf(upWeight, capacity);
+            upMiddle = Arrays.copyOf(upMiddle, capacity);
+        }
+        upSource[upCount] = source;
+        upTarget[upCount] = target;
+        upWeight[upCount] = weight;
+        upMiddle[upCount] = middle;
+        upCount++;
+    }
+}
@@ -0,0 +1,199 @@
+package TraceRoute.graph;
+
+import java.util.Arrays;
+
+/**
+ * Finds shortest paths in a {@link RoadGraph} with a bidirectional search of its contraction hierarchy.
+ * <p>
+ * Both searches only follow upward edges, from the source and from the target, and meet at the most important
+ * vertex of the shortest path. Only the vertices a query touches are reset afterwards, so a query costs time in
+ * proportion to the small part of the hierarchy it explores, not to the size of the graph. Routers keep that
+ * state between queries, so each thread needs its own, which {@link RoadGraph#router()} keeps for it.
+ */
+public class Router {
+    private final RoadGraph graph;
+    private final Search forward;
+    private final Search backward;
+    private int[] path = new int[256];
+    private int pathLength;
+
+    /**
+     * One direction of the search
+     */
+    private static final class Search {
+        final double[] distance;
+        /**
+         * The upward edge each vertex was reached by, owned by the vertex it came from
+         */
+        final int[] parentEdge;
+        final int[] parent;
+        final IndexedHeap heap;
+        int[] touched = new int[256];
+        int touchedCount;
+
+        Search(int vertices) {
+            distance = new double[vertices];
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            parentEdge = new int[vertices];
+            parent = new int[vertices];
+            heap = new IndexedHeap(vertices);
+        }
+
+        void start(int vertex) {
+            reach(vertex, 0, -1, -1);
+        }
+
+        void reach(int vertex, double through, int from, int edge) {
+            if (distance[vertex] == Double.POSITIVE_INFINITY) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = vertex;
+            }
+            distance[vertex] = through;
+            parent[vertex] = from;
+            parentEdge[vertex] = edge;
+            heap.push(vertex, through);
+        }
+
+        double minKey() {
+            return heap.isEmpty() ? Double.POSITIVE_INFINITY : heap.minKey();
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                distance[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+            heap.clear();
+        }
+    }
+
+    Router(RoadGraph graph) {
+        this.graph = graph;
+        forward = new Search(graph.size());
+        backward = new Search(graph.size());
+    }
+
+    /**
+     * Find the shortest path between two vertices
+     *
+     * @param source the vertex to start from
+     * @param target the vertex to reach
+     * @return the vertices of the path from source to target inclusive, or null if they are not connected
+     */
+    public int[] route(int source, int target) {
+        // the router is kept for the next query, so it is reset even if this one fails
+        try {
+            return search(source, target);
+        } finally {
+            forward.reset();
+            backward.reset();
+        }
+    }
+
+    private int[] search(int source, int target) {
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        forward.start(source);
+        backward.start(target);
+        while (Math.min(forward.minKey(), backward.minKey()) < best) {
+            Search search = forward.minKey() <= backward.minKey() ? forward : backward;
+            Search other = search == forward ? backward : forward;
+            int vertex = search.heap.poll();
+            double reached = search.distance[vertex];
+            if (reached + other.distance[vertex] < best) {
+                best = reached + other.distance[vertex];
+                meeting = vertex;
+            }
+            for (int edge = graph.firstEdge(vertex), last = graph.firstEdge(vertex + 1); edge < last; edge++) {
+                int next = graph.target(edge);
+                double through = reached + graph.weight(edge);
+                if (through < search.distance[next]) {
+                    search.reach(next, through, vertex, edge);
+                }
+            }
+        }
+
+        int[] result = null;
+        if (meeting >= 0) {
+            pathLength = 0;
+            append(source);
+            appendForward(meeting);
+            for (int vertex = meeting; vertex != target; vertex = backward.parent[vertex]) {
+                unpack(backward.parent[vertex], backward.parentEdge[vertex], false);
+            }
+            result = Arrays.copyOf(path, pathLength);
+        }
+        return result;
+    }
+
+    /**
+     * Append the path from the source to a vertex settled by the forward search, excluding the source
+     */
+    private void appendForward(int vertex) {
+        // the parents lead back to the source, so collect the edges first and expand them in order
+        int edges = 0;
+        for (int v = vertex; forward.parent[v] >= 0; v = forward.parent[v]) {
+            edges++;
+        }
+        int[] owners = new int[edges];
+        int[] chain = new int[edges];
+        int i = edges;
+        for (int v = vertex; forward.parent[v] >= 0; v = forward.parent[v]) {
+            i--;
+            owners[i] = forward.parent[v];
+            chain[i] = forward.parentEdge[v];
+        }
+        for (int k = 0; k < edges; k++) {
+            unpack(owners[k], chain[k], true);
+        }
+    }
+
+    /**
+     * Append the roads an edge stands for, excluding the vertex it is entered from
+     *
+     * @param owner  the vertex the edge is stored with, the lower of its two ends
+     * @param edge   the edge
+     * @param upward whether the edge is walked from its owner to its target, or the other way
+     */
+    private void unpack(int owner, int edge, boolean upward) {
+        int target = graph.target(edge);
+        int middle = graph.middle(edge);
+        if (middle < 0) {
+            append(upward ? target : owner);
+            return;
+        }
+        // the bypassed vertex was contracted first, so both halves are upward edges from it
+        if (upward) {
+            unpack(middle, edgeBetween(middle, owner), false);
+            unpack(middle, edgeBetween(middle, target), true);
+        } else {
+            unpack(middle, edgeBetween(middle, target), false);
+            unpack(middle, edgeBetween(middle, owner), true);
+        }
+    }
+
+    /**
+     * @return the shortest upward edge from one vertex to another
+     */
+    private int edgeBetween(int from, int to) {
+        int found = -1;
+        for (int edge = graph.firstEdge(from), last = graph.firstEdge(from + 1); edge < last; edge++) {
+            if (graph.target(edge) == to && (found < 0 || graph.weight(edge) < graph.weight(found))) {
+                found = edge;
+            }
+        }
+        if (found < 0) {
+            throw new IllegalStateException("Shortcut through %d has no edge to %d, the graph is corrupt".formatted(from, to));
+        }
+        return found;
+    }
+
+    private void append(int vertex) {
+        if (pathLength == path.length) {
+            path = Arrays.copyOf(path, pathLength * 2);
+        }
+        path[pathLength++] = vertex;
+    }
+}
@@ -0,0 +1,32 @@
+package TraceRoute.index;
+
+/**
+ * Answers many queries against a {@link SegmentIndex} at once, sharing the work between queries that are close
+ * together. Instances keep scratch space between batches so that a warmed-up query allocates nothing, which also
+ * means each thread needs its own; get one from {@link SegmentIndex#newBatchQuery()}.
+ */
+public interface BatchQuery {
+    /**
+     * Visit every segment whose bounding box intersects each of the given boxes. Within each box, segments are
+     * reported in no particular order, and the boxes themselves are interleaved.
+     *
+     * @param minX    western edge of each box in fixed-point units
+     * @param minY    southern edge of each box in fixed-point units
+     * @param maxX    eastern edge of each box in fixed-point units
+     * @param maxY    northern edge of each box in fixed-point units
+     * @param count   number of boxes
+     * @param visitor receives each match with the position of the box it matched
+     */
+    void search(int[] minX, int[] minY, int[] maxX, int[] maxY, int count, BatchVisitor visitor);
+
+    /**
+     * Find the segment closest to each of the given points, see {@link SegmentIndex#nearest}
+     *
+     * @param x           x of each point in fixed-point units
+     * @param y           y of each point in fixed-point units
+     * @param count       number of points
+     * @param maxDistance ignore segments further away than this, in fixed-point units
+     * @param result      receives the item position of the closest segment to each point, or -1 if none is in range
+     */
+    void nearest(int[] x, int[] y, int count, int maxDistance, int[] result);
+}
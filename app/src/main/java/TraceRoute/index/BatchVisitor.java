@@ -0,0 +1,18 @@
+package TraceRoute.index;
+
+/**
+ * Receives the segments matched by a {@link BatchQuery} search, together with the query they matched.
+ * Coordinates are passed as primitives, so a search allocates nothing per match.
+ */
+@FunctionalInterface
+public interface BatchVisitor {
+    /**
+     * @param query position of the query box in the arrays passed to the search
+     * @param item  position of the segment in the index, usable with {@link RoadIndex#id(int)}
+     * @param x1    x of the first end in fixed-point units
+     * @param y1    y of the first end in fixed-point units
+     * @param x2    x of the second end in fixed-point units
+     * @param y2    y of the second end in fixed-point units
+     */
+    void visit(int query, int item, int x1, int y1, int x2, int y2);
+}
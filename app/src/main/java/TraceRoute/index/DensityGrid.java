@@ -0,0 +1,227 @@
+package TraceRoute.index;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * A coarse grid over the bounds of a {@link RoadIndex} holding the length of road in each cell, used to draw
+ * random points where the roads are instead of uniformly over the map. Positions and lengths are in metres in
+ * the {@link LocalProjection} of the map.
+ * <p>
+ * The grid is small enough to be read into memory whole. Each segment counts towards the cell its midpoint is in,
+ * which is accurate enough as long as cells are much longer than segments.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ * header  64 bytes          magic, version, source checksum and length, origin, cell size, columns, rows
+ * cells   rows x columns x 4 one float per cell, the road length in metres, row by row from the south west
+ * </pre>
+ */
+public class DensityGrid {
+    static final int MAGIC = 0x47445254; // "TRDG"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+
+    private final long sourceChecksum;
+    private final long sourceLength;
+    private final double originX, originY;
+    private final double cellWidth, cellHeight;
+    private final int columns, rows;
+    private final float[] lengths;
+    /**
+     * Running total of the lengths, for drawing a cell by binary search
+     */
+    private final double[] cumulative;
+
+    private DensityGrid(long sourceChecksum, long sourceLength, double originX, double originY,
+                        double cellWidth, double cellHeight, int columns, int rows, float[] lengths) {
+        this.sourceChecksum = sourceChecksum;
+        this.sourceLength = sourceLength;
+        this.originX = originX;
+        this.originY = originY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.columns = columns;
+        this.rows = rows;
+        this.lengths = lengths;
+        cumulative = new double[lengths.length];
+        double total = 0;
+        for (int cell = 0; cell < lengths.length; cell++) {
+            total += lengths[cell];
+            cumulative[cell] = total;
+        }
+    }
+
+    /**
+     * Measure the road length in each cell of a grid over the bounds of the roads
+     *
+     * @param roads the road segments, points are ignored
+     * @param cells number of cells along the longer side of the bounds; the shorter side gets as many as keep
+     *              the cells square
+     * @return the grid
+     */
+    public static DensityGrid build(RoadIndex roads, int cells) {
+        if (cells < 1) {
+            throw new IllegalArgumentException("A density grid needs at least one cell");
+        }
+        double minX = LocalProjection.toMetres(roads.getMinX());
+        double minY = LocalProjection.toMetres(roads.getMinY());
+        double width = LocalProjection.toMetres(roads.getMaxX()) - minX;
+        double height = LocalProjection.toMetres(roads.getMaxY()) - minY;
+        double side = Math.max(width, height) / cells;
+        if (!(side > 0)) {
+            side = 1;
+        }
+        int columns = Math.max(1, Math.min(cells, (int) Math.ceil(width / side)));
+        int rows = Math.max(1, Math.min(cells, (int) Math.ceil(height / side)));
+        float[] lengths = new float[columns * rows];
+        for (int item = 0; item < roads.size(); item++) {
+            if (roads.isPoint(item)) {
+                continue;
+            }
+            double x1 = LocalProjection.toMetres(roads.x1(item)), y1 = LocalProjection.toMetres(roads.y1(item));
+            double x2 = LocalProjection.toMetres(roads.x2(item)), y2 = LocalProjection.toMetres(roads.y2(item));
+            int i = Math.min(columns - 1, (int) (((x1 + x2) / 2 - minX) / side));
+            int j = Math.min(rows - 1, (int) (((y1 + y2) / 2 - minY) / side));
+            lengths[j * columns + i] += (float) Math.hypot(x2 - x1, y2 - y1);
+        }
+        return new DensityGrid(roads.getSourceChecksum(), roads.getSourceLength(), minX, minY,
+                side, side, columns, rows, lengths);
+    }
+
+    /**
+     * Read a previously written grid
+     *
+     * @param file the grid file
+     * @return the grid
+     * @throws IOException if the file cannot be read, is truncated or was written by an incompatible version
+     */
+    public static DensityGrid read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("%s is not a density grid".formatted(file));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("%s has version %d, expected %d".formatted(file, header.getInt(4), VERSION));
+            }
+            int columns = header.getInt(56);
+            int rows = header.getInt(60);
+            long end = HEADER_BYTES + (long) columns * rows * Float.BYTES;
+            if (columns < 1 || rows < 1 || channel.size() != end) {
+                throw new IOException("%s is truncated, expected %d bytes but found %d".formatted(file, end, channel.size()));
+            }
+            ByteBuffer cells = ByteBuffer.allocate(columns * rows * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (cells.hasRemaining()) {
+                if (channel.read(cells, HEADER_BYTES + cells.position()) < 0) {
+                    throw new IOException("%s is truncated".formatted(file));
+                }
+            }
+            float[] lengths = new float[columns * rows];
+            cells.flip().asFloatBuffer().get(lengths);
+            return new DensityGrid(header.getLong(8), header.getLong(16), header.getDouble(24), header.getDouble(32),
+                    header.getDouble(40), header.getDouble(48), columns, rows, lengths);
+        }
+    }
+
+    /**
+     * Write the grid. The file is replaced atomically, so a reader never sees a partially written grid.
+     *
+     * @param file where to write the grid
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + lengths.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(sourceChecksum)
+                .putLong(sourceLength)
+                .putDouble(originX)
+                .putDouble(originY)
+                .putDouble(cellWidth)
+                .putDouble(cellHeight)
+                .putInt(columns)
+                .putInt(rows);
+        for (float length : lengths) {
+            buffer.putFloat(length);
+        }
+        buffer.flip();
+
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Draw a random point, with each cell chosen in proportion to the length of road in it and the point
+     * uniformly distributed within the cell
+     *
+     * @param random source of randomness
+     * @return the point in metres in the projection of the map, or a uniformly distributed point if there are no roads
+     */
+    public Point2D.Double sample(RandomGenerator random) {
+        double total = cumulative[cumulative.length - 1];
+        int cell;
+        if (total > 0) {
+            cell = Arrays.binarySearch(cumulative, random.nextDouble(total));
+            // an exact hit lands on the end of a cell, which belongs to the next non-empty one
+            cell = cell < 0 ? -cell - 1 : cell + 1;
+            while (cell < lengths.length - 1 && lengths[cell] == 0) {
+                cell++;
+            }
+        } else {
+            cell = random.nextInt(lengths.length);
+        }
+        int i = cell % columns;
+        int j = cell / columns;
+        return new Point2D.Double(originX + (i + random.nextDouble()) * cellWidth, originY + (j + random.nextDouble()) * cellHeight);
+    }
+
+    /**
+     * @param i column of the cell, from the west
+     * @param j row of the cell, from the south
+     * @return the length of road in the cell, in metres
+     */
+    public float length(int i, int j) {
+        return lengths[j * columns + i];
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return checksum of the map file this grid was built from, see {@link RoadIndex#checksum(Path)}
+     */
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /**
+     * @return length in bytes of the map file this grid was built from
+     */
+    public long getSourceLength() {
+        return sourceLength;
+    }
+}
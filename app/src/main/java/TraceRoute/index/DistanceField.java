@@ -0,0 +1,184 @@
+package TraceRoute.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only raster of the distance from each point of a map to its nearest road, memory-mapped and sampled in place.
+ * <p>
+ * The raster is a grid of samples spaced {@link #getResolution()} metres apart in both directions of the map's
+ * {@link LocalProjection}, built from a
+ * {@link RoadIndex} by {@link DistanceFieldWriter}. Distances are only exact up to {@link #getRange()}; anything
+ * further from a road reads as slightly more than the range. Samples are stored in square tiles, so a lookup
+ * touches one or two pages of the file.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ * header  80 bytes      magic, version, source checksum and length, resolution, range, origin, size, tile size
+ * tiles   t x s x s x 4 one float per sample, tiles row by row, samples within a tile row by row
+ * </pre>
+ */
+public class DistanceField implements Closeable {
+    static final int MAGIC = 0x46445254; // "TRDF"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 80;
+    /**
+     * Number of samples along each side of a tile
+     */
+    public static final int TILE_SIZE = 256;
+    static final int TILE_SHIFT = 8;
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final Path file;
+    private final long sourceChecksum;
+    private final long sourceLength;
+    private final double resolution;
+    private final double range;
+    private final double originX, originY;
+    private final int width, height;
+    private final int tilesX;
+    private final int tilesPerChunk;
+    private FloatBuffer[] chunks;
+
+    private DistanceField(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("%s is not a distance field".formatted(file));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("%s has version %d, expected %d".formatted(file, header.getInt(4), VERSION));
+            }
+            sourceChecksum = header.getLong(8);
+            sourceLength = header.getLong(16);
+            resolution = header.getDouble(24);
+            range = header.getDouble(32);
+            originX = header.getDouble(40);
+            originY = header.getDouble(48);
+            width = header.getInt(56);
+            height = header.getInt(60);
+            if (header.getInt(64) != TILE_SIZE) {
+                throw new IOException("%s uses a tile size of %d, expected %d".formatted(file, header.getInt(64), TILE_SIZE));
+            }
+            tilesX = tilesAlong(width);
+            long tileBytes = (long) TILE_SIZE * TILE_SIZE * Float.BYTES;
+            long tiles = (long) tilesX * tilesAlong(height);
+            long end = HEADER_BYTES + tiles * tileBytes;
+            if (channel.size() != end) {
+                throw new IOException("%s is truncated, expected %d bytes but found %d".formatted(file, end, channel.size()));
+            }
+
+            tilesPerChunk = (int) (CHUNK_BYTES / tileBytes);
+            chunks = new FloatBuffer[(int) ((tiles + tilesPerChunk - 1) / tilesPerChunk)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = HEADER_BYTES + c * tilesPerChunk * tileBytes;
+                long length = Math.min(tilesPerChunk * tileBytes, end - start);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+        }
+    }
+
+    /**
+     * Memory-map a previously written distance field
+     *
+     * @param file the distance field file
+     * @return the opened distance field
+     * @throws IOException if the file cannot be read, is truncated or was written by an incompatible version
+     */
+    public static DistanceField open(Path file) throws IOException {
+        return new DistanceField(file);
+    }
+
+    static int tilesAlong(int samples) {
+        return (samples + TILE_SIZE - 1) >> TILE_SHIFT;
+    }
+
+    /**
+     * Distance to the nearest road, interpolated bilinearly between the four surrounding samples
+     *
+     * @param x metres east of the origin of the projection
+     * @param y metres north of the origin of the projection
+     * @return the distance in metres, more than {@link #getRange()} if there is no road within range
+     * or the point is off the raster
+     */
+    public double distance(double x, double y) {
+        double gx = (x - originX) / resolution;
+        double gy = (y - originY) / resolution;
+        if (!(gx >= 0 && gy >= 0 && gx <= width - 1 && gy <= height - 1)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int i = Math.min((int) gx, width - 2);
+        int j = Math.min((int) gy, height - 2);
+        double fx = gx - i;
+        double fy = gy - j;
+        double bottom = sample(i, j) * (1 - fx) + sample(i + 1, j) * fx;
+        double top = sample(i, j + 1) * (1 - fx) + sample(i + 1, j + 1) * fx;
+        return bottom * (1 - fy) + top * fy;
+    }
+
+    /**
+     * @param i column of the sample, from the west
+     * @param j row of the sample, from the south
+     * @return the distance stored for the sample, in metres
+     */
+    public float sample(int i, int j) {
+        int tile = (j >> TILE_SHIFT) * tilesX + (i >> TILE_SHIFT);
+        int offset = (tile % tilesPerChunk) * TILE_SIZE * TILE_SIZE + ((j & (TILE_SIZE - 1)) << TILE_SHIFT) + (i & (TILE_SIZE - 1));
+        return chunks[tile / tilesPerChunk].get(offset);
+    }
+
+    /**
+     * @return spacing of the samples in metres
+     */
+    public double getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return the distance in metres up to which samples are exact
+     */
+    public double getRange() {
+        return range;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return checksum of the map file this field was built from, see {@link RoadIndex#checksum(Path)}
+     */
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /**
+     * @return length in bytes of the map file this field was built from
+     */
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Drop the references to the mapped regions. The mapping itself is released when they are garbage collected.
+     */
+    @Override
+    public void close() {
+        chunks = null;
+    }
+}
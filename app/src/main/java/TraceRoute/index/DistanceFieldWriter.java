@@ -0,0 +1,176 @@
+package TraceRoute.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a {@link DistanceField} from the segments of a {@link RoadIndex}.
+ * <p>
+ * Each tile is computed on its own from the segments within range of it, found with the road index, so tiles can
+ * be built in parallel and in bounded memory. Every segment lowers the samples within range of it to their exact
+ * distance, so the cost grows with the number of segments times the number of samples within range of each.
+ */
+public class DistanceFieldWriter {
+    private final double resolution;
+    private final double range;
+
+    /**
+     * @param resolution spacing of the samples in metres
+     * @param range      distance in metres up to which samples must be exact
+     */
+    public DistanceFieldWriter(double resolution, double range) {
+        if (!(resolution > 0) || !(range > 0)) {
+            throw new IllegalArgumentException("Resolution and range must be positive");
+        }
+        this.resolution = resolution;
+        this.range = range;
+    }
+
+    /**
+     * Rasterise the roads and write the distance field. The file is replaced atomically,
+     * so a reader never maps a partially written field.
+     *
+     * @param roads          the road segments, points are ignored
+     * @param file           where to write the distance field
+     * @param sourceChecksum checksum of the map file the roads came from
+     * @param sourceLength   length of the map file the roads came from
+     * @throws IOException if the file cannot be written
+     */
+    public void write(RoadIndex roads, Path file, long sourceChecksum, long sourceLength) throws IOException {
+        double minX = LocalProjection.toMetres(roads.getMinX());
+        double minY = LocalProjection.toMetres(roads.getMinY());
+        double originX = minX - range;
+        double originY = minY - range;
+        long columns = (long) Math.ceil((LocalProjection.toMetres(roads.getMaxX()) - minX + 2 * range) / resolution) + 1;
+        long rows = (long) Math.ceil((LocalProjection.toMetres(roads.getMaxY()) - minY + 2 * range) / resolution) + 1;
+        if (columns > Integer.MAX_VALUE / 2 || rows > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("A resolution of %s metres is too fine for this map".formatted(resolution));
+        }
+        int width = (int) columns;
+        int height = (int) rows;
+        int tilesX = DistanceField.tilesAlong(width);
+        int tilesY = DistanceField.tilesAlong(height);
+        int tileBytes = DistanceField.TILE_SIZE * DistanceField.TILE_SIZE * Float.BYTES;
+
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(DistanceField.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(DistanceField.MAGIC)
+                    .putInt(DistanceField.VERSION)
+                    .putLong(sourceChecksum)
+                    .putLong(sourceLength)
+                    .putDouble(resolution)
+                    .putDouble(range)
+                    .putDouble(originX)
+                    .putDouble(originY)
+                    .putInt(width)
+                    .putInt(height)
+                    .putInt(DistanceField.TILE_SIZE);
+            header.clear();
+            writeFully(channel, header, 0);
+
+            try {
+                IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+                    int i0 = (tile % tilesX) * DistanceField.TILE_SIZE;
+                    int j0 = (tile / tilesX) * DistanceField.TILE_SIZE;
+                    ByteBuffer samples = computeTile(roads, originX, originY, i0, j0, width, height);
+                    try {
+                        writeFully(channel, samples, DistanceField.HEADER_BYTES + (long) tile * tileBytes);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Compute the samples of one tile
+     *
+     * @param i0 column of the tile's first sample
+     * @param j0 row of the tile's first sample
+     * @return the samples of the tile, ready to be written
+     */
+    private ByteBuffer computeTile(RoadIndex roads, double originX, double originY, int i0, int j0, int width, int height) {
+        int side = DistanceField.TILE_SIZE;
+        // squared distances in units of samples
+        double[] grid = new double[side * side];
+        double reach = range / resolution;
+        Arrays.fill(grid, reach * reach);
+        double tileX = originX + i0 * resolution;
+        double tileY = originY + j0 * resolution;
+
+        // the index works in fixed-point units, samples are placed in metres
+        double scale = LocalProjection.toMetres(1) / resolution;
+        double unitsX = tileX / resolution;
+        double unitsY = tileY / resolution;
+        roads.search(LocalProjection.toUnits(tileX - range) - 1, LocalProjection.toUnits(tileY - range) - 1,
+                LocalProjection.toUnits(tileX + side * resolution + range) + 1, LocalProjection.toUnits(tileY + side * resolution + range) + 1,
+                (item, x1, y1, x2, y2) -> {
+                    if (x1 != x2 || y1 != y2) {
+                        splat(grid, side, reach, x1 * scale - unitsX, y1 * scale - unitsY, x2 * scale - unitsX, y2 * scale - unitsY);
+                    }
+                });
+
+        float far = (float) (range + resolution);
+        ByteBuffer samples = ByteBuffer.allocate(side * side * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int j = 0; j < side; j++) {
+            for (int i = 0; i < side; i++) {
+                float distance = far;
+                if (i0 + i < width && j0 + j < height && grid[j * side + i] < reach * reach) {
+                    distance = (float) (Math.sqrt(grid[j * side + i]) * resolution);
+                }
+                samples.putFloat(distance);
+            }
+        }
+        samples.flip();
+        return samples;
+    }
+
+    /**
+     * Lower the samples within reach of a segment to their exact squared distance to it.
+     * Coordinates are in units of samples, relative to the first sample of the tile.
+     */
+    private static void splat(double[] grid, int side, double reach, double x1, double y1, double x2, double y2) {
+        int iMin = Math.max(0, (int) Math.ceil(Math.min(x1, x2) - reach));
+        int iMax = Math.min(side - 1, (int) Math.floor(Math.max(x1, x2) + reach));
+        int jMin = Math.max(0, (int) Math.ceil(Math.min(y1, y2) - reach));
+        int jMax = Math.min(side - 1, (int) Math.floor(Math.max(y1, y2) + reach));
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        for (int j = jMin; j <= jMax; j++) {
+            for (int i = iMin; i <= iMax; i++) {
+                double t = Math.max(0, Math.min(1, ((i - x1) * dx + (j - y1) * dy) / lengthSquared));
+                double ex = x1 + t * dx - i;
+                double ey = y1 + t * dy - j;
+                double distance = ex * ex + ey * ey;
+                if (distance < grid[j * side + i]) {
+                    grid[j * side + i] = distance;
+                }
+            }
+        }
+    }
+}
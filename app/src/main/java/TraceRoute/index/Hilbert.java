@@ -0,0 +1,88 @@
+package TraceRoute.index;
+
+/**
+ * Position of a point along a Hilbert space-filling curve.
+ * Points that are close on the curve are close in space, so sorting by this value groups nearby
+ * geometry together for packing the index and for batching queries.
+ */
+public final class Hilbert {
+    /**
+     * Side length of the grid the curve is evaluated on
+     */
+    public static final int GRID = 1 << 16;
+
+    private Hilbert() {
+    }
+
+    /**
+     * Hilbert value of a point on a 2^16 x 2^16 grid.
+     * Bit-twiddling evaluation after "Hacker's Delight" as popularised by rawrunprotected.
+     *
+     * @param x grid column, 0 to 65535
+     * @param y grid row, 0 to 65535
+     * @return the unsigned 32-bit distance along the curve
+     */
+    public static long value(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        return ((interleave(i1) << 1) | interleave(i0)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Hilbert value of a point inside a bounding box, scaled onto the curve's grid
+     */
+    public static long value(double x, double y, double minX, double minY, double maxX, double maxY) {
+        double width = maxX - minX;
+        double height = maxY - minY;
+        int gx = width > 0 ? (int) Math.min(GRID - 1, Math.max(0, (x - minX) / width * (GRID - 1))) : 0;
+        int gy = height > 0 ? (int) Math.min(GRID - 1, Math.max(0, (y - minY) / height * (GRID - 1))) : 0;
+        return value(gx, gy);
+    }
+
+    private static long interleave(int x) {
+        x = (x | (x << 8)) & 0x00FF00FF;
+        x = (x | (x << 4)) & 0x0F0F0F0F;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,141 @@
+package TraceRoute.index;
+
+/**
+ * The flat, metric coordinate system a map is indexed and searched in: an equirectangular projection centred on
+ * the map, with x metres east and y metres north of its origin.
+ * <p>
+ * Within a city-sized map the projection is close to exact, east-west distances are off by under 1% at 0.3 degrees
+ * of latitude from the origin, and it costs two multiply-adds a point, so every distance, search box and crossing
+ * can be worked out on the plane instead of on the sphere. Indices store coordinates as
+ * {@link #UNITS_PER_METRE fixed-point} ints in this projection, which keep the centimetre precision of the
+ * OpenStreetMap data. The origin is stored in each index, so all the indices of one map share the projection.
+ */
+public final class LocalProjection {
+    /**
+     * Number of fixed-point units per metre in the indices
+     */
+    public static final double UNITS_PER_METRE = 100;
+    /**
+     * Mean radius of the earth in metres
+     */
+    public static final double EARTH_RADIUS = 6_371_000;
+    /**
+     * Length of a degree of latitude, and of longitude at the equator, in metres
+     */
+    public static final double METRES_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+    /**
+     * Number of fixed-point units per degree the origin is stored with
+     */
+    static final double DEGREE_PRECISION = 1e7;
+
+    private final int originLon;
+    private final int originLat;
+    private final double lon0, lat0;
+    private final double metresPerDegreeLon;
+
+    /**
+     * @param originLon longitude of the origin in fixed-point units of {@link #DEGREE_PRECISION}
+     * @param originLat latitude of the origin in fixed-point units of {@link #DEGREE_PRECISION}
+     */
+    LocalProjection(int originLon, int originLat) {
+        this.originLon = originLon;
+        this.originLat = originLat;
+        lon0 = originLon / DEGREE_PRECISION;
+        lat0 = originLat / DEGREE_PRECISION;
+        metresPerDegreeLon = METRES_PER_DEGREE * Math.cos(Math.toRadians(lat0));
+    }
+
+    /**
+     * @return a projection with its origin at the centre of the given bounds, in degrees
+     */
+    public static LocalProjection centredOn(double minLon, double minLat, double maxLon, double maxLat) {
+        if (!(minLon <= maxLon && minLat <= maxLat)) {
+            return new LocalProjection(0, 0);
+        }
+        return new LocalProjection((int) Math.round((minLon + maxLon) / 2 * DEGREE_PRECISION),
+                (int) Math.round((minLat + maxLat) / 2 * DEGREE_PRECISION));
+    }
+
+    /**
+     * @return metres east of the origin
+     */
+    public double x(double lon) {
+        return (lon - lon0) * metresPerDegreeLon;
+    }
+
+    /**
+     * @return metres north of the origin
+     */
+    public double y(double lat) {
+        return (lat - lat0) * METRES_PER_DEGREE;
+    }
+
+    /**
+     * @param x metres east of the origin
+     * @return longitude in degrees
+     */
+    public double lon(double x) {
+        return lon0 + x / metresPerDegreeLon;
+    }
+
+    /**
+     * @param y metres north of the origin
+     * @return latitude in degrees
+     */
+    public double lat(double y) {
+        return lat0 + y / METRES_PER_DEGREE;
+    }
+
+    /**
+     * @param metres a coordinate or distance in metres
+     * @return the nearest fixed-point value, clamped to the range of an int
+     */
+    public static int toUnits(double metres) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(metres * UNITS_PER_METRE)));
+    }
+
+    /**
+     * @param units a coordinate or distance in fixed-point units
+     * @return the same in metres
+     */
+    public static double toMetres(double units) {
+        return units / UNITS_PER_METRE;
+    }
+
+    /**
+     * @return longitude of the origin in degrees
+     */
+    public double getOriginLon() {
+        return lon0;
+    }
+
+    /**
+     * @return latitude of the origin in degrees
+     */
+    public double getOriginLat() {
+        return lat0;
+    }
+
+    int originLonUnits() {
+        return originLon;
+    }
+
+    int originLatUnits() {
+        return originLat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LocalProjection projection && projection.originLon == originLon && projection.originLat == originLat;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * originLon + originLat;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalProjection[%.7f, %.7f]".formatted(lon0, lat0);
+    }
+}
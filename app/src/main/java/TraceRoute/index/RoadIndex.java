@@ -0,0 +1,501 @@
+package TraceRoute.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A read-only, packed Hilbert R-tree of road segments that is memory-mapped and queried in place.
+ * <p>
+ * Nothing is deserialised when an index is opened: the segment coordinates and node boxes stay in the
+ * page cache, which is shared between every JVM on the host that maps the same file. Coordinates are
+ * fixed-point ints in the {@link LocalProjection} of the map, whose origin is stored in the header, and
+ * queries are answered with integer comparisons only.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ * header  64 bytes   magic, version, source checksum and length, counts, bounds, projection origin
+ * items   n x 16     x1, y1, x2, y2 of each segment as fixed-point ints, in Hilbert order
+ * ids     n x 8      OpenStreetMap ID of each segment's way (or node, for points)
+ * nodes   m x 20     minX, minY, maxX, maxY, position of first child
+ * </pre>
+ * Positions 0 to n-1 refer to items and n to n+m-1 to nodes, level by level with the root last.
+ * Each node has up to {@link #NODE_SIZE} children, which are consecutive positions on the level below.
+ */
+public class RoadIndex implements SegmentIndex {
+    static final int MAGIC = 0x58495254; // "TRIX"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int ITEM_BYTES = 16;
+    static final int ID_BYTES = 8;
+    static final int NODE_BYTES = 20;
+    static final int CHECKSUM_MAGIC = 0x4b435254; // "TRCK"
+    static final int CHECKSUM_VERSION = 1;
+    static final int CHECKSUM_BYTES = 32;
+    /**
+     * Maximum number of children per node
+     */
+    public static final int NODE_SIZE = 16;
+
+    private final Path file;
+    private final long sourceChecksum;
+    private final long sourceLength;
+    private final int itemCount;
+    private final int nodeCount;
+    private final int[] levelBounds;
+    private final int minX, minY, maxX, maxY;
+    private final LocalProjection projection;
+    private IntBuffer items;
+    private LongBuffer ids;
+    private IntBuffer nodes;
+
+    private RoadIndex(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("%s is not a road index".formatted(file));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("%s has version %d, expected %d".formatted(file, header.getInt(4), VERSION));
+            }
+            sourceChecksum = header.getLong(8);
+            sourceLength = header.getLong(16);
+            itemCount = header.getInt(24);
+            if (header.getInt(28) != NODE_SIZE) {
+                throw new IOException("%s uses a node size of %d, expected %d".formatted(file, header.getInt(28), NODE_SIZE));
+            }
+            nodeCount = header.getInt(32);
+            minX = header.getInt(40);
+            minY = header.getInt(44);
+            maxX = header.getInt(48);
+            maxY = header.getInt(52);
+            projection = new LocalProjection(header.getInt(56), header.getInt(60));
+
+            long itemsStart = HEADER_BYTES;
+            long idsStart = itemsStart + (long) itemCount * ITEM_BYTES;
+            long nodesStart = idsStart + (long) itemCount * ID_BYTES;
+            long end = nodesStart + (long) nodeCount * NODE_BYTES;
+            if (channel.size() != end) {
+                throw new IOException("%s is truncated, expected %d bytes but found %d".formatted(file, end, channel.size()));
+            }
+            items = map(channel, itemsStart, idsStart).asIntBuffer();
+            ids = map(channel, idsStart, nodesStart).asLongBuffer();
+            nodes = map(channel, nodesStart, end).asIntBuffer();
+        }
+        levelBounds = levelBounds(itemCount);
+    }
+
+    /**
+     * Memory-map a previously written index
+     *
+     * @param file the index file
+     * @return the opened index
+     * @throws IOException if the file cannot be read, is truncated or was written by an incompatible version
+     */
+    public static RoadIndex open(Path file) throws IOException {
+        return new RoadIndex(file);
+    }
+
+    /**
+     * CRC32C of a whole file, used to tie an index to the exact map it was built from
+     *
+     * @param source the file to checksum
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    public static long checksum(Path source) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * The {@link #checksum(Path)} of a file, kept in a small cache file so that a large map is only read in full
+     * when it has changed. The cached checksum is used as long as the file has the same length and modification
+     * time as when it was checksummed, otherwise it is computed again and the cache is rewritten.
+     * <p>
+     * The cache holds magic, version, the length and modification time in milliseconds of the file, and its
+     * checksum, 32 bytes in all.
+     *
+     * @param source the file to checksum
+     * @param cache  where the checksum is cached, created if there is none
+     * @return the checksum
+     * @throws IOException if the file cannot be read or the cache cannot be written
+     */
+    public static long checksum(Path source, Path cache) throws IOException {
+        long length = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        if (Files.isRegularFile(cache) && Files.size(cache) == CHECKSUM_BYTES) {
+            ByteBuffer cached = ByteBuffer.wrap(Files.readAllBytes(cache)).order(ByteOrder.LITTLE_ENDIAN);
+            if (cached.getInt(0) == CHECKSUM_MAGIC && cached.getInt(4) == CHECKSUM_VERSION
+                    && cached.getLong(8) == length && cached.getLong(16) == modified) {
+                return cached.getLong(24);
+            }
+        }
+        long checksum = checksum(source);
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CHECKSUM_MAGIC)
+                .putInt(CHECKSUM_VERSION)
+                .putLong(length)
+                .putLong(modified)
+                .putLong(checksum);
+        buffer.flip();
+        Path temporary = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return checksum;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Index region of %d bytes is too large to map".formatted(end - start));
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The end position of every level of the tree, starting with the items.
+     * Shared with {@link RoadIndexWriter} so both agree on the layout.
+     */
+    static int[] levelBounds(int itemCount) {
+        int[] bounds = new int[32];
+        int levels = 0;
+        int count = itemCount;
+        int position = itemCount;
+        bounds[levels++] = position;
+        if (itemCount > 0) {
+            do {
+                count = (count + NODE_SIZE - 1) / NODE_SIZE;
+                position += count;
+                bounds[levels++] = position;
+            } while (count > 1);
+        }
+        return Arrays.copyOf(bounds, levels);
+    }
+
+    @Override
+    public void search(int minX, int minY, int maxX, int maxY, SegmentVisitor visitor) {
+        search(minX, minY, maxX, maxY, visitor, 0);
+    }
+
+    /**
+     * Search with the item positions passed to the visitor shifted by an offset, for indices that are part of a
+     * {@link TiledRoadIndex}
+     */
+    void search(int minX, int minY, int maxX, int maxY, SegmentVisitor visitor, int itemOffset) {
+        if (nodeCount == 0) {
+            return;
+        }
+        search(itemCount + nodeCount - 1, minX, minY, maxX, maxY, visitor, itemOffset);
+    }
+
+    private void search(int node, int qMinX, int qMinY, int qMaxX, int qMaxY, SegmentVisitor visitor, int itemOffset) {
+        int first = firstChild(node);
+        int last = lastChild(first);
+        if (first < itemCount) {
+            for (int item = first; item < last; item++) {
+                int base = item * 4;
+                int x1 = items.get(base), y1 = items.get(base + 1), x2 = items.get(base + 2), y2 = items.get(base + 3);
+                if (Math.min(x1, x2) <= qMaxX && Math.max(x1, x2) >= qMinX && Math.min(y1, y2) <= qMaxY && Math.max(y1, y2) >= qMinY) {
+                    visitor.visit(item + itemOffset, x1, y1, x2, y2);
+                }
+            }
+        } else {
+            for (int child = first; child < last; child++) {
+                int base = (child - itemCount) * 5;
+                if (nodes.get(base) <= qMaxX && nodes.get(base + 2) >= qMinX && nodes.get(base + 1) <= qMaxY && nodes.get(base + 3) >= qMinY) {
+                    search(child, qMinX, qMinY, qMaxX, qMaxY, visitor, itemOffset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the segment closest to a point, using a best-first traversal of the tree
+     */
+    @Override
+    public int nearest(int x, int y, int maxDistance) {
+        return nearestWithin(x, y, (double) maxDistance * maxDistance);
+    }
+
+    /**
+     * @param bound the squared distance in fixed-point units beyond which segments are ignored
+     */
+    int nearestWithin(double qx, double qy, double bound) {
+        if (nodeCount == 0) {
+            return -1;
+        }
+
+        PositionQueue queue = new PositionQueue();
+        queue.add(itemCount + nodeCount - 1, 0);
+        while (!queue.isEmpty()) {
+            double distance = queue.peekDistance();
+            int position = queue.poll();
+            if (distance > bound) {
+                break;
+            }
+            if (position < itemCount) {
+                return position;
+            }
+            int first = firstChild(position);
+            int last = lastChild(first);
+            for (int child = first; child < last; child++) {
+                double d = child < itemCount ? segmentDistanceSquared(child, qx, qy) : boxDistanceSquared(child, qx, qy);
+                if (d <= bound) {
+                    queue.add(child, d);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a query that walks the tree once per batch, see {@link TreeBatchQuery}
+     */
+    @Override
+    public BatchQuery newBatchQuery() {
+        return new TreeBatchQuery(this);
+    }
+
+    /**
+     * @return the position of the root node, or -1 if the index is empty
+     */
+    int root() {
+        return nodeCount == 0 ? -1 : itemCount + nodeCount - 1;
+    }
+
+    /**
+     * @param item position of a segment
+     * @param k    0 to 3 for x1, y1, x2, y2
+     * @return the fixed-point coordinate
+     */
+    int itemCoordinate(int item, int k) {
+        return items.get(item * 4 + k);
+    }
+
+    /**
+     * @param node position of a node
+     * @param k    0 to 3 for minX, minY, maxX, maxY
+     * @return the fixed-point coordinate of the node's box
+     */
+    int nodeCoordinate(int node, int k) {
+        return nodes.get((node - itemCount) * 5 + k);
+    }
+
+    int firstChild(int node) {
+        return nodes.get((node - itemCount) * 5 + 4);
+    }
+
+    int lastChild(int firstChild) {
+        for (int bound : levelBounds) {
+            if (bound > firstChild) {
+                return Math.min(firstChild + NODE_SIZE, bound);
+            }
+        }
+        throw new IllegalStateException("Corrupt road index %s".formatted(file));
+    }
+
+    double boxDistanceSquared(int node, double qx, double qy) {
+        int base = (node - itemCount) * 5;
+        double dx = Math.max(0, Math.max(nodes.get(base) - qx, qx - nodes.get(base + 2)));
+        double dy = Math.max(0, Math.max(nodes.get(base + 1) - qy, qy - nodes.get(base + 3)));
+        return dx * dx + dy * dy;
+    }
+
+    double segmentDistanceSquared(int item, double qx, double qy) {
+        int base = item * 4;
+        double x1 = items.get(base), y1 = items.get(base + 1), x2 = items.get(base + 2), y2 = items.get(base + 3);
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double t = dx == 0 && dy == 0 ? 0 : Math.max(0, Math.min(1, ((qx - x1) * dx + (qy - y1) * dy) / (dx * dx + dy * dy)));
+        double px = x1 + t * dx - qx;
+        double py = y1 + t * dy - qy;
+        return px * px + py * py;
+    }
+
+    /**
+     * @return the number of segments in the index
+     */
+    @Override
+    public int size() {
+        return itemCount;
+    }
+
+    @Override
+    public int x1(int item) {
+        return items.get(item * 4);
+    }
+
+    @Override
+    public int y1(int item) {
+        return items.get(item * 4 + 1);
+    }
+
+    @Override
+    public int x2(int item) {
+        return items.get(item * 4 + 2);
+    }
+
+    @Override
+    public int y2(int item) {
+        return items.get(item * 4 + 3);
+    }
+
+    /**
+     * @param item position of a segment in the index
+     * @return the OpenStreetMap ID stored with the segment
+     */
+    @Override
+    public long id(int item) {
+        return ids.get(item);
+    }
+
+    /**
+     * @return true if the item is a single point rather than a segment
+     */
+    @Override
+    public boolean isPoint(int item) {
+        int base = item * 4;
+        return items.get(base) == items.get(base + 2) && items.get(base + 1) == items.get(base + 3);
+    }
+
+    @Override
+    public int getMinX() {
+        return minX;
+    }
+
+    @Override
+    public int getMinY() {
+        return minY;
+    }
+
+    @Override
+    public int getMaxX() {
+        return maxX;
+    }
+
+    @Override
+    public int getMaxY() {
+        return maxY;
+    }
+
+    @Override
+    public LocalProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return checksum of the map file this index was built from, see {@link #checksum(Path)}
+     */
+    @Override
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /**
+     * @return length in bytes of the map file this index was built from
+     */
+    @Override
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Drop the references to the mapped regions. The mapping itself is released when they are garbage collected.
+     */
+    @Override
+    public void close() {
+        items = null;
+        ids = null;
+        nodes = null;
+    }
+
+    /**
+     * Minimal binary min-heap of tree positions keyed by squared distance, so nearest searches do not box
+     */
+    private static class PositionQueue {
+        private double[] distances = new double[64];
+        private int[] positions = new int[64];
+        private int size;
+
+        void add(int position, double distance) {
+            if (size == distances.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                positions[i] = positions[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            positions[i] = position;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekDistance() {
+            return distances[0];
+        }
+
+        int poll() {
+            int result = positions[0];
+            double distance = distances[--size];
+            int position = positions[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distances[child] >= distance) {
+                    break;
+                }
+                distances[i] = distances[child];
+                positions[i] = positions[child];
+                i = child;
+            }
+            distances[i] = distance;
+            positions[i] = position;
+            return result;
+        }
+    }
+}
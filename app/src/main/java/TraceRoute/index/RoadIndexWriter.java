@@ -0,0 +1,236 @@
+package TraceRoute.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Collects road segments in primitive arrays and packs them into a {@link RoadIndex} file.
+ * Segments are sorted along a Hilbert curve and the tree is built bottom-up in a single pass,
+ * so building costs one sort instead of one insertion per segment.
+ */
+public class RoadIndexWriter {
+    private final LocalProjection projection;
+    private int[] coordinates = new int[1 << 16];
+    private long[] ids = new long[1 << 14];
+    private int size;
+
+    /**
+     * @param projection the projection the coordinates are in, stored with the index
+     */
+    public RoadIndexWriter(LocalProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Add a segment. Safe to call from several threads at once.
+     *
+     * @param id the OpenStreetMap ID to store with the segment
+     * @param x1 x of the first end in fixed-point units of the projection
+     * @param y1 y of the first end in fixed-point units of the projection
+     * @param x2 x of the second end in fixed-point units of the projection
+     * @param y2 y of the second end in fixed-point units of the projection
+     */
+    public synchronized void add(long id, int x1, int y1, int x2, int y2) {
+        if (size == ids.length) {
+            if (size > Integer.MAX_VALUE / 8) {
+                throw new IllegalStateException("Too many segments for a single road index");
+            }
+            ids = Arrays.copyOf(ids, size * 2);
+            coordinates = Arrays.copyOf(coordinates, size * 8);
+        }
+        int base = size * 4;
+        coordinates[base] = x1;
+        coordinates[base + 1] = y1;
+        coordinates[base + 2] = x2;
+        coordinates[base + 3] = y2;
+        ids[size++] = id;
+    }
+
+    /**
+     * Add a single point, stored as a segment of zero length
+     */
+    public void addPoint(long id, int x, int y) {
+        add(id, x, y, x, y);
+    }
+
+    /**
+     * @return the number of segments added so far
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Sort the segments, build the tree and write it. The file is replaced atomically,
+     * so a reader never maps a partially written index.
+     *
+     * @param file           where to write the index
+     * @param sourceChecksum checksum of the map file the segments came from
+     * @param sourceLength   length of the map file the segments came from
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(Path file, long sourceChecksum, long sourceLength) throws IOException {
+        int n = size;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n * 4; i += 2) {
+            minX = Math.min(minX, coordinates[i]);
+            maxX = Math.max(maxX, coordinates[i]);
+            minY = Math.min(minY, coordinates[i + 1]);
+            maxY = Math.max(maxY, coordinates[i + 1]);
+        }
+        if (n == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        // sort by Hilbert value of the segment centre; the item index rides along in the low 31 bits
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int base = i * 4;
+            double centreX = (coordinates[base] + (double) coordinates[base + 2]) / 2;
+            double centreY = (coordinates[base + 1] + (double) coordinates[base + 3]) / 2;
+            keys[i] = Hilbert.value(centreX, centreY, minX, minY, maxX, maxY) << 31 | i;
+        }
+        Arrays.parallelSort(keys);
+        breakTies(keys);
+
+        int[] sortedCoordinates = new int[n * 4];
+        long[] sortedIds = new long[n];
+        for (int i = 0; i < n; i++) {
+            int source = (int) (keys[i] & 0x7FFFFFFF);
+            System.arraycopy(coordinates, source * 4, sortedCoordinates, i * 4, 4);
+            sortedIds[i] = ids[source];
+        }
+        coordinates = sortedCoordinates;
+        ids = sortedIds;
+
+        int[] levelBounds = RoadIndex.levelBounds(n);
+        int m = levelBounds[levelBounds.length - 1] - n;
+        int[] nodes = new int[m * 5];
+        int childLevelStart = 0;
+        for (int level = 1; level < levelBounds.length; level++) {
+            int childLevelEnd = levelBounds[level - 1];
+            int node = levelBounds[level - 1] - n;
+            for (int first = childLevelStart; first < childLevelEnd; first += RoadIndex.NODE_SIZE, node++) {
+                int last = Math.min(first + RoadIndex.NODE_SIZE, childLevelEnd);
+                int boxMinX = Integer.MAX_VALUE, boxMinY = Integer.MAX_VALUE, boxMaxX = Integer.MIN_VALUE, boxMaxY = Integer.MIN_VALUE;
+                for (int child = first; child < last; child++) {
+                    if (child < n) {
+                        int base = child * 4;
+                        boxMinX = Math.min(boxMinX, Math.min(coordinates[base], coordinates[base + 2]));
+                        boxMinY = Math.min(boxMinY, Math.min(coordinates[base + 1], coordinates[base + 3]));
+                        boxMaxX = Math.max(boxMaxX, Math.max(coordinates[base], coordinates[base + 2]));
+                        boxMaxY = Math.max(boxMaxY, Math.max(coordinates[base + 1], coordinates[base + 3]));
+                    } else {
+                        int base = (child - n) * 5;
+                        boxMinX = Math.min(boxMinX, nodes[base]);
+                        boxMinY = Math.min(boxMinY, nodes[base + 1]);
+                        boxMaxX = Math.max(boxMaxX, nodes[base + 2]);
+                        boxMaxY = Math.max(boxMaxY, nodes[base + 3]);
+                    }
+                }
+                int base = node * 5;
+                nodes[base] = boxMinX;
+                nodes[base + 1] = boxMinY;
+                nodes[base + 2] = boxMaxX;
+                nodes[base + 3] = boxMaxY;
+                nodes[base + 4] = first;
+            }
+            childLevelStart = childLevelEnd;
+        }
+
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(RoadIndex.MAGIC)
+                    .putInt(RoadIndex.VERSION)
+                    .putLong(sourceChecksum)
+                    .putLong(sourceLength)
+                    .putInt(n)
+                    .putInt(RoadIndex.NODE_SIZE)
+                    .putInt(m)
+                    .putInt(0)
+                    .putInt(minX)
+                    .putInt(minY)
+                    .putInt(maxX)
+                    .putInt(maxY)
+                    .putInt(projection.originLonUnits())
+                    .putInt(projection.originLatUnits());
+            buffer.position(RoadIndex.HEADER_BYTES);
+            for (int i = 0; i < n * 4; i++) {
+                buffer = drainIfFull(channel, buffer, 4);
+                buffer.putInt(coordinates[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                buffer = drainIfFull(channel, buffer, 8);
+                buffer.putLong(ids[i]);
+            }
+            for (int value : nodes) {
+                buffer = drainIfFull(channel, buffer, 4);
+                buffer.putInt(value);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Segments are added by several threads in no particular order, so the item index is no tie-break that
+     * repeats from one import to the next. Segments with the same Hilbert value are put in the order of their
+     * way ID and then their coordinates instead, so that the same map always gives the same file.
+     */
+    private void breakTies(long[] keys) {
+        Integer[] run = new Integer[0];
+        for (int start = 0, end; start < keys.length; start = end) {
+            long hilbert = keys[start] >>> 31;
+            end = start + 1;
+            while (end < keys.length && keys[end] >>> 31 == hilbert) {
+                end++;
+            }
+            if (end - start > 1) {
+                if (run.length < end - start) {
+                    run = new Integer[end - start];
+                }
+                for (int i = start; i < end; i++) {
+                    run[i - start] = (int) (keys[i] & 0x7FFFFFFF);
+                }
+                Arrays.sort(run, 0, end - start, this::compareSegments);
+                for (int i = start; i < end; i++) {
+                    keys[i] = hilbert << 31 | run[i - start];
+                }
+            }
+        }
+    }
+
+    private int compareSegments(int a, int b) {
+        int order = Long.compare(ids[a], ids[b]);
+        for (int i = 0; i < 4 && order == 0; i++) {
+            order = Integer.compare(coordinates[a * 4 + i], coordinates[b * 4 + i]);
+        }
+        return order;
+    }
+
+    private static ByteBuffer drainIfFull(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() < needed) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return buffer;
+    }
+}
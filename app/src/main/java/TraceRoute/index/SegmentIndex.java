@@ -0,0 +1,89 @@
+package TraceRoute.index;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+
+/**
+ * A read-only spatial index of road segments, or of junctions stored as points.
+ * <p>
+ * Segments are identified by their item position, from 0 to {@link #size()} - 1, which stays valid for as long
+ * as the index is open. Coordinates are fixed-point ints in the {@link #getProjection() projection} of the map,
+ * {@link LocalProjection#UNITS_PER_METRE} to the metre, with x to the east and y to the north.
+ */
+public interface SegmentIndex extends Closeable {
+    /**
+     * Visit every segment whose bounding box intersects the given box
+     *
+     * @param minX    western edge
+     * @param minY    southern edge
+     * @param maxX    eastern edge
+     * @param maxY    northern edge
+     * @param visitor receives each matching segment
+     */
+    void search(int minX, int minY, int maxX, int maxY, SegmentVisitor visitor);
+
+    /**
+     * Find the segment closest to a point
+     *
+     * @param x           x of the point
+     * @param y           y of the point
+     * @param maxDistance ignore segments further away than this
+     * @return the item position of the closest segment, or -1 if none is within range
+     */
+    int nearest(int x, int y, int maxDistance);
+
+    /**
+     * @return a new batch query over this index, to be used by one thread at a time
+     */
+    BatchQuery newBatchQuery();
+
+    /**
+     * @return the number of segments in the index
+     */
+    int size();
+
+    int x1(int item);
+
+    int y1(int item);
+
+    int x2(int item);
+
+    int y2(int item);
+
+    /**
+     * @param item position of a segment in the index
+     * @return the OpenStreetMap ID stored with the segment
+     */
+    long id(int item);
+
+    /**
+     * @return true if the item is a single point rather than a segment
+     */
+    boolean isPoint(int item);
+
+    int getMinX();
+
+    int getMinY();
+
+    int getMaxX();
+
+    int getMaxY();
+
+    /**
+     * @return the projection the coordinates are in, shared by every index of the same map
+     */
+    LocalProjection getProjection();
+
+    /**
+     * @return checksum of the map file this index was built from, see {@link RoadIndex#checksum(Path)}
+     */
+    long getSourceChecksum();
+
+    /**
+     * @return length in bytes of the map file this index was built from
+     */
+    long getSourceLength();
+
+    @Override
+    void close();
+}
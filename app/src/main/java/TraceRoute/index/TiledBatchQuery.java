@@ -0,0 +1,180 @@
+package TraceRoute.index;
+
+import java.util.Arrays;
+
+/**
+ * Answers batches of queries against a {@link TiledRoadIndex}, one tile at a time.
+ * <p>
+ * Each tile that a query can reach is searched once per batch with a {@link TreeBatchQuery} over the queries
+ * that reach it, so a batch costs one traversal per tile it touches and tiles no query reaches are never opened.
+ * For nearest searches the tiles are visited nearest first to the centre of the batch, and a tile is skipped for
+ * every query that has already found something closer than the tile's bounds.
+ */
+final class TiledBatchQuery implements BatchQuery, BatchVisitor {
+    private final TiledRoadIndex index;
+    private TreeBatchQuery tileQuery;
+
+    // the queries of the whole batch in fixed-point units, and the best match so far for nearest searches
+    private int[] qMinX = new int[0], qMinY = new int[0], qMaxX = new int[0], qMaxY = new int[0];
+    private double[] qx = new double[0], qy = new double[0];
+    private double[] best = new double[0];
+    private int[] found = new int[0];
+    // the queries that reach the current tile
+    private int[] subset = new int[0];
+    private int[] subsetMinX = new int[0], subsetMinY = new int[0], subsetMaxX = new int[0], subsetMaxY = new int[0];
+    private int[] subsetResult = new int[0];
+    private long[] tileOrder = new long[0];
+
+    // where matches from the current tile go
+    private BatchVisitor visitor;
+    private int itemOffset;
+
+    TiledBatchQuery(TiledRoadIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void search(int[] minX, int[] minY, int[] maxX, int[] maxY, int count, BatchVisitor visitor) {
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(count);
+        int unionMinX = Integer.MAX_VALUE, unionMinY = Integer.MAX_VALUE, unionMaxX = Integer.MIN_VALUE, unionMaxY = Integer.MIN_VALUE;
+        for (int q = 0; q < count; q++) {
+            qMinX[q] = minX[q];
+            qMinY[q] = minY[q];
+            qMaxX[q] = maxX[q];
+            qMaxY[q] = maxY[q];
+            unionMinX = Math.min(unionMinX, qMinX[q]);
+            unionMinY = Math.min(unionMinY, qMinY[q]);
+            unionMaxX = Math.max(unionMaxX, qMaxX[q]);
+            unionMaxY = Math.max(unionMaxY, qMaxY[q]);
+        }
+        this.visitor = visitor;
+        index.forEachTile(unionMinX, unionMinY, unionMaxX, unionMaxY, tile -> {
+            int n = 0;
+            for (int q = 0; q < count; q++) {
+                if (index.intersects(tile, qMinX[q], qMinY[q], qMaxX[q], qMaxY[q])) {
+                    subset[n] = q;
+                    subsetMinX[n] = minX[q];
+                    subsetMinY[n] = minY[q];
+                    subsetMaxX[n] = maxX[q];
+                    subsetMaxY[n] = maxY[q];
+                    n++;
+                }
+            }
+            if (n > 0) {
+                itemOffset = index.firstItem(tile);
+                queryTile(tile).search(subsetMinX, subsetMinY, subsetMaxX, subsetMaxY, n, this);
+            }
+        });
+        this.visitor = null;
+    }
+
+    /**
+     * Pass a match from the current tile on with the caller's query and the item's position across all tiles
+     */
+    @Override
+    public void visit(int query, int item, int x1, int y1, int x2, int y2) {
+        visitor.visit(subset[query], item + itemOffset, x1, y1, x2, y2);
+    }
+
+    @Override
+    public void nearest(int[] x, int[] y, int count, int maxDistance, int[] result) {
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(count);
+        double bound = (double) maxDistance * maxDistance;
+        double cx = 0, cy = 0;
+        for (int q = 0; q < count; q++) {
+            qx[q] = x[q];
+            qy[q] = y[q];
+            best[q] = bound;
+            found[q] = -1;
+            cx += qx[q];
+            cy += qy[q];
+        }
+        cx /= count;
+        cy /= count;
+
+        int tiles = index.tileCount();
+        if (tileOrder.length < tiles) {
+            tileOrder = new long[tiles];
+        }
+        for (int tile = 0; tile < tiles; tile++) {
+            // non-negative doubles sort like their bits, the tile rides along in the low bits
+            tileOrder[tile] = (Double.doubleToLongBits(index.boxDistanceSquared(tile, cx, cy)) & ~0xFFFFFL) | tile;
+        }
+        Arrays.sort(tileOrder, 0, tiles);
+
+        for (int i = 0; i < tiles; i++) {
+            int tile = (int) (tileOrder[i] & 0xFFFFF);
+            int n = 0;
+            double reach = 0;
+            for (int q = 0; q < count; q++) {
+                if (index.boxDistanceSquared(tile, qx[q], qy[q]) <= best[q]) {
+                    subset[n] = q;
+                    subsetMinX[n] = x[q];
+                    subsetMinY[n] = y[q];
+                    reach = Math.max(reach, best[q]);
+                    n++;
+                }
+            }
+            if (n == 0) {
+                continue;
+            }
+            RoadIndex tileIndex = index.tile(tile);
+            // round the reach up, the tile query compares its own squared distances to it
+            int tileReach = (int) Math.min(Integer.MAX_VALUE, Math.ceil(Math.sqrt(reach)));
+            queryTile(tile).nearest(subsetMinX, subsetMinY, n, tileReach, subsetResult);
+            int offset = index.firstItem(tile);
+            for (int k = 0; k < n; k++) {
+                if (subsetResult[k] < 0) {
+                    continue;
+                }
+                int q = subset[k];
+                double d = tileIndex.segmentDistanceSquared(subsetResult[k], qx[q], qy[q]);
+                if (d < best[q] || (d == best[q] && found[q] < 0)) {
+                    best[q] = d;
+                    found[q] = offset + subsetResult[k];
+                }
+            }
+        }
+        System.arraycopy(found, 0, result, 0, count);
+    }
+
+    /**
+     * @return the tree query, pointed at a tile
+     */
+    private TreeBatchQuery queryTile(int tile) {
+        RoadIndex tileIndex = index.tile(tile);
+        if (tileQuery == null) {
+            tileQuery = new TreeBatchQuery(tileIndex);
+        } else {
+            tileQuery.setIndex(tileIndex);
+        }
+        return tileQuery;
+    }
+
+    private void ensureCapacity(int count) {
+        if (qx.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, qx.length * 2);
+        qMinX = new int[capacity];
+        qMinY = new int[capacity];
+        qMaxX = new int[capacity];
+        qMaxY = new int[capacity];
+        qx = new double[capacity];
+        qy = new double[capacity];
+        best = new double[capacity];
+        found = new int[capacity];
+        subset = new int[capacity];
+        subsetMinX = new int[capacity];
+        subsetMinY = new int[capacity];
+        subsetMaxX = new int[capacity];
+        subsetMaxY = new int[capacity];
+        subsetResult = new int[capacity];
+    }
+}
@@ -0,0 +1,462 @@
+package TraceRoute.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A road index split into the tiles of a fixed grid over the projected map, each of which is a {@link RoadIndex} file of its
+ * own that is only opened once a query reaches it.
+ * <p>
+ * Opening a tiled index reads nothing but its small manifest. Open tiles are held in a cache of bounded size,
+ * and the tile that was used least recently is dropped when another is needed, so a process that searches one
+ * region of a large map only ever maps the tiles around it. Queries read open tiles without taking a lock, only
+ * opening a tile and dropping another to make room for it are done under one. Items are numbered across all tiles, tile by tile,
+ * so item positions stay valid when the tile that holds them is dropped and opened again.
+ * <p>
+ * Manifest layout, all values little-endian:
+ * <pre>
+ * header  64 bytes   magic, version, source checksum and length, tile size, grid origin and size,
+ *                    tile and item counts, projection origin
+ * tiles   t x 28     cell, first item, item count, minX, minY, maxX, maxY of each non-empty tile, by cell
+ * </pre>
+ * The tile of cell <code>c</code> is stored next to the manifest as <code>c.roads</code>.
+ */
+public class TiledRoadIndex implements SegmentIndex {
+    static final int MAGIC = 0x49545254; // "TRTI"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int TILE_BYTES = 28;
+    static final String MANIFEST = "manifest";
+
+    private final Path directory;
+    private final long sourceChecksum;
+    private final long sourceLength;
+    private final int tileUnits;
+    private final int originX, originY;
+    private final int columns, rows;
+    private final int itemCount;
+    // per tile, in the order of their items
+    private final int[] cells;
+    private final int[] firstItem;
+    private final int[] tileMinX, tileMinY, tileMaxX, tileMaxY;
+    /**
+     * The tile of each cell of the grid, or -1 for an empty cell
+     */
+    private final int[] tileOfCell;
+    /**
+     * How far the bounds of any tile reach past its cell, in fixed-point units
+     */
+    private final int overhang;
+    private final int minX, minY, maxX, maxY;
+    private final LocalProjection projection;
+
+    /**
+     * The open index of each tile, or null
+     */
+    private final AtomicReferenceArray<RoadIndex> openTiles;
+    /**
+     * When each tile was last used, by {@link System#nanoTime()}
+     */
+    private final AtomicLongArray lastUsed;
+    /**
+     * The tiles that are open, in no order, guarded by the lock of the index
+     */
+    private final int[] open;
+    private int openCount;
+    private long tileLoads;
+
+    private TiledRoadIndex(Path directory, int cachedTiles) throws IOException {
+        this.directory = directory;
+        Path file = directory.resolve(MANIFEST);
+        ByteBuffer manifest;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("%s is not a tiled road index".formatted(file));
+            }
+            manifest = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (manifest.hasRemaining() && channel.read(manifest) >= 0) {
+                // keep reading until the manifest is complete
+            }
+        }
+        if (manifest.getInt(0) != MAGIC) {
+            throw new IOException("%s is not a tiled road index".formatted(file));
+        }
+        if (manifest.getInt(4) != VERSION) {
+            throw new IOException("%s has version %d, expected %d".formatted(file, manifest.getInt(4), VERSION));
+        }
+        sourceChecksum = manifest.getLong(8);
+        sourceLength = manifest.getLong(16);
+        tileUnits = manifest.getInt(24);
+        originX = manifest.getInt(28);
+        originY = manifest.getInt(32);
+        columns = manifest.getInt(36);
+        rows = manifest.getInt(40);
+        int tiles = manifest.getInt(44);
+        itemCount = manifest.getInt(48);
+        projection = new LocalProjection(manifest.getInt(52), manifest.getInt(56));
+        if (manifest.capacity() != HEADER_BYTES + (long) tiles * TILE_BYTES) {
+            throw new IOException("%s is truncated".formatted(file));
+        }
+
+        cells = new int[tiles];
+        firstItem = new int[tiles + 1];
+        tileMinX = new int[tiles];
+        tileMinY = new int[tiles];
+        tileMaxX = new int[tiles];
+        tileMaxY = new int[tiles];
+        tileOfCell = new int[columns * rows];
+        Arrays.fill(tileOfCell, -1);
+        int reach = 0;
+        int boundsMinX = Integer.MAX_VALUE, boundsMinY = Integer.MAX_VALUE, boundsMaxX = Integer.MIN_VALUE, boundsMaxY = Integer.MIN_VALUE;
+        for (int t = 0; t < tiles; t++) {
+            int base = HEADER_BYTES + t * TILE_BYTES;
+            cells[t] = manifest.getInt(base);
+            firstItem[t] = manifest.getInt(base + 4);
+            tileMinX[t] = manifest.getInt(base + 12);
+            tileMinY[t] = manifest.getInt(base + 16);
+            tileMaxX[t] = manifest.getInt(base + 20);
+            tileMaxY[t] = manifest.getInt(base + 24);
+            tileOfCell[cells[t]] = t;
+
+            long cellMinX = originX + (long) (cells[t] % columns) * tileUnits;
+            long cellMinY = originY + (long) (cells[t] / columns) * tileUnits;
+            reach = (int) Math.max(reach, Math.max(Math.max(cellMinX - tileMinX[t], tileMaxX[t] - cellMinX - tileUnits),
+                    Math.max(cellMinY - tileMinY[t], tileMaxY[t] - cellMinY - tileUnits)));
+            boundsMinX = Math.min(boundsMinX, tileMinX[t]);
+            boundsMinY = Math.min(boundsMinY, tileMinY[t]);
+            boundsMaxX = Math.max(boundsMaxX, tileMaxX[t]);
+            boundsMaxY = Math.max(boundsMaxY, tileMaxY[t]);
+        }
+        firstItem[tiles] = itemCount;
+        overhang = reach;
+        if (tiles == 0) {
+            boundsMinX = boundsMinY = boundsMaxX = boundsMaxY = 0;
+        }
+        minX = boundsMinX;
+        minY = boundsMinY;
+        maxX = boundsMaxX;
+        maxY = boundsMaxY;
+
+        openTiles = new AtomicReferenceArray<>(tiles);
+        lastUsed = new AtomicLongArray(tiles);
+        open = new int[Math.min(cachedTiles, tiles)];
+    }
+
+    /**
+     * Open a tiled index. Only the manifest is read, tiles are mapped when they are first used.
+     *
+     * @param directory   the directory written by {@link TiledRoadIndexWriter}
+     * @param cachedTiles the most tiles to keep open at once
+     * @return the opened index
+     * @throws IOException if the manifest cannot be read, is truncated or was written by an incompatible version
+     */
+    public static TiledRoadIndex open(Path directory, int cachedTiles) throws IOException {
+        if (cachedTiles < 1) {
+            throw new IllegalArgumentException("At least one tile must be kept open");
+        }
+        return new TiledRoadIndex(directory, cachedTiles);
+    }
+
+    /**
+     * @return whether a directory holds a complete tiled index
+     */
+    public static boolean exists(Path directory) {
+        return Files.isRegularFile(directory.resolve(MANIFEST));
+    }
+
+    static String tileFileName(int cell) {
+        return "%d.roads".formatted(cell);
+    }
+
+    /**
+     * The road index of a tile, opening it if it is not in the cache
+     *
+     * @param tile position of the tile in the manifest
+     */
+    RoadIndex tile(int tile) {
+        lastUsed.lazySet(tile, System.nanoTime());
+        RoadIndex index = openTiles.get(tile);
+        return index != null ? index : load(tile);
+    }
+
+    /**
+     * Open a tile, dropping the tile that was used least recently if the cache is full
+     */
+    private synchronized RoadIndex load(int tile) {
+        RoadIndex index = openTiles.get(tile);
+        if (index != null) {
+            // another thread opened it first
+            return index;
+        }
+        try {
+            index = RoadIndex.open(directory.resolve(tileFileName(cells[tile])));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open tile %d of %s".formatted(cells[tile], directory), e);
+        }
+        if (openCount == open.length) {
+            int eldest = 0;
+            for (int i = 1; i < openCount; i++) {
+                if (lastUsed.get(open[i]) - lastUsed.get(open[eldest]) < 0) {
+                    eldest = i;
+                }
+            }
+            // a query on another thread may still be using the tile, so it is left to be collected, not closed
+            openTiles.set(open[eldest], null);
+            open[eldest] = open[--openCount];
+        }
+        open[openCount++] = tile;
+        openTiles.set(tile, index);
+        tileLoads++;
+        return index;
+    }
+
+    /**
+     * @return the tile that holds an item
+     */
+    private int tileOf(int item) {
+        // empty tiles are never written, so the first items of the tiles are distinct
+        int found = Arrays.binarySearch(firstItem, 0, cells.length, item);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    int tileCount() {
+        return cells.length;
+    }
+
+    int firstItem(int tile) {
+        return firstItem[tile];
+    }
+
+    /**
+     * @return whether the bounds of a tile intersect a box given in fixed-point units
+     */
+    boolean intersects(int tile, int qMinX, int qMinY, int qMaxX, int qMaxY) {
+        return tileMinX[tile] <= qMaxX && tileMaxX[tile] >= qMinX && tileMinY[tile] <= qMaxY && tileMaxY[tile] >= qMinY;
+    }
+
+    /**
+     * @return squared distance in fixed-point units from a point to the bounds of a tile
+     */
+    double boxDistanceSquared(int tile, double qx, double qy) {
+        double dx = Math.max(0, Math.max(tileMinX[tile] - qx, qx - tileMaxX[tile]));
+        double dy = Math.max(0, Math.max(tileMinY[tile] - qy, qy - tileMaxY[tile]));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Call the action with every tile whose bounds intersect a box given in fixed-point units, looking only at
+     * the cells of the grid that the box, widened by the overhang of the tiles, covers
+     */
+    void forEachTile(int qMinX, int qMinY, int qMaxX, int qMaxY, TileAction action) {
+        if (cells.length == 0) {
+            return;
+        }
+        int column0 = cell((long) qMinX - overhang - originX, columns);
+        int column1 = cell((long) qMaxX + overhang - originX, columns);
+        int row0 = cell((long) qMinY - overhang - originY, rows);
+        int row1 = cell((long) qMaxY + overhang - originY, rows);
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                int tile = tileOfCell[row * columns + column];
+                if (tile >= 0 && intersects(tile, qMinX, qMinY, qMaxX, qMaxY)) {
+                    action.accept(tile);
+                }
+            }
+        }
+    }
+
+    private int cell(long offset, int count) {
+        return (int) Math.max(0, Math.min(count - 1, Math.floorDiv(offset, tileUnits)));
+    }
+
+    @FunctionalInterface
+    interface TileAction {
+        void accept(int tile);
+    }
+
+    @Override
+    public void search(int minX, int minY, int maxX, int maxY, SegmentVisitor visitor) {
+        forEachTile(minX, minY, maxX, maxY, tile -> tile(tile).search(minX, minY, maxX, maxY, visitor, firstItem[tile]));
+    }
+
+    /**
+     * Find the segment closest to a point, walking the cells of the grid ring by ring out from the cell of the
+     * point until the next ring is further away than the closest segment found so far
+     */
+    @Override
+    public int nearest(int x, int y, int maxDistance) {
+        if (cells.length == 0) {
+            return -1;
+        }
+        double best = (double) maxDistance * maxDistance;
+        int found = -1;
+        // the cell of the point, which may lie outside the grid
+        long column = Math.floorDiv((long) x - originX, tileUnits);
+        long row = Math.floorDiv((long) y - originY, tileUnits);
+        // rings before the first that reaches the grid are empty, as are those past the last
+        long firstRing = Math.max(0, Math.max(Math.max(-column, column - columns + 1), Math.max(-row, row - rows + 1)));
+        long lastRing = Math.max(Math.max(column, columns - 1 - column), Math.max(row, rows - 1 - row));
+        for (long ring = firstRing; ring <= lastRing; ring++) {
+            // the cells of a ring are a ring less one cells away, but the bounds of their tiles reach past them
+            double gap = Math.max(0, (ring - 1) * tileUnits - overhang);
+            if (gap * gap > best) {
+                break;
+            }
+            for (long r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+                // the first and last rows of a ring are whole, the rows between only have a cell at each end
+                boolean whole = r == row - ring || r == row + ring;
+                long from = whole ? Math.max(0, column - ring) : column - ring;
+                long to = whole ? Math.min(columns - 1, column + ring) : column + ring;
+                for (long c = from; c <= to; c += whole ? 1 : 2 * ring) {
+                    int tile = c < 0 || c >= columns ? -1 : tileOfCell[(int) (r * columns + c)];
+                    if (tile < 0 || boxDistanceSquared(tile, x, y) > best) {
+                        continue;
+                    }
+                    RoadIndex index = tile(tile);
+                    int item = index.nearestWithin(x, y, best);
+                    if (item >= 0) {
+                        double d = index.segmentDistanceSquared(item, x, y);
+                        if (d < best || found < 0) {
+                            best = d;
+                            found = firstItem[tile] + item;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public BatchQuery newBatchQuery() {
+        return new TiledBatchQuery(this);
+    }
+
+    @Override
+    public int size() {
+        return itemCount;
+    }
+
+    @Override
+    public int x1(int item) {
+        int tile = tileOf(item);
+        return tile(tile).x1(item - firstItem[tile]);
+    }
+
+    @Override
+    public int y1(int item) {
+        int tile = tileOf(item);
+        return tile(tile).y1(item - firstItem[tile]);
+    }
+
+    @Override
+    public int x2(int item) {
+        int tile = tileOf(item);
+        return tile(tile).x2(item - firstItem[tile]);
+    }
+
+    @Override
+    public int y2(int item) {
+        int tile = tileOf(item);
+        return tile(tile).y2(item - firstItem[tile]);
+    }
+
+    @Override
+    public long id(int item) {
+        int tile = tileOf(item);
+        return tile(tile).id(item - firstItem[tile]);
+    }
+
+    @Override
+    public boolean isPoint(int item) {
+        int tile = tileOf(item);
+        return tile(tile).isPoint(item - firstItem[tile]);
+    }
+
+    @Override
+    public int getMinX() {
+        return minX;
+    }
+
+    @Override
+    public int getMinY() {
+        return minY;
+    }
+
+    @Override
+    public int getMaxX() {
+        return maxX;
+    }
+
+    @Override
+    public int getMaxY() {
+        return maxY;
+    }
+
+    @Override
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    @Override
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    @Override
+    public LocalProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return side of each tile in metres
+     */
+    public double getTileSize() {
+        return LocalProjection.toMetres(tileUnits);
+    }
+
+    /**
+     * @return the number of non-empty tiles
+     */
+    public int getTiles() {
+        return cells.length;
+    }
+
+    /**
+     * @return the number of tiles currently open
+     */
+    public synchronized int getOpenTiles() {
+        return openCount;
+    }
+
+    /**
+     * @return the number of times a tile has been opened, including tiles opened again after being dropped
+     */
+    public synchronized long getTileLoads() {
+        return tileLoads;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Drop every open tile. The mappings are released when they are garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        for (int i = 0; i < openCount; i++) {
+            openTiles.set(open[i], null);
+        }
+        openCount = 0;
+    }
+}
@@ -0,0 +1,155 @@
+package TraceRoute.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a {@link RoadIndex} into a {@link TiledRoadIndex}, one small road index per tile of a fixed
+ * grid over the projected map. Each segment goes to the tile that holds its centre, so a tile's bounds can reach a little
+ * past its cell, and nothing is clipped or duplicated. Only one tile's segments are held in memory at a time.
+ */
+public class TiledRoadIndexWriter {
+    /**
+     * Largest number of cells the grid may have, which keeps the cell table of a tiled index small
+     */
+    static final int MAX_CELLS = 1 << 20;
+
+    private final Logger logger = LoggerFactory.getLogger(TiledRoadIndexWriter.class);
+    private final int tileUnits;
+
+    /**
+     * @param tileMetres side of each tile in metres
+     */
+    public TiledRoadIndexWriter(double tileMetres) {
+        if (!(tileMetres > 0)) {
+            throw new IllegalArgumentException("The tile size must be positive");
+        }
+        this.tileUnits = Math.max(1, LocalProjection.toUnits(tileMetres));
+    }
+
+    /**
+     * Write the tiles and their manifest to a directory, replacing any tiles already there. The manifest is
+     * written last, so a directory left behind by a failed write is never mistaken for a complete one.
+     *
+     * @param source    the index to split
+     * @param directory where to write the tiles
+     * @return the number of non-empty tiles written
+     * @throws IOException if the tiles cannot be written
+     */
+    public int write(RoadIndex source, Path directory) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(TiledRoadIndex.MANIFEST));
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(directory, "*.roads")) {
+            for (Path file : old) {
+                Files.delete(file);
+            }
+        }
+
+        int n = source.size();
+        int originX = source.getMinX();
+        int originY = source.getMinY();
+        int columns = (int) (((long) source.getMaxX() - originX) / tileUnits + 1);
+        int rows = (int) (((long) source.getMaxY() - originY) / tileUnits + 1);
+        if ((long) columns * rows > MAX_CELLS) {
+            throw new IllegalArgumentException("Tiles of %s metres split the map into %d x %d cells, more than %d".formatted(
+                    LocalProjection.toMetres(tileUnits), columns, rows, MAX_CELLS));
+        }
+
+        // counting sort of the items by the cell of their centre
+        int[] cellOf = new int[n];
+        int[] first = new int[columns * rows + 1];
+        for (int item = 0; item < n; item++) {
+            long centreX = ((long) source.itemCoordinate(item, 0) + source.itemCoordinate(item, 2)) / 2;
+            long centreY = ((long) source.itemCoordinate(item, 1) + source.itemCoordinate(item, 3)) / 2;
+            int column = (int) Math.min(columns - 1, Math.max(0, (centreX - originX) / tileUnits));
+            int row = (int) Math.min(rows - 1, Math.max(0, (centreY - originY) / tileUnits));
+            cellOf[item] = row * columns + column;
+            first[cellOf[item] + 1]++;
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            first[cell + 1] += first[cell];
+        }
+        int[] order = new int[n];
+        int[] fill = first.clone();
+        for (int item = 0; item < n; item++) {
+            order[fill[cellOf[item]]++] = item;
+        }
+
+        int tiles = 0;
+        for (int cell = 0; cell < columns * rows; cell++) {
+            if (first[cell + 1] > first[cell]) {
+                tiles++;
+            }
+        }
+        ByteBuffer manifest = ByteBuffer.allocate(TiledRoadIndex.HEADER_BYTES + tiles * TiledRoadIndex.TILE_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        manifest.putInt(TiledRoadIndex.MAGIC)
+                .putInt(TiledRoadIndex.VERSION)
+                .putLong(source.getSourceChecksum())
+                .putLong(source.getSourceLength())
+                .putInt(tileUnits)
+                .putInt(originX)
+                .putInt(originY)
+                .putInt(columns)
+                .putInt(rows)
+                .putInt(tiles)
+                .putInt(n)
+                .putInt(source.getProjection().originLonUnits())
+                .putInt(source.getProjection().originLatUnits());
+        manifest.position(TiledRoadIndex.HEADER_BYTES);
+
+        for (int cell = 0; cell < columns * rows; cell++) {
+            if (first[cell + 1] == first[cell]) {
+                continue;
+            }
+            RoadIndexWriter tile = new RoadIndexWriter(source.getProjection());
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int i = first[cell]; i < first[cell + 1]; i++) {
+                int item = order[i];
+                int x1 = source.itemCoordinate(item, 0), y1 = source.itemCoordinate(item, 1);
+                int x2 = source.itemCoordinate(item, 2), y2 = source.itemCoordinate(item, 3);
+                minX = Math.min(minX, Math.min(x1, x2));
+                minY = Math.min(minY, Math.min(y1, y2));
+                maxX = Math.max(maxX, Math.max(x1, x2));
+                maxY = Math.max(maxY, Math.max(y1, y2));
+                tile.add(source.id(item), x1, y1, x2, y2);
+            }
+            tile.write(directory.resolve(TiledRoadIndex.tileFileName(cell)), source.getSourceChecksum(), source.getSourceLength());
+            manifest.putInt(cell)
+                    .putInt(first[cell])
+                    .putInt(first[cell + 1] - first[cell])
+                    .putInt(minX)
+                    .putInt(minY)
+                    .putInt(maxX)
+                    .putInt(maxY);
+        }
+
+        Path file = directory.resolve(TiledRoadIndex.MANIFEST);
+        Path temporary = Files.createTempFile(directory, TiledRoadIndex.MANIFEST, ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            manifest.flip();
+            while (manifest.hasRemaining()) {
+                channel.write(manifest);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Split %d segments into %d tiles of a %d x %d grid in %.1f ms".formatted(
+                n, tiles, columns, rows, (System.nanoTime() - start) / 1e6));
+        return tiles;
+    }
+}
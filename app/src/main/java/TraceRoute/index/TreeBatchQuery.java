@@ -0,0 +1,212 @@
+package TraceRoute.index;
+
+import java.util.Arrays;
+
+/**
+ * Answers many queries against a {@link RoadIndex} in a single traversal of the tree.
+ * <p>
+ * The queries are sorted along a Hilbert curve and walked down the tree together: each node is visited once,
+ * with the subset of queries that can still match below it, so the upper levels of the tree are read once per
+ * batch rather than once per query, and queries that are close together share the pages they touch.
+ * Instances keep scratch space between batches so that a warmed-up query allocates nothing, which also means
+ * each thread needs its own.
+ */
+final class TreeBatchQuery implements BatchQuery {
+    private RoadIndex index;
+
+    // queries in fixed-point units, boxes for searches and points for nearest
+    private int[] qMinX = new int[0], qMinY = new int[0], qMaxX = new int[0], qMaxY = new int[0];
+    private double[] qx = new double[0], qy = new double[0];
+    private double[] best = new double[0];
+    private int[] found = new int[0];
+    private long[] order = new long[0];
+    // the active queries at each depth of the traversal, and the child visiting order for nearest
+    private int[][] active = new int[0][];
+    private int[][] childOrder = new int[0][];
+    private double[][] childDistance = new double[0][];
+
+    TreeBatchQuery(RoadIndex index) {
+        setIndex(index);
+    }
+
+    /**
+     * Point the query at another index, keeping the scratch space
+     */
+    void setIndex(RoadIndex index) {
+        this.index = index;
+        int depth = RoadIndex.levelBounds(index.size()).length + 1;
+        if (depth > childOrder.length) {
+            childOrder = new int[depth][RoadIndex.NODE_SIZE];
+            childDistance = new double[depth][RoadIndex.NODE_SIZE];
+            active = new int[depth][qx.length];
+        }
+    }
+
+    @Override
+    public void search(int[] minX, int[] minY, int[] maxX, int[] maxY, int count, BatchVisitor visitor) {
+        int root = index.root();
+        if (root < 0 || count == 0) {
+            return;
+        }
+        ensureCapacity(count);
+        System.arraycopy(minX, 0, qMinX, 0, count);
+        System.arraycopy(minY, 0, qMinY, 0, count);
+        System.arraycopy(maxX, 0, qMaxX, 0, count);
+        System.arraycopy(maxY, 0, qMaxY, 0, count);
+        int n = sortAlongCurve(count, qMinX, qMinY, qMaxX, qMaxY);
+        search(root, 0, n, visitor);
+    }
+
+    private void search(int node, int depth, int count, BatchVisitor visitor) {
+        int[] queries = active[depth];
+        int first = index.firstChild(node);
+        int last = index.lastChild(first);
+        if (first < index.size()) {
+            for (int item = first; item < last; item++) {
+                int x1 = index.itemCoordinate(item, 0), y1 = index.itemCoordinate(item, 1);
+                int x2 = index.itemCoordinate(item, 2), y2 = index.itemCoordinate(item, 3);
+                int minX = Math.min(x1, x2), minY = Math.min(y1, y2), maxX = Math.max(x1, x2), maxY = Math.max(y1, y2);
+                for (int i = 0; i < count; i++) {
+                    int q = queries[i];
+                    if (minX <= qMaxX[q] && maxX >= qMinX[q] && minY <= qMaxY[q] && maxY >= qMinY[q]) {
+                        visitor.visit(q, item, x1, y1, x2, y2);
+                    }
+                }
+            }
+        } else {
+            int[] next = active[depth + 1];
+            for (int child = first; child < last; child++) {
+                int minX = index.nodeCoordinate(child, 0), minY = index.nodeCoordinate(child, 1);
+                int maxX = index.nodeCoordinate(child, 2), maxY = index.nodeCoordinate(child, 3);
+                int matched = 0;
+                for (int i = 0; i < count; i++) {
+                    int q = queries[i];
+                    if (minX <= qMaxX[q] && maxX >= qMinX[q] && minY <= qMaxY[q] && maxY >= qMinY[q]) {
+                        next[matched++] = q;
+                    }
+                }
+                if (matched > 0) {
+                    search(child, depth + 1, matched, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Children are visited nearest first to the centre of the queries that reach them, and a subtree is
+     * skipped for every query that has already found something closer than its box.
+     */
+    @Override
+    public void nearest(int[] x, int[] y, int count, int maxDistance, int[] result) {
+        int root = index.root();
+        if (root < 0 || count == 0) {
+            Arrays.fill(result, 0, count, -1);
+            return;
+        }
+        ensureCapacity(count);
+        double bound = (double) maxDistance * maxDistance;
+        for (int q = 0; q < count; q++) {
+            qx[q] = x[q];
+            qy[q] = y[q];
+            best[q] = bound;
+            found[q] = -1;
+        }
+        int n = sortAlongCurve(count, x, y, x, y);
+        nearest(root, 0, n);
+        System.arraycopy(found, 0, result, 0, count);
+    }
+
+    private void nearest(int node, int depth, int count) {
+        int[] queries = active[depth];
+        int first = index.firstChild(node);
+        int last = index.lastChild(first);
+        if (first < index.size()) {
+            for (int item = first; item < last; item++) {
+                for (int i = 0; i < count; i++) {
+                    int q = queries[i];
+                    double d = index.segmentDistanceSquared(item, qx[q], qy[q]);
+                    if (d < best[q] || (d == best[q] && found[q] < 0)) {
+                        best[q] = d;
+                        found[q] = item;
+                    }
+                }
+            }
+            return;
+        }
+
+        // visit the children nearest the centre of the active queries first, so their bounds tighten quickly
+        double cx = 0, cy = 0;
+        for (int i = 0; i < count; i++) {
+            cx += qx[queries[i]];
+            cy += qy[queries[i]];
+        }
+        cx /= count;
+        cy /= count;
+        int[] children = childOrder[depth];
+        double[] distances = childDistance[depth];
+        int size = 0;
+        for (int child = first; child < last; child++) {
+            double d = index.boxDistanceSquared(child, cx, cy);
+            int at = size++;
+            while (at > 0 && distances[at - 1] > d) {
+                distances[at] = distances[at - 1];
+                children[at] = children[at - 1];
+                at--;
+            }
+            distances[at] = d;
+            children[at] = child;
+        }
+
+        int[] next = active[depth + 1];
+        for (int c = 0; c < size; c++) {
+            int child = children[c];
+            int matched = 0;
+            for (int i = 0; i < count; i++) {
+                int q = queries[i];
+                if (index.boxDistanceSquared(child, qx[q], qy[q]) <= best[q]) {
+                    next[matched++] = q;
+                }
+            }
+            if (matched > 0) {
+                nearest(child, depth + 1, matched);
+            }
+        }
+    }
+
+    /**
+     * Order the queries along a Hilbert curve over the index bounds, writing them to the top level of the
+     * traversal. Only the order in which queries are considered changes, results stay in the caller's order.
+     *
+     * @return the number of queries
+     */
+    private int sortAlongCurve(int count, int[] minX, int[] minY, int[] maxX, int[] maxY) {
+        for (int q = 0; q < count; q++) {
+            long value = Hilbert.value((minX[q] + (double) maxX[q]) / 2, (minY[q] + (double) maxY[q]) / 2,
+                    index.getMinX(), index.getMinY(), index.getMaxX(), index.getMaxY());
+            order[q] = value << 31 | q;
+        }
+        Arrays.sort(order, 0, count);
+        int[] top = active[0];
+        for (int i = 0; i < count; i++) {
+            top[i] = (int) (order[i] & 0x7FFFFFFF);
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int count) {
+        if (qx.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, qx.length * 2);
+        qMinX = new int[capacity];
+        qMinY = new int[capacity];
+        qMaxX = new int[capacity];
+        qMaxY = new int[capacity];
+        qx = new double[capacity];
+        qy = new double[capacity];
+        best = new double[capacity];
+        found = new int[capacity];
+        order = new long[capacity];
+        active = new int[childOrder.length][capacity];
+    }
+}
@@ -0,0 +1,120 @@
+package TraceRoute.island;
+
+/**
+ * Settings of an {@link IslandSearch}. The defaults run four islands in this process on every available core,
+ * passing the five best placements of each island along a ring every ten generations.
+ */
+public class IslandOptions {
+    private int islands = 4;
+    private int processes = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Topology topology = Topology.RING;
+    private int interval = 10;
+    private int migrants = 5;
+
+    public int getIslands() {
+        return islands;
+    }
+
+    /**
+     * @param islands the number of populations searched side by side
+     * @return this instance, for chaining
+     */
+    public IslandOptions setIslands(int islands) {
+        if (islands < 1) {
+            throw new IllegalArgumentException("At least one island is required");
+        }
+        this.islands = islands;
+        return this;
+    }
+
+    public int getProcesses() {
+        return processes;
+    }
+
+    /**
+     * Spread the islands over several JVMs, this one and others started for the search, which each load the map.
+     * It lets a search use more cores than one JVM scales to, and more heap than one JVM is given.
+     *
+     * @param processes the number of JVMs, at most the number of islands
+     * @return this instance, for chaining
+     */
+    public IslandOptions setProcesses(int processes) {
+        if (processes < 1) {
+            throw new IllegalArgumentException("At least one process is required");
+        }
+        this.processes = processes;
+        return this;
+    }
+
+    /**
+     * @return the number of routes evaluated at once by all the processes together
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of routes evaluated at once by all the processes together
+     * @return this instance, for chaining
+     */
+    public IslandOptions setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @return the number of routes each process evaluates at once
+     */
+    public int getThreadsPerProcess() {
+        return Math.max(1, threads / processes);
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * @param topology which islands each island sends its best placements to
+     * @return this instance, for chaining
+     */
+    public IslandOptions setTopology(Topology topology) {
+        this.topology = topology;
+        return this;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval the number of generations between migrations
+     * @return this instance, for chaining
+     */
+    public IslandOptions setInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Islands must migrate at most once a generation");
+        }
+        this.interval = interval;
+        return this;
+    }
+
+    public int getMigrants() {
+        return migrants;
+    }
+
+    /**
+     * @param migrants the number of the best placements an island sends to each of its neighbours
+     * @return this instance, for chaining
+     */
+    public IslandOptions setMigrants(int migrants) {
+        if (migrants < 0) {
+            throw new IllegalArgumentException("The number of migrants cannot be negative");
+        }
+        this.migrants = migrants;
+        return this;
+    }
+}
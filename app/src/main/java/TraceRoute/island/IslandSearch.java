@@ -0,0 +1,239 @@
+package TraceRoute.island;
+
+import TraceRoute.ea.Conductor;
+import TraceRoute.ea.Genome;
+import TraceRoute.ea.Route;
+import TraceRoute.osm.OpenStreetMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Searches for the placement of one shape with several populations, or islands, that evolve on their own and every
+ * few generations send their best placements to each other, see {@link Topology}.
+ * <p>
+ * Each island is a {@link Conductor} of its own that only waits for its own generations, so an island whose routes
+ * are slow to score does not hold back the others the way a single population waits for its slowest route. Each
+ * island breeds on a thread of its own, while the routes of all the islands of a process are scored on one
+ * work-stealing pool against the map they share. With more than one process the others are
+ * started as local JVMs running {@link #main}, each opening the map's indices once, and migrants travel between them
+ * through a {@link MigrationHub} in this process.
+ */
+public class IslandSearch {
+    /**
+     * How long to wait for each result of the other processes once they have exited, in milliseconds
+     */
+    private static final long RESULT_TIMEOUT = 10_000;
+
+    private final Logger logger = LoggerFactory.getLogger(IslandSearch.class);
+    private final OpenStreetMap map;
+    private final Path mapFile;
+    private final IslandOptions options;
+
+    /**
+     * @param map     the map every island fits the shape to
+     * @param mapFile the file the map was loaded from, which other processes load it from too
+     * @param options the islands and how they migrate
+     */
+    public IslandSearch(OpenStreetMap map, Path mapFile, IslandOptions options) {
+        this.map = map;
+        this.mapFile = mapFile;
+        this.options = options;
+    }
+
+    /**
+     * Run every island until it converges, blocking until the last one is done
+     *
+     * @param shapeFile the shape, see {@link TraceRoute.shape.Shape#read}
+     * @return the fittest route found by any island
+     * @throws IOException          if the shape cannot be read or the other processes cannot be started
+     * @throws InterruptedException if interrupted while waiting for the islands
+     */
+    public Route findOptimalRoute(Path shapeFile) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Shape shape = TraceRoute.shape.Shape.read(shapeFile).getPath();
+        int islands = options.getIslands();
+        int processes = Math.min(options.getProcesses(), islands);
+        List<Route> routes = new ArrayList<>(islands);
+        if (processes == 1) {
+            routes.addAll(runIslands(shape, 0, islands, new LocalMigration(islands)));
+        } else {
+            try (MigrationHub hub = new MigrationHub(islands)) {
+                List<Process> workers = new ArrayList<>(processes - 1);
+                try {
+                    for (int p = 1; p < processes; p++) {
+                        workers.add(launch(shapeFile, hub.getPort(), firstIsland(p, processes), firstIsland(p + 1, processes)));
+                    }
+                    int local = firstIsland(1, processes);
+                    try (SocketMigration migration = new SocketMigration(hub.getPort(), IntStream.range(0, local).toArray())) {
+                        routes.addAll(runIslands(shape, 0, local, migration));
+                    }
+                    for (Process worker : workers) {
+                        int status = worker.waitFor();
+                        if (status != 0) {
+                            logger.warn("Island process %d exited with status %d".formatted(worker.pid(), status));
+                        }
+                    }
+                    List<Genome> results = hub.awaitResults(islands - local, RESULT_TIMEOUT);
+                    if (results.size() < islands - local) {
+                        logger.warn("Only %d of %d islands in other processes returned a route".formatted(results.size(), islands - local));
+                    }
+                    for (Genome result : results) {
+                        routes.add(place(shape, result));
+                    }
+                } finally {
+                    workers.forEach(Process::destroy);
+                }
+            }
+        }
+        Route best = routes.stream().min(Comparator.comparing(Route::getFitness))
+                .orElseThrow(() -> new IllegalStateException("No island returned a route"));
+        logger.info("Island search of %d islands in %d processes finished in %.1f s, best fitness %s".formatted(
+                islands, processes, (System.nanoTime() - start) / 1e9, best.getFitness()));
+        return best;
+    }
+
+    /**
+     * @return the first island hosted by a process, the islands being shared out evenly in order
+     */
+    private int firstIsland(int process, int processes) {
+        return (int) ((long) options.getIslands() * process / processes);
+    }
+
+    /**
+     * Run some of the islands side by side, scoring their routes on a pool of their own
+     *
+     * @param from the first island
+     * @param to   the island after the last
+     * @return the fittest route of each island
+     */
+    List<Route> runIslands(Shape shape, int from, int to, Migration migration) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(options.getThreadsPerProcess());
+        // the islands mostly wait for their routes, so they get threads of their own rather than the pool's
+        ExecutorService breeders = Executors.newFixedThreadPool(to - from);
+        try {
+            List<Future<Route>> islands = new ArrayList<>(to - from);
+            for (int island = from; island < to; island++) {
+                int number = island;
+                islands.add(breeders.submit(() -> runIsland(number, shape, migration, pool)));
+            }
+            List<Route> routes = new ArrayList<>(islands.size());
+            for (Future<Route> island : islands) {
+                routes.add(island.get());
+            }
+            return routes;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Island failed", e.getCause());
+        } finally {
+            breeders.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Evolve one island until it converges, taking in the migrants sent to it before every generation and sending
+     * its best placements to its neighbours every few generations and once it is done. An island only counts as
+     * converged once it has gone a whole migration interval without improving, so that the migrants of its
+     * neighbours have a chance to move it on.
+     */
+    private Route runIsland(int island, Shape shape, Migration migration, ExecutorService pool) {
+        Conductor conductor = new Conductor(shape, map, pool);
+        int[] neighbours = options.getTopology().neighbours(island, options.getIslands());
+        int generations = 0;
+        int arrivals = 0;
+        int stale = 0;
+        boolean going = true;
+        while (going) {
+            List<Genome> arrived = migration.receive(island);
+            if (!arrived.isEmpty()) {
+                conductor.immigrate(arrived);
+                arrivals += arrived.size();
+            }
+            stale = conductor.evolve() ? 0 : stale + 1;
+            going = stale < options.getInterval();
+            generations++;
+            if ((generations % options.getInterval() == 0 || !going) && options.getMigrants() > 0) {
+                List<Genome> emigrants = conductor.emigrants(options.getMigrants());
+                for (int neighbour : neighbours) {
+                    try {
+                        migration.send(neighbour, emigrants);
+                    } catch (IOException e) {
+                        logger.warn("Island %d could not send migrants to island %d".formatted(island, neighbour), e);
+                    }
+                }
+            }
+        }
+        Route best = conductor.finish();
+        logger.info("Island %d finished after %d generations with fitness %s, %d migrants arrived".formatted(
+                island, generations, best.getFitness(), arrivals));
+        return best;
+    }
+
+    /**
+     * Score the final placement of an island of another process, exactly and on the shape itself
+     */
+    private Route place(Shape shape, Genome genome) {
+        Route route = new Route(shape, genome, map, null, Double.POSITIVE_INFINITY);
+        return map.getDistanceField() != null ? route.rescore() : route;
+    }
+
+    /**
+     * Start a JVM running some of the islands, with the heap settings and system properties of this one
+     */
+    private Process launch(Path shapeFile, int port, int from, int to) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-Xm") || argument.startsWith("-Xs") || argument.startsWith("-D")) {
+                command.add(argument);
+            }
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), IslandSearch.class.getName(),
+                mapFile.toString(), shapeFile.toString(), Integer.toString(port), Integer.toString(from), Integer.toString(to),
+                Integer.toString(options.getIslands()), Integer.toString(options.getThreadsPerProcess()),
+                options.getTopology().name(), Integer.toString(options.getInterval()), Integer.toString(options.getMigrants())));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        logger.info("Started process %d for islands %d to %d".formatted(process.pid(), from, to - 1));
+        return process;
+    }
+
+    /**
+     * Run some of the islands of a search started by another process, sending their routes back to its hub.
+     * Usage: <code>&lt;map.osm.pbf&gt; &lt;shape file&gt; &lt;hub port&gt; &lt;first island&gt; &lt;island after the last&gt;
+     * &lt;islands&gt; &lt;threads&gt; &lt;topology&gt; &lt;interval&gt; &lt;migrants&gt;</code>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 10) {
+            System.err.println("Usage: <map.osm.pbf> <shape file> <hub port> <first island> <island after the last> <islands> <threads> <topology> <interval> <migrants>");
+            System.exit(2);
+        }
+        int from = Integer.parseInt(args[3]);
+        int to = Integer.parseInt(args[4]);
+        IslandOptions options = new IslandOptions()
+                .setIslands(Integer.parseInt(args[5]))
+                .setThreads(Integer.parseInt(args[6]))
+                .setTopology(Topology.valueOf(args[7]))
+                .setInterval(Integer.parseInt(args[8]))
+                .setMigrants(Integer.parseInt(args[9]));
+        try (OpenStreetMap map = new OpenStreetMap(args[0]);
+             SocketMigration migration = new SocketMigration(Integer.parseInt(args[2]), IntStream.range(from, to).toArray())) {
+            IslandSearch search = new IslandSearch(map, Path.of(args[0]), options);
+            for (Route route : search.runIslands(TraceRoute.shape.Shape.read(Path.of(args[1])).getPath(), from, to, migration)) {
+                migration.sendResult(route.getGenome());
+            }
+        }
+    }
+}
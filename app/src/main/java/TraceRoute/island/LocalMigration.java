@@ -0,0 +1,44 @@
+package TraceRoute.island;
+
+import TraceRoute.ea.Genome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Migration between islands that all run in this process, through a queue per island
+ */
+public class LocalMigration implements Migration {
+    private final List<ConcurrentLinkedQueue<Genome>> inboxes = new ArrayList<>();
+
+    /**
+     * @param islands the number of islands
+     */
+    public LocalMigration(int islands) {
+        for (int i = 0; i < islands; i++) {
+            inboxes.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    @Override
+    public void send(int island, List<Genome> migrants) {
+        inboxes.get(island).addAll(migrants);
+    }
+
+    @Override
+    public List<Genome> receive(int island) {
+        return drain(inboxes.get(island));
+    }
+
+    /**
+     * @return everything taken off the queue, in the order it was added
+     */
+    static List<Genome> drain(ConcurrentLinkedQueue<Genome> inbox) {
+        List<Genome> arrived = new ArrayList<>();
+        for (Genome genome = inbox.poll(); genome != null; genome = inbox.poll()) {
+            arrived.add(genome);
+        }
+        return arrived;
+    }
+}
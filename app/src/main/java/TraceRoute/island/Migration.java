@@ -0,0 +1,32 @@
+package TraceRoute.island;
+
+import TraceRoute.ea.Genome;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Carries placements between the islands of a search. Migration is best-effort: sending never waits for the
+ * receiving island, and placements sent to an island that has finished are dropped.
+ */
+public interface Migration extends Closeable {
+    /**
+     * Send placements to an island, which may be in another process
+     *
+     * @param island   the receiving island
+     * @param migrants the placements
+     * @throws IOException if the channel to the island has failed
+     */
+    void send(int island, List<Genome> migrants) throws IOException;
+
+    /**
+     * @param island an island hosted by this process
+     * @return the placements sent to the island since the last call, possibly none
+     */
+    List<Genome> receive(int island);
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,184 @@
+package TraceRoute.island;
+
+import TraceRoute.ea.Genome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays placements between the processes of an island search, see {@link SocketMigration} for the protocol.
+ * It listens on the loopback interface only, and keeps the final placements the processes send back.
+ * <p>
+ * Each connection is read by a thread of its own. Messages for an island whose process has not connected yet are
+ * held until it does, since other processes take a while to start. A message for an island whose process has gone
+ * is dropped, like any other migrant that arrives too late to help.
+ */
+public class MigrationHub implements Closeable {
+    private final Logger logger = LoggerFactory.getLogger(MigrationHub.class);
+    private final ServerSocket server;
+    /**
+     * The connection hosting each island, guarded by itself
+     */
+    private final DataOutputStream[] hosts;
+    /**
+     * Messages for each island that has not connected yet, null once it has, guarded by {@link #hosts}
+     */
+    private final List<List<SocketMigration.Message>> pending = new ArrayList<>();
+    private final List<Socket> connections = new ArrayList<>();
+    private final BlockingQueue<Genome> results = new LinkedBlockingQueue<>();
+
+    /**
+     * Start listening on a free port
+     *
+     * @param islands the number of islands in the search
+     * @throws IOException if no port can be opened
+     */
+    public MigrationHub(int islands) throws IOException {
+        hosts = new DataOutputStream[islands];
+        for (int i = 0; i < islands; i++) {
+            pending.add(new ArrayList<>());
+        }
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "migration-hub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the port processes connect to
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (connections) {
+                    connections.add(socket);
+                }
+                Thread relay = new Thread(() -> relay(socket), "migration-hub-" + socket.getPort());
+                relay.setDaemon(true);
+                relay.start();
+            }
+        } catch (IOException e) {
+            if (!server.isClosed()) {
+                logger.error("Migration hub stopped accepting connections", e);
+            }
+        }
+    }
+
+    /**
+     * Register the islands of a connection, then pass on everything it sends until it closes
+     */
+    private void relay(Socket socket) {
+        List<Integer> islands = new ArrayList<>();
+        try (socket) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (int i = input.readInt(); i > 0; i--) {
+                int island = input.readInt();
+                if (island < 0 || island >= hosts.length) {
+                    throw new IOException("Island %d is not part of a search of %d islands".formatted(island, hosts.length));
+                }
+                islands.add(island);
+                List<SocketMigration.Message> held;
+                synchronized (hosts) {
+                    hosts[island] = output;
+                    held = pending.set(island, null);
+                }
+                if (held != null) {
+                    held.forEach(this::forward);
+                }
+            }
+            while (true) {
+                SocketMigration.Message message = SocketMigration.read(input);
+                if (message.island() == SocketMigration.RESULT) {
+                    results.addAll(message.migrants());
+                } else {
+                    forward(message);
+                }
+            }
+        } catch (EOFException e) {
+            // the process has finished
+        } catch (IOException e) {
+            if (!server.isClosed()) {
+                logger.warn("Lost a connection to the migration hub", e);
+            }
+        } finally {
+            synchronized (hosts) {
+                for (int island : islands) {
+                    hosts[island] = null;
+                }
+            }
+        }
+    }
+
+    private void forward(SocketMigration.Message message) {
+        if (message.island() < 0 || message.island() >= hosts.length) {
+            logger.warn("Dropped %d migrants for unknown island %d".formatted(message.migrants().size(), message.island()));
+            return;
+        }
+        DataOutputStream output;
+        synchronized (hosts) {
+            output = hosts[message.island()];
+            List<SocketMigration.Message> held = pending.get(message.island());
+            if (held != null) {
+                held.add(message);
+                return;
+            }
+        }
+        if (output == null) {
+            return;
+        }
+        try {
+            synchronized (output) {
+                SocketMigration.write(output, message);
+                output.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("Could not pass migrants on to island %d".formatted(message.island()), e);
+        }
+    }
+
+    /**
+     * Wait for the final placements of the islands in other processes
+     *
+     * @param count   the number of placements expected
+     * @param timeout how long to wait for each, in milliseconds
+     * @return the placements that arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Genome> awaitResults(int count, long timeout) throws InterruptedException {
+        List<Genome> arrived = new ArrayList<>(count);
+        while (arrived.size() < count) {
+            Genome result = results.poll(timeout, TimeUnit.MILLISECONDS);
+            if (result == null) {
+                break;
+            }
+            arrived.add(result);
+        }
+        return arrived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package TraceRoute.island;
+
+import TraceRoute.ea.Genome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Migration between islands in several processes on one machine, through a {@link MigrationHub} on the loopback
+ * interface that relays each message to the process hosting its island.
+ * <p>
+ * A message is the receiving island, the number of placements, and the seven parameters of each {@link Genome},
+ * all big-endian. When it connects, a process announces the number of islands it hosts followed by their numbers.
+ */
+public class SocketMigration implements Migration {
+    /**
+     * Island number of messages carrying the final placement of an island to the hub
+     */
+    static final int RESULT = -1;
+
+    private final Logger logger = LoggerFactory.getLogger(SocketMigration.class);
+    private final Socket socket;
+    private final DataOutputStream output;
+    private final Map<Integer, ConcurrentLinkedQueue<Genome>> inboxes = new HashMap<>();
+
+    /**
+     * A batch of placements on its way to an island
+     */
+    record Message(int island, List<Genome> migrants) {
+    }
+
+    /**
+     * Connect to the hub and start taking in the placements sent to the given islands
+     *
+     * @param port    the port the hub listens on
+     * @param islands the islands hosted by this process
+     * @throws IOException if the hub cannot be reached
+     */
+    public SocketMigration(int port, int[] islands) throws IOException {
+        for (int island : islands) {
+            inboxes.put(island, new ConcurrentLinkedQueue<>());
+        }
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        output.writeInt(islands.length);
+        for (int island : islands) {
+            output.writeInt(island);
+        }
+        output.flush();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    Message message = read(input);
+                    ConcurrentLinkedQueue<Genome> inbox = inboxes.get(message.island());
+                    if (inbox != null) {
+                        inbox.addAll(message.migrants());
+                    }
+                }
+            } catch (EOFException e) {
+                // the hub has closed
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.warn("Lost the connection to the migration hub", e);
+                }
+            }
+        }, "migration-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void send(int island, List<Genome> migrants) throws IOException {
+        synchronized (output) {
+            write(output, new Message(island, migrants));
+            output.flush();
+        }
+    }
+
+    @Override
+    public List<Genome> receive(int island) {
+        return LocalMigration.drain(inboxes.get(island));
+    }
+
+    /**
+     * Hand the final placement of an island to the hub, for the process that started the search
+     */
+    public void sendResult(Genome result) throws IOException {
+        send(RESULT, List.of(result));
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static void write(DataOutputStream output, Message message) throws IOException {
+        output.writeInt(message.island());
+        output.writeInt(message.migrants().size());
+        for (Genome genome : message.migrants()) {
+            output.writeDouble(genome.scaleFactor());
+            output.writeDouble(genome.x());
+            output.writeDouble(genome.y());
+            output.writeDouble(genome.prevX());
+            output.writeDouble(genome.prevY());
+            output.writeDouble(genome.prevScaleFactor());
+            output.writeDouble(genome.prevFitness());
+        }
+    }
+
+    /**
+     * @throws EOFException if the stream ended before the next message
+     */
+    static Message read(DataInputStream input) throws IOException {
+        int island = input.readInt();
+        int count = input.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt migration message of %d placements".formatted(count));
+        }
+        List<Genome> migrants = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            migrants.add(new Genome(input.readDouble(), input.readDouble(), input.readDouble(),
+                    input.readDouble(), input.readDouble(), input.readDouble(), input.readDouble()));
+        }
+        return new Message(island, migrants);
+    }
+}
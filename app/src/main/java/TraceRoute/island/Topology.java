@@ -0,0 +1,56 @@
+package TraceRoute.island;
+
+/**
+ * Which islands each island of a search sends its best placements to
+ */
+public enum Topology {
+    /**
+     * Each island sends to the next one, and the last to the first, so that good placements spread slowly
+     */
+    RING {
+        @Override
+        public int[] neighbours(int island, int islands) {
+            return islands < 2 ? new int[0] : new int[]{(island + 1) % islands};
+        }
+    },
+    /**
+     * Each island sends to every other one
+     */
+    COMPLETE {
+        @Override
+        public int[] neighbours(int island, int islands) {
+            int[] neighbours = new int[Math.max(0, islands - 1)];
+            for (int i = 0, n = 0; i < islands; i++) {
+                if (i != island) {
+                    neighbours[n++] = i;
+                }
+            }
+            return neighbours;
+        }
+    },
+    /**
+     * The first island exchanges with every other one, the others only with the first
+     */
+    STAR {
+        @Override
+        public int[] neighbours(int island, int islands) {
+            return island == 0 ? COMPLETE.neighbours(island, islands) : new int[]{0};
+        }
+    },
+    /**
+     * Islands evolve on their own, as independent restarts of the search
+     */
+    ISOLATED {
+        @Override
+        public int[] neighbours(int island, int islands) {
+            return new int[0];
+        }
+    };
+
+    /**
+     * @param island  the sending island
+     * @param islands the number of islands in the search
+     * @return the islands it sends to
+     */
+    public abstract int[] neighbours(int island, int islands);
+}
@@ -0,0 +1,270 @@
+package TraceRoute.osm;
+
+import java.util.function.Supplier;
+
+/**
+ * Settings that control how an OpenStreetMap PBF file is imported.
+ * The defaults parse with every available core and pack the road index once parsing is done.
+ */
+public class ImportOptions {
+    /**
+     * The strategy used to resolve the parsed PBF entities into road segments
+     */
+    public enum Mode {
+        /**
+         * Single-threaded parse, each way is resolved into segments as soon as it is read
+         */
+        INCREMENTAL,
+        /**
+         * Multi-threaded parse into thread-safe buffers, ways are resolved in parallel once parsing is done
+         */
+        BULK
+    }
+
+    /**
+     * Bytes of a PBF file per node it holds, a little less than in national extracts so that the number of nodes
+     * in a file is overestimated
+     */
+    static final long PBF_BYTES_PER_NODE = 8;
+
+    private Mode mode = Mode.BULK;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Supplier<NodeStore> nodeStore;
+    private double distanceFieldResolution = 0;
+    private double distanceFieldRange = 100;
+    private int densityGridCells = 256;
+    private boolean roadGraph = true;
+    private double tileSize = 0;
+    private int tileCacheSize = 64;
+    private TagFilter tagFilter = TagFilter.cyclable();
+    private boolean dropUnreferencedNodes = true;
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode the import strategy to use
+     * @return this instance, for chaining
+     */
+    public ImportOptions setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @return the number of parser threads, always 1 for {@link Mode#INCREMENTAL} imports
+     */
+    public int getThreads() {
+        return mode == Mode.INCREMENTAL ? 1 : threads;
+    }
+
+    /**
+     * @param threads the number of threads the PBF parser may use in {@link Mode#BULK} imports
+     * @return this instance, for chaining
+     */
+    public ImportOptions setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one parser thread is required");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param expectedNodes the most nodes the import will store
+     * @return a new, empty store for the node coordinates of one import: the one chosen with
+     * {@link #setNodeStore(Supplier)}, otherwise a {@link PrimitiveNodeStore} if that many nodes fit in a quarter
+     * of the heap and a {@link MappedNodeStore} if not
+     */
+    public NodeStore createNodeStore(long expectedNodes) {
+        if (nodeStore != null) {
+            return nodeStore.get();
+        }
+        if (PrimitiveNodeStore.fits(expectedNodes, Runtime.getRuntime().maxMemory() / 4)) {
+            return new PrimitiveNodeStore();
+        }
+        return new MappedNodeStore();
+    }
+
+    /**
+     * Choose where node coordinates are kept while ways are resolved, instead of by the size of the extract.
+     * Use {@link PrimitiveNodeStore} when the extract fits in the heap and {@link MappedNodeStore} otherwise.
+     *
+     * @param nodeStore creates the store used by an import
+     * @return this instance, for chaining
+     */
+    public ImportOptions setNodeStore(Supplier<NodeStore> nodeStore) {
+        this.nodeStore = nodeStore;
+        return this;
+    }
+
+    /**
+     * @return spacing in metres of the distance field built with the road index, 0 if none is built
+     */
+    public double getDistanceFieldResolution() {
+        return distanceFieldResolution;
+    }
+
+    /**
+     * Build a {@link TraceRoute.index.DistanceField} alongside the road index, so that routes can be scored
+     * with a lookup per vertex. Finer resolutions are more accurate but the file grows with the square of the
+     * inverse: a resolution of 10 metres takes about 150 MB for Greater London.
+     *
+     * @param resolution spacing of the samples in metres, or 0 to not build a distance field
+     * @return this instance, for chaining
+     */
+    public ImportOptions setDistanceFieldResolution(double resolution) {
+        if (!(resolution >= 0)) {
+            throw new IllegalArgumentException("The distance field resolution cannot be negative");
+        }
+        this.distanceFieldResolution = resolution;
+        return this;
+    }
+
+    /**
+     * @return the distance in metres up to which the distance field is exact
+     */
+    public double getDistanceFieldRange() {
+        return distanceFieldRange;
+    }
+
+    /**
+     * @param range the distance in metres up to which the distance field must be exact, at least the reach
+     *              of the fitness function's perpendiculars
+     * @return this instance, for chaining
+     */
+    public ImportOptions setDistanceFieldRange(double range) {
+        if (!(range > 0)) {
+            throw new IllegalArgumentException("The distance field range must be positive");
+        }
+        this.distanceFieldRange = range;
+        return this;
+    }
+
+    /**
+     * @return number of cells along the longer side of the road density grid, 0 if none is used
+     */
+    public int getDensityGridCells() {
+        return densityGridCells;
+    }
+
+    /**
+     * Build a {@link TraceRoute.index.DensityGrid} alongside the road index, so that the search can start
+     * where the roads are. The grid is tiny, 256 cells take 256 KB at most.
+     *
+     * @param cells number of cells along the longer side of the map, or 0 to seed the search uniformly
+     * @return this instance, for chaining
+     */
+    public ImportOptions setDensityGridCells(int cells) {
+        if (cells < 0) {
+            throw new IllegalArgumentException("The number of density grid cells cannot be negative");
+        }
+        this.densityGridCells = cells;
+        return this;
+    }
+
+    /**
+     * @return whether a routable {@link TraceRoute.graph.RoadGraph} is built with the road index
+     */
+    public boolean isRoadGraph() {
+        return roadGraph;
+    }
+
+    /**
+     * Build a {@link TraceRoute.graph.RoadGraph} with the road index, so that routes can follow the roads between
+     * the junctions they are snapped to. Building its contraction hierarchy is the slowest part of an import.
+     *
+     * @param roadGraph whether to build the graph
+     * @return this instance, for chaining
+     */
+    public ImportOptions setRoadGraph(boolean roadGraph) {
+        this.roadGraph = roadGraph;
+        return this;
+    }
+
+    /**
+     * @return side in metres of the tiles the road and junction indices are split into, 0 if they are not split
+     */
+    public double getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Split the road and junction indices into a {@link TraceRoute.index.TiledRoadIndex} of square tiles,
+     * which are only opened once a search reaches them. Meant for extracts much larger than the region a
+     * search explores, such as a whole country.
+     *
+     * @param metres side of each tile in metres, or 0 to search the whole indices
+     * @return this instance, for chaining
+     */
+    public ImportOptions setTileSize(double metres) {
+        if (metres < 0) {
+            throw new IllegalArgumentException("The tile size cannot be negative");
+        }
+        this.tileSize = metres;
+        return this;
+    }
+
+    /**
+     * @return the most tiles of each index kept open at once
+     */
+    public int getTileCacheSize() {
+        return tileCacheSize;
+    }
+
+    /**
+     * @param tiles the most tiles of each index kept open at once, the least recently used is dropped first
+     * @return this instance, for chaining
+     */
+    public ImportOptions setTileCacheSize(int tiles) {
+        if (tiles < 1) {
+            throw new IllegalArgumentException("At least one tile must be kept open");
+        }
+        this.tileCacheSize = tiles;
+        return this;
+    }
+
+    /**
+     * @return the filter that decides which ways are imported
+     */
+    public TagFilter getTagFilter() {
+        return tagFilter;
+    }
+
+    /**
+     * Choose which ways are imported, by their tags. The default keeps the roads a bicycle can use, so a raw
+     * extract can be imported without filtering it with osmium first. Use {@link TagFilter#all()} for a map
+     * that was already filtered. The filter is part of the index checksum, so changing it re-imports the map.
+     *
+     * @param tagFilter the filter to apply to every way
+     * @return this instance, for chaining
+     */
+    public ImportOptions setTagFilter(TagFilter tagFilter) {
+        if (tagFilter == null) {
+            throw new IllegalArgumentException("A tag filter is required, use TagFilter.all() to keep every way");
+        }
+        this.tagFilter = tagFilter;
+        return this;
+    }
+
+    /**
+     * @return whether nodes that no imported way references are dropped
+     */
+    public boolean isDropUnreferencedNodes() {
+        return dropUnreferencedNodes;
+    }
+
+    /**
+     * Read the ways before the nodes, in a separate pass over the file, so that only the nodes of the imported
+     * ways are stored. This costs a second decompression of the file but keeps the node store to a fraction of
+     * the extract, since most nodes of a raw extract belong to buildings, paths and other ways that are dropped.
+     *
+     * @param drop whether to drop unreferenced nodes
+     * @return this instance, for chaining
+     */
+    public ImportOptions setDropUnreferencedNodes(boolean drop) {
+        this.dropUnreferencedNodes = drop;
+        return this;
+    }
+}
@@ -0,0 +1,226 @@
+package TraceRoute.osm;
+
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.RoadIndex;
+import TraceRoute.index.RoadIndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the road junctions of a map while it is imported and writes them to their own {@link RoadIndex}.
+ * <p>
+ * A junction is either
+ * <ul>
+ *     <li>a node referenced more than once by the ways of the map, which covers nodes shared by two or more
+ *     ways as well as a way that passes through one of its own interior nodes again, or</li>
+ *     <li>a point where two segments cross without sharing a node, found with a grid-bucketed sweep.</li>
+ * </ul>
+ * Shared nodes keep their OpenStreetMap ID, crossings are given negative IDs.
+ */
+public class JunctionIndexBuilder {
+    private final Logger logger = LoggerFactory.getLogger(JunctionIndexBuilder.class);
+    private long[] references = new long[1 << 16];
+    private int size;
+
+    /**
+     * Receives each pair of segments that cross without sharing an end
+     */
+    @FunctionalInterface
+    public interface CrossingConsumer {
+        /**
+         * @param first  item position of one segment
+         * @param second item position of the other segment
+         * @param x      x of the crossing in fixed-point units of the road index
+         * @param y      y of the crossing in fixed-point units of the road index
+         */
+        void accept(int first, int second, double x, double y);
+    }
+
+    /**
+     * Record the node references of a way. Safe to call from several threads at once.
+     * The last node of a closed way is the same reference as its first, so it is not counted twice.
+     *
+     * @param nodes the node IDs of the way, in order
+     */
+    public synchronized void addWay(List<Long> nodes) {
+        int count = nodes.size();
+        if (count > 1 && nodes.get(0).equals(nodes.get(count - 1))) {
+            count--;
+        }
+        if (size + count > references.length) {
+            references = Arrays.copyOf(references, Math.max(references.length * 2, size + count));
+        }
+        for (int i = 0; i < count; i++) {
+            references[size++] = nodes.get(i);
+        }
+    }
+
+    /**
+     * Build the junction index
+     *
+     * @param file     where to write the junction index
+     * @param vertices coordinates of every node referenced by a way
+     * @param roads    the road index of the same map, searched for crossings
+     * @param checksum checksum of the map file, stored in the index header
+     * @param length   length of the map file, stored in the index header
+     * @return the number of junctions written
+     * @throws IOException if the index cannot be written
+     */
+    public synchronized int write(Path file, NodeStore vertices, RoadIndex roads, long checksum, long length) throws IOException {
+        RoadIndexWriter junctions = new RoadIndexWriter(roads.getProjection());
+
+        long start = System.nanoTime();
+        int shared = addSharedNodes(vertices, roads.getProjection(), junctions);
+        logger.info("Found %d shared-node junctions in %.1f ms".formatted(shared, (System.nanoTime() - start) / 1e6));
+
+        start = System.nanoTime();
+        long[] crossings = {0};
+        forEachCrossing(roads, (first, second, x, y) -> junctions.addPoint(-++crossings[0], (int) Math.round(x), (int) Math.round(y)));
+        logger.info("Found %d crossings without a shared node in %.1f ms".formatted(crossings[0], (System.nanoTime() - start) / 1e6));
+
+        junctions.write(file, checksum, length);
+        return junctions.size();
+    }
+
+    /**
+     * Sort all node references and add every node that occurs more than once
+     */
+    private int addSharedNodes(NodeStore vertices, LocalProjection projection, RoadIndexWriter junctions) {
+        Arrays.parallelSort(references, 0, size);
+        int found = 0;
+        int i = 0;
+        while (i < size) {
+            int j = i + 1;
+            while (j < size && references[j] == references[i]) {
+                j++;
+            }
+            if (j - i > 1) {
+                long node = vertices.get(references[i]);
+                if (node != NodeStore.MISSING) {
+                    junctions.addPoint(references[i], LocalProjection.toUnits(projection.x(NodeStore.lon(node))),
+                            LocalProjection.toUnits(projection.y(NodeStore.lat(node))));
+                    found++;
+                }
+            }
+            i = j;
+        }
+        references = null;
+        size = 0;
+        return found;
+    }
+
+    /**
+     * Find every pair of segments that cross without sharing an end.
+     * <p>
+     * Segments are bucketed into a uniform grid sized for a handful of segments per cell, and only segments
+     * that share a cell are tested against each other. A pair that shares several cells is reported only from
+     * the first of them, so every crossing is reported once. Coordinates are the index's fixed-point ints, which
+     * doubles hold exactly, so ends are compared exactly.
+     *
+     * @param roads    the segments to test, points are ignored
+     * @param consumer receives each crossing
+     */
+    public static void forEachCrossing(RoadIndex roads, CrossingConsumer consumer) {
+        int n = roads.size();
+        if (n < 2) {
+            return;
+        }
+        double minX = roads.getMinX();
+        double minY = roads.getMinY();
+        int side = (int) Math.max(1, Math.min(1 << 12, Math.ceil(Math.sqrt(n / 4.0))));
+        double cellWidth = Math.max((roads.getMaxX() - minX) / side, 1);
+        double cellHeight = Math.max((roads.getMaxY() - minY) / side, 1);
+
+        // cell ranges of every segment: x0, y0, x1, y1
+        int[] ranges = new int[n * 4];
+        int[] cellStart = new int[side * side + 1];
+        for (int i = 0; i < n; i++) {
+            if (roads.isPoint(i)) {
+                ranges[i * 4] = -1;
+                continue;
+            }
+            int x0 = cell(Math.min(roads.x1(i), roads.x2(i)), minX, cellWidth, side);
+            int y0 = cell(Math.min(roads.y1(i), roads.y2(i)), minY, cellHeight, side);
+            int x1 = cell(Math.max(roads.x1(i), roads.x2(i)), minX, cellWidth, side);
+            int y1 = cell(Math.max(roads.y1(i), roads.y2(i)), minY, cellHeight, side);
+            ranges[i * 4] = x0;
+            ranges[i * 4 + 1] = y0;
+            ranges[i * 4 + 2] = x1;
+            ranges[i * 4 + 3] = y1;
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    cellStart[y * side + x + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < side * side; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] cells = new int[cellStart[side * side]];
+        int[] fill = Arrays.copyOf(cellStart, side * side);
+        for (int i = 0; i < n; i++) {
+            if (ranges[i * 4] < 0) {
+                continue;
+            }
+            for (int y = ranges[i * 4 + 1]; y <= ranges[i * 4 + 3]; y++) {
+                for (int x = ranges[i * 4]; x <= ranges[i * 4 + 2]; x++) {
+                    cells[fill[y * side + x]++] = i;
+                }
+            }
+        }
+
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                int from = cellStart[y * side + x];
+                int to = cellStart[y * side + x + 1];
+                for (int p = from; p < to; p++) {
+                    int a = cells[p];
+                    for (int q = p + 1; q < to; q++) {
+                        int b = cells[q];
+                        // only report the pair from the first cell both segments occupy
+                        if (Math.max(ranges[a * 4], ranges[b * 4]) != x || Math.max(ranges[a * 4 + 1], ranges[b * 4 + 1]) != y) {
+                            continue;
+                        }
+                        testCrossing(roads, a, b, consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int cell(double value, double min, double size, int side) {
+        return Math.min(side - 1, Math.max(0, (int) ((value - min) / size)));
+    }
+
+    private static void testCrossing(RoadIndex roads, int a, int b, CrossingConsumer consumer) {
+        double ax1 = roads.x1(a), ay1 = roads.y1(a), ax2 = roads.x2(a), ay2 = roads.y2(a);
+        double bx1 = roads.x1(b), by1 = roads.y1(b), bx2 = roads.x2(b), by2 = roads.y2(b);
+
+        // segments that share an end meet at a node, which is already a junction or simply the next segment of a way
+        if ((ax1 == bx1 && ay1 == by1) || (ax1 == bx2 && ay1 == by2) || (ax2 == bx1 && ay2 == by1) || (ax2 == bx2 && ay2 == by2)) {
+            return;
+        }
+        if (Math.max(ax1, ax2) < Math.min(bx1, bx2) || Math.max(bx1, bx2) < Math.min(ax1, ax2)
+                || Math.max(ay1, ay2) < Math.min(by1, by2) || Math.max(by1, by2) < Math.min(ay1, ay2)) {
+            return;
+        }
+
+        double rx = ax2 - ax1, ry = ay2 - ay1;
+        double sx = bx2 - bx1, sy = by2 - by1;
+        double denominator = rx * sy - ry * sx;
+        if (denominator == 0) {
+            // parallel or collinear, there is no single crossing point
+            return;
+        }
+        double t = ((bx1 - ax1) * sy - (by1 - ay1) * sx) / denominator;
+        double u = ((bx1 - ax1) * ry - (by1 - ay1) * rx) / denominator;
+        if (t >= 0 && t <= 1 && u >= 0 && u <= 1) {
+            consumer.accept(a, b, ax1 + t * rx, ay1 + t * ry);
+        }
+    }
+}
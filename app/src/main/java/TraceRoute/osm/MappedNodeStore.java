@@ -0,0 +1,334 @@
+package TraceRoute.osm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link NodeStore} for extracts that do not fit in the heap.
+ * Nodes are collected into bounded, sorted runs that are spilled to disk and merged into a single file of
+ * (ID, coordinates) records sorted by ID. The merged file is memory-mapped and searched in place, so the
+ * heap only ever holds one run per parser thread plus a sparse index of one ID per page of records.
+ * <p>
+ * The parser threads never contend: each fills, sorts and spills a run of its own, and only the list of spilled
+ * run files is shared.
+ */
+public class MappedNodeStore implements NodeStore {
+    private static final int RECORD_BYTES = 16;
+    private static final int CHUNK_SHIFT = 26;
+    private static final long CHUNK_RECORDS = 1L << CHUNK_SHIFT;
+    private static final int PAGE_RECORDS = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(MappedNodeStore.class);
+    private final Path directory;
+    private final int runLength;
+    private final Queue<Path> runs = new ConcurrentLinkedQueue<>();
+    private final Queue<Run> open = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Run> run = ThreadLocal.withInitial(() -> {
+        Run created = new Run();
+        open.add(created);
+        return created;
+    });
+    private final LongAdder stored = new LongAdder();
+    private volatile boolean sealed;
+    private Path sorted;
+    private MappedByteBuffer[] chunks;
+    private long[] pageFirstIds;
+    private long count;
+
+    /**
+     * Spill to the system temporary directory in runs of 4M nodes (64 MiB of heap for each parser thread)
+     */
+    public MappedNodeStore() {
+        this(Path.of(System.getProperty("java.io.tmpdir")), 1 << 22);
+    }
+
+    /**
+     * @param directory where the temporary run and record files are created
+     * @param runLength number of nodes each parser thread holds in the heap before its run is sorted and spilled
+     */
+    public MappedNodeStore(Path directory, int runLength) {
+        if (runLength < 1) {
+            throw new IllegalArgumentException("Run length must be positive, was %d".formatted(runLength));
+        }
+        this.directory = directory;
+        this.runLength = runLength;
+    }
+
+    @Override
+    public void put(long id, double lon, double lat) {
+        if (sealed) {
+            throw new IllegalStateException("Node store is already sealed");
+        }
+        Run current = run.get();
+        current.ids[current.size] = id;
+        current.values[current.size] = NodeStore.pack(lon, lat);
+        stored.increment();
+        if (++current.size == runLength) {
+            try {
+                current.spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Spill what is left of the run of every parser thread and merge the runs. The parser threads must have finished.
+     */
+    @Override
+    public synchronized void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        for (Run last = open.poll(); last != null; last = open.poll()) {
+            if (last.size > 0) {
+                last.spill();
+            }
+            last.ids = null;
+            last.values = null;
+        }
+        if (runs.isEmpty()) {
+            runs.add(Files.createTempFile(directory, "nodes-run-", ".bin"));
+        }
+
+        if (runs.size() == 1) {
+            sorted = runs.peek();
+            count = Files.size(sorted) / RECORD_BYTES;
+        } else {
+            sorted = mergeRuns();
+            for (Path run : runs) {
+                Files.delete(run);
+            }
+        }
+        runs.clear();
+
+        map();
+        logger.info("Sealed %d nodes into %s".formatted(count, sorted));
+    }
+
+    @Override
+    public long get(long id) {
+        if (!sealed) {
+            throw new IllegalStateException("Node store must be sealed before it is read");
+        }
+        int page = Arrays.binarySearch(pageFirstIds, id);
+        if (page >= 0) {
+            return valueAt((long) page * PAGE_RECORDS);
+        }
+        page = -page - 2;
+        if (page < 0) {
+            return MISSING;
+        }
+        long low = (long) page * PAGE_RECORDS;
+        long high = Math.min(low + PAGE_RECORDS, count) - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long middleId = idAt(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return valueAt(middle);
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * @return the number of nodes stored, counting a node stored twice twice until the store is sealed
+     */
+    @Override
+    public long size() {
+        return sealed ? count : stored.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        chunks = null;
+        pageFirstIds = null;
+        open.clear();
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        if (sorted != null) {
+            Files.deleteIfExists(sorted);
+        }
+    }
+
+    private long idAt(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].getLong((int) (index & (CHUNK_RECORDS - 1)) * RECORD_BYTES);
+    }
+
+    private long valueAt(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].getLong((int) (index & (CHUNK_RECORDS - 1)) * RECORD_BYTES + 8);
+    }
+
+    /**
+     * k-way merge of every spilled run into a single sorted file, dropping duplicate IDs
+     */
+    private Path mergeRuns() throws IOException {
+        Path merged = Files.createTempFile(directory, "nodes-", ".bin");
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>();
+        List<RunCursor> cursors = new ArrayList<>();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged), 1 << 16))) {
+            for (Path run : runs) {
+                RunCursor cursor = new RunCursor(run);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            long written = 0;
+            long lastId = Long.MIN_VALUE;
+            while (!queue.isEmpty()) {
+                RunCursor cursor = queue.poll();
+                if (written == 0 || cursor.id != lastId) {
+                    output.writeLong(cursor.id);
+                    output.writeLong(cursor.value);
+                    lastId = cursor.id;
+                    written++;
+                }
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            count = written;
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.input.close();
+            }
+        }
+        return merged;
+    }
+
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(sorted, StandardOpenOption.READ)) {
+            int chunkCount = (int) ((count + CHUNK_RECORDS - 1) / CHUNK_RECORDS);
+            chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long start = i * CHUNK_RECORDS * RECORD_BYTES;
+                long length = Math.min(CHUNK_RECORDS, count - i * CHUNK_RECORDS) * RECORD_BYTES;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        pageFirstIds = new long[(int) ((count + PAGE_RECORDS - 1) / PAGE_RECORDS)];
+        for (int page = 0; page < pageFirstIds.length; page++) {
+            pageFirstIds[page] = idAt((long) page * PAGE_RECORDS);
+        }
+    }
+
+    /**
+     * The nodes one parser thread has stored since it last spilled
+     */
+    private class Run {
+        private long[] ids = new long[runLength];
+        private long[] values = new long[runLength];
+        private int size;
+
+        /**
+         * Sort the run by ID and write it to a new temporary file, keeping one record of each ID
+         */
+        void spill() throws IOException {
+            sort(0, size - 1);
+            Path file = Files.createTempFile(directory, "nodes-run-", ".bin");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                for (int i = 0; i < size; i++) {
+                    if (i == 0 || ids[i] != ids[i - 1]) {
+                        output.writeLong(ids[i]);
+                        output.writeLong(values[i]);
+                    }
+                }
+            }
+            runs.add(file);
+            size = 0;
+        }
+
+        /**
+         * Quicksort of the run arrays by ID. Parser output is mostly ascending, which median-of-three handles well.
+         */
+        private void sort(int low, int high) {
+            while (high - low > 16) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle] < ids[low]) swap(middle, low);
+                if (ids[high] < ids[low]) swap(high, low);
+                if (ids[high] < ids[middle]) swap(high, middle);
+                long pivot = ids[middle];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (ids[i] < pivot) i++;
+                    while (ids[j] > pivot) j--;
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                // recurse into the smaller half to bound the stack depth
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && ids[j] < ids[j - 1]; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            long value = values[a];
+            values[a] = values[b];
+            values[b] = value;
+        }
+    }
+
+    /**
+     * Reads one spilled run sequentially during the merge
+     */
+    private static class RunCursor implements Comparable<RunCursor> {
+        private final DataInputStream input;
+        private long id;
+        private long value;
+
+        RunCursor(Path run) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                id = input.readLong();
+                value = input.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            return Long.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package TraceRoute.osm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Maps OpenStreetMap node IDs to their coordinates during an import.
+ * Coordinates are kept as fixed-point integers with the same 1e-7 degree precision as the PBF format,
+ * packed into a single <code>long</code> so that lookups never allocate.
+ */
+public interface NodeStore extends Closeable {
+    /**
+     * Number of fixed-point units per degree
+     */
+    double PRECISION = 1e7;
+    /**
+     * Returned by {@link #get(long)} for unknown nodes. A latitude of {@link Integer#MIN_VALUE} can never occur.
+     */
+    long MISSING = Long.MIN_VALUE;
+
+    /**
+     * Store the coordinates of a node. Implementations must allow concurrent calls from the parser threads.
+     *
+     * @param id  the OpenStreetMap node ID
+     * @param lon longitude in degrees
+     * @param lat latitude in degrees
+     */
+    void put(long id, double lon, double lat);
+
+    /**
+     * Called once every node has been stored, before the first call to {@link #get(long)}
+     *
+     * @throws IOException if the store is backed by a file that could not be written
+     */
+    default void seal() throws IOException {
+    }
+
+    /**
+     * Look up a node. Must not be called concurrently with {@link #put(long, double, double)}.
+     *
+     * @param id the OpenStreetMap node ID
+     * @return the packed coordinates of the node, or {@link #MISSING}
+     */
+    long get(long id);
+
+    /**
+     * @return the number of nodes stored
+     */
+    long size();
+
+    static long pack(double lon, double lat) {
+        return ((long) (int) Math.round(lat * PRECISION) << 32) | ((int) Math.round(lon * PRECISION) & 0xFFFFFFFFL);
+    }
+
+    static double lon(long packed) {
+        return (int) packed / PRECISION;
+    }
+
+    static double lat(long packed) {
+        return (int) (packed >> 32) / PRECISION;
+    }
+}
@@ -1,12 +1,18 @@
 package TraceRoute.osm;
 
-import com.github.davidmoten.rtree.InternalStructure;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.Serializer;
-import com.github.davidmoten.rtree.Serializers;
+import TraceRoute.graph.RoadGraph;
+import TraceRoute.index.DensityGrid;
+import TraceRoute.index.DistanceField;
+import TraceRoute.index.DistanceFieldWriter;
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.RoadIndex;
+import TraceRoute.index.RoadIndexWriter;
+import TraceRoute.index.SegmentIndex;
+import TraceRoute.index.TiledRoadIndex;
+import TraceRoute.index.TiledRoadIndexWriter;
 import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.google.common.io.ByteSource;
 import com.google.common.io.Files;
 import com.wolt.osm.parallelpbf.ParallelBinaryParser;
 import com.wolt.osm.parallelpbf.entity.Node;
@@ -15,19 +21,73 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.List;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.function.Consumer;
 
 
 /**
  * This class handles the importing and storage of OpenStreetMap data.
  */
 @SuppressWarnings("UnstableApiUsage")
-public class OpenStreetMap {
+public class OpenStreetMap implements Closeable {
     /**
-     * Lookup table for vertex ID -> all other node info
+     * Lookup table for vertex ID -> coordinates, only held while the map is being imported
      */
-    private final HashMap<Long, Node> vertices = new HashMap<>();
+    private NodeStore vertices;
+    private boolean verticesSealed;
+    /**
+     * Bounds of the kept nodes in degrees, which the projection of the map is centred on
+     */
+    private final DoubleAccumulator minLon = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator minLat = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator maxLon = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    private final DoubleAccumulator maxLat = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    /**
+     * The projection the segments are stored in, chosen once every node is known
+     */
+    private LocalProjection projection;
+    /**
+     * Collects the road segments while the map is being imported
+     */
+    private RoadIndexWriter writer;
+    /**
+     * Counts node references while the map is being imported, to find the junctions
+     */
+    private JunctionIndexBuilder junctionBuilder;
+    /**
+     * Collects the nodes of every way while the map is being imported, to build the road graph
+     */
+    private RoadGraphBuilder graphBuilder;
+    /**
+     * Ways collected during a bulk import. Blocks are parsed out of order, so segments can only
+     * be resolved once every node has been seen.
+     */
+    private final ConcurrentLinkedQueue<Way> pendingWays = new ConcurrentLinkedQueue<>();
+    /**
+     * Decides which ways are imported
+     */
+    private TagFilter tagFilter;
+    /**
+     * The nodes of the imported ways, collected in a first pass over the ways, or null if every node is kept
+     */
+    private ReferencedNodes referencedNodes;
+    /**
+     * Number of ways and nodes seen by the parser and kept by the import, reported once it is done
+     */
+    private final AtomicLong waysSeen = new AtomicLong();
+    private final AtomicLong waysKept = new AtomicLong();
+    private final AtomicLong nodesSeen = new AtomicLong();
+    private final AtomicLong nodesKept = new AtomicLong();
+    /**
+     * Number of nodes and ways handled by the parser, used to report import throughput
+     */
+    private final AtomicLong elementCount = new AtomicLong();
     /**
      * For timing how long the map import process takes to complete
      */
@@ -36,19 +96,69 @@ public class OpenStreetMap {
      * Used for logging to the console instead of using <code>System.out.println</code>
      */
     private final Logger logger;
-    private final Serializer<String, Geometry> serializer = Serializers.flatBuffers().utf8();
 
-    public RTree<String, Geometry> getTree() {
-        return tree;
+    /**
+     * @return the road segments, split into tiles if the {@link ImportOptions} asked for it
+     */
+    public SegmentIndex getIndex() {
+        return index;
     }
 
     /**
-     * R*-tree to store the road network
+     * @return the junctions, split into tiles if the {@link ImportOptions} asked for it
      */
-    private RTree<String, Geometry> tree = RTree.star().create();
+    public SegmentIndex getJunctions() {
+        return junctions;
+    }
+
+    /**
+     * @return the distance-to-road raster of the map, or null if it was not asked for in the {@link ImportOptions}
+     */
+    public DistanceField getDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * @return the road density grid of the map, or null if it was not asked for in the {@link ImportOptions}
+     */
+    public DensityGrid getDensityGrid() {
+        return densityGrid;
+    }
+
+    /**
+     * @return the routable graph of the road network, or null if it was not asked for in the {@link ImportOptions}
+     */
+    public RoadGraph getRoadGraph() {
+        return roadGraph;
+    }
+
+    /**
+     * Memory-mapped spatial index of the road network, which the other indices are built from
+     */
+    private RoadIndex roads;
+    /**
+     * The road network as searched, either {@link #roads} or its tiles
+     */
+    private SegmentIndex index;
+    /**
+     * Spatial index of the junctions in the road network, stored as points, whole or in tiles
+     */
+    private SegmentIndex junctions;
+    /**
+     * Optional memory-mapped raster of the distance to the nearest road
+     */
+    private DistanceField distanceField;
+    /**
+     * Optional grid of the road length in each part of the map
+     */
+    private DensityGrid densityGrid;
+    /**
+     * Optional memory-mapped contraction hierarchy of the road network
+     */
+    private RoadGraph roadGraph;
     /**
      * Store the filename of the OpenStreetMap that this instance represents
-     * This is used for saving and reading a processed version of the map
+     * This is used for saving and reading a processed version of the map, and for detecting that it is stale
      */
     private final String filename;
 
@@ -59,51 +169,280 @@ public class OpenStreetMap {
      * @throws IOException if the file is not found an exception is thrown
      */
     public OpenStreetMap(String filename) throws IOException {
+        this(filename, new ImportOptions());
+    }
+
+    /**
+     * Initialise a new data object into which to import a PBF file from the OpenStreetMap project
+     *
+     * @param filename a relative path to the PBF file (pwd = app)
+     * @param options  controls the number of parser threads and how ways are resolved
+     * @throws IOException if the file is not found an exception is thrown
+     */
+    public OpenStreetMap(String filename, ImportOptions options) throws IOException {
 
         logger = LoggerFactory.getLogger(OpenStreetMap.class);
 
-        // the filename is used for saving the processed R*-tree
+        // the filename is used for saving the processed road index
         this.filename = filename;
 
         startTime = System.nanoTime();
 
-        File serialisedTree = new File("%s.rtree".formatted(Files.getNameWithoutExtension(filename)));
+        Path source = Path.of(filename);
+        Path indexFile = Path.of("%s.roads".formatted(Files.getNameWithoutExtension(filename)));
+        Path junctionFile = Path.of("%s.junctions".formatted(Files.getNameWithoutExtension(filename)));
+        Path graphFile = Path.of("%s.graph".formatted(Files.getNameWithoutExtension(filename)));
+        Path checksumFile = Path.of("%s.checksum".formatted(Files.getNameWithoutExtension(filename)));
+        // the tag filter is part of the checksum, so an index imported with another filter is not reused
+        long checksum = source.toFile().exists() ? RoadIndex.checksum(source, checksumFile) ^ options.getTagFilter().fingerprint() : 0;
+
+        if (indexMatchesSource(indexFile, source, checksum) && indexMatchesSource(junctionFile, source, checksum)
+                && (!options.isRoadGraph() || graphMatchesSource(graphFile, source, checksum))) {
+            logger.info("A road index for this map already exists at %s, skipping import step".formatted(indexFile));
+            readIndexFromDisk(indexFile);
+        } else {
+            File map = source.toFile();
+
+            logger.info("Starting %s map import with %d thread(s), keeping ways with %s".formatted(
+                    options.getMode(), options.getThreads(), options.getTagFilter()));
+            resetPeakHeapUsage();
+
+            junctionBuilder = new JunctionIndexBuilder();
+            graphBuilder = options.isRoadGraph() ? new RoadGraphBuilder() : null;
+            tagFilter = options.getTagFilter();
+            referencedNodes = options.isDropUnreferencedNodes() ? new ReferencedNodes() : null;
+            ByteSource bytes = Files.asByteSource(map);
+            try {
+                // nodes precede ways in a PBF file, so to know which nodes are needed the ways get a pass of their own
+                if (options.getMode() == ImportOptions.Mode.INCREMENTAL) {
+                    if (referencedNodes != null) {
+                        parse(bytes, 1, null, this::collectReferences);
+                        sealReferences();
+                    }
+                    createVertices(options, map.length());
+                    parse(bytes, 1, this::processNodes, this::processWays);
+                    // a map without ways has sealed nothing yet
+                    sealVertices();
+                } else {
+                    if (referencedNodes != null) {
+                        parse(bytes, options.getThreads(), null, this::bufferWay);
+                        sealReferences();
+                        createVertices(options, map.length());
+                        parse(bytes, options.getThreads(), this::bufferNode, null);
+                    } else {
+                        createVertices(options, map.length());
+                        parse(bytes, options.getThreads(), this::bufferNode, this::bufferWay);
+                    }
+                    sealVertices();
+                    resolveWays();
+                }
+                referencedNodes = null;
+                importComplete();
+
+                saveIndexToDisk(indexFile, checksum, map.length());
+                writer = null;
+                readIndexFromDisk(indexFile);
+
+                // crossings are found with the packed segments, shared nodes need the vertices, so this comes last
+                logger.info("Writing junction index to file %s".formatted(junctionFile));
+                junctionBuilder.write(junctionFile, vertices, roads, checksum, map.length());
+                junctionBuilder = null;
+
+                if (graphBuilder != null) {
+                    logger.info("Writing road graph to file %s".formatted(graphFile));
+                    graphBuilder.write(graphFile, vertices, checksum, map.length());
+                    graphBuilder = null;
+                }
+            } finally {
+                if (vertices != null) {
+                    vertices.close();
+                }
+            }
+            vertices = null;
+        }
+        if (options.getTileSize() > 0) {
+            index = openTiles(indexFile, options);
+            junctions = openTiles(junctionFile, options);
+        } else {
+            index = roads;
+            junctions = RoadIndex.open(junctionFile);
+            logger.info("Mapped junction index %s with %d junctions".formatted(junctionFile, junctions.size()));
+        }
 
-        if (serialisedTree.exists()) {
-            logger.info("A previously saved R*-tree already exists at %s, skipping import step".formatted(serialisedTree.getPath()));
+        if (options.isRoadGraph()) {
+            roadGraph = RoadGraph.open(graphFile);
+            logger.info("Mapped road graph %s with %d vertices and %d upward edges".formatted(graphFile, roadGraph.size(), roadGraph.edges()));
+        }
 
-            readTreeFromDisk(serialisedTree);
-        } else {
-            File map = new File(filename);
-            InputStream input = Files.asByteSource(map).openStream();
+        if (options.getDistanceFieldResolution() > 0) {
+            Path distanceFile = Path.of("%s.distance".formatted(Files.getNameWithoutExtension(filename)));
+            openDistanceField(distanceFile, options);
+        }
 
-            logger.info("Starting map import");
+        if (options.getDensityGridCells() > 0) {
+            Path densityFile = Path.of("%s.density".formatted(Files.getNameWithoutExtension(filename)));
+            openDensityGrid(densityFile, options);
+        }
+    }
 
-            // Use Runtime.getRuntime().availableProcessors() for acc number of CPUs
-            // But to do concurrent access to JGraphT requires special code
-            // So we set the number of threads to 1
-            new ParallelBinaryParser(input, 1)
-                    .onNode(this::processNodes)
-                    .onWay(this::processWays)
-                    .onComplete(this::importComplete)
-                    .parse();
+    /**
+     * Open the tiles of an index, splitting it into tiles first if there are none for this map of the requested size.
+     * The tiles are kept in a directory next to the index.
+     */
+    private SegmentIndex openTiles(Path indexFile, ImportOptions options) throws IOException {
+        Path directory = Path.of("%s.tiles".formatted(indexFile));
+        if (TiledRoadIndex.exists(directory)) {
+            try {
+                TiledRoadIndex existing = TiledRoadIndex.open(directory, options.getTileCacheSize());
+                if (existing.getSourceChecksum() == roads.getSourceChecksum() && existing.getSourceLength() == roads.getSourceLength()
+                        && Math.abs(existing.getTileSize() - options.getTileSize()) < LocalProjection.toMetres(0.5)) {
+                    logger.info("Opened %d tiles of %s in %s".formatted(existing.getTiles(), indexFile, directory));
+                    return existing;
+                }
+                existing.close();
+            } catch (IOException e) {
+                logger.warn("Could not use tiles %s, splitting again: %s".formatted(directory, e.getMessage()));
+            }
+        }
+        try (RoadIndex source = RoadIndex.open(indexFile)) {
+            new TiledRoadIndexWriter(options.getTileSize()).write(source, directory);
         }
+        TiledRoadIndex tiled = TiledRoadIndex.open(directory, options.getTileCacheSize());
+        logger.info("Split %s into %d tiles in %s".formatted(indexFile, tiled.getTiles(), directory));
+        return tiled;
     }
 
     /**
-     * This method is called by the PBF parser
+     * Read the road density grid, building it from the road index first if there is none for this map
+     * with the requested number of cells
      */
-    private void importComplete() {
-        long timeTaken = System.nanoTime() - startTime;
-        logger.info("Map import complete in " + (float) timeTaken / 1000 / 1000 / 1000 + "s");
+    private void openDensityGrid(Path densityFile, ImportOptions options) throws IOException {
+        if (densityFile.toFile().exists()) {
+            try {
+                DensityGrid existing = DensityGrid.read(densityFile);
+                if (existing.getSourceChecksum() == roads.getSourceChecksum() && existing.getSourceLength() == roads.getSourceLength()
+                        && Math.max(existing.getColumns(), existing.getRows()) == options.getDensityGridCells()) {
+                    densityGrid = existing;
+                    logger.info("Read density grid %s of %d x %d cells".formatted(densityFile, densityGrid.getColumns(), densityGrid.getRows()));
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not use density grid %s, rebuilding: %s".formatted(densityFile, e.getMessage()));
+            }
+        }
+        densityGrid = DensityGrid.build(roads, options.getDensityGridCells());
+        densityGrid.write(densityFile);
+        logger.info("Built density grid %s of %d x %d cells".formatted(densityFile, densityGrid.getColumns(), densityGrid.getRows()));
+    }
+
+    /**
+     * Map the distance field, building it from the road index first if there is none for this map
+     * with the requested resolution and range. The field is tied to the same map file as the road index.
+     */
+    private void openDistanceField(Path distanceFile, ImportOptions options) throws IOException {
+        if (distanceFile.toFile().exists()) {
+            try (DistanceField existing = DistanceField.open(distanceFile)) {
+                if (existing.getSourceChecksum() == roads.getSourceChecksum() && existing.getSourceLength() == roads.getSourceLength()
+                        && existing.getResolution() == options.getDistanceFieldResolution() && existing.getRange() == options.getDistanceFieldRange()) {
+                    distanceField = DistanceField.open(distanceFile);
+                    logger.info("Mapped distance field %s of %d x %d samples".formatted(distanceFile, distanceField.getWidth(), distanceField.getHeight()));
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not use distance field %s, rebuilding: %s".formatted(distanceFile, e.getMessage()));
+            }
+        }
+        long start = System.nanoTime();
+        new DistanceFieldWriter(options.getDistanceFieldResolution(), options.getDistanceFieldRange())
+                .write(roads, distanceFile, roads.getSourceChecksum(), roads.getSourceLength());
+        distanceField = DistanceField.open(distanceFile);
+        logger.info("Built distance field %s of %d x %d samples in %.1f s".formatted(
+                distanceFile, distanceField.getWidth(), distanceField.getHeight(), (System.nanoTime() - start) / 1e9));
+    }
 
-        try {
-            saveTreeToDisk("%s.rtree".formatted(Files.getNameWithoutExtension(filename)));
+    /**
+     * Check whether a previously written index can be reused. It must exist, be readable by this version,
+     * and have been built from a map file with exactly the same length and checksum.
+     * If the map file itself is missing the index is trusted, since it is all there is to go on.
+     *
+     * @param indexFile an index written by an earlier import
+     * @param source    the map file
+     * @param checksum  the checksum of the map file
+     * @return true if the index is up to date
+     */
+    private boolean indexMatchesSource(Path indexFile, Path source, long checksum) {
+        if (!indexFile.toFile().exists()) {
+            return false;
+        }
+        try (RoadIndex existing = RoadIndex.open(indexFile)) {
+            if (!source.toFile().exists()) {
+                logger.warn("Map file %s not found, using road index %s as is".formatted(source, indexFile));
+                return true;
+            }
+            if (existing.getSourceLength() != source.toFile().length() || existing.getSourceChecksum() != checksum) {
+                logger.warn("Road index %s was built from a different version of %s or with another tag filter, re-importing".formatted(indexFile, source));
+                return false;
+            }
+            return true;
         } catch (IOException e) {
-            logger.error("Could not save processed R*-tree to disk", e);
+            logger.warn("Could not use road index %s, re-importing: %s".formatted(indexFile, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a previously written road graph can be reused, like {@link #indexMatchesSource}
+     */
+    private boolean graphMatchesSource(Path graphFile, Path source, long checksum) {
+        if (!graphFile.toFile().exists()) {
+            return false;
+        }
+        try (RoadGraph existing = RoadGraph.open(graphFile)) {
+            if (source.toFile().exists() && (existing.getSourceLength() != source.toFile().length() || existing.getSourceChecksum() != checksum)) {
+                logger.warn("Road graph %s was built from a different version of %s or with another tag filter, re-importing".formatted(graphFile, source));
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not use road graph %s, re-importing: %s".formatted(graphFile, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Run one pass of the PBF parser over the map. Elements without a callback are not decoded at all.
+     *
+     * @param source  the map file
+     * @param threads the number of parser threads
+     * @param onNode  called for every node, or null to skip the nodes
+     * @param onWay   called for every way, or null to skip the ways
+     * @throws IOException if the map cannot be read
+     */
+    private static void parse(ByteSource source, int threads, Consumer<Node> onNode, Consumer<Way> onWay) throws IOException {
+        try (InputStream input = source.openStream()) {
+            ParallelBinaryParser parser = new ParallelBinaryParser(input, threads);
+            if (onNode != null) {
+                parser.onNode(onNode);
+            }
+            if (onWay != null) {
+                parser.onWay(onWay);
+            }
+            parser.parse();
         }
     }
 
+    /**
+     * Report how long the import took, once every way has been resolved
+     */
+    private void importComplete() {
+        long timeTaken = System.nanoTime() - startTime;
+        float seconds = (float) timeTaken / 1000 / 1000 / 1000;
+        logger.info("Map import complete in " + seconds + "s");
+        logger.info("Kept %d of %d ways and %d of %d nodes".formatted(waysKept.get(), waysSeen.get(), nodesKept.get(), nodesSeen.get()));
+        logger.info("Imported %d elements at %.0f elements/s, peak heap usage %d MiB".formatted(
+                elementCount.get(), elementCount.get() / seconds, getPeakHeapUsage() / 1024 / 1024));
+    }
+
     /**
      * This method is called by the PBF parser when a <code>way</code> element is encountered
      *
@@ -111,21 +450,17 @@ public class OpenStreetMap {
      */
     private void processWays(Way way) {
         logger.trace("Processing way %d".formatted(way.getId()));
+        elementCount.incrementAndGet();
+        if (!keepWay(way)) {
+            return;
+        }
 
-        List<Long> nodes = way.getNodes();
-        Node lastNode = vertices.get(nodes.get(0));
-        nodes.remove(0);
-        for (Long nodeID : nodes) {
-            Node newNode = vertices.get(nodeID);
-
-            if (newNode == null) {
-                logger.warn("Unknown vertex detected");
-                continue;
-            }
-
-            tree = tree.add(String.valueOf(way.getId()), Geometries.line(lastNode.getLon(), lastNode.getLat(), newNode.getLon(), newNode.getLat()));
-
-            lastNode = newNode;
+        // nodes precede ways in a PBF file, so every vertex is known by the time the first way arrives
+        sealVertices();
+        forEachSegment(way, (x1, y1, x2, y2) -> writer.add(way.getId(), x1, y1, x2, y2));
+        junctionBuilder.addWay(way.getNodes());
+        if (graphBuilder != null) {
+            graphBuilder.addWay(way.getNodes());
         }
     }
 
@@ -136,57 +471,253 @@ public class OpenStreetMap {
      */
     private void processNodes(Node node) {
         logger.trace("Processing node %d".formatted(node.getId()));
+        elementCount.incrementAndGet();
 
-        vertices.put(node.getId(), node);
+        if (keepNode(node)) {
+            vertices.put(node.getId(), node.getLon(), node.getLat());
+        }
+    }
 
-        // R*-tree implementation is immutable, so we reassign tree to output of add command
-        tree = tree.add(String.valueOf(node.getId()), Geometries.point(node.getLon(), node.getLat()));
+    /**
+     * Called by the PBF parser for every way in the first pass of an incremental import that drops unreferenced
+     * nodes. The ways themselves are resolved in the second pass, once their nodes are known.
+     *
+     * @param way a way, whose nodes are recorded if it is kept
+     */
+    private void collectReferences(Way way) {
+        if (tagFilter.test(way.getTags())) {
+            referencedNodes.add(way.getNodes());
+        }
     }
 
     /**
-     * Save the currently in-memory R*-tree representation of the OpenStreetMap to a file
+     * Called concurrently by the PBF parser threads during a bulk import
      *
-     * @param filename the filename to which to serialise the R*-tree
-     * @throws IOException if the filename provided is inaccessible or an error occurs during the write process
+     * @param way a way, stored until all nodes are known
      */
-    private void saveTreeToDisk(String filename) throws IOException {
-        File serialisedTree = new File(filename);
+    private void bufferWay(Way way) {
+        elementCount.incrementAndGet();
+        if (!keepWay(way)) {
+            return;
+        }
+        pendingWays.add(way);
+        if (referencedNodes != null) {
+            referencedNodes.add(way.getNodes());
+        }
+    }
 
-        logger.info("Writing R*-tree to file %s".formatted(serialisedTree.getPath()));
+    /**
+     * Called concurrently by the PBF parser threads during a bulk import
+     *
+     * @param node a node, stored as a vertex if it is kept
+     */
+    private void bufferNode(Node node) {
+        elementCount.incrementAndGet();
+        if (keepNode(node)) {
+            vertices.put(node.getId(), node.getLon(), node.getLat());
+        }
+    }
 
-        OutputStream outputStream = new FileOutputStream(serialisedTree);
+    /**
+     * @return whether the way passes the tag filter
+     */
+    private boolean keepWay(Way way) {
+        waysSeen.incrementAndGet();
+        if (!tagFilter.test(way.getTags())) {
+            return false;
+        }
+        waysKept.incrementAndGet();
+        return true;
+    }
 
-        serializer.write(tree, outputStream);
+    /**
+     * Only the junction index stores nodes as points, so a node is only needed as a vertex of a kept way
+     *
+     * @return whether the node is referenced by a kept way, or whether unreferenced nodes are kept too
+     */
+    private boolean keepNode(Node node) {
+        nodesSeen.incrementAndGet();
+        if (referencedNodes != null && !referencedNodes.contains(node.getId())) {
+            return false;
+        }
+        nodesKept.incrementAndGet();
+        minLon.accumulate(node.getLon());
+        minLat.accumulate(node.getLat());
+        maxLon.accumulate(node.getLon());
+        maxLat.accumulate(node.getLat());
+        return true;
+    }
+
+    /**
+     * Create the store for the node coordinates, once the number of nodes it will hold is known as well as it can be
+     * before the nodes are read: exactly if the ways were read first, from the size of the file otherwise
+     */
+    private void createVertices(ImportOptions options, long sourceBytes) {
+        long expected = referencedNodes != null ? referencedNodes.size() : sourceBytes / ImportOptions.PBF_BYTES_PER_NODE;
+        vertices = options.createNodeStore(expected);
+        logger.info("Keeping up to %d nodes in a %s".formatted(expected, vertices.getClass().getSimpleName()));
+    }
+
+    /**
+     * Sort the node references collected by the first pass, so that the nodes can be looked up in the second
+     */
+    private void sealReferences() {
+        referencedNodes.seal();
+        logger.info("First pass found %d nodes referenced by the kept ways".formatted(referencedNodes.size()));
+    }
 
-        logger.info("Tree save complete");
+    /**
+     * Resolve the buffered ways into line segments, using every core
+     */
+    private void resolveWays() {
+        logger.info("Resolving %d ways against %d vertices".formatted(pendingWays.size(), vertices.size()));
+
+        pendingWays.parallelStream().forEach(way -> {
+            forEachSegment(way, (x1, y1, x2, y2) -> writer.add(way.getId(), x1, y1, x2, y2));
+            junctionBuilder.addWay(way.getNodes());
+            if (graphBuilder != null) {
+                graphBuilder.addWay(way.getNodes());
+            }
+        });
+        pendingWays.clear();
     }
 
     /**
-     * De-serialise a previously saved R*-tree representing the desired OpenStreetMap
+     * Walk the consecutive node pairs of a way, skipping any node that was not present in the PBF file
      *
-     * @param serialisedTree reference to File where the serialised R*-tree is stored
-     * @throws IOException if no such file exists or an error occurs during the import process
+     * @param way      the way to walk
+     * @param consumer receives the coordinates of every segment, in fixed-point units of the projection
      */
-    private void readTreeFromDisk(File serialisedTree) throws IOException {
-        logger.info("Reading R*-tree from file %s".formatted(serialisedTree.getPath()));
+    private void forEachSegment(Way way, SegmentConsumer consumer) {
+        long lastNode = NodeStore.MISSING;
+        for (Long nodeID : way.getNodes()) {
+            long newNode = vertices.get(nodeID);
 
-        InputStream input = Files.asByteSource(serialisedTree).openStream();
+            if (newNode == NodeStore.MISSING) {
+                logger.warn("Unknown vertex detected");
+                continue;
+            }
+
+            if (lastNode != NodeStore.MISSING) {
+                consumer.accept(LocalProjection.toUnits(projection.x(NodeStore.lon(lastNode))),
+                        LocalProjection.toUnits(projection.y(NodeStore.lat(lastNode))),
+                        LocalProjection.toUnits(projection.x(NodeStore.lon(newNode))),
+                        LocalProjection.toUnits(projection.y(NodeStore.lat(newNode))));
+            }
+
+            lastNode = newNode;
+        }
+    }
+
+    /**
+     * Seal the vertex store exactly once, before any way is resolved against it, and centre the projection
+     * on the nodes it holds
+     */
+    private void sealVertices() {
+        if (!verticesSealed) {
+            verticesSealed = true;
+            projection = LocalProjection.centredOn(minLon.get(), minLat.get(), maxLon.get(), maxLat.get());
+            writer = new RoadIndexWriter(projection);
+            logger.info("Projecting the map around %s".formatted(projection));
+            try {
+                vertices.seal();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentConsumer {
+        void accept(int x1, int y1, int x2, int y2);
+    }
+
+    /**
+     * Reset the peak usage counters of all heap memory pools, so the import can report its own peak
+     */
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Sum of the peak usage of every heap memory pool since the last reset.
+     * The pools peak at different times, so this is an upper bound on the real peak.
+     *
+     * @return peak heap usage in bytes
+     */
+    private static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
 
-        tree = serializer.read(input, serialisedTree.length(), InternalStructure.DEFAULT);
+    /**
+     * Pack the imported segments into a road index file
+     *
+     * @param indexFile    where to write the index
+     * @param checksum     checksum of the map file, stored in the index header
+     * @param sourceLength length of the map file, stored in the index header
+     * @throws IOException if the filename provided is inaccessible or an error occurs during the write process
+     */
+    private void saveIndexToDisk(Path indexFile, long checksum, long sourceLength) throws IOException {
+        logger.info("Writing road index with %d entries to file %s".formatted(writer.size(), indexFile));
+
+        writer.write(indexFile, checksum, sourceLength);
 
-        logger.info("Tree import complete");
+        logger.info("Index save complete");
     }
 
     /**
-     * Get a maximal bounding box for the tree
-     * @return the top-level {@link Rectangle} of the {@link RTree}
+     * Memory-map a previously saved road index representing the desired OpenStreetMap
+     *
+     * @param indexFile reference to the file where the road index is stored
+     * @throws IOException if no such file exists or it is not a valid road index
+     */
+    private void readIndexFromDisk(Path indexFile) throws IOException {
+        long start = System.nanoTime();
+
+        roads = RoadIndex.open(indexFile);
+
+        logger.info("Mapped road index %s with %d entries in %.1f ms".formatted(indexFile, roads.size(), (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Get a maximal bounding box for the road network
+     * @return the bounds of the {@link RoadIndex} as a {@link Rectangle}, in metres in the {@link #getProjection() projection}
      */
     public Rectangle getBounds() {
-        return tree.mbr().get();
+        return Geometries.rectangle(LocalProjection.toMetres(roads.getMinX()), LocalProjection.toMetres(roads.getMinY()),
+                LocalProjection.toMetres(roads.getMaxX()), LocalProjection.toMetres(roads.getMaxY()));
+    }
+
+    /**
+     * @return the projection shared by every index of the map
+     */
+    public LocalProjection getProjection() {
+        return roads.getProjection();
     }
 
-    @SuppressWarnings("unused")
-    public void visualiseTree() {
-        tree.visualize(5000, 5000).save("build/r-tree.png");
+    /**
+     * Release the road and junction indices and the road graph. The map cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        roads.close();
+        index.close();
+        junctions.close();
+        if (distanceField != null) {
+            distanceField.close();
+        }
+        if (roadGraph != null) {
+            roadGraph.close();
+        }
     }
 }
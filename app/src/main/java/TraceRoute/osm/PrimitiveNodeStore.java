@@ -0,0 +1,175 @@
+package TraceRoute.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-heap {@link NodeStore} using open addressing with linear probing over two primitive arrays.
+ * Each slot costs 16 bytes, compared to well over 100 bytes for a boxed <code>HashMap&lt;Long, Node&gt;</code> entry.
+ * <p>
+ * The parser threads never contend: each appends its nodes to a buffer of its own, and the buffers are merged into
+ * the table when the store is sealed. As the number of nodes is known by then the table is allocated once at its
+ * final size, and each block of a buffer is let go as soon as it has been merged.
+ */
+public class PrimitiveNodeStore implements NodeStore {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double LOAD_FACTOR = 0.6;
+    private static final int MAX_CAPACITY = 1 << 30;
+    /**
+     * Nodes per block of a thread's buffer, a block takes 1 MiB
+     */
+    private static final int BLOCK_NODES = 1 << 16;
+
+    /**
+     * The nodes one parser thread has stored, as pairs of ID and packed coordinates
+     */
+    private static class Buffer {
+        private final List<long[]> blocks = new ArrayList<>();
+        private long[] block;
+        private int used;
+
+        void add(long id, long value) {
+            if (block == null || used == block.length) {
+                block = new long[2 * BLOCK_NODES];
+                blocks.add(block);
+                used = 0;
+            }
+            block[used++] = id;
+            block[used++] = value;
+        }
+    }
+
+    private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Buffer> buffer = ThreadLocal.withInitial(() -> {
+        Buffer created = new Buffer();
+        buffers.add(created);
+        return created;
+    });
+    private final LongAdder buffered = new LongAdder();
+    private volatile boolean sealed;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * @param nodes     the number of nodes to store
+     * @param heapBytes the heap the store may take
+     * @return whether that many nodes fit, counting the buffers and the table they are merged into at once
+     */
+    static boolean fits(long nodes, long heapBytes) {
+        return nodes <= MAX_CAPACITY * LOAD_FACTOR && nodes * 16 + capacity(nodes) * 16L <= heapBytes;
+    }
+
+    @Override
+    public void put(long id, double lon, double lat) {
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("Node ID %d is reserved".formatted(id));
+        }
+        if (sealed) {
+            throw new IllegalStateException("Node store is already sealed");
+        }
+        buffer.get().add(id, NodeStore.pack(lon, lat));
+        buffered.increment();
+    }
+
+    /**
+     * Merge the buffers of every parser thread into the table. The parser threads must have finished.
+     */
+    @Override
+    public synchronized void seal() {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        long count = buffered.sum();
+        if (count > MAX_CAPACITY * LOAD_FACTOR) {
+            throw new IllegalStateException("%d nodes do not fit in a node store, use a MappedNodeStore for extracts of this size".formatted(count));
+        }
+        allocate(capacity(count));
+        for (Buffer merged = buffers.poll(); merged != null; merged = buffers.poll()) {
+            for (int b = 0; b < merged.blocks.size(); b++) {
+                long[] block = merged.blocks.get(b);
+                int length = block == merged.block ? merged.used : block.length;
+                for (int i = 0; i < length; i += 2) {
+                    insert(block[i], block[i + 1]);
+                }
+                merged.blocks.set(b, null);
+            }
+            merged.block = null;
+        }
+    }
+
+    @Override
+    public long get(long id) {
+        if (!sealed) {
+            throw new IllegalStateException("Node store must be sealed before it is read");
+        }
+        int slot = mix(id) & mask;
+        while (true) {
+            long key = keys[slot];
+            if (key == id) {
+                return values[slot];
+            }
+            if (key == EMPTY) {
+                return MISSING;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the number of nodes stored, counting a node stored twice twice until the store is sealed
+     */
+    @Override
+    public long size() {
+        return sealed ? size : buffered.sum();
+    }
+
+    @Override
+    public void close() {
+        buffers.clear();
+        keys = null;
+        values = null;
+    }
+
+    private void insert(long id, long value) {
+        int slot = mix(id) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            size++;
+        }
+        keys[slot] = id;
+        values[slot] = value;
+    }
+
+    /**
+     * @return the smallest power of two number of slots that holds the nodes within the load factor
+     */
+    private static int capacity(long nodes) {
+        return Integer.highestOneBit(Math.max(16, (int) Math.ceil(nodes / LOAD_FACTOR)) - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        mask = capacity - 1;
+    }
+
+    /**
+     * Node IDs are mostly sequential, so they are scrambled before being used as a slot index
+     */
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,56 @@
+package TraceRoute.osm;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The IDs of the nodes referenced by the ways kept in an import, collected in a first pass over the ways so
+ * that the second pass over the nodes can drop every node that no kept way needs.
+ */
+class ReferencedNodes {
+    private long[] ids = new long[1 << 16];
+    private int size;
+    private boolean sealed;
+
+    /**
+     * Record the nodes of a way. Safe to call from several threads at once.
+     */
+    synchronized void add(List<Long> nodes) {
+        if (sealed) {
+            throw new IllegalStateException("The referenced nodes are already sealed");
+        }
+        if (size + nodes.size() > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, size + nodes.size()));
+        }
+        for (Long node : nodes) {
+            ids[size++] = node;
+        }
+    }
+
+    /**
+     * Sort the IDs and drop duplicates. Must be called once every way has been added and before the first lookup.
+     */
+    synchronized void seal() {
+        Arrays.parallelSort(ids, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || ids[i] != ids[unique - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        ids = Arrays.copyOf(ids, unique);
+        size = unique;
+        sealed = true;
+    }
+
+    /**
+     * @return whether a kept way references the node. Safe to call from several threads once sealed.
+     */
+    boolean contains(long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,129 @@
+package TraceRoute.osm;
+
+import TraceRoute.graph.RoadGraph;
+import TraceRoute.graph.RoadGraphWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the node sequences of the ways of a map while it is imported and builds its {@link RoadGraph}.
+ * <p>
+ * Every node referenced by a way becomes a vertex, and every pair of consecutive nodes of a way an edge, as long
+ * as both nodes are in the map. Nodes missing from the map are skipped the same way the road index skips them,
+ * joining their neighbours directly. Roads are treated as two-way.
+ */
+public class RoadGraphBuilder {
+    /**
+     * Mean radius of the earth in metres
+     */
+    static final double EARTH_RADIUS = 6_371_000;
+
+    private final Logger logger = LoggerFactory.getLogger(RoadGraphBuilder.class);
+    /**
+     * Node references of every way, one after the other, with the end of each way in {@link #wayEnds}
+     */
+    private long[] references = new long[1 << 16];
+    private int size;
+    private int[] wayEnds = new int[1 << 12];
+    private int wayCount;
+
+    /**
+     * Record the nodes of a way. Safe to call from several threads at once.
+     *
+     * @param nodes the node IDs of the way, in order
+     */
+    public synchronized void addWay(List<Long> nodes) {
+        if (size + nodes.size() > references.length) {
+            references = Arrays.copyOf(references, Math.max(references.length * 2, size + nodes.size()));
+        }
+        for (Long node : nodes) {
+            references[size++] = node;
+        }
+        if (wayCount == wayEnds.length) {
+            wayEnds = Arrays.copyOf(wayEnds, wayCount * 2);
+        }
+        wayEnds[wayCount++] = size;
+    }
+
+    /**
+     * Build the graph and its contraction hierarchy
+     *
+     * @param file     where to write the graph
+     * @param vertices coordinates of every node referenced by a way
+     * @param checksum checksum of the map file, stored in the graph header
+     * @param length   length of the map file, stored in the graph header
+     * @return the number of vertices written
+     * @throws IOException if the graph cannot be written
+     */
+    public synchronized int write(Path file, NodeStore vertices, long checksum, long length) throws IOException {
+        long start = System.nanoTime();
+        long[] ids = Arrays.copyOf(references, size);
+        Arrays.parallelSort(ids);
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if ((i == 0 || ids[i] != ids[i - 1]) && vertices.get(ids[i]) != NodeStore.MISSING) {
+                ids[n++] = ids[i];
+            }
+        }
+        ids = Arrays.copyOf(ids, n);
+        int[] lon = new int[n];
+        int[] lat = new int[n];
+        for (int v = 0; v < n; v++) {
+            long node = vertices.get(ids[v]);
+            lon[v] = (int) node;
+            lat[v] = (int) (node >> 32);
+        }
+
+        // the ways arrive in no particular order, so the edges are sorted to build the same graph every time
+        long[] pairs = new long[Math.max(0, size - wayCount)];
+        int edges = 0;
+        int from = 0;
+        for (int w = 0; w < wayCount; w++) {
+            int previous = -1;
+            for (int i = from; i < wayEnds[w]; i++) {
+                int vertex = Arrays.binarySearch(ids, references[i]);
+                if (vertex < 0) {
+                    continue;
+                }
+                if (previous >= 0) {
+                    pairs[edges++] = (long) previous << 32 | vertex;
+                }
+                previous = vertex;
+            }
+            from = wayEnds[w];
+        }
+        Arrays.parallelSort(pairs, 0, edges);
+        RoadGraphWriter writer = new RoadGraphWriter(ids, lon, lat);
+        for (int e = 0; e < edges; e++) {
+            int tail = (int) (pairs[e] >>> 32);
+            int head = (int) pairs[e];
+            writer.addEdge(tail, head, (float) distance(lon[tail], lat[tail], lon[head], lat[head]));
+        }
+        references = null;
+        wayEnds = null;
+        size = 0;
+        wayCount = 0;
+        logger.info("Built road graph of %d vertices and %d edges in %.1f ms".formatted(n, edges, (System.nanoTime() - start) / 1e6));
+
+        writer.write(file, checksum, length);
+        return n;
+    }
+
+    /**
+     * Great-circle distance between two points given in fixed-point units, using an equirectangular
+     * approximation that is accurate to well under a metre over the length of a road segment
+     *
+     * @return the distance in metres
+     */
+    static double distance(int lon1, int lat1, int lon2, int lat2) {
+        double phi = Math.toRadians((lat1 + lat2) / 2.0 / NodeStore.PRECISION);
+        double x = Math.toRadians((lon2 - lon1) / NodeStore.PRECISION) * Math.cos(phi);
+        double y = Math.toRadians((lat2 - lat1) / NodeStore.PRECISION);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
@@ -0,0 +1,135 @@
+package TraceRoute.osm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * Decides which ways of a map are imported, by their tags. A way is kept if it has any of the allowed keys with
+ * one of the values allowed for that key, or with any value if none were given for it.
+ * <p>
+ * The filter is applied in the parser callbacks, so ways that are not kept are never resolved into segments.
+ */
+public class TagFilter implements Predicate<Map<String, String>> {
+    /**
+     * The highway types a bicycle can use, as filtered for with osmium by the old gen-cyclable-map.sh
+     */
+    private static final String[] CYCLABLE_HIGHWAYS = {
+            "primary", "secondary", "tertiary", "unclassified", "residential", "primary_link", "secondary_link",
+            "tertiary_link", "living_street", "track", "bridleway", "cycleway"};
+
+    /**
+     * Allowed values of each key, an empty set allows any value. Sorted, so that the fingerprint is stable.
+     */
+    private final Map<String, Set<String>> allowed = new TreeMap<>();
+    private final boolean acceptAll;
+
+    private TagFilter(boolean acceptAll) {
+        this.acceptAll = acceptAll;
+    }
+
+    /**
+     * @return a filter that keeps no ways until some tags are allowed with {@link #allow}
+     */
+    public static TagFilter none() {
+        return new TagFilter(false);
+    }
+
+    /**
+     * @return a filter that keeps every way, for maps that were filtered before the import
+     */
+    public static TagFilter all() {
+        return new TagFilter(true);
+    }
+
+    /**
+     * @return a filter that keeps the roads a bicycle can use
+     */
+    public static TagFilter cyclable() {
+        return none().allow("highway", CYCLABLE_HIGHWAYS);
+    }
+
+    /**
+     * Keep ways that have a key with one of the given values
+     *
+     * @param key    the tag key, for example <code>highway</code>
+     * @param values the values to keep, or none to keep any value of the key
+     * @return this instance, for chaining
+     */
+    public TagFilter allow(String key, String... values) {
+        if (acceptAll) {
+            throw new IllegalStateException("This filter already keeps every way");
+        }
+        boolean known = allowed.containsKey(key);
+        Set<String> set = allowed.computeIfAbsent(key, k -> new TreeSet<>());
+        if (values.length == 0) {
+            // any value, which wins over values allowed before
+            set.clear();
+        } else if (!known || !set.isEmpty()) {
+            set.addAll(Set.of(values));
+        }
+        return this;
+    }
+
+    /**
+     * @param tags the tags of a way, may be null
+     * @return whether the way is kept
+     */
+    @Override
+    public boolean test(Map<String, String> tags) {
+        if (acceptAll) {
+            return true;
+        }
+        if (tags == null || tags.isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<String, Set<String>> entry : allowed.entrySet()) {
+            String value = tags.get(entry.getKey());
+            if (value != null && (entry.getValue().isEmpty() || entry.getValue().contains(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A checksum of the filter, so that an index built with another filter is not reused.
+     * A filter that keeps every way has a fingerprint of 0.
+     *
+     * @return the fingerprint
+     */
+    public long fingerprint() {
+        if (acceptAll) {
+            return 0;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(toString().getBytes(StandardCharsets.UTF_8));
+        // keep it clear of 0 even for a filter that keeps nothing
+        return crc.getValue() | 1L << 32;
+    }
+
+    /**
+     * @return the filter in the form <code>key=value,value key</code>
+     */
+    @Override
+    public String toString() {
+        if (acceptAll) {
+            return "*";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Set<String>> entry : allowed.entrySet()) {
+            if (!builder.isEmpty()) {
+                builder.append(' ');
+            }
+            builder.append(entry.getKey());
+            if (!entry.getValue().isEmpty()) {
+                builder.append('=').append(String.join(",", entry.getValue()));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package TraceRoute.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes routes as the LineString features of a GeoJSON feature collection, with the name of each route
+ * as a property
+ */
+public class GeoJsonWriter extends RouteWriter {
+    private boolean firstPoint;
+
+    public GeoJsonWriter(Path file, boolean gzip) throws IOException {
+        this(file, Files.newOutputStream(file), gzip);
+    }
+
+    GeoJsonWriter(Path file, OutputStream stream, boolean gzip) throws IOException {
+        super(file, stream, gzip);
+        out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+    }
+
+    @Override
+    protected void beginRoute(String name, int index) throws IOException {
+        if (index > 0) {
+            out.write(',');
+        }
+        out.write("\n{\"type\":\"Feature\",\"properties\":{");
+        if (name != null) {
+            out.write("\"name\":\"");
+            escape(name);
+            out.write('"');
+        }
+        out.write("},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        firstPoint = true;
+    }
+
+    @Override
+    protected void writePoint(double lon, double lat) throws IOException {
+        if (!firstPoint) {
+            out.write(',');
+        }
+        firstPoint = false;
+        out.write('[');
+        writeDegrees(lon);
+        out.write(',');
+        writeDegrees(lat);
+        out.write(']');
+    }
+
+    @Override
+    protected void writeEnd() throws IOException {
+        out.write("]}}");
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        out.write("\n]}\n");
+    }
+
+    private void escape(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write("\\u%04x".formatted((int) c));
+            } else {
+                out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package TraceRoute.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes routes as the tracks of a GPX 1.1 file
+ */
+public class GpxWriter extends RouteWriter {
+    public GpxWriter(Path file, boolean gzip) throws IOException {
+        this(file, Files.newOutputStream(file), gzip);
+    }
+
+    GpxWriter(Path file, OutputStream stream, boolean gzip) throws IOException {
+        super(file, stream, gzip);
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<gpx version=\"1.1\" creator=\"TraceRoute\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+    }
+
+    @Override
+    protected void beginRoute(String name, int index) throws IOException {
+        out.write("<trk>");
+        if (name != null) {
+            out.write("<name>");
+            escape(name);
+            out.write("</name>");
+        }
+        out.write("<trkseg>\n");
+    }
+
+    @Override
+    protected void writePoint(double lon, double lat) throws IOException {
+        out.write("<trkpt lat=\"");
+        writeDegrees(lat);
+        out.write("\" lon=\"");
+        writeDegrees(lon);
+        out.write("\"/>\n");
+    }
+
+    @Override
+    protected void writeEnd() throws IOException {
+        out.write("</trkseg></trk>\n");
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        out.write("</gpx>\n");
+    }
+
+    private void escape(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> out.write("&lt;");
+                case '>' -> out.write("&gt;");
+                case '&' -> out.write("&amp;");
+                case '"' -> out.write("&quot;");
+                default -> out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package TraceRoute.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes routes in Google's encoded polyline format at five decimal places, one route per line.
+ * The format has no place for names, so routes are identified by their order in the file.
+ * <p>
+ * See <a href="https://developers.google.com/maps/documentation/utilities/polylinealgorithm">the encoding</a>.
+ */
+public class PolylineWriter extends RouteWriter {
+    private long previousLat;
+    private long previousLon;
+
+    public PolylineWriter(Path file, boolean gzip) throws IOException {
+        this(file, Files.newOutputStream(file), gzip);
+    }
+
+    PolylineWriter(Path file, OutputStream stream, boolean gzip) throws IOException {
+        super(file, stream, gzip);
+    }
+
+    @Override
+    protected void beginRoute(String name, int index) {
+        previousLat = 0;
+        previousLon = 0;
+    }
+
+    @Override
+    protected void writePoint(double lon, double lat) throws IOException {
+        long fixedLat = Math.round(lat * 1e5);
+        long fixedLon = Math.round(lon * 1e5);
+        encode(fixedLat - previousLat);
+        encode(fixedLon - previousLon);
+        previousLat = fixedLat;
+        previousLon = fixedLon;
+    }
+
+    @Override
+    protected void writeEnd() throws IOException {
+        out.write('\n');
+    }
+
+    @Override
+    protected void writeFooter() {
+    }
+
+    /**
+     * Write a signed value as a sequence of five-bit chunks, least significant first
+     */
+    private void encode(long value) throws IOException {
+        long bits = value < 0 ? ~(value << 1) : value << 1;
+        while (bits >= 0x20) {
+            out.write((int) ((0x20 | (bits & 0x1f)) + 63));
+            bits >>= 5;
+        }
+        out.write((int) (bits + 63));
+    }
+}
@@ -0,0 +1,82 @@
+package TraceRoute.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The file formats routes can be written in
+ */
+public enum RouteFormat {
+    /**
+     * GPX 1.1, one track per route
+     */
+    GPX(".gpx", "application/gpx+xml"),
+    /**
+     * A GeoJSON feature collection, one LineString feature per route
+     */
+    GEOJSON(".geojson", "application/geo+json"),
+    /**
+     * Google encoded polylines, one line per route
+     */
+    POLYLINE(".polyline", "text/plain; charset=utf-8");
+
+    private final String extension;
+    private final String mediaType;
+
+    RouteFormat(String extension, String mediaType) {
+        this.extension = extension;
+        this.mediaType = mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the media type of a document in this format, for the Content-Type of an HTTP response
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @param fileName a file name, without any .gz suffix
+     * @return the format with that extension
+     * @throws IllegalArgumentException if no format has the extension
+     */
+    public static RouteFormat of(String fileName) {
+        for (RouteFormat format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("%s does not end in a known route format extension".formatted(fileName));
+    }
+
+    /**
+     * @return whether a file name ends in the extension of a format, optionally followed by .gz
+     */
+    public static boolean isRouteFile(String fileName) {
+        String name = fileName.endsWith(".gz") ? fileName.substring(0, fileName.length() - 3) : fileName;
+        for (RouteFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    RouteWriter open(Path file, boolean gzip) throws IOException {
+        return open(file, Files.newOutputStream(file), gzip);
+    }
+
+    RouteWriter open(Path file, OutputStream stream, boolean gzip) throws IOException {
+        return switch (this) {
+            case GPX -> new GpxWriter(file, stream, gzip);
+            case GEOJSON -> new GeoJsonWriter(file, stream, gzip);
+            case POLYLINE -> new PolylineWriter(file, stream, gzip);
+        };
+    }
+}
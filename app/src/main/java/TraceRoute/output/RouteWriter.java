@@ -0,0 +1,193 @@
+package TraceRoute.output;
+
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes routes to a file as they are produced, one point at a time, without building the document in memory.
+ * <p>
+ * A file holds any number of routes. Each is written between {@link #beginRoute} and {@link #endRoute}, or in one
+ * call to {@link #write}, which is safe to call from several threads at once; the point-by-point methods are not.
+ * The file is complete once the writer is closed.
+ */
+public abstract class RouteWriter implements Closeable {
+    /**
+     * Size of the buffer between the writer and the file, or the compressor
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    protected final Writer out;
+    private final Path file;
+    private boolean inRoute;
+    private int routes;
+
+    /**
+     * @param file   the file the stream writes to, or null if it is not a file
+     * @param stream where to write, closed with the writer
+     * @param gzip   whether to compress what is written
+     */
+    protected RouteWriter(Path file, OutputStream stream, boolean gzip) throws IOException {
+        this.file = file;
+        if (gzip) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Open a writer in the format named by the file's extension, compressing it if the name ends in .gz
+     *
+     * @param file where to write, for example <code>routes.gpx</code> or <code>routes.geojson.gz</code>
+     * @return the writer, which has already written the start of the file
+     * @throws IOException              if the file cannot be created
+     * @throws IllegalArgumentException if the extension is not that of a known format
+     */
+    public static RouteWriter open(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        boolean gzip = name.endsWith(".gz");
+        return RouteFormat.of(gzip ? name.substring(0, name.length() - 3) : name).open(file, gzip);
+    }
+
+    /**
+     * Open a writer to a stream, such as the body of a response
+     *
+     * @param stream where to write, closed with the writer
+     * @param format the format to write in
+     * @return the writer, which has already written the start of the document
+     */
+    public static RouteWriter open(OutputStream stream, RouteFormat format) throws IOException {
+        return format.open(null, stream, false);
+    }
+
+    /**
+     * Start a new route
+     *
+     * @param name name of the route, stored where the format has a place for it
+     */
+    public void beginRoute(String name) throws IOException {
+        if (inRoute) {
+            throw new IllegalStateException("The previous route has not ended");
+        }
+        inRoute = true;
+        beginRoute(name, routes++);
+    }
+
+    /**
+     * Add a point to the current route
+     *
+     * @param lon longitude in degrees
+     * @param lat latitude in degrees
+     */
+    public void point(double lon, double lat) throws IOException {
+        if (!inRoute) {
+            throw new IllegalStateException("No route has begun");
+        }
+        writePoint(lon, lat);
+    }
+
+    public void endRoute() throws IOException {
+        if (!inRoute) {
+            throw new IllegalStateException("No route has begun");
+        }
+        inRoute = false;
+        writeEnd();
+    }
+
+    /**
+     * Write a whole route
+     *
+     * @param name   name of the route
+     * @param points the points of the route, x is longitude and y is latitude
+     */
+    public synchronized void write(String name, List<Point> points) throws IOException {
+        beginRoute(name);
+        for (Point point : points) {
+            point(point.x(), point.y());
+        }
+        endRoute();
+    }
+
+    /**
+     * @return the number of routes begun so far
+     */
+    public int getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @return the file written to, or null if the writer was opened on a stream
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Finish the file and close it
+     */
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            if (inRoute) {
+                endRoute();
+            }
+            writeFooter();
+        }
+    }
+
+    /**
+     * Write the start of a route
+     *
+     * @param index position of the route in the file, from 0
+     */
+    protected abstract void beginRoute(String name, int index) throws IOException;
+
+    protected abstract void writePoint(double lon, double lat) throws IOException;
+
+    protected abstract void writeEnd() throws IOException;
+
+    protected abstract void writeFooter() throws IOException;
+
+    /**
+     * Write a coordinate in degrees with seven decimal places, the precision of OpenStreetMap,
+     * dropping trailing zeros. Much cheaper than formatting a double.
+     */
+    protected void writeDegrees(double degrees) throws IOException {
+        long fixed = Math.round(degrees * 1e7);
+        if (fixed < 0) {
+            out.write('-');
+            fixed = -fixed;
+        }
+        out.write(Long.toString(fixed / 10_000_000));
+        int fraction = (int) (fixed % 10_000_000);
+        if (fraction == 0) {
+            return;
+        }
+        out.write('.');
+        int digits = 7;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        for (int divisor = pow10(digits - 1); divisor > 0; divisor /= 10) {
+            out.write('0' + fraction / divisor % 10);
+        }
+    }
+
+    private static int pow10(int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,134 @@
+package TraceRoute.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends shapes to a {@link RouteService} from a number of clients at once, each sending its next request as soon as
+ * its last one is answered, and measures the throughput and the spread of latencies of the requests answered
+ * with a route.
+ * <p>
+ * The clients take the shapes in turn, so with fewer shapes than clients the same shape is in flight several times
+ * at once, which measures how well identical requests are coalesced, and sending the shapes again measures the
+ * store of results. Requests turned away by the service's admission control are counted but not retried.
+ */
+public class LoadGenerator {
+    /**
+     * The outcome of a run
+     *
+     * @param succeeded number of requests answered with a route
+     * @param rejected  number of requests turned away because the service was busy
+     * @param failed    number of requests that failed in any other way
+     * @param nanos     time from the first request until the last was answered
+     * @param latencies latencies of the requests answered with a route, in nanoseconds, from the shortest
+     */
+    public record Report(int succeeded, int rejected, int failed, long nanos, long[] latencies) {
+        /**
+         * @return routes answered per second
+         */
+        public double throughput() {
+            return succeeded / (nanos / 1e9);
+        }
+
+        /**
+         * @param fraction the fraction of requests answered within the latency, for example 0.99
+         * @return the latency in nanoseconds, or 0 if no request was answered with a route
+         */
+        public long percentile(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[Math.max(0, Math.min(latencies.length - 1, (int) Math.ceil(fraction * latencies.length) - 1))];
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private final URI target;
+    private final List<String> shapes;
+    private final int clients;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    /**
+     * @param target  the route endpoint, with the format if not GPX, for example
+     *                <code>http://localhost:8080/route?format=geojson</code>
+     * @param shapes  the shapes to send, each in the format of a shape file
+     * @param clients number of requests in flight at once
+     */
+    public LoadGenerator(URI target, List<String> shapes, int clients) {
+        if (shapes.isEmpty() || clients < 1) {
+            throw new IllegalArgumentException("At least one shape and one client are required");
+        }
+        this.target = target;
+        this.shapes = shapes;
+        this.clients = clients;
+    }
+
+    /**
+     * Send requests until the given number have been answered, blocking until they are
+     *
+     * @param requests number of requests to send
+     * @return how they went
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public Report run(int requests) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long[] latencies = new long[requests];
+        AtomicInteger succeeded = new AtomicInteger();
+
+        logger.info("Sending %d requests for %d shapes to %s from %d clients".formatted(requests, shapes.size(), target, clients));
+        ExecutorService senders = RouteService.newConnectionExecutor();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            senders.execute(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    HttpRequest request = HttpRequest.newBuilder(target)
+                            .POST(HttpRequest.BodyPublishers.ofString(shapes.get(i % shapes.size())))
+                            .build();
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() == 200) {
+                            latencies[succeeded.getAndIncrement()] = System.nanoTime() - sent;
+                        } else if (response.statusCode() == 503) {
+                            rejected.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                            logger.warn("Request %d answered with status %d".formatted(i, response.statusCode()));
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        logger.warn("Request %d failed: %s".formatted(i, e.getMessage()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            });
+        }
+        senders.shutdown();
+        senders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        long[] answered = Arrays.copyOf(latencies, succeeded.get());
+        Arrays.sort(answered);
+        Report report = new Report(answered.length, rejected.get(), failed.get(), System.nanoTime() - start, answered);
+        logger.info("Load test complete: %d routes, %d turned away, %d failed, in %.1f s (%.2f routes/s)".formatted(
+                report.succeeded(), report.rejected(), report.failed(), report.nanos() / 1e9, report.throughput()));
+        logger.info("Latency: median %.1f ms, 95th percentile %.1f ms, 99th percentile %.1f ms, max %.1f ms".formatted(
+                report.percentile(0.5) / 1e6, report.percentile(0.95) / 1e6, report.percentile(0.99) / 1e6,
+                report.percentile(1) / 1e6));
+        return report;
+    }
+}
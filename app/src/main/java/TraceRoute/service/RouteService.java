@@ -0,0 +1,354 @@
+package TraceRoute.service;
+
+import TraceRoute.ea.Conductor;
+import TraceRoute.ea.Route;
+import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.output.RouteFormat;
+import TraceRoute.output.RouteWriter;
+import TraceRoute.shape.Shape;
+import TraceRoute.store.ResultStore;
+import TraceRoute.store.ShapeSignature;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.geom.Point2D;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fits shapes sent over HTTP to one map, which stays loaded, along with the code compiled while fitting the
+ * first shapes, for as long as the service runs.
+ * <p>
+ * <code>POST /route?format=gpx</code> with a shape in the body, one <code>x,y</code> vertex per line as in
+ * {@link Shape#read}, answers with its route in any of the {@link RouteFormat formats}, GPX if none is given. The
+ * fitness of the route is in the <code>X-Fitness</code> header, and where the route came from in
+ * <code>X-Route-Source</code>: a search of its own, the search of an identical shape that was already running, or
+ * the {@link ResultStore}. <code>GET /stats</code> answers with the counts of each.
+ * <p>
+ * Connections are handled on virtual threads when the runtime has them, and on a thread each otherwise, since they
+ * spend their time waiting for searches. The searches run on a work-stealing pool of a fixed number of threads
+ * shared with their route evaluations, as in {@link TraceRoute.batch.BatchRunner}. Only a fixed number of searches
+ * run at once and a request for another is answered straight away with 503 and <code>Retry-After</code>. A request
+ * for a shape whose search is already running waits for that search rather than starting another.
+ */
+public class RouteService implements Closeable {
+    /**
+     * Largest shape accepted, in bytes of request body
+     */
+    static final int MAX_BODY = 1 << 20;
+    /**
+     * How long a turned away client is asked to wait before trying again, in seconds
+     */
+    static final int RETRY_AFTER = 1;
+    /**
+     * How long to let responses in progress finish when the service is closed, in seconds
+     */
+    private static final int STOP_DELAY = 1;
+
+    /**
+     * A route for a shape
+     *
+     * @param fitness  its fitness
+     * @param roadPath the route
+     * @param source   where it came from, "search", "coalesced" or "stored"
+     */
+    record Fitted(double fitness, List<Point> roadPath, String source) {
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(RouteService.class);
+    private final OpenStreetMap map;
+    private final ResultStore results;
+    private final int jobs;
+    private final HttpServer server;
+    private final ExecutorService connections;
+    private final ForkJoinPool pool;
+    private final Semaphore slots;
+    private final ConcurrentHashMap<List<Point2D>, CompletableFuture<Fitted>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Bind the service to its port on the loopback interface, without starting it
+     *
+     * @param map     the map every shape is fitted to
+     * @param options the port and how many searches run at once
+     * @param results the store of earlier results, or null to search for every shape
+     * @throws IOException if the port cannot be bound
+     */
+    public RouteService(OpenStreetMap map, ServiceOptions options, ResultStore results) throws IOException {
+        this.map = map;
+        this.results = results;
+        this.jobs = options.getJobs();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.getPort()), 0);
+        this.connections = newConnectionExecutor();
+        this.pool = new ForkJoinPool(options.getThreads());
+        this.slots = new Semaphore(jobs);
+        server.setExecutor(connections);
+        server.createContext("/route", this::route);
+        server.createContext("/stats", this::stats);
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task if the runtime has them, or else a thread per task
+     * from a cached pool
+     */
+    static ExecutorService newConnectionExecutor() {
+        // looked up reflectively as virtual threads are only final from Java 21, and this builds for Java 17
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Start answering requests, on threads of the service's own
+     */
+    public void start() {
+        server.start();
+        logger.info("Listening on http://%s:%d/route with %d search threads, at most %d searches at once, connections on %s".formatted(
+                server.getAddress().getHostString(), getPort(), pool.getParallelism(), jobs,
+                connections instanceof ThreadPoolExecutor ? "platform threads" : "virtual threads"));
+    }
+
+    /**
+     * @return the port listened on, which was chosen by the system if the options asked for port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "Send the shape with POST");
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body.length > MAX_BODY) {
+                send(exchange, 413, "Shapes are limited to %d bytes".formatted(MAX_BODY));
+                return;
+            }
+            RouteFormat format;
+            List<Point2D> vertices;
+            try {
+                format = format(exchange.getRequestURI());
+                vertices = Shape.parse(new String(body, StandardCharsets.UTF_8).lines().toList());
+                if (vertices.size() < 2) {
+                    throw new IllegalArgumentException("A shape needs at least two vertices");
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            }
+            Fitted fitted;
+            try {
+                fitted = fit(vertices);
+            } catch (RejectedExecutionException e) {
+                reject(exchange, e);
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RejectedExecutionException cause) {
+                    reject(exchange, cause);
+                    return;
+                }
+                failed.increment();
+                logger.error("Failed to fit a shape of %d vertices".formatted(vertices.size()), e.getCause());
+                send(exchange, 500, "The shape could not be fitted");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "The service is stopping");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", format.getMediaType());
+            exchange.getResponseHeaders().set("X-Fitness", Double.toString(fitted.fitness()));
+            exchange.getResponseHeaders().set("X-Route-Source", fitted.source());
+            // streamed with chunked encoding, so the document is never held in memory as a whole
+            exchange.sendResponseHeaders(200, 0);
+            try (RouteWriter writer = RouteWriter.open(exchange.getResponseBody(), format)) {
+                writer.write(null, fitted.roadPath());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            String body = "{\"requests\":%d,\"searches\":%d,\"coalesced\":%d,\"stored\":%d,\"rejected\":%d,\"failed\":%d,\"running\":%d}\n".formatted(
+                    requests.sum(), searches.sum(), coalesced.sum(), stored.sum(), rejected.sum(), failed.sum(),
+                    jobs - slots.availablePermits());
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Find the route for a shape, joining the search for an identical shape if one is running, and otherwise
+     * starting one if there is a free slot
+     *
+     * @throws RejectedExecutionException if a search is needed and as many are running as allowed
+     * @throws ExecutionException         if the search failed, or the search joined was turned away
+     */
+    Fitted fit(List<Point2D> vertices) throws InterruptedException, ExecutionException {
+        List<Point2D> key = List.copyOf(vertices);
+        CompletableFuture<Fitted> search = new CompletableFuture<>();
+        CompletableFuture<Fitted> running = inFlight.putIfAbsent(key, search);
+        if (running != null) {
+            coalesced.increment();
+            Fitted fitted = running.get();
+            return new Fitted(fitted.fitness(), fitted.roadPath(), "coalesced");
+        }
+        try {
+            startSearch(key, search);
+        } catch (RuntimeException e) {
+            search.completeExceptionally(e);
+            inFlight.remove(key, search);
+            throw e;
+        }
+        return search.get();
+    }
+
+    /**
+     * Complete a search from the store, or start it on the pool, removing it from the searches in flight once
+     * it is complete
+     */
+    private void startSearch(List<Point2D> vertices, CompletableFuture<Fitted> search) {
+        // the shape's constructor takes the first vertex off the list it is given
+        java.awt.Shape shape = new Shape(new ArrayList<>(vertices)).getPath();
+        ShapeSignature signature = ShapeSignature.of(shape);
+        Optional<ResultStore.Match> match = results != null ? results.find(map, signature) : Optional.empty();
+        if (match.isPresent() && match.get().isRepeat()) {
+            stored.increment();
+            search.complete(new Fitted(match.get().fitness(), match.get().roadPath(), "stored"));
+            inFlight.remove(vertices, search);
+            return;
+        }
+        if (!slots.tryAcquire()) {
+            throw new RejectedExecutionException("%d searches are running already".formatted(jobs));
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    search.complete(search(shape, signature, match.orElse(null)));
+                } catch (Throwable e) {
+                    search.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(vertices, search);
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Search for the route of a shape, starting from the placement of a similar one if there is one, and store it
+     */
+    private Fitted search(java.awt.Shape shape, ShapeSignature signature, ResultStore.Match near) throws IOException {
+        long start = System.nanoTime();
+        searches.increment();
+        Conductor conductor = new Conductor(shape, map, pool);
+        if (near != null) {
+            conductor.immigrate(List.of(near.genome()));
+        }
+        Route route = conductor.findOptimalRoute();
+        List<Point> roadPath = route.getRoadPath();
+        if (results != null) {
+            results.put(map, signature, route.getGenome(), route.getFitness(), roadPath);
+        }
+        logger.info("Fitted a shape in %.1f s, fitness %s%s".formatted((System.nanoTime() - start) / 1e9,
+                route.getFitness(), near != null ? ", starting from a similar shape" : ""));
+        return new Fitted(route.getFitness(), roadPath, "search");
+    }
+
+    private void reject(HttpExchange exchange, RejectedExecutionException e) throws IOException {
+        rejected.increment();
+        exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER));
+        send(exchange, 503, e.getMessage());
+    }
+
+    /**
+     * @return the format named by the <code>format</code> parameter of the query, or GPX if there is none
+     * @throws IllegalArgumentException if no format has that name
+     */
+    private static RouteFormat format(URI uri) {
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return RouteFormat.GPX;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("format=")) {
+                String name = parameter.substring("format=".length());
+                for (RouteFormat format : RouteFormat.values()) {
+                    if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+                        return format;
+                    }
+                }
+                throw new IllegalArgumentException("Unknown format %s".formatted(name));
+            }
+        }
+        return RouteFormat.GPX;
+    }
+
+    /**
+     * @return the body, cut off after one byte more than {@link #MAX_BODY}
+     */
+    private static byte[] readBody(InputStream body) throws IOException {
+        try (body) {
+            return body.readNBytes(MAX_BODY + 1);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * Stop listening, giving the responses in progress a moment to finish, and stop the searches
+     */
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY);
+        connections.shutdown();
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,65 @@
+package TraceRoute.service;
+
+/**
+ * Settings of a {@link RouteService}. The defaults listen on port 8080 of the loopback interface and search with
+ * every available core, running as many searches at once as there are cores.
+ */
+public class ServiceOptions {
+    private int port = 8080;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int jobs = threads;
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     * @return this instance, for chaining
+     */
+    public ServiceOptions setPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Port %d is out of range".formatted(port));
+        }
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * @return the number of routes evaluated at once by all the searches together
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of routes evaluated at once by all the searches together
+     * @return this instance, for chaining
+     */
+    public ServiceOptions setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Requests for more shapes than this are turned away until a search finishes, rather than queued, so that the
+     * searches that are admitted are not slowed down by ever more searches sharing the threads.
+     *
+     * @param jobs the number of searches run at once
+     * @return this instance, for chaining
+     */
+    public ServiceOptions setJobs(int jobs) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("At least one search must be allowed at once");
+        }
+        this.jobs = jobs;
+        return this;
+    }
+}
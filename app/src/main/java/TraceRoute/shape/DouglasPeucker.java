@@ -0,0 +1,142 @@
+package TraceRoute.shape;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Simplifies a polyline to a fixed number of vertices with the Douglas-Peucker algorithm.
+ * <p>
+ * Instead of a distance tolerance the caller asks for a vertex count: starting from the first and last vertices,
+ * the vertex furthest from the simplified line is added back until there are enough. The simplified shape also
+ * keeps the vertices on the edges of the original's bounding box, so that it has the same bounds and is placed
+ * exactly where the original would be by the same transform.
+ */
+public final class DouglasPeucker {
+    private DouglasPeucker() {
+    }
+
+    /**
+     * A run of the original vertices replaced by a single line, and the vertex furthest from it
+     */
+    private record Span(int from, int to, int furthest, double distance) {
+    }
+
+    /**
+     * @param shape    the polyline to simplify, curves are ignored
+     * @param vertices number of vertices wanted, at least 2; up to six are kept whatever is asked for
+     * @return the simplified polyline, or a copy of the shape if it has no more vertices than asked for
+     */
+    public static Path2D simplify(java.awt.Shape shape, int vertices) {
+        if (vertices < 2) {
+            throw new IllegalArgumentException("A polyline needs at least 2 vertices");
+        }
+        List<double[]> points = vertices(shape);
+        int count = points.size();
+        boolean[] kept = new boolean[count];
+        if (count <= vertices) {
+            Arrays.fill(kept, true);
+        } else {
+            kept[0] = true;
+            kept[count - 1] = true;
+            int minX = 0, minY = 0, maxX = 0, maxY = 0;
+            for (int i = 1; i < count; i++) {
+                if (points.get(i)[0] < points.get(minX)[0]) minX = i;
+                if (points.get(i)[1] < points.get(minY)[1]) minY = i;
+                if (points.get(i)[0] > points.get(maxX)[0]) maxX = i;
+                if (points.get(i)[1] > points.get(maxY)[1]) maxY = i;
+            }
+            kept[minX] = kept[minY] = kept[maxX] = kept[maxY] = true;
+
+            PriorityQueue<Span> spans = new PriorityQueue<>((a, b) -> Double.compare(b.distance(), a.distance()));
+            int size = 1;
+            int from = 0;
+            for (int i = 1; i < count; i++) {
+                if (kept[i]) {
+                    addSpan(spans, points, from, i);
+                    from = i;
+                    size++;
+                }
+            }
+            for (; size < vertices && !spans.isEmpty(); size++) {
+                Span span = spans.poll();
+                kept[span.furthest()] = true;
+                addSpan(spans, points, span.from(), span.furthest());
+                addSpan(spans, points, span.furthest(), span.to());
+            }
+        }
+
+        Path2D.Double simplified = new Path2D.Double();
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            if (!kept[i]) {
+                continue;
+            }
+            if (first) {
+                simplified.moveTo(points.get(i)[0], points.get(i)[1]);
+                first = false;
+            } else {
+                simplified.lineTo(points.get(i)[0], points.get(i)[1]);
+            }
+        }
+        return simplified;
+    }
+
+    /**
+     * @return the number of vertices in the shape
+     */
+    public static int countVertices(java.awt.Shape shape) {
+        int count = 0;
+        for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static List<double[]> vertices(java.awt.Shape shape) {
+        List<double[]> points = new ArrayList<>();
+        double[] location = new double[6];
+        for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            iterator.currentSegment(location);
+            points.add(new double[]{location[0], location[1]});
+        }
+        return points;
+    }
+
+    /**
+     * Queue the span between two kept vertices, unless there is nothing between them
+     */
+    private static void addSpan(PriorityQueue<Span> spans, List<double[]> points, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        double[] a = points.get(from);
+        double[] b = points.get(to);
+        int furthest = from + 1;
+        double distance = -1;
+        for (int i = from + 1; i < to; i++) {
+            double d = distanceSquared(points.get(i), a, b);
+            if (d > distance) {
+                distance = d;
+                furthest = i;
+            }
+        }
+        spans.add(new Span(from, to, furthest, distance));
+    }
+
+    /**
+     * @return the squared distance from p to the segment ab, or to a if the segment has no length
+     */
+    private static double distanceSquared(double[] p, double[] a, double[] b) {
+        double dx = b[0] - a[0];
+        double dy = b[1] - a[1];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((p[0] - a[0]) * dx + (p[1] - a[1]) * dy) / lengthSquared));
+        double ex = a[0] + t * dx - p[0];
+        double ey = a[1] + t * dy - p[1];
+        return ex * ex + ey * ey;
+    }
+}
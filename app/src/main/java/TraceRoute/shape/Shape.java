@@ -2,6 +2,10 @@ package TraceRoute.shape;
 
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Shape {
@@ -19,5 +23,42 @@ public class Shape {
         }
     }
 
+    /**
+     * Read a shape from a text file with one <code>x,y</code> vertex per line, such as pythontests/points
+     *
+     * @param file the shape file
+     * @return the shape
+     * @throws IOException if the file cannot be read
+     */
+    public static Shape read(Path file) throws IOException {
+        List<Point2D> points = parse(Files.readAllLines(file));
+        if (points.isEmpty()) {
+            throw new IOException("Shape file %s has no vertices".formatted(file));
+        }
+        return new Shape(points);
+    }
+
+    /**
+     * Read the vertices of a shape from lines of text in the format of {@link #read}, such as the body of a request
+     *
+     * @param lines the lines, of which blank ones are skipped
+     * @return the vertices, in order
+     * @throws IllegalArgumentException if a line is not a pair of numbers
+     */
+    public static List<Point2D> parse(List<String> lines) {
+        List<Point2D> points = new ArrayList<>();
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] coordinates = line.split(",");
+            if (coordinates.length < 2) {
+                throw new IllegalArgumentException("Expected x,y but found %s".formatted(line.strip()));
+            }
+            points.add(new Point2D.Double(Double.parseDouble(coordinates[0].trim()), Double.parseDouble(coordinates[1].trim())));
+        }
+        return points;
+    }
+
     public Path2D getPath() { return path; }
 }
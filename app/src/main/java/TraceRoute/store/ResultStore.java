@@ -0,0 +1,308 @@
+package TraceRoute.store;
+
+import TraceRoute.ea.Genome;
+import TraceRoute.osm.OpenStreetMap;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The best placement and snapped route found for each shape fitted to a map, kept on disk so that a shape that
+ * is submitted again is not searched for again.
+ * <p>
+ * Results are looked up by the checksum of the map, which covers its tag filter, and by the {@link ShapeSignature}
+ * of the shape. A shape whose outline is within {@link #REPEAT_DISTANCE} of a stored one is a repeat, and its
+ * stored route can be used as it is. One within {@link #NEAR_DISTANCE} is a near-duplicate, whose placement is a
+ * good place to start a search from. Each result is a file of its own in the store's directory:
+ * <pre>
+ * header     48 bytes             magic, version, map checksum and length, shape size, fitness, counts
+ * signature  8 bytes per point    normalised x and y as floats
+ * genome     56 bytes             the placement, see {@link Genome}
+ * route      16 bytes per point   longitude and latitude of the snapped route
+ * </pre>
+ * The headers and signatures of every result are read when the store is opened. Once the files take up more than
+ * the store's limit, the least recently used are deleted, using their modification times, which are updated
+ * whenever a result is used.
+ */
+public class ResultStore {
+    static final int MAGIC = 0x53525254; // "TRRS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 48;
+    static final String EXTENSION = ".result";
+    /**
+     * Outlines closer than this, in units of the longer side of their bounds, are the same shape
+     */
+    public static final double REPEAT_DISTANCE = 0.002;
+    /**
+     * Outlines closer than this are close enough for the placement of one to be a good start for the other
+     */
+    public static final double NEAR_DISTANCE = 0.05;
+    /**
+     * Default limit on the size of the store's files
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /**
+     * What was found for a shape
+     *
+     * @param genome    the placement, converted to the units of the shape it was looked up for
+     * @param fitness   its fitness on the stored shape
+     * @param roadPath  the route it snapped to
+     * @param distance  how far the stored outline is from the one looked up, see {@link ShapeSignature#distance}
+     */
+    public record Match(Genome genome, double fitness, List<Point> roadPath, double distance) {
+        /**
+         * @return whether the stored route can be used as it is
+         */
+        public boolean isRepeat() {
+            return distance <= REPEAT_DISTANCE;
+        }
+    }
+
+    /**
+     * A result file, as far as it is kept in memory
+     */
+    private record Entry(Path file, long mapChecksum, long mapLength, ShapeSignature signature, double fitness, long bytes) {
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(ResultStore.class);
+    private final Path directory;
+    private final long maxBytes;
+    private final List<Entry> entries = new ArrayList<>();
+    private long bytes;
+
+    /**
+     * Open a store, creating its directory if there is none
+     *
+     * @param directory where the results are kept
+     * @param maxBytes  the most the result files may take up
+     * @throws IOException if the directory cannot be created or listed
+     */
+    public ResultStore(Path directory, long maxBytes) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("A result store needs room for at least one byte");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    Entry entry = readEntry(file);
+                    entries.add(entry);
+                    bytes += entry.bytes();
+                } catch (IOException e) {
+                    logger.warn("Ignoring unreadable result %s: %s".formatted(file, e.getMessage()));
+                }
+            }
+        }
+        logger.info("Opened result store %s with %d results in %d bytes".formatted(directory, entries.size(), bytes));
+    }
+
+    /**
+     * Open the store of a map's results, next to its indices in the working directory
+     *
+     * @param filename the map file, as passed to {@link OpenStreetMap}
+     */
+    public static ResultStore forMap(String filename) throws IOException {
+        return new ResultStore(Path.of("%s.results".formatted(com.google.common.io.Files.getNameWithoutExtension(filename))), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Find the stored result whose outline is closest to the shape's, if it is within {@link #NEAR_DISTANCE}
+     *
+     * @param map       the map the shape is fitted to
+     * @param signature the shape's outline
+     * @return the result, with its placement converted to the shape's units
+     */
+    public synchronized Optional<Match> find(OpenStreetMap map, ShapeSignature signature) {
+        long mapChecksum = map.getIndex().getSourceChecksum();
+        long mapLength = map.getIndex().getSourceLength();
+        Entry closest = null;
+        double closestDistance = NEAR_DISTANCE;
+        for (Entry entry : entries) {
+            if (entry.mapChecksum() == mapChecksum && entry.mapLength() == mapLength) {
+                double distance = entry.signature().distance(signature);
+                if (distance <= closestDistance) {
+                    closest = entry;
+                    closestDistance = distance;
+                }
+            }
+        }
+        if (closest == null) {
+            return Optional.empty();
+        }
+        try {
+            Match match = readMatch(closest, signature, closestDistance);
+            Files.setLastModifiedTime(closest.file(), FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(match);
+        } catch (IOException e) {
+            logger.warn("Dropping unreadable result %s".formatted(closest.file()), e);
+            remove(closest);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Store the result for a shape, replacing the result stored for the same outline unless that one is fitter,
+     * and then delete the least recently used results until the store is within its limit
+     *
+     * @param map       the map the shape was fitted to
+     * @param signature the shape's outline
+     * @param genome    the placement found
+     * @param fitness   its fitness
+     * @param roadPath  the route it snapped to
+     * @throws IOException if the result cannot be written
+     */
+    public synchronized void put(OpenStreetMap map, ShapeSignature signature, Genome genome, double fitness, List<Point> roadPath) throws IOException {
+        long mapChecksum = map.getIndex().getSourceChecksum();
+        long mapLength = map.getIndex().getSourceLength();
+        Path file = directory.resolve("%016x%s".formatted(mapChecksum * 31 + signature.key(), EXTENSION));
+        for (Entry entry : List.copyOf(entries)) {
+            if (entry.file().equals(file)) {
+                if (entry.fitness() <= fitness) {
+                    return;
+                }
+                remove(entry);
+            }
+        }
+        float[] points = signature.points();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + points.length * 4 + 56 + roadPath.size() * 16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(mapChecksum)
+                .putLong(mapLength)
+                .putDouble(signature.getSize())
+                .putDouble(fitness)
+                .putInt(points.length / 2)
+                .putInt(roadPath.size());
+        for (float point : points) {
+            buffer.putFloat(point);
+        }
+        buffer.putDouble(genome.scaleFactor())
+                .putDouble(genome.x())
+                .putDouble(genome.y())
+                .putDouble(genome.prevX())
+                .putDouble(genome.prevY())
+                .putDouble(genome.prevScaleFactor())
+                .putDouble(genome.prevFitness());
+        for (Point point : roadPath) {
+            buffer.putDouble(point.x()).putDouble(point.y());
+        }
+        buffer.flip();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Entry entry = new Entry(file, mapChecksum, mapLength, signature, fitness, buffer.capacity());
+        entries.add(entry);
+        bytes += entry.bytes();
+        evict(entry);
+    }
+
+    /**
+     * Delete the least recently used results, but never the one just stored, until the store is within its limit
+     */
+    private void evict(Entry keep) throws IOException {
+        if (bytes <= maxBytes) {
+            return;
+        }
+        List<Entry> byAge = new ArrayList<>(entries);
+        List<FileTime> times = new ArrayList<>(byAge.size());
+        for (Entry entry : byAge) {
+            times.add(Files.getLastModifiedTime(entry.file()));
+        }
+        Integer[] order = new Integer[byAge.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(times::get));
+        int evicted = 0;
+        for (int i = 0; i < order.length && bytes > maxBytes; i++) {
+            Entry entry = byAge.get(order[i]);
+            if (entry != keep) {
+                remove(entry);
+                evicted++;
+            }
+        }
+        logger.info("Evicted %d results, %d left in %d bytes".formatted(evicted, entries.size(), bytes));
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry);
+        bytes -= entry.bytes();
+        try {
+            Files.deleteIfExists(entry.file());
+        } catch (IOException e) {
+            logger.warn("Could not delete result %s".formatted(entry.file()), e);
+        }
+    }
+
+    /**
+     * Read the header and signature of a result
+     */
+    private static Entry readEntry(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("not a result");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("version %d, expected %d".formatted(header.getInt(4), VERSION));
+            }
+            int points = header.getInt(40);
+            int routePoints = header.getInt(44);
+            if (points != ShapeSignature.POINTS || routePoints < 0
+                    || channel.size() != HEADER_BYTES + points * 8L + 56 + routePoints * 16L) {
+                throw new IOException("truncated");
+            }
+            ByteBuffer signature = ByteBuffer.allocate(points * 8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(signature, HEADER_BYTES);
+            signature.flip();
+            float[] coordinates = new float[points * 2];
+            signature.asFloatBuffer().get(coordinates);
+            return new Entry(file, header.getLong(8), header.getLong(16), new ShapeSignature(coordinates, header.getDouble(24)),
+                    header.getDouble(32), channel.size());
+        }
+    }
+
+    /**
+     * Read the placement and route of a result, converting the placement to the units of the shape looked up
+     */
+    private static Match readMatch(Entry entry, ShapeSignature signature, double distance) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(entry.file())).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() != entry.bytes()) {
+            throw new IOException("%s has changed since the store was opened".formatted(entry.file()));
+        }
+        int routePoints = buffer.getInt(44);
+        buffer.position(HEADER_BYTES + ShapeSignature.POINTS * 8);
+        // the same outline at another size needs a scale factor in proportion
+        double units = signature.getSize() > 0 ? entry.signature().getSize() / signature.getSize() : 1;
+        Genome genome = new Genome(buffer.getDouble() * units, buffer.getDouble(), buffer.getDouble(),
+                buffer.getDouble(), buffer.getDouble(), buffer.getDouble() * units, buffer.getDouble());
+        List<Point> roadPath = new ArrayList<>(routePoints);
+        for (int i = 0; i < routePoints; i++) {
+            roadPath.add(Geometries.pointGeographic(buffer.getDouble(), buffer.getDouble()));
+        }
+        return new Match(genome, entry.fitness(), roadPath, distance);
+    }
+}
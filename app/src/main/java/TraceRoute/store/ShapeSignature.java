@@ -0,0 +1,120 @@
+package TraceRoute.store;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The outline of a shape, independent of how many vertices it was drawn with and of its position and size.
+ * <p>
+ * The shape is resampled to {@link #POINTS} points spaced evenly along its length, then moved so that the centre
+ * of its bounds is the origin and scaled so that the longer side of its bounds is 1. Routes place a shape by the
+ * centre of its bounds too, so a placement carries over between shapes with the same signature once its scale
+ * factor is converted with {@link #getSize()}. Two drawings of the same outline at different point densities have
+ * almost the same signature.
+ */
+public final class ShapeSignature {
+    /**
+     * Number of points an outline is resampled to
+     */
+    public static final int POINTS = 64;
+
+    /**
+     * x and y of each point, one after the other
+     */
+    private final float[] points;
+    private final double size;
+
+    ShapeSignature(float[] points, double size) {
+        this.points = points;
+        this.size = size;
+    }
+
+    /**
+     * @param shape a polyline, as built by {@link TraceRoute.shape.Shape}
+     * @return its signature
+     */
+    public static ShapeSignature of(Shape shape) {
+        List<double[]> vertices = new ArrayList<>();
+        double[] coordinates = new double[6];
+        for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            if (iterator.currentSegment(coordinates) != PathIterator.SEG_CLOSE) {
+                vertices.add(new double[]{coordinates[0], coordinates[1]});
+            }
+        }
+        Rectangle2D bounds = shape.getBounds2D();
+        double size = Math.max(bounds.getWidth(), bounds.getHeight());
+        double scale = size > 0 ? 1 / size : 1;
+        double[] lengths = new double[vertices.size()];
+        for (int i = 1; i < vertices.size(); i++) {
+            lengths[i] = lengths[i - 1] + Math.hypot(vertices.get(i)[0] - vertices.get(i - 1)[0], vertices.get(i)[1] - vertices.get(i - 1)[1]);
+        }
+        double total = lengths.length == 0 ? 0 : lengths[lengths.length - 1];
+        float[] points = new float[POINTS * 2];
+        int segment = 1;
+        for (int i = 0; i < POINTS && !vertices.isEmpty(); i++) {
+            double along = total * i / (POINTS - 1);
+            while (segment < vertices.size() - 1 && lengths[segment] < along) {
+                segment++;
+            }
+            double[] from = vertices.get(Math.max(0, segment - 1));
+            double[] to = vertices.get(Math.min(segment, vertices.size() - 1));
+            double length = segment < vertices.size() ? lengths[segment] - lengths[segment - 1] : 0;
+            double t = length == 0 ? 0 : Math.min(1, (along - lengths[segment - 1]) / length);
+            points[2 * i] = (float) ((from[0] + t * (to[0] - from[0]) - bounds.getCenterX()) * scale);
+            points[2 * i + 1] = (float) ((from[1] + t * (to[1] - from[1]) - bounds.getCenterY()) * scale);
+        }
+        return new ShapeSignature(points, size);
+    }
+
+    /**
+     * The mean distance between corresponding points of two outlines, in units of the longer side of their bounds.
+     * An outline drawn the other way round matches too.
+     *
+     * @return the distance, 0 for the same outline
+     */
+    public double distance(ShapeSignature other) {
+        double forward = 0, backward = 0;
+        for (int i = 0; i < POINTS; i++) {
+            int j = POINTS - 1 - i;
+            forward += Math.hypot(points[2 * i] - other.points[2 * i], points[2 * i + 1] - other.points[2 * i + 1]);
+            backward += Math.hypot(points[2 * i] - other.points[2 * j], points[2 * i + 1] - other.points[2 * j + 1]);
+        }
+        return Math.min(forward, backward) / POINTS;
+    }
+
+    /**
+     * @return the longer side of the bounds of the shape, in its own units
+     */
+    public double getSize() {
+        return size;
+    }
+
+    float[] points() {
+        return points;
+    }
+
+    /**
+     * @return a hash of the outline, the same for outlines that only differ by rounding
+     */
+    long key() {
+        long hash = 1125899906842597L;
+        for (float point : points) {
+            hash = 31 * hash + Math.round(point * 1000);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ShapeSignature signature && Arrays.equals(signature.points, points) && signature.size == size;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(points);
+    }
+}
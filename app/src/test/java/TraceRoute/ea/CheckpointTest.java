@@ -0,0 +1,96 @@
+package TraceRoute.ea;
+
+import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.shape.Shape;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Checks that a search written to a {@link Checkpoint} carries on from it exactly as it would have done
+ */
+public class CheckpointTest {
+    private static OpenStreetMap map;
+    private static ExecutorService executor;
+    private static Path2D shape;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void load() throws IOException {
+        map = new OpenStreetMap("../maps/fixture.osm.pbf");
+        executor = Executors.newFixedThreadPool(2);
+        shape = Shape.read(Path.of("../pythontests/points")).getPath();
+    }
+
+    @AfterClass
+    public static void close() {
+        executor.shutdown();
+        map.close();
+    }
+
+    @Test
+    public void resumedSearchRestoresSurvivorsAndBreedsTheSameGeneration() throws IOException {
+        Conductor original = new Conductor(shape, map, executor);
+        original.evolve();
+        original.evolve();
+        Path file = folder.getRoot().toPath().resolve("search.checkpoint");
+        original.checkpoint(file);
+
+        Conductor resumed = Conductor.resume(file, shape, map, executor);
+        Path again = folder.getRoot().toPath().resolve("again.checkpoint");
+        resumed.checkpoint(again);
+        assertSameSearch(Checkpoint.read(file), Checkpoint.read(again));
+        assertEquals(original.getEvaluations(), resumed.getEvaluations());
+
+        for (int i = 0; i < 3; i++) {
+            original.evolve();
+            resumed.evolve();
+            assertEquals(original.getBest().getGenome(), resumed.getBest().getGenome());
+            assertEquals(original.getBest().getFitness(), resumed.getBest().getFitness(), 0);
+        }
+        original.checkpoint(file);
+        resumed.checkpoint(again);
+        assertSameSearch(Checkpoint.read(file), Checkpoint.read(again));
+    }
+
+    @Test
+    public void refusesCheckpointOfAnotherShape() throws IOException {
+        Conductor original = new Conductor(shape, map, executor);
+        original.evolve();
+        Path file = folder.getRoot().toPath().resolve("search.checkpoint");
+        original.checkpoint(file);
+        Path2D other = new Path2D.Double(shape);
+        other.lineTo(0, 0);
+        assertThrows(IOException.class, () -> Conductor.resume(file, other, map, executor));
+    }
+
+    private static void assertSameSearch(Checkpoint expected, Checkpoint actual) {
+        assertEquals(expected.generation(), actual.generation());
+        assertEquals(expected.stalled(), actual.stalled());
+        assertEquals(expected.seed(), actual.seed());
+        assertEquals(expected.resolution(), actual.resolution());
+        List<Checkpoint.Saved> expectedRoutes = expected.routes();
+        List<Checkpoint.Saved> actualRoutes = actual.routes();
+        assertEquals(expectedRoutes.size(), actualRoutes.size());
+        for (int i = 0; i < expectedRoutes.size(); i++) {
+            assertEquals(expectedRoutes.get(i).placement(), actualRoutes.get(i).placement());
+            assertEquals(expectedRoutes.get(i).fitness(), actualRoutes.get(i).fitness(), 0);
+            assertArrayEquals(expectedRoutes.get(i).drift(), actualRoutes.get(i).drift(), 0);
+        }
+    }
+}
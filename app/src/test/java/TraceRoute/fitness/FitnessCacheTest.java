@@ -0,0 +1,45 @@
+package TraceRoute.fitness;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class FitnessCacheTest {
+    @Test
+    public void reusesScoreOnlyForTheSamePlacement() {
+        FitnessCache cache = new FitnessCache(100);
+        AtomicInteger evaluations = new AtomicInteger();
+        assertEquals(5, cache.get(10, 20, 1, Double.POSITIVE_INFINITY, () -> evaluations.incrementAndGet() + 4), 0);
+        assertEquals(5, cache.get(10, 20, 1, Double.POSITIVE_INFINITY, () -> evaluations.incrementAndGet() + 4), 0);
+        // a child a hair's breadth away is scored on its own
+        assertEquals(6, cache.get(10.001, 20, 1, Double.POSITIVE_INFINITY, () -> evaluations.incrementAndGet() + 4), 0);
+        assertEquals(7, cache.get(10, 20, 1.0000001, Double.POSITIVE_INFINITY, () -> evaluations.incrementAndGet() + 4), 0);
+        assertEquals(3, evaluations.get());
+    }
+
+    @Test
+    public void reusesBoundOnlyWhileAboveTheCutoff() {
+        FitnessCache cache = new FitnessCache(100);
+        AtomicInteger evaluations = new AtomicInteger();
+        // under a cutoff of 100 the evaluation gave up at 120, a bound on a true score of 150
+        assertEquals(120, cache.get(0, 0, 1, 100, () -> {
+            evaluations.incrementAndGet();
+            return 120;
+        }), 0);
+        assertEquals(120, cache.get(0, 0, 1, 80, () -> {
+            evaluations.incrementAndGet();
+            return 90;
+        }), 0);
+        assertEquals(1, evaluations.get());
+        // a caller with no cutoff, such as a resumed search, needs the true score
+        assertEquals(150, cache.get(0, 0, 1, Double.POSITIVE_INFINITY, () -> {
+            evaluations.incrementAndGet();
+            return 150;
+        }), 0);
+        assertEquals(2, evaluations.get());
+        assertEquals(1, cache.getRescored());
+        assertEquals(150, cache.get(0, 0, 1, Double.POSITIVE_INFINITY, () -> 0), 0);
+    }
+}
@@ -0,0 +1,128 @@
+package TraceRoute.fitness;
+
+import TraceRoute.ea.Route;
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.RoadIndex;
+import TraceRoute.index.RoadIndexWriter;
+import TraceRoute.index.SegmentIndex;
+import TraceRoute.osm.OpenStreetMap;
+import TraceRoute.shape.Shape;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link PerpendicularFitness} scores paths exactly as the reference {@link Fitness#Perpendicular} does
+ */
+public class PerpendicularFitnessTest {
+    private static final double TOLERANCE = 1e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesReferenceOnFixtureMap() throws Exception {
+        java.awt.Shape shape = Shape.read(Path.of("../pythontests/points")).getPath();
+        try (OpenStreetMap map = new OpenStreetMap("../maps/fixture.osm.pbf")) {
+            SegmentIndex index = map.getIndex();
+            PerpendicularFitness kernel = new PerpendicularFitness(index);
+            Rectangle2D bounds = shape.getBounds2D();
+            double size = Math.max(bounds.getWidth(), bounds.getHeight());
+            SplittableRandom random = new SplittableRandom(1);
+            for (int i = 0; i < 50; i++) {
+                double dx = LocalProjection.toMetres(random.nextInt(index.getMinX(), index.getMaxX()));
+                double dy = LocalProjection.toMetres(random.nextInt(index.getMinY(), index.getMaxY()));
+                double scale = random.nextDouble(100, 3000) / size;
+                assertScoresAgree(kernel, index, shape, dx, dy, scale);
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceWithCandidatesOfNearbyPlacement() throws Exception {
+        java.awt.Shape shape = Shape.read(Path.of("../pythontests/points")).getPath();
+        try (OpenStreetMap map = new OpenStreetMap("../maps/fixture.osm.pbf")) {
+            SegmentIndex index = map.getIndex();
+            PerpendicularFitness kernel = new PerpendicularFitness(index);
+            AffineTransform centring = centring(shape);
+            Rectangle2D bounds = shape.getBounds2D();
+            double size = Math.max(bounds.getWidth(), bounds.getHeight());
+            SplittableRandom random = new SplittableRandom(2);
+            for (int i = 0; i < 20; i++) {
+                double dx = LocalProjection.toMetres(random.nextInt(index.getMinX(), index.getMaxX()));
+                double dy = LocalProjection.toMetres(random.nextInt(index.getMinY(), index.getMaxY()));
+                double scale = random.nextDouble(100, 3000) / size;
+                SegmentCandidates candidates = kernel.collect(shape.getPathIterator(centring), dx, dy, scale, Route.SEARCH_DISTANCE);
+                double childX = dx + random.nextDouble(-5, 5);
+                double childY = dy + random.nextDouble(-5, 5);
+                double childScale = scale * random.nextDouble(0.99, 1.01);
+                double expected = Fitness.Perpendicular(index, shape.getPathIterator(centring), childX, childY, childScale, Route.SEARCH_DISTANCE);
+                double actual = kernel.evaluate(shape.getPathIterator(centring), childX, childY, childScale, Route.SEARCH_DISTANCE,
+                        Double.POSITIVE_INFINITY, candidates);
+                assertEquals(expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)));
+            }
+        }
+    }
+
+    /**
+     * A square with a repeated vertex, next to a road crossing it, a road lying along a perpendicular, roads
+     * touching the end and the middle of a perpendicular, a road through a vertex and a road of zero length
+     */
+    @Test
+    public void matchesReferenceOnEdgeCases() throws Exception {
+        RoadIndexWriter writer = new RoadIndexWriter(LocalProjection.centredOn(0, 0, 0.01, 0.01));
+        addRoad(writer, 1, -200, -110, 200, -110);
+        addRoad(writer, 2, 100, -150, 100, -120);
+        addRoad(writer, 3, 200, 100, 250, 150);
+        addRoad(writer, 4, 150, 100, 150, 150);
+        addRoad(writer, 5, -150, 150, -50, 50);
+        writer.addPoint(6, LocalProjection.toUnits(-100), LocalProjection.toUnits(40));
+        Path file = folder.getRoot().toPath().resolve("edges.roads");
+        writer.write(file, 0, 0);
+
+        Path2D square = new Path2D.Double();
+        square.moveTo(-100, -100);
+        square.lineTo(100, -100);
+        square.lineTo(100, -100);
+        square.lineTo(100, 100);
+        square.lineTo(-100, 100);
+        square.lineTo(-100, 100);
+        square.lineTo(-100, -100);
+        try (RoadIndex index = RoadIndex.open(file)) {
+            PerpendicularFitness kernel = new PerpendicularFitness(index);
+            for (double scale : new double[]{1, 0.5, 2, -1}) {
+                for (double offset : new double[]{0, 10, -37.5}) {
+                    assertScoresAgree(kernel, index, square, offset, -offset, scale);
+                }
+            }
+        }
+    }
+
+    private static void addRoad(RoadIndexWriter writer, long id, double x1, double y1, double x2, double y2) {
+        writer.add(id, LocalProjection.toUnits(x1), LocalProjection.toUnits(y1), LocalProjection.toUnits(x2), LocalProjection.toUnits(y2));
+    }
+
+    private static void assertScoresAgree(PerpendicularFitness kernel, SegmentIndex index, java.awt.Shape shape,
+                                          double dx, double dy, double scale) {
+        AffineTransform centring = centring(shape);
+        double expected = Fitness.Perpendicular(index, shape.getPathIterator(centring), dx, dy, scale, Route.SEARCH_DISTANCE);
+        double actual = kernel.evaluate(shape.getPathIterator(centring), dx, dy, scale, Route.SEARCH_DISTANCE);
+        assertEquals("score at %s, %s, scale %s".formatted(dx, dy, scale), expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)));
+    }
+
+    /**
+     * @return the transform {@link Route} centres a shape on its origin with
+     */
+    private static AffineTransform centring(java.awt.Shape shape) {
+        Rectangle2D bounds = shape.getBounds2D();
+        return AffineTransform.getTranslateInstance(-bounds.getCenterX(), -bounds.getCenterY());
+    }
+}
@@ -0,0 +1,145 @@
+package TraceRoute.graph;
+
+import TraceRoute.osm.OpenStreetMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the contraction hierarchy of the fixture map against a plain Dijkstra search over its roads alone
+ */
+public class RouterTest {
+    private static final double TOLERANCE = 1e-4;
+
+    private static OpenStreetMap map;
+    private static RoadGraph graph;
+    /**
+     * The roads of the graph, leaving out the shortcuts, in both directions: for each vertex, pairs of neighbour
+     * and length
+     */
+    private static List<List<double[]>> roads;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        map = new OpenStreetMap("../maps/fixture.osm.pbf");
+        graph = map.getRoadGraph();
+        roads = new ArrayList<>(graph.size());
+        for (int v = 0; v < graph.size(); v++) {
+            roads.add(new ArrayList<>());
+        }
+        for (int v = 0; v < graph.size(); v++) {
+            for (int edge = graph.firstEdge(v); edge < graph.firstEdge(v + 1); edge++) {
+                if (graph.middle(edge) < 0) {
+                    roads.get(v).add(new double[]{graph.target(edge), graph.weight(edge)});
+                    roads.get(graph.target(edge)).add(new double[]{v, graph.weight(edge)});
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public static void close() {
+        map.close();
+    }
+
+    @Test
+    public void findsVerticesByNodeId() {
+        assertTrue(graph.size() > 0);
+        for (int v = 0; v < graph.size(); v++) {
+            assertEquals(v, graph.vertex(graph.id(v)));
+        }
+        assertEquals(-1, graph.vertex(graph.id(0) - 1));
+        assertEquals(-1, graph.vertex(graph.id(graph.size() - 1) + 1));
+        // crossings without a shared node have negative IDs
+        assertEquals(-1, graph.vertex(-graph.id(0)));
+    }
+
+    @Test
+    public void matchesDijkstraAlongTheRoads() {
+        Router router = graph.router();
+        SplittableRandom random = new SplittableRandom(3);
+        int connected = 0;
+        for (int i = 0; i < 300; i++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            double[] distances = dijkstra(source);
+            int[] path = router.route(source, target);
+            if (distances[target] == Double.POSITIVE_INFINITY) {
+                assertNull("%d and %d are not connected".formatted(source, target), path);
+                continue;
+            }
+            connected++;
+            assertNotNull("%d and %d are connected".formatted(source, target), path);
+            assertEquals(source, path[0]);
+            assertEquals(target, path[path.length - 1]);
+            assertEquals(distances[target], length(path), TOLERANCE * Math.max(1, distances[target]));
+        }
+        assertTrue("only %d of 300 pairs were connected".formatted(connected), connected > 30);
+    }
+
+    @Test
+    public void keepsOneRouterPerThread() throws InterruptedException {
+        Router router = graph.router();
+        assertSame(router, graph.router());
+        Router[] other = new Router[1];
+        Thread thread = new Thread(() -> other[0] = graph.router());
+        thread.start();
+        thread.join();
+        assertNotNull(other[0]);
+        assertTrue(router != other[0]);
+    }
+
+    /**
+     * @return the length of a path, which must step from vertex to vertex along roads, not shortcuts
+     */
+    private static double length(int[] path) {
+        double length = 0;
+        for (int k = 1; k < path.length; k++) {
+            double step = Double.POSITIVE_INFINITY;
+            for (double[] road : roads.get(path[k - 1])) {
+                if ((int) road[0] == path[k]) {
+                    step = Math.min(step, road[1]);
+                }
+            }
+            assertTrue("no road from %d to %d".formatted(path[k - 1], path[k]), step < Double.POSITIVE_INFINITY);
+            length += step;
+        }
+        return length;
+    }
+
+    private static double[] dijkstra(int source) {
+        double[] distances = new double[graph.size()];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        distances[source] = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[1], b[1]));
+        queue.add(new double[]{source, 0});
+        while (!queue.isEmpty()) {
+            double[] next = queue.poll();
+            int vertex = (int) next[0];
+            if (next[1] > distances[vertex]) {
+                continue;
+            }
+            for (double[] road : roads.get(vertex)) {
+                double through = distances[vertex] + road[1];
+                if (through < distances[(int) road[0]]) {
+                    distances[(int) road[0]] = through;
+                    queue.add(new double[]{road[0], through});
+                }
+            }
+        }
+        return distances;
+    }
+}
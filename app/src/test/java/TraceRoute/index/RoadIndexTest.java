@@ -0,0 +1,89 @@
+package TraceRoute.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RoadIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cachesChecksumWhileSourceIsUnchanged() throws IOException {
+        Path source = folder.getRoot().toPath().resolve("map.osm.pbf");
+        Path cache = folder.getRoot().toPath().resolve("map.checksum");
+        Files.write(source, new byte[]{1, 2, 3, 4, 5});
+        FileTime modified = FileTime.fromMillis(1_600_000_000_000L);
+        Files.setLastModifiedTime(source, modified);
+        long checksum = RoadIndex.checksum(source);
+        assertEquals(checksum, RoadIndex.checksum(source, cache));
+
+        // a cached checksum is trusted without reading the source, so a forged one shows it was used
+        forge(cache, 42);
+        assertEquals(42, RoadIndex.checksum(source, cache));
+
+        // a source of the same length written since is read again
+        Files.write(source, new byte[]{5, 4, 3, 2, 1});
+        Files.setLastModifiedTime(source, FileTime.fromMillis(modified.toMillis() + 1000));
+        assertEquals(RoadIndex.checksum(source), RoadIndex.checksum(source, cache));
+
+        // as is one of another length, even with the same modification time
+        forge(cache, 42);
+        Files.write(source, new byte[]{5, 4, 3, 2, 1, 0});
+        Files.setLastModifiedTime(source, FileTime.fromMillis(modified.toMillis() + 1000));
+        assertEquals(RoadIndex.checksum(source), RoadIndex.checksum(source, cache));
+    }
+
+    @Test
+    public void writesTheSameFileWhateverOrderSegmentsArriveIn() throws IOException {
+        Random random = new Random(7);
+        List<int[]> segments = new ArrayList<>();
+        for (int id = 0; id < 500; id++) {
+            int x = random.nextInt(10_000);
+            int y = random.nextInt(10_000);
+            segments.add(new int[]{id, x, y, x + random.nextInt(200) - 100, y + random.nextInt(200) - 100});
+        }
+        // segments sharing a centre tie on their Hilbert value: crossing roads, and two ways over the same node
+        segments.add(new int[]{1000, 5000, 5000, 5100, 5100});
+        segments.add(new int[]{1001, 5000, 5100, 5100, 5000});
+        segments.add(new int[]{1003, 5050, 5050, 5050, 5050});
+        segments.add(new int[]{1002, 5050, 5050, 5050, 5050});
+
+        Path first = write(segments, "first.roads");
+        Collections.shuffle(segments, random);
+        Path second = write(segments, "second.roads");
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+
+    private Path write(List<int[]> segments, String name) throws IOException {
+        RoadIndexWriter writer = new RoadIndexWriter(LocalProjection.centredOn(0, 0, 0.01, 0.01));
+        for (int[] segment : segments) {
+            writer.add(segment[0], segment[1], segment[2], segment[3], segment[4]);
+        }
+        Path file = folder.getRoot().toPath().resolve(name);
+        writer.write(file, 0, 0);
+        return file;
+    }
+
+    private static void forge(Path cache, long checksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, checksum), 24);
+        }
+    }
+}
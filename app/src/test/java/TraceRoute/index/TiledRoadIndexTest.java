@@ -0,0 +1,145 @@
+package TraceRoute.index;
+
+import TraceRoute.osm.OpenStreetMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the fixture map split into tiles answers queries as its single-file index does
+ */
+public class TiledRoadIndexTest {
+    private static final int QUERIES = 500;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static OpenStreetMap map;
+    private static RoadIndex single;
+    private static TiledRoadIndex tiled;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        map = new OpenStreetMap("../maps/fixture.osm.pbf");
+        single = (RoadIndex) map.getIndex();
+        new TiledRoadIndexWriter(250).write(single, folder.getRoot().toPath());
+        // fewer tiles kept open than a query may reach, so tiles are dropped and opened again
+        tiled = TiledRoadIndex.open(folder.getRoot().toPath(), 3);
+    }
+
+    @AfterClass
+    public static void close() {
+        tiled.close();
+        map.close();
+    }
+
+    @Test
+    public void holdsTheSameSegments() {
+        assertTrue("only %d tiles".formatted(tiled.getTiles()), tiled.getTiles() > 10);
+        assertEquals(single.size(), tiled.size());
+        assertEquals(single.getMinX(), tiled.getMinX());
+        assertEquals(single.getMinY(), tiled.getMinY());
+        assertEquals(single.getMaxX(), tiled.getMaxX());
+        assertEquals(single.getMaxY(), tiled.getMaxY());
+    }
+
+    @Test
+    public void searchesFindTheSameSegments() {
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < QUERIES; i++) {
+            int x = point(random, single.getMinX(), single.getMaxX());
+            int y = point(random, single.getMinY(), single.getMaxY());
+            int size = random.nextInt(LocalProjection.toUnits(500));
+            assertEquals(found(single, x, y, x + size, y + size), found(tiled, x, y, x + size, y + size));
+        }
+    }
+
+    @Test
+    public void nearestFindsSegmentsAsClose() {
+        SplittableRandom random = new SplittableRandom(13);
+        int maxDistance = LocalProjection.toUnits(1000);
+        for (int i = 0; i < QUERIES; i++) {
+            int x = point(random, single.getMinX(), single.getMaxX());
+            int y = point(random, single.getMinY(), single.getMaxY());
+            int expected = single.nearest(x, y, maxDistance);
+            int actual = tiled.nearest(x, y, maxDistance);
+            assertEquals("nearest to %d, %d".formatted(x, y), expected < 0, actual < 0);
+            if (expected >= 0) {
+                // segments the same distance away may be found in either order
+                assertEquals(distanceSquared(single, expected, x, y), distanceSquared(tiled, actual, x, y), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void answersQueriesFromManyThreads() throws Exception {
+        int maxDistance = LocalProjection.toUnits(1000);
+        Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < QUERIES; i++) {
+                        int x = point(random, single.getMinX(), single.getMaxX());
+                        int y = point(random, single.getMinY(), single.getMaxY());
+                        int expected = single.nearest(x, y, maxDistance);
+                        int actual = tiled.nearest(x, y, maxDistance);
+                        assertEquals(expected < 0, actual < 0);
+                        if (expected >= 0) {
+                            assertEquals(distanceSquared(single, expected, x, y), distanceSquared(tiled, actual, x, y), 1e-6);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertTrue(tiled.getOpenTiles() <= 3);
+        assertTrue(tiled.getTileLoads() > tiled.getTiles());
+    }
+
+    /**
+     * @return a coordinate within the range, or a little past either end of it
+     */
+    private static int point(SplittableRandom random, int min, int max) {
+        int margin = (max - min) / 10;
+        return random.nextInt(min - margin, max + margin);
+    }
+
+    /**
+     * @return the matches of a search as text, sorted, as items are numbered differently by each index
+     */
+    private static List<String> found(SegmentIndex index, int minX, int minY, int maxX, int maxY) {
+        List<String> found = new ArrayList<>();
+        index.search(minX, minY, maxX, maxY, (item, x1, y1, x2, y2) ->
+                found.add("%d %d %d %d %d".formatted(index.id(item), x1, y1, x2, y2)));
+        found.sort(null);
+        return found;
+    }
+
+    private static double distanceSquared(SegmentIndex index, int item, double x, double y) {
+        double x1 = index.x1(item), y1 = index.y1(item);
+        double dx = index.x2(item) - x1, dy = index.y2(item) - y1;
+        double t = dx == 0 && dy == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy)));
+        double px = x1 + t * dx - x, py = y1 + t * dy - y;
+        return px * px + py * py;
+    }
+}
@@ -0,0 +1,141 @@
+package TraceRoute.osm;
+
+import TraceRoute.index.LocalProjection;
+import TraceRoute.index.RoadIndex;
+import TraceRoute.index.RoadIndexWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds the junctions of a handful of ways drawn by hand around the origin
+ */
+public class JunctionIndexBuilderTest {
+    private static final LocalProjection PROJECTION = LocalProjection.centredOn(0, 0, 0.1, 0.1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final NodeStore nodes = new PrimitiveNodeStore();
+    private final Map<Long, double[]> coordinates = new TreeMap<>();
+    private final RoadIndexWriter roads = new RoadIndexWriter(PROJECTION);
+    private final JunctionIndexBuilder builder = new JunctionIndexBuilder();
+
+    @Test
+    public void findsSharedNodesAndCrossings() throws IOException {
+        // a street along the equator, and a side street that leaves it from its middle node
+        node(1, 0, 0);
+        node(2, 0.001, 0);
+        node(3, 0.002, 0);
+        node(4, 0.001, 0.001);
+        way(100, 1, 2, 3);
+        way(101, 2, 4);
+        // a bridge over the street between its second and third nodes, with no node in common
+        node(5, 0.0015, -0.001);
+        node(6, 0.0015, 0.001);
+        way(102, 5, 6);
+        // a roundabout, whose last node closes it and is not shared
+        node(7, 0.01, 0.01);
+        node(8, 0.011, 0.01);
+        node(9, 0.011, 0.011);
+        way(103, 7, 8, 9, 7);
+        // a way that loops back through one of its own interior nodes
+        node(10, 0.02, 0.02);
+        node(11, 0.021, 0.02);
+        node(12, 0.021, 0.021);
+        node(13, 0.0205, 0.0215);
+        way(104, 10, 11, 12, 13, 11);
+        // a node two ways share but that the map does not hold
+        node(14, 0.03, 0.03);
+        node(15, 0.031, 0.03);
+        builder.addWay(List.of(14L, 99L));
+        builder.addWay(List.of(99L, 15L));
+
+        Map<Long, int[]> junctions = write();
+        assertEquals(List.of(-1L, 2L, 11L), List.copyOf(junctions.keySet()));
+        assertEquals(List.of(x(0.001), y(0)), List.of(junctions.get(2L)[0], junctions.get(2L)[1]));
+        assertEquals(List.of(x(0.021), y(0.02)), List.of(junctions.get(11L)[0], junctions.get(11L)[1]));
+        assertEquals(x(0.0015), junctions.get(-1L)[0], 1);
+        assertEquals(y(0), junctions.get(-1L)[1], 1);
+    }
+
+    @Test
+    public void numbersEachCrossingWithItsOwnNegativeId() throws IOException {
+        // a grid of two streets each way, crossing four times and sharing no node
+        for (int i = 0; i < 2; i++) {
+            double offset = 0.001 * (i + 1);
+            node(10 * i + 1, offset, 0);
+            node(10 * i + 2, offset, 0.003);
+            way(100 + i, 10 * i + 1, 10 * i + 2);
+            node(10 * i + 3, 0, offset);
+            node(10 * i + 4, 0.003, offset);
+            way(200 + i, 10 * i + 3, 10 * i + 4);
+        }
+        // and a way between the first street of each, sharing a node with both
+        way(300, 1, 3);
+
+        Map<Long, int[]> junctions = write();
+        assertEquals(List.of(-4L, -3L, -2L, -1L, 1L, 3L), List.copyOf(junctions.keySet()));
+        for (long id = -4; id <= -1; id++) {
+            int[] crossing = junctions.get(id);
+            assertTrue(Math.abs(crossing[0] - x(0.001)) <= 1 || Math.abs(crossing[0] - x(0.002)) <= 1);
+            assertTrue(Math.abs(crossing[1] - y(0.001)) <= 1 || Math.abs(crossing[1] - y(0.002)) <= 1);
+        }
+    }
+
+    private void node(long id, double lon, double lat) {
+        nodes.put(id, lon, lat);
+        coordinates.put(id, new double[]{lon, lat});
+    }
+
+    private void way(long id, long... refs) {
+        builder.addWay(Arrays.stream(refs).boxed().toList());
+        for (int i = 1; i < refs.length; i++) {
+            double[] from = coordinates.get(refs[i - 1]);
+            double[] to = coordinates.get(refs[i]);
+            roads.add(id, x(from[0]), y(from[1]), x(to[0]), y(to[1]));
+        }
+    }
+
+    private static int x(double lon) {
+        return LocalProjection.toUnits(PROJECTION.x(lon));
+    }
+
+    private static int y(double lat) {
+        return LocalProjection.toUnits(PROJECTION.y(lat));
+    }
+
+    /**
+     * @return the junctions written, by ID, each with its coordinates
+     */
+    private Map<Long, int[]> write() throws IOException {
+        nodes.seal();
+        Path roadFile = folder.getRoot().toPath().resolve("map.roads");
+        roads.write(roadFile, 0, 0);
+        Path junctionFile = folder.getRoot().toPath().resolve("map.junctions");
+        Map<Long, int[]> junctions = new TreeMap<>();
+        int written;
+        try (RoadIndex roadIndex = RoadIndex.open(roadFile)) {
+            written = builder.write(junctionFile, nodes, roadIndex, 0, 0);
+            try (RoadIndex junctionIndex = RoadIndex.open(junctionFile)) {
+                for (int i = 0; i < junctionIndex.size(); i++) {
+                    assertTrue(junctionIndex.isPoint(i));
+                    junctions.put(junctionIndex.id(i), new int[]{junctionIndex.x1(i), junctionIndex.y1(i)});
+                }
+            }
+        }
+        // every junction has an ID of its own
+        assertEquals(written, junctions.size());
+        return junctions;
+    }
+}
@@ -0,0 +1,174 @@
+package TraceRoute.osm;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Runs the same checks against both {@link NodeStore} implementations, with runs of the {@link MappedNodeStore}
+ * short enough that the nodes are spilled and merged
+ */
+public class NodeStoreTest {
+    private static final int RUN_LENGTH = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void primitiveStoreFindsWhatWasPut() throws IOException {
+        findsWhatWasPut(PrimitiveNodeStore::new);
+    }
+
+    @Test
+    public void mappedStoreFindsWhatWasPut() throws IOException {
+        findsWhatWasPut(this::mapped);
+        // the runs and the merged file are deleted once the store is closed
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void primitiveStoreKeepsOneOfEachId() throws IOException {
+        keepsOneOfEachId(PrimitiveNodeStore::new);
+    }
+
+    @Test
+    public void mappedStoreKeepsOneOfEachId() throws IOException {
+        keepsOneOfEachId(this::mapped);
+    }
+
+    @Test
+    public void primitiveStoreTakesNodesFromManyThreads() throws Exception {
+        takesNodesFromManyThreads(PrimitiveNodeStore::new);
+    }
+
+    @Test
+    public void mappedStoreTakesNodesFromManyThreads() throws Exception {
+        takesNodesFromManyThreads(this::mapped);
+    }
+
+    @Test
+    public void primitiveStoreIsEmptyUntilPut() throws IOException {
+        isEmptyUntilPut(PrimitiveNodeStore::new);
+    }
+
+    @Test
+    public void mappedStoreIsEmptyUntilPut() throws IOException {
+        isEmptyUntilPut(this::mapped);
+    }
+
+    private MappedNodeStore mapped() {
+        return new MappedNodeStore(folder.getRoot().toPath(), RUN_LENGTH);
+    }
+
+    private static void findsWhatWasPut(Supplier<NodeStore> stores) throws IOException {
+        try (NodeStore store = stores.get()) {
+            // descending, so that every run has to be sorted
+            for (long id = 1000; id > 0; id--) {
+                store.put(id * 3, lon(id), lat(id));
+            }
+            assertThrows(IllegalStateException.class, () -> store.get(3));
+            store.seal();
+            assertEquals(1000, store.size());
+            for (long id = 1; id <= 1000; id++) {
+                long packed = store.get(id * 3);
+                assertEquals(lon(id), NodeStore.lon(packed), 1e-7);
+                assertEquals(lat(id), NodeStore.lat(packed), 1e-7);
+                assertEquals(NodeStore.MISSING, store.get(id * 3 + 1));
+            }
+            assertEquals(NodeStore.MISSING, store.get(0));
+            assertEquals(NodeStore.MISSING, store.get(-3));
+            assertEquals(NodeStore.MISSING, store.get(3001 * 3));
+            assertThrows(IllegalStateException.class, () -> store.put(1, 0, 0));
+        }
+    }
+
+    private static void keepsOneOfEachId(Supplier<NodeStore> stores) throws IOException {
+        try (NodeStore store = stores.get()) {
+            // twice within a run, and once more in another run
+            for (long id = 1; id <= RUN_LENGTH / 4; id++) {
+                store.put(id, lon(id), lat(id));
+                store.put(id, lon(id), lat(id));
+            }
+            for (long id = RUN_LENGTH; id > 0; id--) {
+                store.put(id, lon(id), lat(id));
+            }
+            assertEquals(RUN_LENGTH + RUN_LENGTH / 2, store.size());
+            store.seal();
+            assertEquals(RUN_LENGTH, store.size());
+            for (long id = 1; id <= RUN_LENGTH; id++) {
+                assertEquals(NodeStore.pack(lon(id), lat(id)), store.get(id));
+            }
+        }
+        // all in a single run, which is used without a merge
+        try (NodeStore store = stores.get()) {
+            for (long id = 10; id > 0; id--) {
+                store.put(id, lon(id), lat(id));
+                store.put(id, lon(id), lat(id));
+            }
+            store.seal();
+            assertEquals(10, store.size());
+            for (long id = 1; id <= 10; id++) {
+                assertEquals(NodeStore.pack(lon(id), lat(id)), store.get(id));
+            }
+        }
+    }
+
+    private static void takesNodesFromManyThreads(Supplier<NodeStore> stores) throws Exception {
+        try (NodeStore store = stores.get()) {
+            Thread[] parsers = new Thread[4];
+            for (int t = 0; t < parsers.length; t++) {
+                int first = t * 1000;
+                parsers[t] = new Thread(() -> {
+                    SplittableRandom random = new SplittableRandom(first);
+                    for (int i = 0; i < 1000; i++) {
+                        long id = first + random.nextInt(1000);
+                        store.put(id, lon(id), lat(id));
+                    }
+                });
+                parsers[t].start();
+            }
+            for (Thread parser : parsers) {
+                parser.join();
+            }
+            assertEquals(4000, store.size());
+            store.seal();
+            long found = 0;
+            for (long id = 0; id < 4000; id++) {
+                long packed = store.get(id);
+                if (packed != NodeStore.MISSING) {
+                    assertEquals(NodeStore.pack(lon(id), lat(id)), packed);
+                    found++;
+                }
+            }
+            assertEquals(found, store.size());
+        }
+    }
+
+    private static void isEmptyUntilPut(Supplier<NodeStore> stores) throws IOException {
+        try (NodeStore store = stores.get()) {
+            store.seal();
+            assertEquals(0, store.size());
+            assertEquals(NodeStore.MISSING, store.get(1));
+        }
+    }
+
+    private static double lon(long id) {
+        return -180 + id % 3600 * 0.1;
+    }
+
+    private static double lat(long id) {
+        return 51 + id * 1e-5;
+    }
+}
@@ -0,0 +1,106 @@
+package TraceRoute.output;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Encodes routes as polylines and decodes them again
+ */
+public class PolylineWriterTest {
+    @Test
+    public void encodesTheExampleOfTheFormat() throws IOException {
+        // the example of Google's description of the format
+        double[][] points = {{-120.2, 38.5}, {-120.95, 40.7}, {-126.453, 43.252}};
+        assertEquals(List.of("_p~iF~ps|U_ulLnnqC_mqNvxq`@"), encode(points));
+    }
+
+    @Test
+    public void decodesToThePointsRoundedToFiveDecimalPlaces() throws IOException {
+        double[][] points = {
+                {0, 0},
+                // the same point again, so both deltas are zero
+                {0, 0},
+                {-0.1278, 51.5074},
+                // a step back, so both deltas are negative
+                {-0.12781, 51.50739},
+                // rounded down and up in the sixth decimal place
+                {-0.127814, 51.507386},
+                {-0.127816, 51.507384},
+                {179.99999, -89.99999},
+                {-180, 90},
+        };
+        List<String> lines = encode(points);
+        assertEquals(1, lines.size());
+        List<double[]> decoded = decode(lines.get(0));
+        assertEquals(points.length, decoded.size());
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(Math.round(points[i][0] * 1e5) / 1e5, decoded.get(i)[0], 1e-9);
+            assertEquals(Math.round(points[i][1] * 1e5) / 1e5, decoded.get(i)[1], 1e-9);
+        }
+        assertEquals(-0.12781, decoded.get(4)[0], 1e-9);
+        assertEquals(51.50739, decoded.get(4)[1], 1e-9);
+        assertEquals(-0.12782, decoded.get(5)[0], 1e-9);
+        assertEquals(51.50738, decoded.get(5)[1], 1e-9);
+    }
+
+    @Test
+    public void startsEachRouteFromZero() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteWriter writer = RouteWriter.open(bytes, RouteFormat.POLYLINE)) {
+            for (int route = 0; route < 2; route++) {
+                writer.beginRoute(null);
+                writer.point(-0.1278, 51.5074);
+                writer.point(-0.1, 51.5);
+                writer.endRoute();
+            }
+        }
+        String[] lines = bytes.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(lines[0], lines[1]);
+    }
+
+    private static List<String> encode(double[][] points) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteWriter writer = RouteWriter.open(bytes, RouteFormat.POLYLINE)) {
+            writer.beginRoute("ignored");
+            for (double[] point : points) {
+                writer.point(point[0], point[1]);
+            }
+        }
+        return List.of(bytes.toString(StandardCharsets.UTF_8).split("\n"));
+    }
+
+    /**
+     * @return the points of a polyline, as longitude and latitude
+     */
+    private static List<double[]> decode(String line) {
+        List<double[]> points = new ArrayList<>();
+        long lat = 0, lon = 0;
+        int[] position = {0};
+        while (position[0] < line.length()) {
+            lat += next(line, position);
+            lon += next(line, position);
+            points.add(new double[]{lon / 1e5, lat / 1e5});
+        }
+        return points;
+    }
+
+    private static long next(String line, int[] position) {
+        long bits = 0;
+        int shift = 0;
+        int chunk;
+        do {
+            chunk = line.charAt(position[0]++) - 63;
+            bits |= (long) (chunk & 0x1f) << shift;
+            shift += 5;
+        } while (chunk >= 0x20);
+        return (bits & 1) != 0 ? ~(bits >> 1) : bits >> 1;
+    }
+}
@@ -0,0 +1,268 @@
+package TraceRoute.output;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Parses what the GPX and GeoJSON writers produce for a known path, checking that the documents are well formed
+ * and hold the points and names that were written
+ */
+public class RouteWriterTest {
+    private static final String NAME = "Tom & Jerry's <\"route\">\\\t";
+    private static final List<Point> PATH = List.of(Geometries.pointGeographic(-0.1278, 51.5074),
+            Geometries.pointGeographic(-0.12, 51.5), Geometries.pointGeographic(0.0000001, -0.0000001),
+            Geometries.pointGeographic(-180, 90));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesWellFormedGpx() throws Exception {
+        Document gpx = parseXml(write(RouteFormat.GPX));
+        Element root = gpx.getDocumentElement();
+        assertEquals("gpx", root.getLocalName());
+        assertEquals("http://www.topografix.com/GPX/1/1", root.getNamespaceURI());
+        assertEquals("1.1", root.getAttribute("version"));
+
+        NodeList tracks = root.getElementsByTagName("trk");
+        assertEquals(2, tracks.getLength());
+        Element first = (Element) tracks.item(0);
+        assertEquals(NAME, first.getElementsByTagName("name").item(0).getTextContent());
+        assertPath(first.getElementsByTagName("trkpt"));
+        Element second = (Element) tracks.item(1);
+        assertEquals(0, second.getElementsByTagName("name").getLength());
+        assertPath(second.getElementsByTagName("trkpt"));
+    }
+
+    @Test
+    public void writesWellFormedGeoJson() throws IOException {
+        Map<?, ?> collection = (Map<?, ?>) new Json(write(RouteFormat.GEOJSON)).parse();
+        assertEquals("FeatureCollection", collection.get("type"));
+        List<?> features = (List<?>) collection.get("features");
+        assertEquals(2, features.size());
+        for (int i = 0; i < features.size(); i++) {
+            Map<?, ?> feature = (Map<?, ?>) features.get(i);
+            assertEquals("Feature", feature.get("type"));
+            assertEquals(i == 0 ? Map.of("name", NAME) : Map.of(), feature.get("properties"));
+            Map<?, ?> geometry = (Map<?, ?>) feature.get("geometry");
+            assertEquals("LineString", geometry.get("type"));
+            List<?> coordinates = (List<?>) geometry.get("coordinates");
+            assertEquals(PATH.size(), coordinates.size());
+            for (int k = 0; k < PATH.size(); k++) {
+                List<?> position = (List<?>) coordinates.get(k);
+                assertEquals(2, position.size());
+                assertEquals(PATH.get(k).x(), (Double) position.get(0), 1e-9);
+                assertEquals(PATH.get(k).y(), (Double) position.get(1), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void writesAnEmptyDocumentWithoutRoutes() throws Exception {
+        ByteArrayOutputStream gpx = new ByteArrayOutputStream();
+        RouteWriter.open(gpx, RouteFormat.GPX).close();
+        assertEquals(0, parseXml(gpx.toByteArray()).getElementsByTagName("trk").getLength());
+
+        ByteArrayOutputStream geoJson = new ByteArrayOutputStream();
+        RouteWriter.open(geoJson, RouteFormat.GEOJSON).close();
+        assertEquals(List.of(), ((Map<?, ?>) new Json(geoJson.toByteArray()).parse()).get("features"));
+    }
+
+    @Test
+    public void choosesTheFormatAndCompressionByExtension() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("routes.gpx.gz");
+        try (RouteWriter writer = RouteWriter.open(file)) {
+            writer.write(NAME, PATH);
+        }
+        byte[] bytes;
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+            bytes = input.readAllBytes();
+        }
+        assertPath(parseXml(bytes).getElementsByTagName("trkpt"));
+        assertThrows(IllegalArgumentException.class, () -> RouteWriter.open(folder.getRoot().toPath().resolve("routes.kml")));
+    }
+
+    /**
+     * @return a document of two routes along the path, the first named and the second not
+     */
+    private static byte[] write(RouteFormat format) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteWriter writer = RouteWriter.open(bytes, format)) {
+            writer.write(NAME, PATH);
+            writer.beginRoute(null);
+            for (Point point : PATH) {
+                writer.point(point.x(), point.y());
+            }
+            // closing the writer ends the route
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void assertPath(NodeList points) {
+        assertEquals(PATH.size(), points.getLength());
+        for (int k = 0; k < PATH.size(); k++) {
+            Element point = (Element) points.item(k);
+            assertEquals(PATH.get(k).x(), Double.parseDouble(point.getAttribute("lon")), 1e-9);
+            assertEquals(PATH.get(k).y(), Double.parseDouble(point.getAttribute("lat")), 1e-9);
+        }
+    }
+
+    private static Document parseXml(byte[] bytes) throws ParserConfigurationException, IOException, SAXException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * A strict parser for the JSON the writer produces, failing on anything that is not well formed
+     */
+    private static class Json {
+        private final String text;
+        private int position;
+
+        Json(byte[] bytes) {
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Object parse() {
+            Object value = value();
+            skipWhitespace();
+            if (position != text.length()) {
+                throw error("end of document");
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            if (position == text.length()) {
+                throw error("a value");
+            }
+            char c = text.charAt(position);
+            if (c == '{') {
+                Map<String, Object> object = new LinkedHashMap<>();
+                position++;
+                if (!consume('}')) {
+                    do {
+                        skipWhitespace();
+                        String key = string();
+                        expect(':');
+                        if (object.put(key, value()) != null) {
+                            throw error("a key not seen before in the object");
+                        }
+                    } while (consume(','));
+                    expect('}');
+                }
+                return object;
+            }
+            if (c == '[') {
+                List<Object> array = new ArrayList<>();
+                position++;
+                if (!consume(']')) {
+                    do {
+                        array.add(value());
+                    } while (consume(','));
+                    expect(']');
+                }
+                return array;
+            }
+            if (c == '"') {
+                return string();
+            }
+            int start = position;
+            while (position < text.length() && "+-.0123456789eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            String number = text.substring(start, position);
+            if (!number.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?")) {
+                throw error("a number");
+            }
+            return Double.parseDouble(number);
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (true) {
+                if (position == text.length()) {
+                    throw error("the end of a string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return string.toString();
+                }
+                if (c < 0x20) {
+                    throw error("an escaped control character");
+                }
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> string.append(escaped);
+                    case 'b' -> string.append('\b');
+                    case 'f' -> string.append('\f');
+                    case 'n' -> string.append('\n');
+                    case 'r' -> string.append('\r');
+                    case 't' -> string.append('\t');
+                    case 'u' -> {
+                        string.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> throw error("an escape sequence");
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && " \t\n\r".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("'%c'".formatted(c));
+            }
+        }
+
+        private AssertionError error(String expected) {
+            return new AssertionError("Expected %s at %d of %s".formatted(expected, position, text));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package TraceRoute.service;
+
+import TraceRoute.osm.OpenStreetMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends shapes to a service fitting them to the fixture map, which runs a single search at a time
+ */
+public class RouteServiceTest {
+    private static OpenStreetMap map;
+    private static RouteService service;
+    private static HttpClient client;
+    private static String shape;
+
+    @BeforeClass
+    public static void start() throws IOException {
+        map = new OpenStreetMap("../maps/fixture.osm.pbf");
+        service = new RouteService(map, new ServiceOptions().setPort(0).setThreads(1).setJobs(1), null);
+        service.start();
+        client = HttpClient.newHttpClient();
+        shape = Files.readString(Path.of("../pythontests/points"));
+    }
+
+    @AfterClass
+    public static void stop() {
+        service.close();
+        map.close();
+    }
+
+    @Test
+    public void coalescesIdenticalShapesAndTurnsAwayOthersWhileSearching() throws Exception {
+        CompletableFuture<HttpResponse<String>> first = client.sendAsync(post(shape, "geojson"), HttpResponse.BodyHandlers.ofString());
+        // the search takes seconds, the requests below are sent as soon as it has started
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (stats("running") == 0) {
+            assertTrue("the search never started", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        CompletableFuture<HttpResponse<String>> second = client.sendAsync(post(shape, "geojson"), HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> other = client.send(post("0,0\n10,0\n10,10\n", "gpx"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(503, other.statusCode());
+        assertEquals(List.of(Integer.toString(RouteService.RETRY_AFTER)), other.headers().allValues("Retry-After"));
+
+        HttpResponse<String> searched = first.get();
+        HttpResponse<String> joined = second.get();
+        assertEquals(200, searched.statusCode());
+        assertEquals(200, joined.statusCode());
+        assertEquals(Set.of("search", "coalesced"), Set.of(searched.headers().firstValue("X-Route-Source").orElseThrow(),
+                joined.headers().firstValue("X-Route-Source").orElseThrow()));
+        assertEquals(searched.headers().firstValue("X-Fitness"), joined.headers().firstValue("X-Fitness"));
+        assertEquals("application/geo+json", searched.headers().firstValue("Content-Type").orElseThrow());
+        assertTrue(searched.body().startsWith("{\"type\":\"FeatureCollection\""));
+        assertEquals(searched.body(), joined.body());
+
+        assertEquals(1, stats("searches"));
+        assertEquals(1, stats("coalesced"));
+        assertEquals(1, stats("rejected"));
+        assertEquals(0, stats("running"));
+    }
+
+    @Test
+    public void refusesRequestsThatAreNotShapes() throws Exception {
+        assertEquals(400, client.send(post("0,0\n", "gpx"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertEquals(400, client.send(post(shape, "kml"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse<String> get = client.send(HttpRequest.newBuilder(uri("/route")).GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, get.statusCode());
+        assertEquals(List.of("POST"), get.headers().allValues("Allow"));
+        byte[] large = new byte[RouteService.MAX_BODY + 1];
+        HttpRequest tooLarge = HttpRequest.newBuilder(uri("/route")).POST(HttpRequest.BodyPublishers.ofByteArray(large)).build();
+        assertEquals(413, client.send(tooLarge, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private static HttpRequest post(String shape, String format) {
+        return HttpRequest.newBuilder(uri("/route?format=" + format)).POST(HttpRequest.BodyPublishers.ofString(shape)).build();
+    }
+
+    private static URI uri(String path) {
+        return URI.create("http://localhost:%d%s".formatted(service.getPort(), path));
+    }
+
+    /**
+     * @return a count from the statistics of the service
+     */
+    private static long stats(String name) throws IOException, InterruptedException {
+        String body = client.send(HttpRequest.newBuilder(uri("/stats")).build(), HttpResponse.BodyHandlers.ofString()).body();
+        Matcher matcher = Pattern.compile("\"%s\":(\\d+)".formatted(name)).matcher(body);
+        assertTrue(body, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+}
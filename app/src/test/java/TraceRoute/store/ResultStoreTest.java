@@ -0,0 +1,201 @@
+package TraceRoute.store;
+
+import TraceRoute.ea.Genome;
+import TraceRoute.osm.OpenStreetMap;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link ResultStore} matches, replaces, evicts and validates stored results
+ */
+public class ResultStoreTest {
+    /**
+     * Bytes of a result with a route of {@link #ROUTE} points
+     */
+    private static final long RESULT_BYTES = ResultStore.HEADER_BYTES + ShapeSignature.POINTS * 8L + 56 + 3 * 16;
+    private static final List<Point> ROUTE = List.of(Geometries.pointGeographic(-0.1, 51.5),
+            Geometries.pointGeographic(-0.11, 51.51), Geometries.pointGeographic(-0.12, 51.5));
+
+    private static OpenStreetMap map;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void load() throws IOException {
+        map = new OpenStreetMap("../maps/fixture.osm.pbf");
+    }
+
+    @AfterClass
+    public static void close() {
+        map.close();
+    }
+
+    @Test
+    public void findsRepeatsAndNearDuplicates() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES);
+        Genome genome = genome(2, 10);
+        store.put(map, ShapeSignature.of(zigzag(0)), genome, 100, ROUTE);
+
+        ResultStore.Match repeat = store.find(map, ShapeSignature.of(zigzag(0))).orElseThrow();
+        assertTrue(repeat.isRepeat());
+        assertEquals(genome, repeat.genome());
+        assertEquals(100, repeat.fitness(), 0);
+        assertEquals(ROUTE.size(), repeat.roadPath().size());
+        assertEquals(ROUTE.get(1).x(), repeat.roadPath().get(1).x(), 1e-12);
+        assertEquals(ROUTE.get(1).y(), repeat.roadPath().get(1).y(), 1e-12);
+
+        // the same outline drawn at twice the size needs half the scale factor
+        ResultStore.Match larger = store.find(map, ShapeSignature.of(scaled(zigzag(0), 2))).orElseThrow();
+        assertTrue(larger.isRepeat());
+        assertEquals(genome.scaleFactor() / 2, larger.genome().scaleFactor(), 1e-12);
+
+        ResultStore.Match near = store.find(map, ShapeSignature.of(zigzag(5))).orElseThrow();
+        assertFalse(near.isRepeat());
+        assertTrue(near.distance() <= ResultStore.NEAR_DISTANCE);
+        assertEquals(genome, near.genome());
+
+        assertEquals(Optional.empty(), store.find(map, ShapeSignature.of(square())));
+    }
+
+    @Test
+    public void keepsTheFitterResultForAnOutline() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES);
+        ShapeSignature signature = ShapeSignature.of(zigzag(0));
+        store.put(map, signature, genome(2, 10), 100, ROUTE);
+        store.put(map, signature, genome(3, 20), 200, ROUTE);
+        assertEquals(genome(2, 10), store.find(map, signature).orElseThrow().genome());
+        assertEquals(100, store.find(map, signature).orElseThrow().fitness(), 0);
+
+        store.put(map, signature, genome(4, 30), 50, ROUTE);
+        assertEquals(genome(4, 30), store.find(map, signature).orElseThrow().genome());
+        assertEquals(1, results().size());
+
+        // the replacement is what a store opened later finds
+        ResultStore reopened = new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES);
+        assertEquals(50, reopened.find(map, signature).orElseThrow().fitness(), 0);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResult() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot().toPath(), 2 * RESULT_BYTES);
+        ShapeSignature first = ShapeSignature.of(zigzag(0));
+        ShapeSignature second = ShapeSignature.of(square());
+        ShapeSignature third = ShapeSignature.of(line());
+        store.put(map, first, genome(2, 10), 100, ROUTE);
+        store.put(map, second, genome(3, 20), 100, ROUTE);
+        assertEquals(2, results().size());
+        age(results(), 3600);
+
+        // using the first makes the second the least recently used
+        assertTrue(store.find(map, first).isPresent());
+        store.put(map, third, genome(4, 30), 100, ROUTE);
+        assertEquals(2, results().size());
+        assertTrue(store.find(map, first).isPresent());
+        assertTrue(store.find(map, third).isPresent());
+        assertEquals(Optional.empty(), store.find(map, second));
+    }
+
+    @Test
+    public void ignoresTruncatedResults() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES);
+        ShapeSignature signature = ShapeSignature.of(zigzag(0));
+        store.put(map, signature, genome(2, 10), 100, ROUTE);
+        Path file = results().get(0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(RESULT_BYTES - 8);
+        }
+        assertEquals(Optional.empty(), new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES).find(map, signature));
+        // a store that read the result before it was cut short drops it when it is used
+        assertEquals(Optional.empty(), store.find(map, signature));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void ignoresResultsOfAnotherVersion() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES);
+        ShapeSignature signature = ShapeSignature.of(zigzag(0));
+        store.put(map, signature, genome(2, 10), 100, ROUTE);
+        try (FileChannel channel = FileChannel.open(results().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, ResultStore.VERSION + 1), 4);
+        }
+        assertEquals(Optional.empty(), new ResultStore(folder.getRoot().toPath(), ResultStore.DEFAULT_MAX_BYTES).find(map, signature));
+    }
+
+    private static Genome genome(double scaleFactor, double x) {
+        return new Genome(scaleFactor, x, -x, 0, 0, 0, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * A zigzag of ten strokes, with the middle corner moved up by the given percentage of its size
+     */
+    private static Path2D zigzag(double bend) {
+        Path2D path = new Path2D.Double();
+        path.moveTo(0, 0);
+        for (int i = 1; i <= 10; i++) {
+            path.lineTo(i * 10, (i % 2) * 20 + (i == 5 ? bend : 0));
+        }
+        return path;
+    }
+
+    private static Path2D square() {
+        Path2D path = new Path2D.Double();
+        path.moveTo(0, 0);
+        path.lineTo(100, 0);
+        path.lineTo(100, 100);
+        path.lineTo(0, 100);
+        path.lineTo(0, 0);
+        return path;
+    }
+
+    private static Path2D line() {
+        Path2D path = new Path2D.Double();
+        path.moveTo(0, 0);
+        path.lineTo(100, 100);
+        return path;
+    }
+
+    private static Path2D scaled(Path2D path, double factor) {
+        Path2D scaled = new Path2D.Double(path);
+        scaled.transform(AffineTransform.getScaleInstance(factor, factor));
+        return scaled;
+    }
+
+    private List<Path> results() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder.getRoot().toPath(), "*" + ResultStore.EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static void age(List<Path> files, long seconds) throws IOException {
+        for (Path file : files) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - seconds * 1000));
+        }
+    }
+}
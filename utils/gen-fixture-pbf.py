@@ -0,0 +1,157 @@
+#!/usr/bin/env python3
+"""
+Generate a small, deterministic OpenStreetMap PBF extract for benchmarks.
+
+The network is a jittered street grid with a few diagonal avenues, placed in
+central London so that it lies inside maps/course_m25_boundary.json. A share
+of the ways are tagged as non-cyclable (footways, buildings), some nodes are
+left unreferenced, and a few bridges cross the grid without sharing a node, so
+that import-time filtering and junction detection have something to do.
+
+Usage: gen-fixture-pbf.py <output.osm.pbf> [columns] [rows]
+"""
+import random
+import struct
+import sys
+import zlib
+
+
+def varint(value):
+    out = bytearray()
+    while True:
+        bits = value & 0x7F
+        value >>= 7
+        if value:
+            out.append(bits | 0x80)
+        else:
+            out.append(bits)
+            return bytes(out)
+
+
+def zigzag(value):
+    return (value << 1) ^ (value >> 63)
+
+
+def field(number, wire_type, payload):
+    key = varint((number << 3) | wire_type)
+    if wire_type == 0:
+        return key + varint(payload)
+    return key + varint(len(payload)) + payload
+
+
+def packed(number, values, signed=False):
+    body = b"".join(varint(zigzag(v) if signed else v) for v in values)
+    return field(number, 2, body)
+
+
+def delta(values):
+    previous = 0
+    for v in values:
+        yield v - previous
+        previous = v
+
+
+def blob(kind, message):
+    compressed = zlib.compress(message)
+    body = field(2, 0, len(message)) + field(3, 2, compressed)
+    header = field(1, 2, kind.encode()) + field(3, 0, len(body))
+    return struct.pack(">i", len(header)) + header + body
+
+
+def main():
+    output = sys.argv[1]
+    columns = int(sys.argv[2]) if len(sys.argv) > 2 else 120
+    rows = int(sys.argv[3]) if len(sys.argv) > 3 else 80
+
+    random.seed(20211015)
+    origin_lon, origin_lat = -0.160, 51.490
+    step_lon, step_lat = 0.0009, 0.0006
+
+    nodes = []
+    grid = {}
+    node_id = 1000
+    for r in range(rows):
+        for c in range(columns):
+            lon = origin_lon + c * step_lon + random.uniform(-0.0002, 0.0002)
+            lat = origin_lat + r * step_lat + random.uniform(-0.00015, 0.00015)
+            grid[(r, c)] = node_id
+            nodes.append((node_id, lat, lon))
+            node_id += 1
+    # points of interest that no way references
+    for _ in range(columns * rows // 10):
+        nodes.append((node_id,
+                      origin_lat + random.uniform(0, rows * step_lat),
+                      origin_lon + random.uniform(0, columns * step_lon)))
+        node_id += 1
+
+    # bridges with nodes of their own, crossing the grid diagonally
+    bridges = []
+    for b in range(0, rows - 1, 20):
+        refs = []
+        for i in range(min(columns, rows - b) - 1):
+            nodes.append((node_id, origin_lat + (b + i + 0.5) * step_lat, origin_lon + (columns - 1 - i - 0.5) * step_lon))
+            refs.append(node_id)
+            node_id += 1
+        bridges.append(refs)
+
+    strings = ["", "highway", "residential", "primary", "cycleway", "footway", "building", "yes", "name", "bridge"]
+    index = {s: i for i, s in enumerate(strings)}
+    ways = []
+    way_id = 1
+    for r in range(rows):
+        kind = "primary" if r % 10 == 0 else "residential"
+        ways.append((way_id, [grid[(r, c)] for c in range(columns)], [("highway", kind)]))
+        way_id += 1
+    for c in range(columns):
+        kind = "footway" if c % 7 == 3 else ("cycleway" if c % 5 == 0 else "residential")
+        ways.append((way_id, [grid[(r, c)] for r in range(rows)], [("highway", kind)]))
+        way_id += 1
+    for d in range(0, columns, 15):
+        refs = [grid[(i, d + i)] for i in range(rows) if d + i < columns]
+        if len(refs) > 1:
+            ways.append((way_id, refs, [("highway", "primary")]))
+            way_id += 1
+    for refs in bridges:
+        if len(refs) > 1:
+            ways.append((way_id, refs, [("highway", "primary"), ("bridge", "yes")]))
+            way_id += 1
+    for b in range(columns * rows // 200):
+        r, c = random.randrange(rows - 1), random.randrange(columns - 1)
+        ring = [grid[(r, c)], grid[(r, c + 1)], grid[(r + 1, c + 1)], grid[(r + 1, c)], grid[(r, c)]]
+        ways.append((way_id, ring, [("building", "yes")]))
+        way_id += 1
+
+    stringtable = field(1, 2, b"".join(field(1, 2, s.encode()) for s in strings))
+
+    out = bytearray()
+    header = field(4, 2, b"OsmSchema-V0.6") + field(4, 2, b"DenseNodes") + field(16, 2, b"TraceRoute fixture")
+    out += blob("OSMHeader", header)
+
+    for start in range(0, len(nodes), 8000):
+        chunk = nodes[start:start + 8000]
+        dense = packed(1, delta([n[0] for n in chunk]), True)
+        dense += packed(8, delta([round(n[1] * 1e7) for n in chunk]), True)
+        dense += packed(9, delta([round(n[2] * 1e7) for n in chunk]), True)
+        dense += packed(10, [0] * len(chunk))
+        group = field(2, 2, dense)
+        block = stringtable + field(2, 2, group) + field(17, 0, 100)
+        out += blob("OSMData", block)
+
+    for start in range(0, len(ways), 500):
+        group = b""
+        for wid, refs, tags in ways[start:start + 500]:
+            way = field(1, 0, wid)
+            way += packed(2, [index[k] for k, _ in tags])
+            way += packed(3, [index[v] for _, v in tags])
+            way += packed(8, delta(refs), True)
+            group += field(3, 2, way)
+        block = stringtable + field(2, 2, group) + field(17, 0, 100)
+        out += blob("OSMData", block)
+
+    with open(output, "wb") as f:
+        f.write(out)
+    print("wrote %d nodes and %d ways to %s" % (len(nodes), len(ways), output))
+
+
+if __name__ == "__main__":
+    main()